@@ -34,10 +34,8 @@ import android.graphics.Canvas;
 import android.graphics.Point;
 import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
-import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.Process;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.Gravity;
@@ -61,29 +59,19 @@ import java.util.Iterator;
 import java.util.List;
 
 /**
- * A simple callback interface which also provides the results of the task.
- */
-interface AsyncTaskCallback {
-    void run(AppsCustomizeAsyncTask task, AsyncTaskPageData data);
-}
-
-/**
- * The data needed to perform either of the custom AsyncTasks.
+ * The data needed to load a page of widget previews.
  */
 class AsyncTaskPageData {
-    enum Type {
-        LoadWidgetPreviewData
-    }
-
-    AsyncTaskPageData(int p, ArrayList<Object> l, int cw, int ch, AsyncTaskCallback bgR,
-            AsyncTaskCallback postR, WidgetPreviewLoader w) {
+    AsyncTaskPageData(int p, ArrayList<Object> l, int cw, int ch, WidgetPreviewLoader w) {
         page = p;
         items = l;
-        generatedImages = new ArrayList<Bitmap>();
+        // One slot per item, as the previews of a page may be loaded in any order
+        generatedImages = new ArrayList<Bitmap>(l.size());
+        for (int i = 0; i < l.size(); i++) {
+            generatedImages.add(null);
+        }
         maxImageWidth = cw;
         maxImageHeight = ch;
-        doInBackgroundCallback = bgR;
-        postExecuteCallback = postR;
         widgetPreviewLoader = w;
     }
     void cleanup(boolean cancelled) {
@@ -91,7 +79,9 @@ class AsyncTaskPageData {
         if (generatedImages != null) {
             if (cancelled) {
                 for (int i = 0; i < generatedImages.size(); i++) {
-                    widgetPreviewLoader.recycleBitmap(items.get(i), generatedImages.get(i));
+                    if (generatedImages.get(i) != null) {
+                        widgetPreviewLoader.recycleBitmap(items.get(i), generatedImages.get(i));
+                    }
                 }
             }
             generatedImages.clear();
@@ -103,48 +93,9 @@ class AsyncTaskPageData {
     ArrayList<Bitmap> generatedImages;
     int maxImageWidth;
     int maxImageHeight;
-    AsyncTaskCallback doInBackgroundCallback;
-    AsyncTaskCallback postExecuteCallback;
     WidgetPreviewLoader widgetPreviewLoader;
 }
 
-/**
- * A generic template for an async task used in AppsCustomize.
- */
-class AppsCustomizeAsyncTask extends AsyncTask<AsyncTaskPageData, Void, AsyncTaskPageData> {
-    AppsCustomizeAsyncTask(int p, AppsCustomizePagedView.ContentType t, AsyncTaskPageData.Type ty) {
-        page = p;
-        pageContentType = t;
-        threadPriority = Process.THREAD_PRIORITY_DEFAULT;
-        dataType = ty;
-    }
-    @Override
-    protected AsyncTaskPageData doInBackground(AsyncTaskPageData... params) {
-        if (params.length != 1) return null;
-        // Load each of the widget previews in the background
-        params[0].doInBackgroundCallback.run(this, params[0]);
-        return params[0];
-    }
-    @Override
-    protected void onPostExecute(AsyncTaskPageData result) {
-        // All the widget previews are loaded, so we can just callback to inflate the page
-        result.postExecuteCallback.run(this, result);
-    }
-
-    void setThreadPriority(int p) {
-        threadPriority = p;
-    }
-    void syncThreadPriority() {
-        Process.setThreadPriority(threadPriority);
-    }
-
-    // The page that this async task is associated with
-    AsyncTaskPageData.Type dataType;
-    int page;
-    AppsCustomizePagedView.ContentType pageContentType;
-    int threadPriority;
-}
-
 /**
  * The Apps/Customize page that displays all the applications, widgets, and shortcuts.
  */
@@ -244,8 +195,9 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
     private TransitionEffect mTransitionEffect = TransitionEffect.Standard;
 
     // Previews & outlines
-    ArrayList<AppsCustomizeAsyncTask> mRunningTasks;
-    private static final int sPageSleepDelay = 200;
+    ArrayList<WidgetPreviewScheduler.PageTask> mRunningTasks;
+    // Shared by all instances, so that its worker threads outlive configuration changes
+    private static final WidgetPreviewScheduler sPreviewScheduler = new WidgetPreviewScheduler();
 
     private Runnable mInflateWidgetRunnable = null;
     private Runnable mBindWidgetRunnable = null;
@@ -282,6 +234,7 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
 
     // Preferences
     private boolean mJoinWidgetsApps;
+    private boolean mPackIcons;
     private boolean mFadeScrollingIndicator;
     private int mScrollingIndicatorPosition;
 
@@ -305,7 +258,7 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
         mWidgets = new ArrayList<Object>();
         mIconCache = ((LauncherApplication) context.getApplicationContext()).getIconCache();
         mCanvas = new Canvas();
-        mRunningTasks = new ArrayList<AppsCustomizeAsyncTask>();
+        mRunningTasks = new ArrayList<WidgetPreviewScheduler.PageTask>();
 
         mHandleFadeInAdjacentScreens = true;
 
@@ -315,6 +268,7 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
 
         // Preferences
         mJoinWidgetsApps = PreferencesProvider.Interface.Drawer.getJoinWidgetsApps();
+        mPackIcons = PreferencesProvider.Interface.Drawer.getPackIcons();
         mTransitionEffect = PreferencesProvider.Interface.Drawer.Scrolling.getTransitionEffect(
                 resources.getString(R.string.config_drawerDefaultTransitionEffect));
         mFadeInAdjacentScreens = PreferencesProvider.Interface.Drawer.Scrolling.getFadeInAdjacentScreens();
@@ -853,7 +807,6 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
 
         // Compose the drag image
         Bitmap preview;
-        Bitmap outline;
         float scale = 1f;
         Point previewPadding = null;
 
@@ -915,17 +868,12 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
         boolean clipAlpha = !(createItemInfo instanceof PendingAddWidgetInfo &&
                 (((PendingAddWidgetInfo) createItemInfo).previewImage == 0));
 
-        // Save the preview for the outline generation, then dim the preview
-        outline = Bitmap.createScaledBitmap(preview, preview.getWidth(), preview.getHeight(),
-                false);
-
-        // Start the drag
+        // Start the drag; the outline is generated from the preview without changing it, and
+        // the drag view then shows the preview as it is
         mLauncher.lockScreenOrientation();
-        mLauncher.getWorkspace().onDragStartedWithItem(createItemInfo, outline, clipAlpha);
+        mLauncher.getWorkspace().onDragStartedWithItem(createItemInfo, preview, clipAlpha);
         mDragController.startDrag(image, preview, this, createItemInfo,
                 DragController.DRAG_ACTION_COPY, previewPadding, scale);
-        outline.recycle();
-        preview.recycle();
         return true;
     }
 
@@ -1075,24 +1023,45 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
     }
 
     private void cancelAllTasks() {
-        // Clean up all the async tasks
-        Iterator<AppsCustomizeAsyncTask> iter = mRunningTasks.iterator();
+        // Clean up all the preview tasks
+        Iterator<WidgetPreviewScheduler.PageTask> iter = mRunningTasks.iterator();
         while (iter.hasNext()) {
-            AppsCustomizeAsyncTask task = iter.next();
-            task.cancel(false);
+            WidgetPreviewScheduler.PageTask task = iter.next();
             iter.remove();
-            mDirtyPageContent.set(task.page, true);
-
-            // We've already preallocated the views for the data to load into, so clear them as well
-            View v = getPageAt(task.page);
-            if (v instanceof PagedViewGridLayout) {
-                ((PagedViewGridLayout) v).removeAllViewsOnPage();
-            }
+            cancelTask(task);
         }
         mDeferredSyncWidgetPageItems.clear();
         mDeferredPrepareLoadWidgetPreviewsTasks.clear();
     }
 
+    private void cancelTask(WidgetPreviewScheduler.PageTask task) {
+        sPreviewScheduler.cancel(task);
+        mDirtyPageContent.set(task.page, true);
+
+        // We've already preallocated the views for the data to load into, so clear them as well
+        View v = getPageAt(task.page);
+        if (v instanceof PagedViewGridLayout) {
+            ((PagedViewGridLayout) v).removeAllViewsOnPage();
+        }
+    }
+
+    /**
+     * Cancels the preview tasks of the pages that won't be kept loaded around the given page,
+     * so that flinging past pages doesn't leave them competing with the page the user ends up
+     * on.
+     */
+    private void cancelTasksOutsideOfPage(int page) {
+        Iterator<WidgetPreviewScheduler.PageTask> iter = mRunningTasks.iterator();
+        while (iter.hasNext()) {
+            WidgetPreviewScheduler.PageTask task = iter.next();
+            if (task.page < getAssociatedLowerPageBound(page) ||
+                    task.page > getAssociatedUpperPageBound(page)) {
+                iter.remove();
+                cancelTask(task);
+            }
+        }
+    }
+
     public void setContentType(ContentType type) {
         if (mJoinWidgetsApps) {
             if (type == ContentType.Widgets) {
@@ -1110,18 +1079,11 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
         super.snapToPage(whichPage, delta, duration);
         if (mJoinWidgetsApps) {
             updateCurrentTab(whichPage);
-
-            // Update the thread priorities given the direction lookahead
-            for (AppsCustomizeAsyncTask task : mRunningTasks) {
-                int pageIndex = task.page;
-                if ((mNextPage > mCurrentPage && pageIndex >= mCurrentPage) ||
-                        (mNextPage < mCurrentPage && pageIndex <= mCurrentPage)) {
-                    task.setThreadPriority(getThreadPriorityForPage(pageIndex));
-                } else {
-                    task.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
-                }
-            }
         }
+
+        // Serve the page we are snapping to first, and drop the pages we are flinging past
+        sPreviewScheduler.setTargetPage(whichPage);
+        cancelTasksOutsideOfPage(whichPage);
     }
 
     private void updateCurrentTab(int currentPage) {
@@ -1196,11 +1158,19 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
         PagedViewCellLayout layout = (PagedViewCellLayout) getPageAt(page);
 
         layout.removeAllViewsOnPage();
+        IconAtlas atlas = null;
+        if (mPackIcons) {
+            ArrayList<Bitmap> icons = new ArrayList<Bitmap>(endIndex - startIndex);
+            for (int i = startIndex; i < endIndex; ++i) {
+                icons.add(mFilteredApps.get(i).iconBitmap);
+            }
+            atlas = IconAtlas.pack(icons);
+        }
         for (int i = startIndex; i < endIndex; ++i) {
             ApplicationInfo info = mFilteredApps.get(i);
             PagedViewIcon icon = (PagedViewIcon) mLayoutInflater.inflate(
                     R.layout.apps_customize_application, layout, false);
-            icon.applyFromApplicationInfo(info, true, this);
+            icon.applyFromApplicationInfo(info, true, atlas, this);
             icon.setOnClickListener(this);
             icon.setOnLongClickListener(this);
             icon.setOnTouchListener(this);
@@ -1216,106 +1186,30 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
     }
 
     /**
-     * A helper to return the priority for loading of the specified widget page.
-     */
-    private int getWidgetPageLoadPriority(int page) {
-        // If we are snapping to another page, use that index as the target page index
-        int toPage = mCurrentPage;
-        if (mNextPage > -1) {
-            toPage = mNextPage;
-        }
-
-        // We use the distance from the target page as an initial guess of priority, but if there
-        // are no pages of higher priority than the page specified, then bump up the priority of
-        // the specified page.
-        Iterator<AppsCustomizeAsyncTask> iter = mRunningTasks.iterator();
-        int minPageDiff = Integer.MAX_VALUE;
-        while (iter.hasNext()) {
-            AppsCustomizeAsyncTask task = iter.next();
-            minPageDiff = Math.abs(task.page - toPage);
-        }
-
-        int rawPageDiff = Math.abs(page - toPage);
-        return rawPageDiff - Math.min(rawPageDiff, minPageDiff);
-    }
-    /**
-     * Return the appropriate thread priority for loading for a given page (we give the current
-     * page much higher priority)
-     */
-    private int getThreadPriorityForPage(int page) {
-        // TODO-APPS_CUSTOMIZE: detect number of cores and set thread priorities accordingly below
-        int pageDiff = getWidgetPageLoadPriority(page);
-        if (pageDiff <= 0) {
-            return Process.THREAD_PRIORITY_LESS_FAVORABLE;
-        } else if (pageDiff <= 1) {
-            return Process.THREAD_PRIORITY_LOWEST;
-        } else {
-            return Process.THREAD_PRIORITY_LOWEST;
-        }
-    }
-    private int getSleepForPage(int page) {
-        int pageDiff = getWidgetPageLoadPriority(page);
-        return Math.max(0, pageDiff * sPageSleepDelay);
-    }
-    /**
-     * Creates and executes a new AsyncTask to load a page of widget previews.
+     * Queues loading a page of widget previews on the preview scheduler.
      */
     private void prepareLoadWidgetPreviewsTask(int page, ArrayList<Object> widgets,
             int cellWidth, int cellHeight) {
 
         // Prune all tasks that are no longer needed
-        Iterator<AppsCustomizeAsyncTask> iter = mRunningTasks.iterator();
-        while (iter.hasNext()) {
-            AppsCustomizeAsyncTask task = iter.next();
-            int taskPage = task.page;
-            if (taskPage < getAssociatedLowerPageBound(mCurrentPage) ||
-                    taskPage > getAssociatedUpperPageBound(mCurrentPage)) {
-                task.cancel(false);
-                iter.remove();
-            } else {
-                task.setThreadPriority(getThreadPriorityForPage(taskPage));
-            }
-        }
+        cancelTasksOutsideOfPage(mCurrentPage);
 
-        // We introduce a slight delay to order the loading of side pages so that we don't thrash
-        final int sleepMs = getSleepForPage(page);
         AsyncTaskPageData pageData = new AsyncTaskPageData(page, widgets, cellWidth, cellHeight,
-            new AsyncTaskCallback() {
-                @Override
-                public void run(AppsCustomizeAsyncTask task, AsyncTaskPageData data) {
-                    try {
-                        try {
-                            Thread.sleep(sleepMs);
-                        } catch (Exception e) {
-                            // Ignore
-                        }
-                        loadWidgetPreviewsInBackground(task, data);
-                    } finally {
-                        if (task.isCancelled()) {
-                            data.cleanup(true);
+                mWidgetPreviewLoader);
+        sPreviewScheduler.setTargetPage(mNextPage > -1 ? mNextPage : mCurrentPage);
+        WidgetPreviewScheduler.PageTask t = sPreviewScheduler.schedule(page, mContentType,
+                pageData, new WidgetPreviewScheduler.Callback() {
+                    @Override
+                    public void onPageLoaded(WidgetPreviewScheduler.PageTask task) {
+                        mRunningTasks.remove(task);
+                        if (!mJoinWidgetsApps) {
+                            if (task.page > getPageCount()) return;
+                            if (task.pageContentType != mContentType) return;
                         }
+                        // do cleanup inside onSyncWidgetPageItems
+                        onSyncWidgetPageItems(task.data);
                     }
-                }
-            },
-            new AsyncTaskCallback() {
-                @Override
-                public void run(AppsCustomizeAsyncTask task, AsyncTaskPageData data) {
-                    mRunningTasks.remove(task);
-                    if (task.isCancelled()) return;
-                    if (!mJoinWidgetsApps) {
-                        if (task.page > getPageCount()) return;
-                        if (task.pageContentType != mContentType) return;
-                    }
-                    // do cleanup inside onSyncWidgetPageItems
-                    onSyncWidgetPageItems(data);
-                }
-            }, mWidgetPreviewLoader);
-
-        // Ensure that the task is appropriately prioritized and runs in parallel
-        AppsCustomizeAsyncTask t = new AppsCustomizeAsyncTask(page, mContentType,
-                AsyncTaskPageData.Type.LoadWidgetPreviewData);
-        t.setThreadPriority(getThreadPriorityForPage(page));
-        t.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, pageData);
+                });
         mRunningTasks.add(t);
     }
 
@@ -1441,8 +1335,8 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
                         maxPreviewWidth, maxPreviewHeight, mWidgetSpacingLayout);
                 if (immediate) {
                     AsyncTaskPageData data = new AsyncTaskPageData(page, items,
-                            maxPreviewWidth, maxPreviewHeight, null, null, mWidgetPreviewLoader);
-                    loadWidgetPreviewsInBackground(null, data);
+                            maxPreviewWidth, maxPreviewHeight, mWidgetPreviewLoader);
+                    loadWidgetPreviews(data);
                     onSyncWidgetPageItems(data);
                 } else {
                     if (mInTransition) {
@@ -1456,30 +1350,14 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
             }
         });
     }
-    private void loadWidgetPreviewsInBackground(AppsCustomizeAsyncTask task,
-            AsyncTaskPageData data) {
-        // loadWidgetPreviewsInBackground can be called without a task to load a set of widget
-        // previews synchronously
-        if (task != null) {
-            // Ensure that this task starts running at the correct priority
-            task.syncThreadPriority();
-        }
-
-        // Load each of the widget/shortcut previews
-        ArrayList<Object> items = data.items;
-        ArrayList<Bitmap> images = data.generatedImages;
-        int count = items.size();
-        for (int i = 0; i < count; ++i) {
-            if (task != null) {
-                // Ensure we haven't been cancelled yet
-                if (task.isCancelled()) break;
-                // Before work on each item, ensure that this task is running at the correct
-                // priority
-                task.syncThreadPriority();
-            }
-
-            images.add(mWidgetPreviewLoader.getPreview(items.get(i)));
-        }
+    /**
+     * Loads a set of widget previews synchronously; pages loaded in the background go through
+     * sPreviewScheduler instead.
+     */
+    private void loadWidgetPreviews(AsyncTaskPageData data) {
+        // Load all of the widget/shortcut previews at once
+        data.generatedImages.clear();
+        data.generatedImages.addAll(mWidgetPreviewLoader.getPreviews(data.items));
     }
 
     private void onSyncWidgetPageItems(AsyncTaskPageData data) {
@@ -1502,12 +1380,6 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
             }
 
             enableHwLayersOnVisiblePages();
-
-            // Update all thread priorities
-            for (AppsCustomizeAsyncTask task : mRunningTasks) {
-                int pageIndex = task.page;
-                task.setThreadPriority(getThreadPriorityForPage(pageIndex));
-            }
         } finally {
             data.cleanup(false);
         }
@@ -2276,6 +2148,9 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
         // TODO: Dump information related to current list of Applications, Widgets, etc.
         ApplicationInfo.dumpApplicationInfoList(TAG, "mApps", mApps);
         dumpAppWidgetProviderInfoList(TAG, "mWidgets", mWidgets);
+        if (mWidgetPreviewLoader != null) {
+            mWidgetPreviewLoader.dumpState();
+        }
     }
 
     private void dumpAppWidgetProviderInfoList(String tag, String label,
@@ -2323,7 +2198,7 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
 
     /*
      * We load an extra page on each side to prevent flashes from scrolling and loading of the
-     * widget previews in the background with the AsyncTasks.
+     * widget previews in the background on sPreviewScheduler.
      */
     final static int sLookBehindPageCount = 3;
     final static int sLookAheadPageCount = 3;
@@ -63,6 +63,10 @@ public class BubbleTextView extends TextView implements ShortcutInfo.ShortcutLis
     private boolean mTextVisible = true;
     private CharSequence mVisibleText;
 
+    // Whether the icon drawable is still an empty placeholder for an undecoded icon, that
+    // nobody has started decoding yet
+    private boolean mIconPending;
+
     public BubbleTextView(Context context) {
         super(context);
         init();
@@ -90,10 +94,20 @@ public class BubbleTextView extends TextView implements ShortcutInfo.ShortcutLis
     }
 
     public void applyFromShortcutInfo(ShortcutInfo info, IconCache iconCache) {
-        Bitmap b = info.getIcon(iconCache);
+        final FastBitmapDrawable icon;
+        if (info.isIconPending()) {
+            // Leave the icon undecoded until this is first drawn, so that shortcuts on pages
+            // that are never visited don't cost any bitmap memory; see decodePendingIcon
+            final int iconSize = (int) getResources().getDimension(R.dimen.app_icon_size);
+            icon = new FastBitmapDrawable(iconSize, iconSize);
+            mIconPending = true;
+        } else {
+            icon = new FastBitmapDrawable(info.getIcon(iconCache));
+            mIconPending = false;
+        }
 
         setCompoundDrawablesWithIntrinsicBounds(null,
-                new FastBitmapDrawable(b),
+                icon,
                 null, null);
         setText(info.title);
         setTag(info);
@@ -172,9 +186,23 @@ public class BubbleTextView extends TextView implements ShortcutInfo.ShortcutLis
 
     @Override
     public void onIconChanged(ShortcutInfo item) {
-        setCompoundDrawablesWithIntrinsicBounds(null,
-                new FastBitmapDrawable(item.getIcon(null)),
-                null, null);
+        // This may have been bound to another item since
+        if (getTag() != item) {
+            return;
+        }
+        mIconPending = false;
+        final Bitmap b = item.getIcon(null);
+        final Drawable icon = getCompoundDrawables()[1];
+        if (icon instanceof FastBitmapDrawable && icon.getIntrinsicWidth() == b.getWidth() &&
+                icon.getIntrinsicHeight() == b.getHeight()) {
+            // Same size, e.g. as the placeholder of a pending icon, so no need to lay out again
+            ((FastBitmapDrawable) icon).setBitmap(b);
+            invalidate();
+        } else {
+            setCompoundDrawablesWithIntrinsicBounds(null,
+                    new FastBitmapDrawable(b),
+                    null, null);
+        }
     }
 
     /**
@@ -204,10 +232,20 @@ public class BubbleTextView extends TextView implements ShortcutInfo.ShortcutLis
     }
 
     /**
-     * Returns a new bitmap to be used as the object outline, e.g. to visualize the drop location.
-     * Responsibility for the bitmap is transferred to the caller.
+     * Returns a bitmap to be used as the object outline, e.g. to visualize the drop location.
+     * The bitmap may be shared with other icons through the GlowOutlineCache, so it must not be
+     * modified or recycled.
      */
     private Bitmap createGlowingOutline(Canvas canvas, int outlineColor, int glowColor) {
+        final GlowOutlineCache.Key key = getGlowOutlineKey(outlineColor, glowColor);
+        final GlowOutlineCache cache = GlowOutlineCache.getInstance(getContext());
+        if (key != null) {
+            final Bitmap cached = cache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
         final int padding = HolographicOutlineHelper.MAX_OUTER_BLUR_RADIUS;
         final Bitmap b = Bitmap.createBitmap(
                 getWidth() + padding, getHeight() + padding, Bitmap.Config.ARGB_8888);
@@ -217,9 +255,30 @@ public class BubbleTextView extends TextView implements ShortcutInfo.ShortcutLis
         mOutlineHelper.applyExtraThickExpensiveOutlineWithBlur(b, canvas, glowColor, outlineColor);
         canvas.setBitmap(null);
 
+        if (key != null) {
+            cache.put(key, b);
+        }
         return b;
     }
 
+    /**
+     * Returns the key of the outline of this icon in the GlowOutlineCache, or null if the
+     * outline can't be shared, e.g. because the icon isn't decoded yet or is being scaled.
+     */
+    private GlowOutlineCache.Key getGlowOutlineKey(int outlineColor, int glowColor) {
+        final Drawable icon = getCompoundDrawables()[1];
+        if (mIconPending || !(icon instanceof FastBitmapDrawable) ||
+                getScaleX() != 1f || getScaleY() != 1f) {
+            return null;
+        }
+        final Bitmap iconBitmap = ((FastBitmapDrawable) icon).getBitmap();
+        if (iconBitmap == null) {
+            return null;
+        }
+        return new GlowOutlineCache.Key(iconBitmap, getWidth(), getHeight(), glowColor,
+                outlineColor);
+    }
+
     @Override
     public boolean onTouchEvent(MotionEvent event) {
         // Call the superclass onTouchEvent first, because sometimes it changes the state to
@@ -293,6 +352,10 @@ public class BubbleTextView extends TextView implements ShortcutInfo.ShortcutLis
 
     @Override
     public void draw(Canvas canvas) {
+        if (mIconPending) {
+            decodePendingIcon();
+        }
+
         final Drawable background = mBackground;
         if (background != null) {
             final int scrollX = getScrollX();
@@ -331,6 +394,19 @@ public class BubbleTextView extends TextView implements ShortcutInfo.ShortcutLis
         canvas.restore();
     }
 
+    /**
+     * Decodes the pending icon in the background; onIconChanged puts it up in place of the
+     * placeholder once it is ready.  Decoding here, while drawing, would make scrolling to a
+     * page stutter.
+     */
+    private void decodePendingIcon() {
+        mIconPending = false;
+        final Object tag = getTag();
+        if (tag instanceof ShortcutInfo) {
+            ((ShortcutInfo) tag).decodeIconAsync(null);
+        }
+    }
+
     @Override
     protected void onAttachedToWindow() {
         super.onAttachedToWindow();
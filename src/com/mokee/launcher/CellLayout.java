@@ -49,13 +49,11 @@ import android.view.animation.DecelerateInterpolator;
 import android.view.animation.LayoutAnimationController;
 
 import com.mokee.launcher.FolderIcon.FolderRingAnimator;
+import com.mokee.launcher.ReorderSolver.ItemConfiguration;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Stack;
 
 public class CellLayout extends ViewGroup {
     private static final String TAG = "MoKeeLauncher.CellLayout";
@@ -85,9 +83,14 @@ public class CellLayout extends ViewGroup {
     private final int[] mTmpXY = new int[2];
     private final int[] mTmpPoint = new int[2];
     int[] mTempLocation = new int[2];
-
-    boolean[][] mOccupied;
-    boolean[][] mTmpOccupied;
+    private final int[] mTmpCell = new int[2];
+    private final Rect mTmpRegion = new Rect();
+    private final Rect mTmpChildRegion = new Rect();
+    private final Rect mTmpDropRegion = new Rect();
+
+    OccupancyGrid mOccupied;
+    OccupancyGrid mTmpOccupied;
+    private ReorderSolver mReorderSolver;
     private boolean mLastDownOnOccupiedCell = false;
 
     private OnTouchListener mInterceptTouchListener;
@@ -157,10 +160,21 @@ public class CellLayout extends ViewGroup {
     private float mReorderHintAnimationMagnitude;
 
     private ArrayList<View> mIntersectingViews = new ArrayList<View>();
-    private Rect mOccupiedRect = new Rect();
     private int[] mDirectionVector = new int[2];
     int[] mPreviousReorderDirection = new int[2];
     private static final int INVALID_DIRECTION = -100;
+
+    // The MODE_DRAG_OVER solutions of createArea found lately, reused while the drag hovers
+    // over the same cell in the same direction. Changing the layout bumps its generation,
+    // which all the cached solutions were found in.
+    private static final int REORDER_SOLUTION_CACHE_SIZE = 4;
+    private final CachedReorderSolution[] mReorderSolutionCache =
+            new CachedReorderSolution[REORDER_SOLUTION_CACHE_SIZE];
+    private int mNextReorderSolution;
+    private int mLayoutGeneration;
+    // What the solutions of the other modes are solved into
+    private final ItemConfiguration mSwapSolution = new ItemConfiguration();
+    private final ItemConfiguration mNoShuffleSolution = new ItemConfiguration();
     private DropTarget.DragEnforcer mDragEnforcer;
 
     private final static PorterDuffXfermode sAddBlendMode =
@@ -194,10 +208,14 @@ public class CellLayout extends ViewGroup {
         mMaxGap = a.getDimensionPixelSize(R.styleable.CellLayout_maxGap, 0);
         mCountX = LauncherModel.getWorkspaceCellCountX();
         mCountY = LauncherModel.getWorkspaceCellCountY();
-        mOccupied = new boolean[mCountX][mCountY];
-        mTmpOccupied = new boolean[mCountX][mCountY];
+        mOccupied = new OccupancyGrid(mCountX, mCountY);
+        mTmpOccupied = new OccupancyGrid(mCountX, mCountY);
+        mReorderSolver = new ReorderSolver(mOccupied, mTmpOccupied);
         mPreviousReorderDirection[0] = INVALID_DIRECTION;
         mPreviousReorderDirection[1] = INVALID_DIRECTION;
+        for (int i = 0; i < REORDER_SOLUTION_CACHE_SIZE; i++) {
+            mReorderSolutionCache[i] = new CachedReorderSolution();
+        }
 
         a.recycle();
 
@@ -338,9 +356,10 @@ public class CellLayout extends ViewGroup {
     public void setGridSize(int x, int y) {
         mCountX = x;
         mCountY = y;
-        mOccupied = new boolean[mCountX][mCountY];
-        mTmpOccupied = new boolean[mCountX][mCountY];
-        mTempRectStack.clear();
+        mOccupied = new OccupancyGrid(mCountX, mCountY);
+        mTmpOccupied = new OccupancyGrid(mCountX, mCountY);
+        mReorderSolver = new ReorderSolver(mOccupied, mTmpOccupied);
+        mLayoutGeneration++;
 
         // Reset scaling if the grid has been modified. This is a folder or the hotseat
         mCellWidth = mOriginalCellWidth;
@@ -356,6 +375,7 @@ public class CellLayout extends ViewGroup {
         mWidthGap = widthGap;
         mHeightGap = heightGap;
         mShortcutsAndWidgets.setCellDimensions(mCellWidth, mCellHeight, mWidthGap, mHeightGap);
+        mLayoutGeneration++;
         requestLayout();
     }
 
@@ -493,7 +513,7 @@ public class CellLayout extends ViewGroup {
             cd.setBounds(0, 0,  mCellWidth, mCellHeight);
             for (int i = 0; i < mCountX; i++) {
                 for (int j = 0; j < mCountY; j++) {
-                    if (mOccupied[i][j]) {
+                    if (mOccupied.isOccupied(i, j)) {
                         cellToPoint(i, j, pt);
                         canvas.save();
                         canvas.translate(pt[0], pt[1]);
@@ -648,6 +668,7 @@ public class CellLayout extends ViewGroup {
             child.setId(childId);
 
             mShortcutsAndWidgets.addView(child, index, lp);
+            mLayoutGeneration++;
 
             if (markCells) markCellsAsOccupiedForView(child);
 
@@ -672,6 +693,7 @@ public class CellLayout extends ViewGroup {
 
     public void removeViewWithoutMarkingCells(View view) {
         mShortcutsAndWidgets.removeView(view);
+        mLayoutGeneration++;
     }
 
     @Override
@@ -898,8 +920,9 @@ public class CellLayout extends ViewGroup {
 
     public float getDistanceFromCell(float x, float y, int[] cell) {
         cellToCenterPoint(cell[0], cell[1], mTmpPoint);
-        return (float) Math.sqrt( Math.pow(x - mTmpPoint[0], 2) +
-                Math.pow(y - mTmpPoint[1], 2));
+        final float deltaX = x - mTmpPoint[0];
+        final float deltaY = y - mTmpPoint[1];
+        return (float) Math.sqrt(deltaX * deltaX + deltaY * deltaY);
     }
 
     void setCellGaps(int widthGap, int heightGap) {
@@ -996,6 +1019,8 @@ public class CellLayout extends ViewGroup {
 
         int numWidthGaps = mCountX - 1;
         int numHeightGaps = mCountY - 1;
+        int oldWidthGap = mWidthGap;
+        int oldHeightGap = mHeightGap;
 
         if (mOriginalWidthGap < 0 || mOriginalHeightGap < 0) {
             int hSpace = widthSpecSize - getPaddingLeft() - getPaddingRight();
@@ -1009,6 +1034,9 @@ public class CellLayout extends ViewGroup {
             mWidthGap = mOriginalWidthGap;
             mHeightGap = mOriginalHeightGap;
         }
+        if (mWidthGap != oldWidthGap || mHeightGap != oldHeightGap) {
+            mLayoutGeneration++;
+        }
 
 
         // Initial values correspond to widthSpecMode == MeasureSpec.EXACTLY
@@ -1105,7 +1133,7 @@ public class CellLayout extends ViewGroup {
     public boolean animateChildToPosition(final View child, int cellX, int cellY, int duration,
             int delay, boolean permanent, boolean adjustOccupied) {
         ShortcutAndWidgetContainer clc = getShortcutsAndWidgets();
-        boolean[][] occupied = mOccupied;
+        OccupancyGrid occupied = mOccupied;
         if (!permanent) {
             occupied = mTmpOccupied;
         }
@@ -1123,8 +1151,8 @@ public class CellLayout extends ViewGroup {
             final int oldX = lp.x;
             final int oldY = lp.y;
             if (adjustOccupied) {
-                occupied[lp.cellX][lp.cellY] = false;
-                occupied[cellX][cellY] = true;
+                occupied.setOccupied(lp.cellX, lp.cellY, false);
+                occupied.setOccupied(cellX, cellY, true);
             }
             lp.isLockedToGrid = true;
             if (permanent) {
@@ -1227,7 +1255,9 @@ public class CellLayout extends ViewGroup {
             mDragCenter.set(originX, originY);
         }
 
-        if (dragOutline == null && v == null) {
+        // There is no outline to show yet while it is being rendered, see
+        // Workspace.beginDragShared
+        if (dragOutline == null) {
             return;
         }
 
@@ -1349,21 +1379,6 @@ public class CellLayout extends ViewGroup {
                 spanX, spanY, ignoreView, ignoreOccupied, result, null, mOccupied);
     }
 
-    private final Stack<Rect> mTempRectStack = new Stack<Rect>();
-    private void lazyInitTempRectStack() {
-        if (mTempRectStack.isEmpty()) {
-            for (int i = 0; i < mCountX * mCountY; i++) {
-                mTempRectStack.push(new Rect());
-            }
-        }
-    }
-
-    private void recycleTempRects(Stack<Rect> used) {
-        while (!used.isEmpty()) {
-            mTempRectStack.push(used.pop());
-        }
-    }
-
     /**
      * Find a vacant area that will fit the given bounds nearest the requested
      * cell location. Uses Euclidean distance to score multiple vacant areas.
@@ -1382,854 +1397,53 @@ public class CellLayout extends ViewGroup {
      */
     int[] findNearestArea(int pixelX, int pixelY, int minSpanX, int minSpanY, int spanX, int spanY,
             View ignoreView, boolean ignoreOccupied, int[] result, int[] resultSpan,
-            boolean[][] occupied) {
-        lazyInitTempRectStack();
+            OccupancyGrid occupied) {
         // mark space take by ignoreView as available (method checks if ignoreView is null)
         markCellsAsUnoccupiedForView(ignoreView, occupied);
-
-        // For items with a spanX / spanY > 1, the passed in point (pixelX, pixelY) corresponds
-        // to the center of the item, but we are searching based on the top-left cell, so
-        // we translate the point over to correspond to the top-left.
-        pixelX -= (mCellWidth + mWidthGap) * (spanX - 1) / 2f;
-        pixelY -= (mCellHeight + mHeightGap) * (spanY - 1) / 2f;
-
-        // Keep track of best-scoring drop area
-        final int[] bestXY = result != null ? result : new int[2];
-        double bestDistance = Double.MAX_VALUE;
-        final Rect bestRect = new Rect(-1, -1, -1, -1);
-        final Stack<Rect> validRegions = new Stack<Rect>();
-
-        final int countX = mCountX;
-        final int countY = mCountY;
-
-        if (minSpanX <= 0 || minSpanY <= 0 || spanX <= 0 || spanY <= 0 ||
-                spanX < minSpanX || spanY < minSpanY) {
-            return bestXY;
-        }
-
-        for (int y = 0; y < countY - (minSpanY - 1); y++) {
-            inner:
-            for (int x = 0; x < countX - (minSpanX - 1); x++) {
-                int ySize = -1;
-                int xSize = -1;
-                if (ignoreOccupied) {
-                    // First, let's see if this thing fits anywhere
-                    for (int i = 0; i < minSpanX; i++) {
-                        for (int j = 0; j < minSpanY; j++) {
-                            if (occupied[x + i][y + j]) {
-                                continue inner;
-                            }
-                        }
-                    }
-                    xSize = minSpanX;
-                    ySize = minSpanY;
-
-                    // We know that the item will fit at _some_ acceptable size, now let's see
-                    // how big we can make it. We'll alternate between incrementing x and y spans
-                    // until we hit a limit.
-                    boolean incX = true;
-                    boolean hitMaxX = xSize >= spanX;
-                    boolean hitMaxY = ySize >= spanY;
-                    while (!(hitMaxX && hitMaxY)) {
-                        if (incX && !hitMaxX) {
-                            for (int j = 0; j < ySize; j++) {
-                                if (x + xSize > countX -1 || occupied[x + xSize][y + j]) {
-                                    // We can't move out horizontally
-                                    hitMaxX = true;
-                                }
-                            }
-                            if (!hitMaxX) {
-                                xSize++;
-                            }
-                        } else if (!hitMaxY) {
-                            for (int i = 0; i < xSize; i++) {
-                                if (y + ySize > countY - 1 || occupied[x + i][y + ySize]) {
-                                    // We can't move out vertically
-                                    hitMaxY = true;
-                                }
-                            }
-                            if (!hitMaxY) {
-                                ySize++;
-                            }
-                        }
-                        hitMaxX |= xSize >= spanX;
-                        hitMaxY |= ySize >= spanY;
-                        incX = !incX;
-                    }
-                }
-                final int[] cellXY = mTmpXY;
-                cellToCenterPoint(x, y, cellXY);
-
-                // We verify that the current rect is not a sub-rect of any of our previous
-                // candidates. In this case, the current rect is disqualified in favour of the
-                // containing rect.
-                Rect currentRect = mTempRectStack.pop();
-                currentRect.set(x, y, x + xSize, y + ySize);
-                boolean contained = false;
-                for (Rect r : validRegions) {
-                    if (r.contains(currentRect)) {
-                        contained = true;
-                        break;
-                    }
-                }
-                validRegions.push(currentRect);
-                double distance = Math.sqrt(Math.pow(cellXY[0] - pixelX, 2)
-                        + Math.pow(cellXY[1] - pixelY, 2));
-
-                if ((distance <= bestDistance && !contained) ||
-                        currentRect.contains(bestRect)) {
-                    bestDistance = distance;
-                    bestXY[0] = x;
-                    bestXY[1] = y;
-                    if (resultSpan != null) {
-                        resultSpan[0] = xSize;
-                        resultSpan[1] = ySize;
-                    }
-                    bestRect.set(currentRect);
-                }
-            }
-        }
-        // re-mark space taken by ignoreView as occupied
+        mReorderSolver.setCellGeometry(getPaddingLeft(), getPaddingTop(), mCellWidth,
+                mCellHeight, mWidthGap, mHeightGap);
+        result = mReorderSolver.findNearestArea(pixelX, pixelY, minSpanX, minSpanY, spanX, spanY,
+                ignoreOccupied, result, resultSpan, occupied);
         markCellsAsOccupiedForView(ignoreView, occupied);
-
-        // Return -1, -1 if no suitable location found
-        if (bestDistance == Double.MAX_VALUE) {
-            bestXY[0] = -1;
-            bestXY[1] = -1;
-        }
-        recycleTempRects(validRegions);
-        return bestXY;
-    }
-
-     /**
-     * Find a vacant area that will fit the given bounds nearest the requested
-     * cell location, and will also weigh in a suggested direction vector of the
-     * desired location. This method computers distance based on unit grid distances,
-     * not pixel distances.
-     *
-     * @param cellX The X cell nearest to which you want to search for a vacant area.
-     * @param cellY The Y cell nearest which you want to search for a vacant area.
-     * @param spanX Horizontal span of the object.
-     * @param spanY Vertical span of the object.
-     * @param direction The favored direction in which the views should move from x, y
-     * @param exactDirectionOnly If this parameter is true, then only solutions where the direction
-     *        matches exactly. Otherwise we find the best matching direction.
-     * @param occoupied The array which represents which cells in the CellLayout are occupied
-     * @param blockOccupied The array which represents which cells in the specified block (cellX,
-     *        cellY, spanX, spanY) are occupied. This is used when try to move a group of views. 
-     * @param result Array in which to place the result, or null (in which case a new array will
-     *        be allocated)
-     * @return The X, Y cell of a vacant area that can contain this object,
-     *         nearest the requested location.
-     */
-    private int[] findNearestArea(int cellX, int cellY, int spanX, int spanY, int[] direction,
-            boolean[][] occupied, boolean blockOccupied[][], int[] result) {
-        // Keep track of best-scoring drop area
-        final int[] bestXY = result != null ? result : new int[2];
-        float bestDistance = Float.MAX_VALUE;
-        int bestDirectionScore = Integer.MIN_VALUE;
-
-        final int countX = mCountX;
-        final int countY = mCountY;
-
-        for (int y = 0; y < countY - (spanY - 1); y++) {
-            inner:
-            for (int x = 0; x < countX - (spanX - 1); x++) {
-                // First, let's see if this thing fits anywhere
-                for (int i = 0; i < spanX; i++) {
-                    for (int j = 0; j < spanY; j++) {
-                        if (occupied[x + i][y + j] && (blockOccupied == null || blockOccupied[i][j])) {
-                            continue inner;
-                        }
-                    }
-                }
-
-                float distance = (float)
-                        Math.sqrt((x - cellX) * (x - cellX) + (y - cellY) * (y - cellY));
-                int[] curDirection = mTmpPoint;
-                computeDirectionVector(x - cellX, y - cellY, curDirection);
-                // The direction score is just the dot product of the two candidate direction
-                // and that passed in.
-                int curDirectionScore = direction[0] * curDirection[0] +
-                        direction[1] * curDirection[1];
-                boolean exactDirectionOnly = false;
-                boolean directionMatches = direction[0] == curDirection[0] &&
-                        direction[0] == curDirection[0];
-                if ((directionMatches || !exactDirectionOnly) &&
-                        Float.compare(distance,  bestDistance) < 0 || (Float.compare(distance,
-                        bestDistance) == 0 && curDirectionScore > bestDirectionScore)) {
-                    bestDistance = distance;
-                    bestDirectionScore = curDirectionScore;
-                    bestXY[0] = x;
-                    bestXY[1] = y;
-                }
-            }
-        }
-
-        // Return -1, -1 if no suitable location found
-        if (bestDistance == Float.MAX_VALUE) {
-            bestXY[0] = -1;
-            bestXY[1] = -1;
-        }
-        return bestXY;
-    }
-
-    private boolean addViewToTempLocation(View v, Rect rectOccupiedByPotentialDrop,
-            int[] direction, ItemConfiguration currentState) {
-        CellAndSpan c = currentState.map.get(v);
-        boolean success = false;
-        markCellsForView(c.x, c.y, c.spanX, c.spanY, mTmpOccupied, false);
-        markCellsForRect(rectOccupiedByPotentialDrop, mTmpOccupied, true);
-
-        findNearestArea(c.x, c.y, c.spanX, c.spanY, direction, mTmpOccupied, null, mTempLocation);
-
-        if (mTempLocation[0] >= 0 && mTempLocation[1] >= 0) {
-            c.x = mTempLocation[0];
-            c.y = mTempLocation[1];
-            success = true;
-        }
-        markCellsForView(c.x, c.y, c.spanX, c.spanY, mTmpOccupied, true);
-        return success;
+        return result;
     }
 
     /**
-     * This helper class defines a cluster of views. It helps with defining complex edges
-     * of the cluster and determining how those edges interact with other views. The edges
-     * essentially define a fine-grained boundary around the cluster of views -- like a more
-     * precise version of a bounding box.
-     */
-    private class ViewCluster {
-        final static int LEFT = 0;
-        final static int TOP = 1;
-        final static int RIGHT = 2;
-        final static int BOTTOM = 3;
-
-        ArrayList<View> views;
-        ItemConfiguration config;
-        Rect boundingRect = new Rect();
-
-        int[] leftEdge = new int[mCountY];
-        int[] rightEdge = new int[mCountY];
-        int[] topEdge = new int[mCountX];
-        int[] bottomEdge = new int[mCountX];
-        boolean leftEdgeDirty, rightEdgeDirty, topEdgeDirty, bottomEdgeDirty, boundingRectDirty;
-
-        @SuppressWarnings("unchecked")
-        public ViewCluster(ArrayList<View> views, ItemConfiguration config) {
-            this.views = (ArrayList<View>) views.clone();
-            this.config = config;
-            resetEdges();
-        }
-
-        void resetEdges() {
-            for (int i = 0; i < mCountX; i++) {
-                topEdge[i] = -1;
-                bottomEdge[i] = -1;
-            }
-            for (int i = 0; i < mCountY; i++) {
-                leftEdge[i] = -1;
-                rightEdge[i] = -1;
-            }
-            leftEdgeDirty = true;
-            rightEdgeDirty = true;
-            bottomEdgeDirty = true;
-            topEdgeDirty = true;
-            boundingRectDirty = true;
-        }
-
-        void computeEdge(int which, int[] edge) {
-            int count = views.size();
-            for (int i = 0; i < count; i++) {
-                CellAndSpan cs = config.map.get(views.get(i));
-                switch (which) {
-                    case LEFT:
-                        int left = cs.x;
-                        for (int j = cs.y; j < cs.y + cs.spanY; j++) {
-                            if (left < edge[j] || edge[j] < 0) {
-                                edge[j] = left;
-                            }
-                        }
-                        break;
-                    case RIGHT:
-                        int right = cs.x + cs.spanX;
-                        for (int j = cs.y; j < cs.y + cs.spanY; j++) {
-                            if (right > edge[j]) {
-                                edge[j] = right;
-                            }
-                        }
-                        break;
-                    case TOP:
-                        int top = cs.y;
-                        for (int j = cs.x; j < cs.x + cs.spanX; j++) {
-                            if (top < edge[j] || edge[j] < 0) {
-                                edge[j] = top;
-                            }
-                        }
-                        break;
-                    case BOTTOM:
-                        int bottom = cs.y + cs.spanY;
-                        for (int j = cs.x; j < cs.x + cs.spanX; j++) {
-                            if (bottom > edge[j]) {
-                                edge[j] = bottom;
-                            }
-                        }
-                        break;
-                }
-            }
-        }
-
-        boolean isViewTouchingEdge(View v, int whichEdge) {
-            CellAndSpan cs = config.map.get(v);
-
-            int[] edge = getEdge(whichEdge);
-
-            switch (whichEdge) {
-                case LEFT:
-                    for (int i = cs.y; i < cs.y + cs.spanY; i++) {
-                        if (edge[i] == cs.x + cs.spanX) {
-                            return true;
-                        }
-                    }
-                    break;
-                case RIGHT:
-                    for (int i = cs.y; i < cs.y + cs.spanY; i++) {
-                        if (edge[i] == cs.x) {
-                            return true;
-                        }
-                    }
-                    break;
-                case TOP:
-                    for (int i = cs.x; i < cs.x + cs.spanX; i++) {
-                        if (edge[i] == cs.y + cs.spanY) {
-                            return true;
-                        }
-                    }
-                    break;
-                case BOTTOM:
-                    for (int i = cs.x; i < cs.x + cs.spanX; i++) {
-                        if (edge[i] == cs.y) {
-                            return true;
-                        }
-                    }
-                    break;
-            }
-            return false;
-        }
-
-        void shift(int whichEdge, int delta) {
-            for (View v: views) {
-                CellAndSpan c = config.map.get(v);
-                switch (whichEdge) {
-                    case LEFT:
-                        c.x -= delta;
-                        break;
-                    case RIGHT:
-                        c.x += delta;
-                        break;
-                    case TOP:
-                        c.y -= delta;
-                        break;
-                    case BOTTOM:
-                    default:
-                        c.y += delta;
-                        break;
-                }
-            }
-            resetEdges();
-        }
-
-        public void addView(View v) {
-            views.add(v);
-            resetEdges();
-        }
-
-        public Rect getBoundingRect() {
-            if (boundingRectDirty) {
-                boolean first = true;
-                for (View v: views) {
-                    CellAndSpan c = config.map.get(v);
-                    if (first) {
-                        boundingRect.set(c.x, c.y, c.x + c.spanX, c.y + c.spanY);
-                        first = false;
-                    } else {
-                        boundingRect.union(c.x, c.y, c.x + c.spanX, c.y + c.spanY);
-                    }
-                }
-            }
-            return boundingRect;
-        }
-
-        public int[] getEdge(int which) {
-            switch (which) {
-                case LEFT:
-                    return getLeftEdge();
-                case RIGHT:
-                    return getRightEdge();
-                case TOP:
-                    return getTopEdge();
-                case BOTTOM:
-                default:
-                    return getBottomEdge();
-            }
-        }
-
-        public int[] getLeftEdge() {
-            if (leftEdgeDirty) {
-                computeEdge(LEFT, leftEdge);
-            }
-            return leftEdge;
-        }
-
-        public int[] getRightEdge() {
-            if (rightEdgeDirty) {
-                computeEdge(RIGHT, rightEdge);
-            }
-            return rightEdge;
-        }
-
-        public int[] getTopEdge() {
-            if (topEdgeDirty) {
-                computeEdge(TOP, topEdge);
-            }
-            return topEdge;
-        }
-
-        public int[] getBottomEdge() {
-            if (bottomEdgeDirty) {
-                computeEdge(BOTTOM, bottomEdge);
-            }
-            return bottomEdge;
-        }
-
-        PositionComparator comparator = new PositionComparator();
-        class PositionComparator implements Comparator<View> {
-            int whichEdge = 0;
-            public int compare(View left, View right) {
-                CellAndSpan l = config.map.get(left);
-                CellAndSpan r = config.map.get(right);
-                switch (whichEdge) {
-                    case LEFT:
-                        return (r.x + r.spanX) - (l.x + l.spanX);
-                    case RIGHT:
-                        return l.x - r.x;
-                    case TOP:
-                        return (r.y + r.spanY) - (l.y + l.spanY);
-                    case BOTTOM:
-                    default:
-                        return l.y - r.y;
-                }
-            }
-        }
-
-        public void sortConfigurationForEdgePush(int edge) {
-            comparator.whichEdge = edge;
-            Collections.sort(config.sortedViews, comparator);
-        }
-    }
-
-    private boolean pushViewsToTempLocation(ArrayList<View> views, Rect rectOccupiedByPotentialDrop,
-            int[] direction, View dragView, ItemConfiguration currentState) {
-
-        ViewCluster cluster = new ViewCluster(views, currentState);
-        Rect clusterRect = cluster.getBoundingRect();
-        int whichEdge;
-        int pushDistance;
-        boolean fail = false;
-
-        // Determine the edge of the cluster that will be leading the push and how far
-        // the cluster must be shifted.
-        if (direction[0] < 0) {
-            whichEdge = ViewCluster.LEFT;
-            pushDistance = clusterRect.right - rectOccupiedByPotentialDrop.left;
-        } else if (direction[0] > 0) {
-            whichEdge = ViewCluster.RIGHT;
-            pushDistance = rectOccupiedByPotentialDrop.right - clusterRect.left;
-        } else if (direction[1] < 0) {
-            whichEdge = ViewCluster.TOP;
-            pushDistance = clusterRect.bottom - rectOccupiedByPotentialDrop.top;
-        } else {
-            whichEdge = ViewCluster.BOTTOM;
-            pushDistance = rectOccupiedByPotentialDrop.bottom - clusterRect.top;
-        }
-
-        // Break early for invalid push distance.
-        if (pushDistance <= 0) {
-            return false;
-        }
-
-        // Mark the occupied state as false for the group of views we want to move.
-        for (View v: views) {
-            CellAndSpan c = currentState.map.get(v);
-            markCellsForView(c.x, c.y, c.spanX, c.spanY, mTmpOccupied, false);
-        }
-
-        // We save the current configuration -- if we fail to find a solution we will revert
-        // to the initial state. The process of finding a solution modifies the configuration
-        // in place, hence the need for revert in the failure case.
-        currentState.save();
-
-        // The pushing algorithm is simplified by considering the views in the order in which
-        // they would be pushed by the cluster. For example, if the cluster is leading with its
-        // left edge, we consider sort the views by their right edge, from right to left.
-        cluster.sortConfigurationForEdgePush(whichEdge);
-
-        while (pushDistance > 0 && !fail) {
-            for (View v: currentState.sortedViews) {
-                // For each view that isn't in the cluster, we see if the leading edge of the
-                // cluster is contacting the edge of that view. If so, we add that view to the
-                // cluster.
-                if (!cluster.views.contains(v) && v != dragView) {
-                    if (cluster.isViewTouchingEdge(v, whichEdge)) {
-                        LayoutParams lp = (LayoutParams) v.getLayoutParams();
-                        if (!lp.canReorder) {
-                            // The push solution includes the all apps button, this is not viable.
-                            fail = true;
-                            break;
-                        }
-                        cluster.addView(v);
-                        CellAndSpan c = currentState.map.get(v);
-
-                        // Adding view to cluster, mark it as not occupied.
-                        markCellsForView(c.x, c.y, c.spanX, c.spanY, mTmpOccupied, false);
-                    }
-                }
-            }
-            pushDistance--;
-
-            // The cluster has been completed, now we move the whole thing over in the appropriate
-            // direction.
-            cluster.shift(whichEdge, 1);
-        }
-
-        boolean foundSolution = false;
-        clusterRect = cluster.getBoundingRect();
-
-        // Due to the nature of the algorithm, the only check required to verify a valid solution
-        // is to ensure that completed shifted cluster lies completely within the cell layout.
-        if (!fail && clusterRect.left >= 0 && clusterRect.right <= mCountX && clusterRect.top >= 0 &&
-                clusterRect.bottom <= mCountY) {
-            foundSolution = true;
-        } else {
-            currentState.restore();
-        }
-
-        // In either case, we set the occupied array as marked for the location of the views
-        for (View v: cluster.views) {
-            CellAndSpan c = currentState.map.get(v);
-            markCellsForView(c.x, c.y, c.spanX, c.spanY, mTmpOccupied, true);
-        }
-
-        return foundSolution;
-    }
-
-    private boolean addViewsToTempLocation(ArrayList<View> views, Rect rectOccupiedByPotentialDrop,
-            int[] direction, View dragView, ItemConfiguration currentState) {
-        if (views.size() == 0) return true;
-
-        boolean success = false;
-        Rect boundingRect = null;
-        // We construct a rect which represents the entire group of views passed in
-        for (View v: views) {
-            CellAndSpan c = currentState.map.get(v);
-            if (boundingRect == null) {
-                boundingRect = new Rect(c.x, c.y, c.x + c.spanX, c.y + c.spanY);
-            } else {
-                boundingRect.union(c.x, c.y, c.x + c.spanX, c.y + c.spanY);
-            }
-        }
-
-        // Mark the occupied state as false for the group of views we want to move.
-        for (View v: views) {
-            CellAndSpan c = currentState.map.get(v);
-            markCellsForView(c.x, c.y, c.spanX, c.spanY, mTmpOccupied, false);
-        }
-
-        boolean[][] blockOccupied = new boolean[boundingRect.width()][boundingRect.height()];
-        int top = boundingRect.top;
-        int left = boundingRect.left;
-        // We mark more precisely which parts of the bounding rect are truly occupied, allowing
-        // for interlocking.
-        for (View v: views) {
-            CellAndSpan c = currentState.map.get(v);
-            markCellsForView(c.x - left, c.y - top, c.spanX, c.spanY, blockOccupied, true);
-        }
-
-        markCellsForRect(rectOccupiedByPotentialDrop, mTmpOccupied, true);
-
-        findNearestArea(boundingRect.left, boundingRect.top, boundingRect.width(),
-                boundingRect.height(), direction, mTmpOccupied, blockOccupied, mTempLocation);
-
-        // If we successfuly found a location by pushing the block of views, we commit it
-        if (mTempLocation[0] >= 0 && mTempLocation[1] >= 0) {
-            int deltaX = mTempLocation[0] - boundingRect.left;
-            int deltaY = mTempLocation[1] - boundingRect.top;
-            for (View v: views) {
-                CellAndSpan c = currentState.map.get(v);
-                c.x += deltaX;
-                c.y += deltaY;
-            }
-            success = true;
-        }
-
-        // In either case, we set the occupied array as marked for the location of the views
-        for (View v: views) {
-            CellAndSpan c = currentState.map.get(v);
-            markCellsForView(c.x, c.y, c.spanX, c.spanY, mTmpOccupied, true);
-        }
-        return success;
-    }
-
-    private void markCellsForRect(Rect r, boolean[][] occupied, boolean value) {
-        markCellsForView(r.left, r.top, r.width(), r.height(), occupied, value);
-    }
-
-    // This method tries to find a reordering solution which satisfies the push mechanic by trying
-    // to push items in each of the cardinal directions, in an order based on the direction vector
-    // passed.
-    private boolean attemptPushInDirection(ArrayList<View> intersectingViews, Rect occupied,
-            int[] direction, View ignoreView, ItemConfiguration solution) {
-        if ((Math.abs(direction[0]) + Math.abs(direction[1])) > 1) {
-            // If the direction vector has two non-zero components, we try pushing 
-            // separately in each of the components.
-            int temp = direction[1];
-            direction[1] = 0;
-
-            if (pushViewsToTempLocation(intersectingViews, occupied, direction,
-                    ignoreView, solution)) {
-                return true;
-            }
-            direction[1] = temp;
-            temp = direction[0];
-            direction[0] = 0;
-
-            if (pushViewsToTempLocation(intersectingViews, occupied, direction,
-                    ignoreView, solution)) {
-                return true;
-            }
-            // Revert the direction
-            direction[0] = temp;
-
-            // Now we try pushing in each component of the opposite direction
-            direction[0] *= -1;
-            direction[1] *= -1;
-            temp = direction[1];
-            direction[1] = 0;
-            if (pushViewsToTempLocation(intersectingViews, occupied, direction,
-                    ignoreView, solution)) {
-                return true;
-            }
-
-            direction[1] = temp;
-            temp = direction[0];
-            direction[0] = 0;
-            if (pushViewsToTempLocation(intersectingViews, occupied, direction,
-                    ignoreView, solution)) {
-                return true;
-            }
-            // revert the direction
-            direction[0] = temp;
-            direction[0] *= -1;
-            direction[1] *= -1;
-            
-        } else {
-            // If the direction vector has a single non-zero component, we push first in the
-            // direction of the vector
-            if (pushViewsToTempLocation(intersectingViews, occupied, direction,
-                    ignoreView, solution)) {
-                return true;
-            }
-            // Then we try the opposite direction
-            direction[0] *= -1;
-            direction[1] *= -1;
-            if (pushViewsToTempLocation(intersectingViews, occupied, direction,
-                    ignoreView, solution)) {
-                return true;
-            }
-            // Switch the direction back
-            direction[0] *= -1;
-            direction[1] *= -1;
-            
-            // If we have failed to find a push solution with the above, then we try 
-            // to find a solution by pushing along the perpendicular axis.
-
-            // Swap the components
-            int temp = direction[1];
-            direction[1] = direction[0];
-            direction[0] = temp;
-            if (pushViewsToTempLocation(intersectingViews, occupied, direction,
-                    ignoreView, solution)) {
-                return true;
-            }
-
-            // Then we try the opposite direction
-            direction[0] *= -1;
-            direction[1] *= -1;
-            if (pushViewsToTempLocation(intersectingViews, occupied, direction,
-                    ignoreView, solution)) {
-                return true;
-            }
-            // Switch the direction back
-            direction[0] *= -1;
-            direction[1] *= -1;
-
-            // Swap the components back
-            temp = direction[1];
-            direction[1] = direction[0];
-            direction[0] = temp;
-        }
-        return false;
-    }
-
-    private boolean rearrangementExists(int cellX, int cellY, int spanX, int spanY, int[] direction,
-            View ignoreView, ItemConfiguration solution) {
-        // Return early if get invalid cell positions
-        if (cellX < 0 || cellY < 0) return false;
-
-        mIntersectingViews.clear();
-        mOccupiedRect.set(cellX, cellY, cellX + spanX, cellY + spanY);
-
-        // Mark the desired location of the view currently being dragged.
-        if (ignoreView != null) {
-            CellAndSpan c = solution.map.get(ignoreView);
-            if (c != null) {
-                c.x = cellX;
-                c.y = cellY;
-            }
-        }
-        Rect r0 = new Rect(cellX, cellY, cellX + spanX, cellY + spanY);
-        Rect r1 = new Rect();
-        for (View child: solution.map.keySet()) {
-            if (child == ignoreView) continue;
-            CellAndSpan c = solution.map.get(child);
-            LayoutParams lp = (LayoutParams) child.getLayoutParams();
-            r1.set(c.x, c.y, c.x + c.spanX, c.y + c.spanY);
-            if (Rect.intersects(r0, r1)) {
-                if (!lp.canReorder) {
-                    return false;
-                }
-                mIntersectingViews.add(child);
-            }
-        }
-
-        // First we try to find a solution which respects the push mechanic. That is, 
-        // we try to find a solution such that no displaced item travels through another item
-        // without also displacing that item.
-        if (attemptPushInDirection(mIntersectingViews, mOccupiedRect, direction, ignoreView,
-                solution)) {
-            return true;
-        }
-
-        // Next we try moving the views as a block, but without requiring the push mechanic.
-        if (addViewsToTempLocation(mIntersectingViews, mOccupiedRect, direction, ignoreView,
-                solution)) {
-            return true;
-        }
-
-        // Ok, they couldn't move as a block, let's move them individually
-        for (View v : mIntersectingViews) {
-            if (!addViewToTempLocation(v, mOccupiedRect, direction, solution)) {
-                return false;
-            }
-        }
-        return true;
-    }
-
-    /*
-     * Returns a pair (x, y), where x,y are in {-1, 0, 1} corresponding to vector between
-     * the provided point and the provided cell
+     * Loads the children of the layout into the reorder solver, in child order, and returns it.
      */
-    private void computeDirectionVector(float deltaX, float deltaY, int[] result) {
-        double angle = Math.atan(((float) deltaY) / deltaX);
-
-        result[0] = 0;
-        result[1] = 0;
-        if (Math.abs(Math.cos(angle)) > 0.5f) {
-            result[0] = (int) Math.signum(deltaX);
-        }
-        if (Math.abs(Math.sin(angle)) > 0.5f) {
-            result[1] = (int) Math.signum(deltaY);
-        }
-    }
-
-    private void copyOccupiedArray(boolean[][] occupied) {
-        for (int i = 0; i < mCountX; i++) {
-            System.arraycopy(mOccupied[i], 0, occupied[i], 0, mCountY);
+    private ReorderSolver prepareReorderSolver() {
+        mReorderSolver.setCellGeometry(getPaddingLeft(), getPaddingTop(), mCellWidth,
+                mCellHeight, mWidthGap, mHeightGap);
+        mReorderSolver.clearItems();
+        int childCount = mShortcutsAndWidgets.getChildCount();
+        for (int i = 0; i < childCount; i++) {
+            LayoutParams lp = (LayoutParams) mShortcutsAndWidgets.getChildAt(i).getLayoutParams();
+            mReorderSolver.addItem(lp.cellX, lp.cellY, lp.cellHSpan, lp.cellVSpan, lp.canReorder);
         }
+        return mReorderSolver;
     }
 
     ItemConfiguration simpleSwap(int pixelX, int pixelY, int minSpanX, int minSpanY, int spanX,
             int spanY, int[] direction, View dragView, boolean decX, ItemConfiguration solution) {
-        // Copy the current state into the solution. This solution will be manipulated as necessary.
-        copyCurrentStateToSolution(solution, false);
-        // Copy the current occupied array into the temporary occupied array. This array will be
-        // manipulated as necessary to find a solution.
-        copyOccupiedArray(mTmpOccupied);
-
-        // We find the nearest cell into which we would place the dragged item, assuming there's
-        // nothing in its way.
-        int result[] = new int[2];
-        result = findNearestArea(pixelX, pixelY, spanX, spanY, result);
-
-        // First we try the exact nearest position of the item being dragged,
-        // we will then want to try to move this around to other neighbouring positions
-        boolean success = rearrangementExists(result[0], result[1], spanX, spanY, direction, dragView,
-                solution);
-
-        if (!success) {
-            // We try shrinking the widget down to size in an alternating pattern, shrink 1 in
-            // x, then 1 in y etc.
-            if (spanX > minSpanX && (minSpanY == spanY || decX)) {
-                return simpleSwap(pixelX, pixelY, minSpanX, minSpanY, spanX - 1, spanY, direction,
-                        dragView, false, solution);
-            } else if (spanY > minSpanY) {
-                return simpleSwap(pixelX, pixelY, minSpanX, minSpanY, spanX, spanY - 1, direction,
-                        dragView, true, solution);
-            }
-            solution.isSolution = false;
-        } else {
-            solution.isSolution = true;
-            solution.dragViewX = result[0];
-            solution.dragViewY = result[1];
-            solution.dragViewSpanX = spanX;
-            solution.dragViewSpanY = spanY;
-        }
-        return solution;
-    }
-
-    private void copyCurrentStateToSolution(ItemConfiguration solution, boolean temp) {
-        int childCount = mShortcutsAndWidgets.getChildCount();
-        for (int i = 0; i < childCount; i++) {
-            View child = mShortcutsAndWidgets.getChildAt(i);
-            LayoutParams lp = (LayoutParams) child.getLayoutParams();
-            CellAndSpan c;
-            if (temp) {
-                c = new CellAndSpan(lp.tmpCellX, lp.tmpCellY, lp.cellHSpan, lp.cellVSpan);
-            } else {
-                c = new CellAndSpan(lp.cellX, lp.cellY, lp.cellHSpan, lp.cellVSpan);
-            }
-            solution.add(child, c);
-        }
+        return prepareReorderSolver().simpleSwap(pixelX, pixelY, minSpanX, minSpanY, spanX, spanY,
+                direction, mShortcutsAndWidgets.indexOfChild(dragView), decX, solution);
     }
 
     private void copySolutionToTempState(ItemConfiguration solution, View dragView) {
-        for (int i = 0; i < mCountX; i++) {
-            for (int j = 0; j < mCountY; j++) {
-                mTmpOccupied[i][j] = false;
-            }
-        }
+        mTmpOccupied.clear();
 
         int childCount = mShortcutsAndWidgets.getChildCount();
         for (int i = 0; i < childCount; i++) {
             View child = mShortcutsAndWidgets.getChildAt(i);
             if (child == dragView) continue;
             LayoutParams lp = (LayoutParams) child.getLayoutParams();
-            CellAndSpan c = solution.map.get(child);
-            if (c != null) {
-                lp.tmpCellX = c.x;
-                lp.tmpCellY = c.y;
-                lp.cellHSpan = c.spanX;
-                lp.cellVSpan = c.spanY;
-                markCellsForView(c.x, c.y, c.spanX, c.spanY, mTmpOccupied, true);
+            if (i < solution.itemCount) {
+                lp.tmpCellX = solution.cellX[i];
+                lp.tmpCellY = solution.cellY[i];
+                lp.cellHSpan = solution.spanX[i];
+                lp.cellVSpan = solution.spanY[i];
+                markCellsForView(solution.cellX[i], solution.cellY[i], solution.spanX[i],
+                        solution.spanY[i], mTmpOccupied, true);
             }
         }
         markCellsForView(solution.dragViewX, solution.dragViewY, solution.dragViewSpanX,
@@ -2239,22 +1453,18 @@ public class CellLayout extends ViewGroup {
     private void animateItemsToSolution(ItemConfiguration solution, View dragView, boolean
             commitDragView) {
 
-        boolean[][] occupied = DESTRUCTIVE_REORDER ? mOccupied : mTmpOccupied;
-        for (int i = 0; i < mCountX; i++) {
-            for (int j = 0; j < mCountY; j++) {
-                occupied[i][j] = false;
-            }
-        }
+        OccupancyGrid occupied = DESTRUCTIVE_REORDER ? mOccupied : mTmpOccupied;
+        occupied.clear();
 
         int childCount = mShortcutsAndWidgets.getChildCount();
         for (int i = 0; i < childCount; i++) {
             View child = mShortcutsAndWidgets.getChildAt(i);
             if (child == dragView) continue;
-            CellAndSpan c = solution.map.get(child);
-            if (c != null) {
-                animateChildToPosition(child, c.x, c.y, REORDER_ANIMATION_DURATION, 0,
-                        DESTRUCTIVE_REORDER, false);
-                markCellsForView(c.x, c.y, c.spanX, c.spanY, occupied, true);
+            if (i < solution.itemCount) {
+                animateChildToPosition(child, solution.cellX[i], solution.cellY[i],
+                        REORDER_ANIMATION_DURATION, 0, DESTRUCTIVE_REORDER, false);
+                markCellsForView(solution.cellX[i], solution.cellY[i], solution.spanX[i],
+                        solution.spanY[i], occupied, true);
             }
         }
         if (commitDragView) {
@@ -2269,11 +1479,19 @@ public class CellLayout extends ViewGroup {
         for (int i = 0; i < childCount; i++) {
             View child = mShortcutsAndWidgets.getChildAt(i);
             if (child == dragView) continue;
-            CellAndSpan c = solution.map.get(child);
             LayoutParams lp = (LayoutParams) child.getLayoutParams();
-            if (c != null) {
+            if (i < solution.itemCount) {
+                // A drag hovering over the same cell asks for the same hints over and over:
+                // leave the running ones be rather than starting them again
+                final ReorderHintAnimation running = mShakeAnimators.get(child);
+                if (running != null ? running.hints(lp.cellX, lp.cellY, solution.cellX[i],
+                        solution.cellY[i], solution.spanX[i], solution.spanY[i]) :
+                        lp.cellX == solution.cellX[i] && lp.cellY == solution.cellY[i]) {
+                    continue;
+                }
                 ReorderHintAnimation rha = new ReorderHintAnimation(child, lp.cellX, lp.cellY,
-                        c.x, c.y, c.spanX, c.spanY);
+                        solution.cellX[i], solution.cellY[i], solution.spanX[i],
+                        solution.spanY[i]);
                 rha.animate();
             }
         }
@@ -2289,11 +1507,19 @@ public class CellLayout extends ViewGroup {
         float initDeltaY;
         float finalScale;
         float initScale;
+        // The cells the item is hinted to move between, and its span
+        int cellX0, cellY0, cellX1, cellY1, spanX, spanY;
         private static final int DURATION = 300;
         Animator a;
 
         public ReorderHintAnimation(View child, int cellX0, int cellY0, int cellX1, int cellY1,
                 int spanX, int spanY) {
+            this.cellX0 = cellX0;
+            this.cellY0 = cellY0;
+            this.cellX1 = cellX1;
+            this.cellY1 = cellY1;
+            this.spanX = spanX;
+            this.spanY = spanY;
             regionToCenterPoint(cellX0, cellY0, spanX, spanY, mTmpPoint);
             final int x0 = mTmpPoint[0];
             final int y0 = mTmpPoint[1];
@@ -2325,6 +1551,11 @@ public class CellLayout extends ViewGroup {
             this.child = child;
         }
 
+        boolean hints(int cellX0, int cellY0, int cellX1, int cellY1, int spanX, int spanY) {
+            return this.cellX0 == cellX0 && this.cellY0 == cellY0 && this.cellX1 == cellX1 &&
+                    this.cellY1 == cellY1 && this.spanX == spanX && this.spanY == spanY;
+        }
+
         void animate() {
             if (mShakeAnimators.containsKey(child)) {
                 ReorderHintAnimation oldAnimation = mShakeAnimators.get(child);
@@ -2402,9 +1633,8 @@ public class CellLayout extends ViewGroup {
     }
 
     private void commitTempPlacement() {
-        for (int i = 0; i < mCountX; i++) {
-            System.arraycopy(mTmpOccupied[i], 0, mOccupied[i], 0, mCountY);
-        }
+        mTmpOccupied.copyTo(mOccupied);
+        mLayoutGeneration++;
         int childCount = mShortcutsAndWidgets.getChildCount();
         for (int i = 0; i < childCount; i++) {
             View child = mShortcutsAndWidgets.getChildAt(i);
@@ -2436,21 +1666,8 @@ public class CellLayout extends ViewGroup {
 
     ItemConfiguration findConfigurationNoShuffle(int pixelX, int pixelY, int minSpanX, int minSpanY,
             int spanX, int spanY, ItemConfiguration solution) {
-        int[] result = new int[2];
-        int[] resultSpan = new int[2];
-        findNearestVacantArea(pixelX, pixelY, minSpanX, minSpanY, spanX, spanY, null, result,
-                resultSpan);
-        if (result[0] >= 0 && result[1] >= 0) {
-            copyCurrentStateToSolution(solution, false);
-            solution.dragViewX = result[0];
-            solution.dragViewY = result[1];
-            solution.dragViewSpanX = resultSpan[0];
-            solution.dragViewSpanY = resultSpan[1];
-            solution.isSolution = true;
-        } else {
-            solution.isSolution = false;
-        }
-        return solution;
+        return prepareReorderSolver().findConfigurationNoShuffle(pixelX, pixelY, minSpanX,
+                minSpanY, spanX, spanY, solution);
     }
 
     public void prepareChildForDrag(View child) {
@@ -2467,14 +1684,11 @@ public class CellLayout extends ViewGroup {
     */
     private void getDirectionVectorForDrop(int dragViewCenterX, int dragViewCenterY, int spanX,
             int spanY, View dragView, int[] resultDirection) {
-        int[] targetDestination = new int[2];
+        final int[] targetDestination = mTmpCell;
 
         findNearestArea(dragViewCenterX, dragViewCenterY, spanX, spanY, targetDestination);
-        Rect dragRect = new Rect();
-        regionToRect(targetDestination[0], targetDestination[1], spanX, spanY, dragRect);
-        dragRect.offset(dragViewCenterX - dragRect.centerX(), dragViewCenterY - dragRect.centerY());
 
-        Rect dropRegionRect = new Rect();
+        final Rect dropRegionRect = mTmpDropRegion;
         getViewsIntersectingRegion(targetDestination[0], targetDestination[1], spanX, spanY,
                 dragView, dropRegionRect, mIntersectingViews);
 
@@ -2499,7 +1713,7 @@ public class CellLayout extends ViewGroup {
             resultDirection[0] = 1;
             resultDirection[1] = 0;
         } else {
-            computeDirectionVector(deltaX, deltaY, resultDirection);
+            ReorderSolver.computeDirectionVector(deltaX, deltaY, resultDirection);
         }
     }
 
@@ -2510,8 +1724,9 @@ public class CellLayout extends ViewGroup {
             boundingRect.set(cellX, cellY, cellX + spanX, cellY + spanY);
         }
         intersectingViews.clear();
-        Rect r0 = new Rect(cellX, cellY, cellX + spanX, cellY + spanY);
-        Rect r1 = new Rect();
+        final Rect r0 = mTmpRegion;
+        r0.set(cellX, cellY, cellX + spanX, cellY + spanY);
+        final Rect r1 = mTmpChildRegion;
         final int count = mShortcutsAndWidgets.getChildCount();
         for (int i = 0; i < count; i++) {
             View child = mShortcutsAndWidgets.getChildAt(i);
@@ -2554,12 +1769,12 @@ public class CellLayout extends ViewGroup {
 
     boolean createAreaForResize(int cellX, int cellY, int spanX, int spanY,
             View dragView, int[] direction, boolean commit) {
-        int[] pixelXY = new int[2];
+        final int[] pixelXY = mTmpPoint;
         regionToCenterPoint(cellX, cellY, spanX, spanY, pixelXY);
 
         // First we determine if things have moved enough to cause a different layout
         ItemConfiguration swapSolution = simpleSwap(pixelXY[0], pixelXY[1], spanX, spanY,
-                 spanX,  spanY, direction, dragView,  true,  new ItemConfiguration());
+                 spanX,  spanY, direction, dragView,  true,  mSwapSolution);
 
         setUseTempCoords(true);
         if (swapSolution != null && swapSolution.isSolution) {
@@ -2610,18 +1825,42 @@ public class CellLayout extends ViewGroup {
             mPreviousReorderDirection[1] = mDirectionVector[1];
         }
 
-        ItemConfiguration swapSolution = simpleSwap(pixelX, pixelY, minSpanX, minSpanY,
-                 spanX,  spanY, mDirectionVector, dragView,  true,  new ItemConfiguration());
+        ItemConfiguration finalSolution = null;
+        CachedReorderSolution cached = mode == MODE_DRAG_OVER ? getCachedReorderSolution(
+                result[0], result[1], minSpanX, minSpanY, spanX, spanY, dragView) : null;
+        if (cached != null) {
+            finalSolution = cached.solution;
+        } else {
+            // Solving may leave the direction vector turned around, the key is the one asked for
+            final int directionX = mDirectionVector[0];
+            final int directionY = mDirectionVector[1];
+            CachedReorderSolution entry = null;
+            if (mode == MODE_DRAG_OVER) {
+                entry = mReorderSolutionCache[mNextReorderSolution];
+                mNextReorderSolution = (mNextReorderSolution + 1) % REORDER_SOLUTION_CACHE_SIZE;
+                // The entry is about to be solved into, it no longer holds a valid solution
+                entry.clear();
+            }
 
-        // We attempt the approach which doesn't shuffle views at all
-        ItemConfiguration noShuffleSolution = findConfigurationNoShuffle(pixelX, pixelY, minSpanX,
-                minSpanY, spanX, spanY, new ItemConfiguration());
+            ItemConfiguration swapSolution = simpleSwap(pixelX, pixelY, minSpanX, minSpanY,
+                     spanX,  spanY, mDirectionVector, dragView,  true,
+                     entry != null ? entry.swapSolution : mSwapSolution);
 
-        ItemConfiguration finalSolution = null;
-        if (swapSolution.isSolution && swapSolution.area() >= noShuffleSolution.area()) {
-            finalSolution = swapSolution;
-        } else if (noShuffleSolution.isSolution) {
-            finalSolution = noShuffleSolution;
+            // We attempt the approach which doesn't shuffle views at all
+            ItemConfiguration noShuffleSolution = findConfigurationNoShuffle(pixelX, pixelY,
+                    minSpanX, minSpanY, spanX, spanY,
+                    entry != null ? entry.noShuffleSolution : mNoShuffleSolution);
+
+            if (swapSolution.isSolution && swapSolution.area() >= noShuffleSolution.area()) {
+                finalSolution = swapSolution;
+            } else if (noShuffleSolution.isSolution) {
+                finalSolution = noShuffleSolution;
+            }
+
+            if (entry != null) {
+                entry.set(mLayoutGeneration, result[0], result[1], minSpanX, minSpanY, spanX,
+                        spanY, directionX, directionY, dragView, finalSolution);
+            }
         }
 
         boolean foundSolution = true;
@@ -2668,70 +1907,70 @@ public class CellLayout extends ViewGroup {
         return result;
     }
 
-    void setItemPlacementDirty(boolean dirty) {
-        mItemPlacementDirty = dirty;
-    }
-    boolean isItemPlacementDirty() {
-        return mItemPlacementDirty;
-    }
-
-    private class ItemConfiguration {
-        HashMap<View, CellAndSpan> map = new HashMap<View, CellAndSpan>();
-        private HashMap<View, CellAndSpan> savedMap = new HashMap<View, CellAndSpan>();
-        ArrayList<View> sortedViews = new ArrayList<View>();
-        boolean isSolution = false;
-        int dragViewX, dragViewY, dragViewSpanX, dragViewSpanY;
-
-        void save() {
-            // Copy current state into savedMap
-            for (View v: map.keySet()) {
-                map.get(v).copy(savedMap.get(v));
-            }
-        }
-
-        void restore() {
-            // Restore current state from savedMap
-            for (View v: savedMap.keySet()) {
-                savedMap.get(v).copy(map.get(v));
+    /**
+     * Returns the cached solution for dragging dragView over the given target cell with the
+     * given spans, in the current direction, if it was found in the current layout.
+     */
+    private CachedReorderSolution getCachedReorderSolution(int cellX, int cellY, int minSpanX,
+            int minSpanY, int spanX, int spanY, View dragView) {
+        for (int i = 0; i < REORDER_SOLUTION_CACHE_SIZE; i++) {
+            final CachedReorderSolution cached = mReorderSolutionCache[i];
+            if (cached.generation == mLayoutGeneration && cached.cellX == cellX &&
+                    cached.cellY == cellY && cached.minSpanX == minSpanX &&
+                    cached.minSpanY == minSpanY && cached.spanX == spanX &&
+                    cached.spanY == spanY && cached.directionX == mDirectionVector[0] &&
+                    cached.directionY == mDirectionVector[1] && cached.dragView == dragView) {
+                return cached;
             }
         }
+        return null;
+    }
 
-        void add(View v, CellAndSpan cs) {
-            map.put(v, cs);
-            savedMap.put(v, new CellAndSpan());
-            sortedViews.add(v);
-        }
-
-        int area() {
-            return dragViewSpanX * dragViewSpanY;
+    private void clearReorderSolutionCache() {
+        for (int i = 0; i < REORDER_SOLUTION_CACHE_SIZE; i++) {
+            mReorderSolutionCache[i].clear();
         }
     }
 
-    private class CellAndSpan {
-        int x, y;
-        int spanX, spanY;
+    private static final class CachedReorderSolution {
+        // The solutions are solved into these, so that a cache entry allocates nothing
+        final ItemConfiguration swapSolution = new ItemConfiguration();
+        final ItemConfiguration noShuffleSolution = new ItemConfiguration();
 
-        public CellAndSpan() {
-        }
-
-        public void copy(CellAndSpan copy) {
-            copy.x = x;
-            copy.y = y;
-            copy.spanX = spanX;
-            copy.spanY = spanY;
-        }
+        int generation = -1;
+        int cellX, cellY, minSpanX, minSpanY, spanX, spanY, directionX, directionY;
+        View dragView;
+        // One of the above, or null if there was no solution
+        ItemConfiguration solution;
 
-        public CellAndSpan(int x, int y, int spanX, int spanY) {
-            this.x = x;
-            this.y = y;
+        void set(int generation, int cellX, int cellY, int minSpanX, int minSpanY, int spanX,
+                int spanY, int directionX, int directionY, View dragView,
+                ItemConfiguration solution) {
+            this.generation = generation;
+            this.cellX = cellX;
+            this.cellY = cellY;
+            this.minSpanX = minSpanX;
+            this.minSpanY = minSpanY;
             this.spanX = spanX;
             this.spanY = spanY;
+            this.directionX = directionX;
+            this.directionY = directionY;
+            this.dragView = dragView;
+            this.solution = solution;
         }
 
-        public String toString() {
-            return "(" + x + ", " + y + ": " + spanX + ", " + spanY + ")";
+        void clear() {
+            generation = -1;
+            dragView = null;
+            solution = null;
         }
+    }
 
+    void setItemPlacementDirty(boolean dirty) {
+        mItemPlacementDirty = dirty;
+    }
+    boolean isItemPlacementDirty() {
+        return mItemPlacementDirty;
     }
 
     /**
@@ -2849,7 +2088,7 @@ public class CellLayout extends ViewGroup {
      * The superset of the above two methods
      */
     boolean findCellForSpanThatIntersectsIgnoring(int[] cellXY, int spanX, int spanY,
-            int intersectX, int intersectY, View ignoreView, boolean occupied[][]) {
+            int intersectX, int intersectY, View ignoreView, OccupancyGrid occupied) {
         // mark space take by ignoreView as available (method checks if ignoreView is null)
         markCellsAsUnoccupiedForView(ignoreView, occupied);
 
@@ -2873,17 +2112,13 @@ public class CellLayout extends ViewGroup {
             }
 
             for (int y = startY; y < endY && !foundCell; y++) {
-                inner:
                 for (int x = startX; x < endX; x++) {
-                    for (int i = 0; i < spanX; i++) {
-                        for (int j = 0; j < spanY; j++) {
-                            if (occupied[x + i][y + j]) {
-                                // small optimization: we can skip to after the column we just found
-                                // an occupied cell
-                                x += i;
-                                continue inner;
-                            }
-                        }
+                    final int lastOccupied = occupied.getLastOccupiedColumn(x, y, spanX, spanY);
+                    if (lastOccupied != -1) {
+                        // small optimization: we can skip to after the last column we just found
+                        // an occupied cell in
+                        x = lastOccupied;
+                        continue;
                     }
                     if (cellXY != null) {
                         cellXY[0] = x;
@@ -2916,6 +2151,7 @@ public class CellLayout extends ViewGroup {
     void onDragEnter() {
         mDragEnforcer.onDragEnter();
         mDragging = true;
+        mLayoutGeneration++;
     }
 
     /**
@@ -2936,6 +2172,7 @@ public class CellLayout extends ViewGroup {
         mDragOutlineCurrent = (mDragOutlineCurrent + 1) % mDragOutlineAnims.length;
         revertTempState();
         setIsDragOverlapping(false);
+        clearReorderSolutionCache();
     }
 
     /**
@@ -3051,40 +2288,12 @@ public class CellLayout extends ViewGroup {
      * @return True if a vacant cell was found
      */
     public boolean getVacantCell(int[] vacant, int spanX, int spanY) {
-
-        return findVacantCell(vacant, spanX, spanY, mCountX, mCountY, mOccupied);
-    }
-
-    static boolean findVacantCell(int[] vacant, int spanX, int spanY,
-            int xCount, int yCount, boolean[][] occupied) {
-
-        for (int y = 0; y < yCount; y++) {
-            for (int x = 0; x < xCount; x++) {
-                boolean available = !occupied[x][y];
-out:            for (int i = x; i < x + spanX - 1 && x < xCount; i++) {
-                    for (int j = y; j < y + spanY - 1 && y < yCount; j++) {
-                        available = available && !occupied[i][j];
-                        if (!available) break out;
-                    }
-                }
-
-                if (available) {
-                    vacant[0] = x;
-                    vacant[1] = y;
-                    return true;
-                }
-            }
-        }
-
-        return false;
+        return mOccupied.findVacantCell(vacant, spanX, spanY);
     }
 
     private void clearOccupiedCells() {
-        for (int x = 0; x < mCountX; x++) {
-            for (int y = 0; y < mCountY; y++) {
-                mOccupied[x][y] = false;
-            }
-        }
+        mOccupied.clear();
+        mLayoutGeneration++;
     }
 
     public void onMove(View view, int newCellX, int newCellY, int newSpanX, int newSpanY) {
@@ -3094,8 +2303,9 @@ out:            for (int i = x; i < x + spanX - 1 && x < xCount; i++) {
 
     public void markCellsAsOccupiedForView(View view) {
         markCellsAsOccupiedForView(view, mOccupied);
+        mLayoutGeneration++;
     }
-    public void markCellsAsOccupiedForView(View view, boolean[][] occupied) {
+    public void markCellsAsOccupiedForView(View view, OccupancyGrid occupied) {
         if (view == null || view.getParent() != mShortcutsAndWidgets) return;
         LayoutParams lp = (LayoutParams) view.getLayoutParams();
         markCellsForView(lp.cellX, lp.cellY, lp.cellHSpan, lp.cellVSpan, occupied, true);
@@ -3103,21 +2313,17 @@ out:            for (int i = x; i < x + spanX - 1 && x < xCount; i++) {
 
     public void markCellsAsUnoccupiedForView(View view) {
         markCellsAsUnoccupiedForView(view, mOccupied);
+        mLayoutGeneration++;
     }
-    public void markCellsAsUnoccupiedForView(View view, boolean occupied[][]) {
+    public void markCellsAsUnoccupiedForView(View view, OccupancyGrid occupied) {
         if (view == null || view.getParent() != mShortcutsAndWidgets) return;
         LayoutParams lp = (LayoutParams) view.getLayoutParams();
         markCellsForView(lp.cellX, lp.cellY, lp.cellHSpan, lp.cellVSpan, occupied, false);
     }
 
-    private void markCellsForView(int cellX, int cellY, int spanX, int spanY, boolean[][] occupied,
-            boolean value) {
-        if (cellX < 0 || cellY < 0) return;
-        for (int x = cellX; x < cellX + spanX && x < mCountX; x++) {
-            for (int y = cellY; y < cellY + spanY && y < mCountY; y++) {
-                occupied[x][y] = value;
-            }
-        }
+    private void markCellsForView(int cellX, int cellY, int spanX, int spanY,
+            OccupancyGrid occupied, boolean value) {
+        occupied.markRegion(cellX, cellY, spanX, spanY, value);
     }
 
     public int getDesiredWidth() {
@@ -3132,7 +2338,7 @@ out:            for (int i = x; i < x + spanX - 1 && x < xCount; i++) {
 
     public boolean isOccupied(int x, int y) {
         if (x < mCountX && y < mCountY) {
-            return mOccupied[x][y];
+            return mOccupied.isOccupied(x, y);
         } else {
             throw new RuntimeException("Position exceeds the bound of this CellLayout");
         }
@@ -31,6 +31,7 @@ import android.view.MotionEvent;
 import android.view.VelocityTracker;
 import android.view.View;
 import android.view.ViewConfiguration;
+import android.view.ViewTreeObserver;
 import android.view.inputmethod.InputMethodManager;
 
 import java.util.ArrayList;
@@ -69,7 +70,6 @@ public class DragController {
     private final Vibrator mVibrator;
 
     // temporaries to avoid gc thrash
-    private Rect mRectTemp = new Rect();
     private final int[] mCoordinatesTemp = new int[2];
 
     /** Whether or not we're dragging. */
@@ -90,6 +90,9 @@ public class DragController {
 
     /** Who can receive drop events */
     private ArrayList<DropTarget> mDropTargets = new ArrayList<DropTarget>();
+    /** Where the drop targets are, so a move doesn't have to ask each of them. */
+    private final DropTargetIndex mDropTargetIndex = new DropTargetIndex(mDropTargets);
+    private final DropTargetInvalidator mDropTargetInvalidator = new DropTargetInvalidator();
     private ArrayList<DragListener> mListeners = new ArrayList<DragListener>();
     private DropTarget mFlingToDeleteDropTarget;
 
@@ -197,7 +200,8 @@ public class DragController {
      * Starts a drag.
      *
      * @param b The bitmap to display as the drag image.  It will be re-scaled to the
-     *          enlarged size.
+     *          enlarged size.  The drag view shows it without a copy, so the caller must not
+     *          recycle it.
      * @param dragLayerX The x position in the DragLayer of the left-top of the bitmap.
      * @param dragLayerY The y position in the DragLayer of the left-top of the bitmap.
      * @param source An object representing where the drag originated
@@ -232,6 +236,7 @@ public class DragController {
         final int dragRegionTop = dragRegion == null ? 0 : dragRegion.top;
 
         mDragging = true;
+        mDropTargetIndex.invalidate();
 
         mDragObject = new DropTarget.DragObject();
 
@@ -244,7 +249,7 @@ public class DragController {
         mVibrator.vibrate(VIBRATE_DURATION);
 
         final DragView dragView = mDragObject.dragView = new DragView(mLauncher, b, registrationX,
-                registrationY, 0, 0, b.getWidth(), b.getHeight(), initialDragViewScale);
+                registrationY, initialDragViewScale);
 
         if (dragOffset != null) {
             dragView.setDragVisualizeOffset(new Point(dragOffset));
@@ -495,8 +500,9 @@ public class DragController {
         checkTouchMove(dropTarget);
 
         // Check if we are hovering over the scroll areas
-        mDistanceSinceScroll +=
-            Math.sqrt(Math.pow(mLastTouch[0] - x, 2) + Math.pow(mLastTouch[1] - y, 2));
+        final int deltaX = mLastTouch[0] - x;
+        final int deltaY = mLastTouch[1] - y;
+        mDistanceSinceScroll += Math.sqrt(deltaX * deltaX + deltaY * deltaY);
         mLastTouch[0] = x;
         mLastTouch[1] = y;
         checkScrollState(x, y);
@@ -702,38 +708,33 @@ public class DragController {
     }
 
     private DropTarget findDropTarget(int x, int y, int[] dropCoordinates) {
-        final Rect r = mRectTemp;
+        mDragObject.x = x;
+        mDragObject.y = y;
 
-        final ArrayList<DropTarget> dropTargets = mDropTargets;
-        final int count = dropTargets.size();
-        for (int i=count-1; i>=0; i--) {
-            DropTarget target = dropTargets.get(i);
-            if (!target.isDropEnabled())
-                continue;
-
-            target.getHitRect(r);
-
-            // Convert the hit rect to DragLayer coordinates
+        DropTarget target = mDropTargetIndex.findDropTarget(x, y, dropCoordinates);
+        if (target == null) {
+            return null;
+        }
+        DropTarget delegate = target.getDropTargetDelegate(mDragObject);
+        if (delegate != null) {
+            target = delegate;
             target.getLocationInDragLayer(dropCoordinates);
-            r.offset(dropCoordinates[0] - target.getLeft(), dropCoordinates[1] - target.getTop());
-
-            mDragObject.x = x;
-            mDragObject.y = y;
-            if (r.contains(x, y)) {
-                DropTarget delegate = target.getDropTargetDelegate(mDragObject);
-                if (delegate != null) {
-                    target = delegate;
-                    target.getLocationInDragLayer(dropCoordinates);
-                }
+        }
 
-                // Make dropCoordinates relative to the DropTarget
-                dropCoordinates[0] = x - dropCoordinates[0];
-                dropCoordinates[1] = y - dropCoordinates[1];
+        // Make dropCoordinates relative to the DropTarget
+        dropCoordinates[0] = x - dropCoordinates[0];
+        dropCoordinates[1] = y - dropCoordinates[1];
 
-                return target;
-            }
-        }
-        return null;
+        return target;
+    }
+
+    /**
+     * Tells the controller that drop targets may have moved, e.g. during a transition, so that
+     * where they are is measured again on the next move.  Layout and scrolling in the scroll
+     * view are noticed without this.
+     */
+    public void invalidateDropTargets() {
+        mDropTargetIndex.invalidate();
     }
 
     public void setDragScoller(DragScroller scroller) {
@@ -763,6 +764,7 @@ public class DragController {
      */
     public void addDropTarget(DropTarget target) {
         mDropTargets.add(target);
+        mDropTargetIndex.invalidate();
     }
 
     /**
@@ -770,6 +772,7 @@ public class DragController {
      */
     public void removeDropTarget(DropTarget target) {
         mDropTargets.remove(target);
+        mDropTargetIndex.invalidate();
     }
 
     /**
@@ -794,10 +797,34 @@ public class DragController {
     }
 
     /**
-     * Set which view scrolls for touch events near the edge of the screen.
+     * Set which view scrolls for touch events near the edge of the screen.  The drop targets are
+     * measured again whenever a layout or a scroll happens in its view tree.
      */
     public void setScrollView(View v) {
+        if (mScrollView != null) {
+            final ViewTreeObserver observer = mScrollView.getViewTreeObserver();
+            observer.removeOnGlobalLayoutListener(mDropTargetInvalidator);
+            observer.removeOnScrollChangedListener(mDropTargetInvalidator);
+        }
         mScrollView = v;
+        if (v != null) {
+            final ViewTreeObserver observer = v.getViewTreeObserver();
+            observer.addOnGlobalLayoutListener(mDropTargetInvalidator);
+            observer.addOnScrollChangedListener(mDropTargetInvalidator);
+        }
+    }
+
+    private class DropTargetInvalidator implements ViewTreeObserver.OnGlobalLayoutListener,
+            ViewTreeObserver.OnScrollChangedListener {
+        @Override
+        public void onGlobalLayout() {
+            mDropTargetIndex.invalidate();
+        }
+
+        @Override
+        public void onScrollChanged() {
+            mDropTargetIndex.invalidate();
+        }
     }
 
     DragView getDragView() {
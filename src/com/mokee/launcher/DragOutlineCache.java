@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mokee.launcher;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
+import android.util.LruCache;
+import android.view.View;
+import android.widget.TextView;
+
+/**
+ * The drag bitmap and drop outline of the items dragged recently, so that picking the same
+ * item up again costs neither a draw of its view nor a blur.  The bitmaps of an item that
+ * can't be cached are handed back in an entry of their own, which is simply never looked up.
+ *
+ * Entries are keyed by the item's ItemInfo and remember what the item looked like when they
+ * were made: its icon, or its widget content update, along with its size and span.  An entry
+ * no longer matching the item is dropped on lookup.  The bitmaps handed out are shared, with
+ * the cache and with the DragView showing them: they must never be drawn over or recycled.
+ *
+ * Only accessed on the main thread.
+ */
+final class DragOutlineCache {
+    // The share of the memory class the cached bitmaps may take up
+    private static final int MEMORY_FRACTION = 8;
+
+    static final class Entry {
+        final Bitmap dragBitmap;
+        final Bitmap outline;
+
+        private final Object mContent;
+        private final int mContentGeneration;
+        private final int mWidth;
+        private final int mHeight;
+        private final int mSpanX;
+        private final int mSpanY;
+
+        private Entry(View v, Object content, Bitmap dragBitmap, Bitmap outline,
+                boolean cached) {
+            this.dragBitmap = dragBitmap;
+            this.outline = outline;
+            mContent = content;
+            mContentGeneration = getContentGeneration(v);
+            mWidth = v.getWidth();
+            mHeight = v.getHeight();
+            final ItemInfo info = cached ? (ItemInfo) v.getTag() : null;
+            mSpanX = info != null ? info.spanX : 0;
+            mSpanY = info != null ? info.spanY : 0;
+        }
+
+        private boolean matches(View v, Object content) {
+            final ItemInfo info = (ItemInfo) v.getTag();
+            return mContent == content && mContentGeneration == getContentGeneration(v) &&
+                    mWidth == v.getWidth() && mHeight == v.getHeight() &&
+                    mSpanX == info.spanX && mSpanY == info.spanY;
+        }
+    }
+
+    private final LruCache<ItemInfo, Entry> mEntries;
+
+    DragOutlineCache(Context context) {
+        final ActivityManager am =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        mEntries = new LruCache<ItemInfo, Entry>(
+                am.getMemoryClass() * 1024 * 1024 / MEMORY_FRACTION) {
+            @Override
+            protected int sizeOf(ItemInfo key, Entry entry) {
+                return entry.dragBitmap.getByteCount() + entry.outline.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * Returns what v looks like for as long as it doesn't change, or null if v can't be
+     * cached: an icon still being decoded, a folder whose preview changes with its contents.
+     */
+    private static Object getContent(View v) {
+        if (!(v.getTag() instanceof ItemInfo)) {
+            return null;
+        }
+        if (v instanceof TextView) {
+            final Drawable d = ((TextView) v).getCompoundDrawables()[1];
+            if (d instanceof FastBitmapDrawable) {
+                return ((FastBitmapDrawable) d).getBitmap();
+            }
+            return d;
+        } else if (v instanceof LauncherAppWidgetHostView) {
+            return v;
+        }
+        return null;
+    }
+
+    private static int getContentGeneration(View v) {
+        return v instanceof LauncherAppWidgetHostView ?
+                ((LauncherAppWidgetHostView) v).getContentGeneration() : 0;
+    }
+
+    /** Returns the cached entry of v, or null if there is none that still matches v. */
+    Entry get(View v) {
+        final Object content = getContent(v);
+        if (content == null) {
+            return null;
+        }
+        final ItemInfo info = (ItemInfo) v.getTag();
+        final Entry entry = mEntries.get(info);
+        if (entry != null && !entry.matches(v, content)) {
+            mEntries.remove(info);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Caches the drag bitmap and outline made for v, if v can be cached.  Returns the entry
+     * holding them either way.
+     */
+    Entry put(View v, Bitmap dragBitmap, Bitmap outline) {
+        final Object content = getContent(v);
+        if (content == null) {
+            return new Entry(v, null, dragBitmap, outline, false);
+        }
+        final Entry entry = new Entry(v, content, dragBitmap, outline, true);
+        mEntries.put((ItemInfo) v.getTag(), entry);
+        return entry;
+    }
+
+    void clear() {
+        mEntries.evictAll();
+    }
+}
@@ -17,6 +17,8 @@
 
 package com.mokee.launcher;
 
+import android.animation.Animator;
+import android.animation.AnimatorListenerAdapter;
 import android.animation.ValueAnimator;
 import android.animation.ValueAnimator.AnimatorUpdateListener;
 import android.content.res.Resources;
@@ -64,7 +66,7 @@ public class DragView extends View {
      * @param registrationY The y coordinate of the registration point.
      */
     public DragView(Launcher launcher, Bitmap bitmap, int registrationX, int registrationY,
-            int left, int top, int width, int height, final float initialScale) {
+            final float initialScale) {
         super(launcher);
         mDragLayer = launcher.getDragLayer();
         mInitialScale = initialScale;
@@ -73,7 +75,7 @@ public class DragView extends View {
         final float offsetX = res.getDimensionPixelSize(R.dimen.dragViewOffsetX);
         final float offsetY = res.getDimensionPixelSize(R.dimen.dragViewOffsetY);
         final float scaleDps = res.getDimensionPixelSize(R.dimen.dragViewScale);
-        final float scale = (width + scaleDps) / width;
+        final float scale = (bitmap.getWidth() + scaleDps) / bitmap.getWidth();
 
         // Set the initial scale to avoid any jumps
         setScaleX(initialScale);
@@ -107,8 +109,9 @@ public class DragView extends View {
             }
         });
 
-        mBitmap = Bitmap.createBitmap(bitmap, left, top, width, height);
-        setDragRegion(new Rect(0, 0, width, height));
+        // The bitmap is shown as it is, so it must not be recycled while the view is around
+        mBitmap = bitmap;
+        setDragRegion(new Rect(0, 0, bitmap.getWidth(), bitmap.getHeight()));
 
         // The point in our scaled bitmap that the touch events are located
         mRegistrationX = registrationX;
@@ -203,6 +206,10 @@ public class DragView extends View {
     }
 
     public void crossFade(int duration) {
+        crossFade(duration, null);
+    }
+
+    private void crossFade(int duration, AnimatorListenerAdapter listener) {
         ValueAnimator va = LauncherAnimUtils.ofFloat(this, 0f, 1f);
         va.setDuration(duration);
         va.setInterpolator(new DecelerateInterpolator(1.5f));
@@ -210,11 +217,35 @@ public class DragView extends View {
             @Override
             public void onAnimationUpdate(ValueAnimator animation) {
                 mCrossFadeProgress = animation.getAnimatedFraction();
+                invalidate();
             }
         });
+        if (listener != null) {
+            va.addListener(listener);
+        }
         va.start();
     }
 
+    /**
+     * Fades over from the bitmap shown to the given one, which then takes its place, e.g. to
+     * replace a placeholder.  The bitmap must be the size of the one shown.
+     */
+    public void replaceBitmap(final Bitmap bitmap, int duration) {
+        setCrossFadeBitmap(bitmap);
+        crossFade(duration, new AnimatorListenerAdapter() {
+            @Override
+            public void onAnimationEnd(Animator animation) {
+                // Unless another cross fade was started in the meantime
+                if (mCrossFadeBitmap == bitmap) {
+                    mBitmap = bitmap;
+                    mCrossFadeBitmap = null;
+                    mCrossFadeProgress = 0f;
+                    invalidate();
+                }
+            }
+        });
+    }
+
     public void setColor(int color) {
         if (mPaint == null) {
             mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mokee.launcher;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Picture;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+/**
+ * Renders the drag bitmap and drop outline of an item that is costly to draw, such as a
+ * widget, on a worker thread, so that picking the item up doesn't wait for them.
+ *
+ * A view can only be drawn on the main thread, so the main thread records the drawing of the
+ * item into a Picture, which takes no more than walking the view hierarchy.  The worker plays
+ * the Picture back into the drag bitmap and blurs the outline out of it.
+ */
+final class DragVisualsRenderer {
+    interface Callback {
+        /**
+         * Called on the main thread with the rendered bitmaps, which belong to the callback.
+         */
+        void onRendered(Bitmap dragBitmap, Bitmap outline);
+    }
+
+    private static Handler sWorker;
+    // Only used on the worker, which the outline helper's paints can't be shared with
+    private static HolographicOutlineHelper sOutlineHelper;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Renders picture into a drag bitmap of the given size, and its outline in outlineColor.
+     * Must be called on the main thread.
+     */
+    void render(final Picture picture, final int width, final int height,
+            final int outlineColor, final Callback callback) {
+        if (sWorker == null) {
+            HandlerThread thread = new HandlerThread("launcher-drag-render",
+                    Process.THREAD_PRIORITY_DISPLAY);
+            thread.start();
+            sWorker = new Handler(thread.getLooper());
+        }
+        sWorker.post(new Runnable() {
+            public void run() {
+                if (sOutlineHelper == null) {
+                    sOutlineHelper = new HolographicOutlineHelper();
+                }
+                final Canvas canvas = new Canvas();
+                final Bitmap dragBitmap =
+                        Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                canvas.setBitmap(dragBitmap);
+                picture.draw(canvas);
+
+                final Bitmap outline =
+                        Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                canvas.setBitmap(outline);
+                canvas.drawBitmap(dragBitmap, 0, 0, null);
+                sOutlineHelper.applyMediumExpensiveOutlineWithBlur(outline, canvas,
+                        outlineColor, outlineColor);
+                canvas.setBitmap(null);
+
+                mMainHandler.post(new Runnable() {
+                    public void run() {
+                        callback.onRendered(dragBitmap, outline);
+                    }
+                });
+            }
+        });
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mokee.launcher;
+
+import android.graphics.Rect;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The hit rects of the drop targets of a DragController in DragLayer coordinates, indexed so
+ * that finding the target under a point doesn't walk the view tree of every target.
+ *
+ * The DragLayer is cut into vertical slabs at the left and right edges of the targets, and each
+ * slab lists the targets spanning it, the last added first as that's the one that gets the
+ * drop.  A lookup is a binary search for the slab, then a walk of its few targets.
+ *
+ * The rects are measured again on the first lookup after {@link #invalidate()}, which must be
+ * called whenever a target may have moved: when targets are added or removed, on layout and
+ * while a transition moves them around.  Whether a target is enabled is asked at lookup.
+ */
+final class DropTargetIndex {
+    private final ArrayList<DropTarget> mTargets;
+    private boolean mValid;
+
+    // Per target: its hit rect, and its own location, both in DragLayer coordinates
+    private int[] mLeft = new int[0];
+    private int[] mTop = new int[0];
+    private int[] mRight = new int[0];
+    private int[] mBottom = new int[0];
+    private int[] mLocationX = new int[0];
+    private int[] mLocationY = new int[0];
+
+    // The slab edges, ascending, and per slab the targets spanning it, by falling priority
+    private int[] mEdges = new int[0];
+    private int mEdgeCount;
+    private int[] mSlabTargets = new int[0];
+    private int[] mSlabTargetCounts = new int[0];
+
+    private final Rect mTempRect = new Rect();
+    private final int[] mTempLocation = new int[2];
+
+    DropTargetIndex(ArrayList<DropTarget> targets) {
+        mTargets = targets;
+    }
+
+    void invalidate() {
+        mValid = false;
+    }
+
+    /**
+     * Returns the enabled target whose hit rect contains the given DragLayer point, the one added
+     * last if several do, and puts its location in the DragLayer in location.  Returns null if
+     * there is none.
+     */
+    DropTarget findDropTarget(int x, int y, int[] location) {
+        if (!mValid) {
+            rebuild();
+        }
+        int slab = Arrays.binarySearch(mEdges, 0, mEdgeCount, x);
+        if (slab < 0) {
+            // Not on an edge: the slab is the one starting at the edge before x
+            slab = -slab - 2;
+        }
+        if (slab < 0 || slab >= mEdgeCount - 1) {
+            return null;
+        }
+        final int count = mTargets.size();
+        final int start = slab * count;
+        for (int i = start; i < start + mSlabTargetCounts[slab]; i++) {
+            final int target = mSlabTargets[i];
+            if (y >= mTop[target] && y < mBottom[target]) {
+                final DropTarget dropTarget = mTargets.get(target);
+                if (dropTarget.isDropEnabled()) {
+                    location[0] = mLocationX[target];
+                    location[1] = mLocationY[target];
+                    return dropTarget;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void rebuild() {
+        final int count = mTargets.size();
+        if (mLeft.length < count) {
+            mLeft = new int[count];
+            mTop = new int[count];
+            mRight = new int[count];
+            mBottom = new int[count];
+            mLocationX = new int[count];
+            mLocationY = new int[count];
+            mEdges = new int[count * 2];
+        }
+
+        final Rect r = mTempRect;
+        for (int i = 0; i < count; i++) {
+            final DropTarget target = mTargets.get(i);
+            target.getHitRect(r);
+            // Convert the hit rect to DragLayer coordinates
+            target.getLocationInDragLayer(mTempLocation);
+            r.offset(mTempLocation[0] - target.getLeft(), mTempLocation[1] - target.getTop());
+            mLeft[i] = r.left;
+            mTop[i] = r.top;
+            mRight[i] = r.right;
+            mBottom[i] = r.bottom;
+            mLocationX[i] = mTempLocation[0];
+            mLocationY[i] = mTempLocation[1];
+            mEdges[i * 2] = r.left;
+            mEdges[i * 2 + 1] = r.right;
+        }
+
+        // Sort the edges and drop the duplicates
+        Arrays.sort(mEdges, 0, count * 2);
+        mEdgeCount = 0;
+        for (int i = 0; i < count * 2; i++) {
+            if (mEdgeCount == 0 || mEdges[i] != mEdges[mEdgeCount - 1]) {
+                mEdges[mEdgeCount++] = mEdges[i];
+            }
+        }
+
+        final int slabCount = Math.max(mEdgeCount - 1, 0);
+        if (mSlabTargetCounts.length < slabCount || mSlabTargets.length < slabCount * count) {
+            mSlabTargetCounts = new int[slabCount];
+            mSlabTargets = new int[slabCount * count];
+        }
+        for (int slab = 0; slab < slabCount; slab++) {
+            final int left = mEdges[slab];
+            final int right = mEdges[slab + 1];
+            int slabTargets = 0;
+            for (int i = count - 1; i >= 0; i--) {
+                if (mLeft[i] <= left && mRight[i] >= right) {
+                    mSlabTargets[slab * count + slabTargets++] = i;
+                }
+            }
+            mSlabTargetCounts[slab] = slabTargets;
+        }
+        mValid = true;
+    }
+}
@@ -42,8 +42,21 @@ class FastBitmapDrawable extends Drawable {
         }
     }
 
+    /**
+     * Creates an empty drawable with the given intrinsic size, for a bitmap of that size that
+     * is only set later on.
+     */
+    FastBitmapDrawable(int width, int height) {
+        mAlpha = 255;
+        mWidth = width;
+        mHeight = height;
+    }
+
     @Override
     public void draw(Canvas canvas) {
+        if (mBitmap == null) {
+            return;
+        }
         final Rect r = getBounds();
         // Draw the bitmap into the bounding rect
         canvas.drawBitmap(mBitmap, null, r, mPaint);
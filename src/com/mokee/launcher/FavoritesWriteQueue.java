@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mokee.launcher;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.os.Handler;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Write-behind journal for the favorites table.  Inserts, updates and deletes are recorded
+ * per item id, later changes to the same item are folded into the pending one, and the whole
+ * journal is written out in a single {@link ContentResolver#applyBatch} shortly after the
+ * first change, or as soon as {@link #flush} is called.
+ *
+ * Changes are only ever queued on the thread of the handler it is created with, but anybody
+ * about to read the favorites table may {@link #flush} it from any thread.  Batches are applied
+ * under the queue's lock, so they reach the database in the order they were queued in.
+ */
+final class FavoritesWriteQueue {
+    private static final String TAG = "MoKeeLauncher.FavoritesWriteQueue";
+    private static final boolean DEBUG = false;
+
+    // How long a change may sit in the journal before it is written out
+    static final long FLUSH_DELAY_MS = 300;
+
+    private static final int OP_INSERT = 0;
+    private static final int OP_UPDATE = 1;
+    private static final int OP_DELETE = 2;
+
+    private static class PendingWrite {
+        int op;
+        boolean notify;
+        final ContentValues values = new ContentValues();
+
+        PendingWrite(int op, boolean notify) {
+            this.op = op;
+            this.notify = notify;
+        }
+    }
+
+    private final Handler mHandler;
+    private final LinkedHashMap<Long, PendingWrite> mPending =
+            new LinkedHashMap<Long, PendingWrite>();
+    private ContentResolver mResolver;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        public void run() {
+            flush();
+        }
+    };
+
+    FavoritesWriteQueue(Handler handler) {
+        mHandler = handler;
+    }
+
+    synchronized void insert(ContentResolver cr, long id, ContentValues values, boolean notify) {
+        PendingWrite write = new PendingWrite(OP_INSERT, notify);
+        write.values.putAll(values);
+        mPending.put(id, write);
+        scheduleFlush(cr);
+    }
+
+    synchronized void update(ContentResolver cr, long id, ContentValues values) {
+        PendingWrite write = mPending.get(id);
+        if (write == null) {
+            write = new PendingWrite(OP_UPDATE, false);
+            mPending.put(id, write);
+        } else if (write.op == OP_DELETE) {
+            // Nothing left to update
+            return;
+        }
+        // Folding into a pending insert keeps it a single insert with the latest values
+        write.values.putAll(values);
+        scheduleFlush(cr);
+    }
+
+    synchronized void delete(ContentResolver cr, long id) {
+        PendingWrite write = mPending.get(id);
+        if (write != null && write.op == OP_INSERT) {
+            // The row never made it to the database, so there is nothing to delete
+            mPending.remove(id);
+            return;
+        }
+        if (write == null) {
+            write = new PendingWrite(OP_DELETE, false);
+            mPending.put(id, write);
+        } else {
+            write.op = OP_DELETE;
+            write.values.clear();
+        }
+        scheduleFlush(cr);
+    }
+
+    private void scheduleFlush(ContentResolver cr) {
+        mResolver = cr;
+        mHandler.removeCallbacks(mFlushRunnable);
+        mHandler.postDelayed(mFlushRunnable, FLUSH_DELAY_MS);
+    }
+
+    /**
+     * Writes out everything in the journal in one batch, on the calling thread.  Anybody who is
+     * about to read the favorites table, on whatever thread, must call this first.
+     */
+    synchronized void flush() {
+        mHandler.removeCallbacks(mFlushRunnable);
+        if (mPending.isEmpty()) {
+            return;
+        }
+        final long t = DEBUG ? SystemClock.uptimeMillis() : 0;
+
+        final ArrayList<ContentProviderOperation> ops =
+                new ArrayList<ContentProviderOperation>(mPending.size());
+        for (Map.Entry<Long, PendingWrite> entry : mPending.entrySet()) {
+            final long id = entry.getKey();
+            final PendingWrite write = entry.getValue();
+            switch (write.op) {
+                case OP_INSERT:
+                    ops.add(ContentProviderOperation.newInsert(write.notify ?
+                            LauncherSettings.Favorites.CONTENT_URI :
+                            LauncherSettings.Favorites.CONTENT_URI_NO_NOTIFICATION)
+                            .withValues(write.values).build());
+                    break;
+                case OP_UPDATE:
+                    ops.add(ContentProviderOperation.newUpdate(
+                            LauncherSettings.Favorites.getContentUri(id, false))
+                            .withValues(write.values).build());
+                    break;
+                case OP_DELETE:
+                    ops.add(ContentProviderOperation.newDelete(
+                            LauncherSettings.Favorites.getContentUri(id, false)).build());
+                    break;
+            }
+        }
+        mPending.clear();
+
+        if (!applyBatch(ops)) {
+            // The batch is a single transaction, so one bad write took all of them down with it:
+            // write them one by one, so only the bad ones are lost
+            Log.w(TAG, "Could not write " + ops.size() + " favorites at once, retrying one by one");
+            final ArrayList<ContentProviderOperation> single =
+                    new ArrayList<ContentProviderOperation>(1);
+            for (ContentProviderOperation op : ops) {
+                single.clear();
+                single.add(op);
+                applyBatch(single);
+            }
+        }
+
+        if (DEBUG) {
+            Log.d(TAG, "wrote " + ops.size() + " favorites in "
+                    + (SystemClock.uptimeMillis() - t) + "ms");
+        }
+    }
+
+    /** Applies ops in one batch, returns false and logs why if it failed. */
+    private boolean applyBatch(ArrayList<ContentProviderOperation> ops) {
+        try {
+            mResolver.applyBatch(LauncherProvider.AUTHORITY, ops);
+            return true;
+        } catch (RemoteException e) {
+            Log.e(TAG, "Could not write " + describe(ops), e);
+        } catch (OperationApplicationException e) {
+            Log.e(TAG, "Could not write " + describe(ops), e);
+        } catch (RuntimeException e) {
+            // e.g. a constraint failing in the provider
+            Log.e(TAG, "Could not write " + describe(ops), e);
+        }
+        return false;
+    }
+
+    private static String describe(ArrayList<ContentProviderOperation> ops) {
+        return ops.size() == 1 ? ops.get(0).toString() : ops.size() + " favorites";
+    }
+}
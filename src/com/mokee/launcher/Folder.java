@@ -20,6 +20,7 @@ import android.animation.Animator;
 import android.animation.AnimatorListenerAdapter;
 import android.animation.ObjectAnimator;
 import android.animation.PropertyValuesHolder;
+import android.animation.ValueAnimator;
 import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
@@ -470,6 +471,15 @@ public class Folder extends LinearLayout implements DragSource, View.OnClickList
         mState = STATE_SMALL;
     }
 
+    // The folder is a drop target, and it's scaled as it opens and closes
+    private final ValueAnimator.AnimatorUpdateListener mDropTargetInvalidator =
+            new ValueAnimator.AnimatorUpdateListener() {
+        @Override
+        public void onAnimationUpdate(ValueAnimator animation) {
+            mDragController.invalidateDropTargets();
+        }
+    };
+
     public void animateOpen() {
         positionAndSizeAsIcon();
 
@@ -503,6 +513,7 @@ public class Folder extends LinearLayout implements DragSource, View.OnClickList
                 setScaleY(1);
             }
         });
+        oa.addUpdateListener(mDropTargetInvalidator);
         oa.setDuration(mExpandDuration);
         setLayerType(LAYER_TYPE_HARDWARE, null);
         oa.start();
@@ -548,6 +559,7 @@ public class Folder extends LinearLayout implements DragSource, View.OnClickList
                 mState = STATE_ANIMATING;
             }
         });
+        oa.addUpdateListener(mDropTargetInvalidator);
         oa.setDuration(mExpandDuration);
         setLayerType(LAYER_TYPE_HARDWARE, null);
         oa.start();
@@ -579,11 +591,30 @@ public class Folder extends LinearLayout implements DragSource, View.OnClickList
         }
     }
 
-    protected boolean createAndAddShortcut(ShortcutInfo item) {
+    protected boolean createAndAddShortcut(final ShortcutInfo item) {
         final TextView textView =
             (TextView) mInflater.inflate(R.layout.application, this, false);
-        textView.setCompoundDrawablesWithIntrinsicBounds(null,
-                new FastBitmapDrawable(item.getIcon(mIconCache)), null, null);
+        if (item.isIconPending()) {
+            // The folder icon draws its preview from these views, so the icon is needed even
+            // while the folder is closed; put up a placeholder until it is decoded
+            final int iconSize = (int) getResources().getDimension(R.dimen.app_icon_size);
+            final FastBitmapDrawable icon = new FastBitmapDrawable(iconSize, iconSize);
+            textView.setCompoundDrawablesWithIntrinsicBounds(null, icon, null, null);
+            item.decodeIconAsync(new Runnable() {
+                public void run() {
+                    if (textView.getTag() == item &&
+                            textView.getCompoundDrawables()[1] == icon) {
+                        // Same size as the placeholder, so no need to lay out again
+                        icon.setBitmap(item.getIcon(mIconCache));
+                        textView.invalidate();
+                        mInfo.itemsChanged();
+                    }
+                }
+            });
+        } else {
+            textView.setCompoundDrawablesWithIntrinsicBounds(null,
+                    new FastBitmapDrawable(item.getIcon(mIconCache)), null, null);
+        }
         textView.setText(item.title);
         textView.setTag(item);
 
@@ -789,11 +820,11 @@ public class Folder extends LinearLayout implements DragSource, View.OnClickList
 
     private void updateItemLocationsInDatabase() {
         ArrayList<View> list = getItemsInReadingOrder();
+        ArrayList<ItemInfo> items = new ArrayList<ItemInfo>(list.size());
         for (View v : list) {
-            ItemInfo info = (ItemInfo) v.getTag();
-            LauncherModel.moveItemInDatabase(mLauncher, info, mInfo.id, 0,
-                    info.cellX, info.cellY);
+            items.add((ItemInfo) v.getTag());
         }
+        LauncherModel.moveItemsInDatabase(mLauncher, items, mInfo.id, 0);
     }
 
     public void notifyDrop() {
@@ -1222,6 +1253,10 @@ public class Folder extends LinearLayout implements DragSource, View.OnClickList
     @Override
     public void onIconChanged(ShortcutInfo item) {
         TextView textView = (TextView) getViewForInfo(item);
+        if (textView == null) {
+            // Moved out of this folder since
+            return;
+        }
         textView.setCompoundDrawablesWithIntrinsicBounds(null,
                 new FastBitmapDrawable(item.getIcon(mIconCache)), null, null);
         mInfo.itemsChanged();
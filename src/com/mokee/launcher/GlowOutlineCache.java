@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mokee.launcher;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+/**
+ * The pressed and focused glow outlines of the icons on the workspace, in the hotseat and in
+ * folders, shared between all of them and kept up to a byte budget.
+ *
+ * An outline only depends on the icon it is drawn around, the size of the view and its
+ * colors, so icons showing the same bitmap at the same size share one outline, and pressing
+ * an icon again costs no blur at all.  The outlines handed out are shared: they must never be
+ * drawn over or recycled.
+ *
+ * Only accessed on the main thread.
+ */
+final class GlowOutlineCache {
+    // The share of the memory class the outlines may take up
+    private static final int MEMORY_FRACTION = 32;
+
+    static final class Key {
+        private final Bitmap mIcon;
+        private final int mWidth;
+        private final int mHeight;
+        private final int mGlowColor;
+        private final int mOutlineColor;
+
+        Key(Bitmap icon, int width, int height, int glowColor, int outlineColor) {
+            mIcon = icon;
+            mWidth = width;
+            mHeight = height;
+            mGlowColor = glowColor;
+            mOutlineColor = outlineColor;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key k = (Key) o;
+            // Icons are compared by identity: the same bitmap means the same pixels
+            return mIcon == k.mIcon && mWidth == k.mWidth && mHeight == k.mHeight &&
+                    mGlowColor == k.mGlowColor && mOutlineColor == k.mOutlineColor;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = System.identityHashCode(mIcon);
+            result = 31 * result + mWidth;
+            result = 31 * result + mHeight;
+            result = 31 * result + mGlowColor;
+            return 31 * result + mOutlineColor;
+        }
+    }
+
+    private static GlowOutlineCache sInstance;
+
+    private final LruCache<Key, Bitmap> mOutlines;
+
+    static GlowOutlineCache getInstance(Context context) {
+        if (sInstance == null) {
+            final ActivityManager am =
+                    (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+            sInstance = new GlowOutlineCache(am.getMemoryClass() * 1024 * 1024 / MEMORY_FRACTION);
+        }
+        return sInstance;
+    }
+
+    private GlowOutlineCache(int maxBytes) {
+        mOutlines = new LruCache<Key, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(Key key, Bitmap outline) {
+                return outline.getByteCount();
+            }
+        };
+    }
+
+    Bitmap get(Key key) {
+        return mOutlines.get(key);
+    }
+
+    void put(Key key, Bitmap outline) {
+        mOutlines.put(key, outline);
+    }
+
+    void clear() {
+        mOutlines.evictAll();
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mokee.launcher;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The icons of an apps page packed into a single bitmap, which the icons of the page draw
+ * their part of.  A page drawn into a hardware layer then uploads one texture instead of one
+ * per icon, and draws all of its icons from it.
+ *
+ * Icons are laid out in a grid of cells the size of the largest one, a pixel apart so that
+ * filtering an icon never bleeds its neighbours in.
+ */
+final class IconAtlas {
+    // Kept within the texture size every GPU we run on supports
+    private static final int MAX_SIZE = 2048;
+    private static final int GUTTER = 1;
+
+    private final Bitmap mBitmap;
+    private final HashMap<Bitmap, Rect> mRegions = new HashMap<Bitmap, Rect>();
+
+    private IconAtlas(Bitmap bitmap) {
+        mBitmap = bitmap;
+    }
+
+    /**
+     * Packs the given icons into an atlas.  Returns null if there are none, or if they don't
+     * fit in a single bitmap.
+     */
+    static IconAtlas pack(ArrayList<Bitmap> icons) {
+        final int count = icons.size();
+        if (count == 0) {
+            return null;
+        }
+        int cellWidth = 0;
+        int cellHeight = 0;
+        for (int i = 0; i < count; i++) {
+            final Bitmap icon = icons.get(i);
+            cellWidth = Math.max(cellWidth, icon.getWidth() + 2 * GUTTER);
+            cellHeight = Math.max(cellHeight, icon.getHeight() + 2 * GUTTER);
+        }
+        final int columns = (int) Math.ceil(Math.sqrt(count));
+        final int rows = (count + columns - 1) / columns;
+        if (columns * cellWidth > MAX_SIZE || rows * cellHeight > MAX_SIZE) {
+            return null;
+        }
+
+        final IconAtlas atlas = new IconAtlas(Bitmap.createBitmap(columns * cellWidth,
+                rows * cellHeight, Bitmap.Config.ARGB_8888));
+        final Canvas canvas = new Canvas(atlas.mBitmap);
+        for (int i = 0; i < count; i++) {
+            final Bitmap icon = icons.get(i);
+            if (atlas.mRegions.containsKey(icon)) {
+                continue;
+            }
+            final int left = (i % columns) * cellWidth + GUTTER;
+            final int top = (i / columns) * cellHeight + GUTTER;
+            canvas.drawBitmap(icon, left, top, null);
+            atlas.mRegions.put(icon,
+                    new Rect(left, top, left + icon.getWidth(), top + icon.getHeight()));
+        }
+        canvas.setBitmap(null);
+        return atlas;
+    }
+
+    /** Returns a drawable of the given icon out of the atlas, or null if it wasn't packed. */
+    Drawable getDrawable(Bitmap icon) {
+        final Rect region = mRegions.get(icon);
+        return region != null ? new IconDrawable(mBitmap, region) : null;
+    }
+
+    /** Draws a region of an atlas, the way FastBitmapDrawable draws a whole bitmap. */
+    static final class IconDrawable extends Drawable {
+        private final Bitmap mAtlas;
+        private final Rect mRegion;
+        private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+        IconDrawable(Bitmap atlas, Rect region) {
+            mAtlas = atlas;
+            mRegion = region;
+        }
+
+        @Override
+        public void draw(Canvas canvas) {
+            canvas.drawBitmap(mAtlas, mRegion, getBounds(), mPaint);
+        }
+
+        @Override
+        public void setColorFilter(ColorFilter cf) {
+            mPaint.setColorFilter(cf);
+        }
+
+        @Override
+        public int getOpacity() {
+            return PixelFormat.TRANSLUCENT;
+        }
+
+        @Override
+        public void setAlpha(int alpha) {
+            mPaint.setAlpha(alpha);
+        }
+
+        @Override
+        public int getIntrinsicWidth() {
+            return mRegion.width();
+        }
+
+        @Override
+        public int getIntrinsicHeight() {
+            return mRegion.height();
+        }
+
+        @Override
+        public int getMinimumWidth() {
+            return mRegion.width();
+        }
+
+        @Override
+        public int getMinimumHeight() {
+            return mRegion.height();
+        }
+    }
+}
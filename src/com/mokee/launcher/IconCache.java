@@ -19,28 +19,48 @@ package com.mokee.launcher;
 import android.app.ActivityManager;
 import android.content.ComponentName;
 import android.content.Context;
+import android.content.ContentValues;
 import android.content.Intent;
 import android.content.pm.ActivityInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.content.res.Resources;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.drawable.Drawable;
+import android.os.AsyncTask;
 import android.text.TextUtils;
+import android.util.Log;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 
 import com.mokee.launcher.preference.PreferencesProvider;
 
 /**
  * Cache of application icons.  Icons can be made from any thread.
+ *
+ * Icons and labels are also persisted to {@link IconDb}, so that a cold start can restore
+ * them without loading the package's resources.  A persisted entry is only used while the
+ * package's lastUpdateTime and the {@link #getSystemState() system state} (locale, icon pack,
+ * icon density) still match what was current when it was written.
  */
 public class IconCache {
     @SuppressWarnings("unused")
     private static final String TAG = "MoKeeLauncher.IconCache";
 
     private static final int INITIAL_ICON_CACHE_CAPACITY = 50;
+    private static final String SELECT_QUERY = IconDb.COLUMN_COMPONENT + " = ? AND " +
+            IconDb.COLUMN_LAST_UPDATED + " = ? AND " +
+            IconDb.COLUMN_SYSTEM_STATE + " = ?";
     private IconPackHelper mIconPackHelper;
 
     private static class CacheEntry {
@@ -53,8 +73,20 @@ public class IconCache {
     private final PackageManager mPackageManager;
     private final HashMap<ComponentName, CacheEntry> mCache =
             new HashMap<ComponentName, CacheEntry>(INITIAL_ICON_CACHE_CAPACITY);
+    private final HashMap<String, Long> mPackageUpdateTimes = new HashMap<String, Long>();
+    // Bumped whenever entries are removed, so that an entry built while it was being removed
+    // isn't published afterwards; see getGenerationLocked.  Guarded by mCache
+    private final HashMap<ComponentName, Integer> mComponentGenerations =
+            new HashMap<ComponentName, Integer>();
+    private final HashMap<String, Integer> mPackageGenerations = new HashMap<String, Integer>();
+    private int mFlushGeneration;
     private int mIconDpi;
 
+    private final IconDb mIconDb;
+    private volatile String mSystemState;
+    // Writes and deletes waiting to be applied to mIconDb, guarded by itself
+    private final ArrayList<DbOp> mPendingDbOps = new ArrayList<DbOp>();
+
     public IconCache(LauncherApplication context) {
         ActivityManager activityManager =
                 (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
@@ -71,6 +103,9 @@ public class IconCache {
             mIconPackHelper = new IconPackHelper(context);
             mIconPackHelper.loadIconPack(iconPack);
         }
+
+        mIconDb = new IconDb(context);
+        mSystemState = getSystemState();
     }
 
     public Drawable getFullResDefaultActivityIcon() {
@@ -148,18 +183,68 @@ public class IconCache {
      * Remove any records for the supplied ComponentName.
      */
     public void remove(ComponentName componentName) {
+        synchronized (mPackageUpdateTimes) {
+            mPackageUpdateTimes.remove(componentName.getPackageName());
+        }
         synchronized (mCache) {
             mCache.remove(componentName);
+            bumpGenerationLocked(mComponentGenerations, componentName);
+            // Under the lock, so that no write of an entry built before can be queued after
+            deleteFromDb(IconDb.COLUMN_COMPONENT + " = ?",
+                    new String[] { componentName.flattenToString() });
         }
     }
 
     /**
-     * Empty out the cache.
+     * Remove the persisted records of every component in the supplied package.
+     */
+    public void removePackage(String packageName) {
+        synchronized (mPackageUpdateTimes) {
+            mPackageUpdateTimes.remove(packageName);
+        }
+        synchronized (mCache) {
+            Iterator<ComponentName> iter = mCache.keySet().iterator();
+            while (iter.hasNext()) {
+                if (packageName.equals(iter.next().getPackageName())) {
+                    iter.remove();
+                }
+            }
+            bumpGenerationLocked(mPackageGenerations, packageName);
+            deleteFromDb(IconDb.COLUMN_COMPONENT + " LIKE ?",
+                    new String[] { packageName + "/%" });
+        }
+    }
+
+    private static <K> void bumpGenerationLocked(HashMap<K, Integer> generations, K key) {
+        final Integer generation = generations.get(key);
+        generations.put(key, generation == null ? 1 : generation + 1);
+    }
+
+    /**
+     * Returns a number that changes whenever the entry of componentName is removed, on its
+     * own, with its package or by a flush.
+     */
+    private int getGenerationLocked(ComponentName componentName) {
+        final Integer component = mComponentGenerations.get(componentName);
+        final Integer packageGeneration =
+                mPackageGenerations.get(componentName.getPackageName());
+        return mFlushGeneration + (component == null ? 0 : component) +
+                (packageGeneration == null ? 0 : packageGeneration);
+    }
+
+    /**
+     * Empty out the cache.  The persisted records are kept, but are re-validated against the
+     * current system state (locale, icon pack) before they are used again.
      */
     public void flush() {
         synchronized (mCache) {
             mCache.clear();
+            mFlushGeneration++;
+        }
+        synchronized (mPackageUpdateTimes) {
+            mPackageUpdateTimes.clear();
         }
+        mSystemState = getSystemState();
     }
 
     /**
@@ -167,57 +252,72 @@ public class IconCache {
      */
     public void getTitleAndIcon(ApplicationInfo application, ResolveInfo info,
             HashMap<Object, CharSequence> labelCache) {
-        synchronized (mCache) {
-            CacheEntry entry = cacheLocked(application.componentName, info, labelCache);
+        CacheEntry entry = getEntry(application.componentName, info, labelCache);
 
-            application.title = entry.title;
-            application.iconBitmap = entry.icon;
-        }
+        application.title = entry.title;
+        application.iconBitmap = entry.icon;
     }
 
     public Bitmap getIcon(Intent intent) {
-        synchronized (mCache) {
-            if (intent == null) {
-                return mDefaultIcon;
-            }
-
-            final ResolveInfo resolveInfo = mPackageManager.resolveActivity(intent, 0);
-            ComponentName component = intent.getComponent();
+        if (intent == null) {
+            return mDefaultIcon;
+        }
 
-            if (resolveInfo == null || component == null) {
-                return mDefaultIcon;
-            }
+        final ResolveInfo resolveInfo = mPackageManager.resolveActivity(intent, 0);
+        ComponentName component = intent.getComponent();
 
-            CacheEntry entry = cacheLocked(component, resolveInfo, null);
-            return entry.icon;
+        if (resolveInfo == null || component == null) {
+            return mDefaultIcon;
         }
+
+        CacheEntry entry = getEntry(component, resolveInfo, null);
+        return entry.icon;
     }
 
     public Bitmap getIcon(ComponentName component, ResolveInfo resolveInfo,
             HashMap<Object, CharSequence> labelCache) {
-        synchronized (mCache) {
-            if (resolveInfo == null || component == null) {
-                return null;
-            }
-
-            CacheEntry entry = cacheLocked(component, resolveInfo, labelCache);
-            return entry.icon;
+        if (resolveInfo == null || component == null) {
+            return null;
         }
+
+        CacheEntry entry = getEntry(component, resolveInfo, labelCache);
+        return entry.icon;
     }
 
     public boolean isDefaultIcon(Bitmap icon) {
         return mDefaultIcon == icon;
     }
 
-    private CacheEntry cacheLocked(ComponentName componentName, ResolveInfo info,
+    /**
+     * Returns the cached entry for componentName, creating it if necessary.  Only the map
+     * lookups hold the cache lock; loading and rendering happen outside of it so that several
+     * threads can create icons at once.  Two threads racing for the same component may both
+     * build an entry, in which case the first one published wins.  An entry removed while it
+     * was being built is handed to the caller but neither cached nor persisted.
+     *
+     * labelCache is not thread safe, so only pass one from a single thread.
+     */
+    private CacheEntry getEntry(ComponentName componentName, ResolveInfo info,
             HashMap<Object, CharSequence> labelCache) {
-        CacheEntry entry = mCache.get(componentName);
-        if (entry == null) {
-            entry = new CacheEntry();
-
-            mCache.put(componentName, entry);
+        CacheEntry entry;
+        final int generation;
+        synchronized (mCache) {
+            entry = mCache.get(componentName);
+            generation = getGenerationLocked(componentName);
+        }
+        if (entry != null) {
+            return entry;
+        }
 
-            ComponentName key = LauncherModel.getComponentNameFromResolveInfo(info);
+        entry = new CacheEntry();
+        ComponentName key = LauncherModel.getComponentNameFromResolveInfo(info);
+        final long lastUpdateTime = getPackageUpdateTime(info);
+        ContentValues dbValues = null;
+        if (readFromDb(componentName, lastUpdateTime, entry)) {
+            if (labelCache != null) {
+                labelCache.put(key, entry.title);
+            }
+        } else {
             if (labelCache != null && labelCache.containsKey(key)) {
                 entry.title = labelCache.get(key).toString();
             } else {
@@ -232,10 +332,202 @@ public class IconCache {
 
             entry.icon = Utilities.createIconBitmap(
                     getFullResIcon(info), mContext);
+
+            dbValues = getDbValues(componentName, lastUpdateTime, entry);
+        }
+
+        synchronized (mCache) {
+            if (generation != getGenerationLocked(componentName)) {
+                return entry;
+            }
+            CacheEntry existing = mCache.get(componentName);
+            if (existing != null) {
+                return existing;
+            }
+            mCache.put(componentName, entry);
+            if (dbValues != null) {
+                enqueueDbOp(new DbOp(dbValues));
+            }
         }
         return entry;
     }
 
+    /**
+     * Returns the system state the icons handed out right now are rendered under; anything
+     * else that persists rendered icons can use it to tell when they go stale.
+     */
+    String getCurrentSystemState() {
+        return mSystemState;
+    }
+
+    /**
+     * Returns a string describing everything other than the package itself that affects how an
+     * icon and label are rendered.  Persisted entries written under a different state are stale.
+     */
+    private String getSystemState() {
+        final Resources res = mContext.getResources();
+        StringBuilder sb = new StringBuilder();
+        sb.append(res.getConfiguration().locale);
+        sb.append(',');
+        sb.append(mIconDpi);
+        sb.append(',');
+        sb.append(res.getDimensionPixelSize(R.dimen.app_icon_size));
+        if (mIconPackHelper != null && mIconPackHelper.isIconPackLoaded()) {
+            final String iconPack = PreferencesProvider.Interface.General.getIconPack();
+            sb.append(',');
+            sb.append(iconPack);
+            try {
+                sb.append(',');
+                sb.append(mPackageManager.getPackageInfo(iconPack, 0).lastUpdateTime);
+            } catch (PackageManager.NameNotFoundException e) {
+                // The pack is gone; whatever was persisted for it will never match again
+            }
+        }
+        return sb.toString();
+    }
+
+    private long getPackageUpdateTime(ResolveInfo info) {
+        final String packageName = info.activityInfo.packageName;
+        Long lastUpdateTime;
+        synchronized (mPackageUpdateTimes) {
+            lastUpdateTime = mPackageUpdateTimes.get(packageName);
+        }
+        if (lastUpdateTime == null) {
+            try {
+                lastUpdateTime = mPackageManager.getPackageInfo(packageName, 0).lastUpdateTime;
+            } catch (PackageManager.NameNotFoundException e) {
+                // Never persist icons for a package we can't version
+                lastUpdateTime = 0L;
+            }
+            synchronized (mPackageUpdateTimes) {
+                mPackageUpdateTimes.put(packageName, lastUpdateTime);
+            }
+        }
+        return lastUpdateTime;
+    }
+
+    private boolean readFromDb(ComponentName componentName, long lastUpdateTime,
+            CacheEntry entry) {
+        if (lastUpdateTime == 0) {
+            return false;
+        }
+        Cursor c = null;
+        try {
+            c = mIconDb.getReadableDatabase().query(IconDb.TABLE_NAME,
+                    new String[] { IconDb.COLUMN_ICON, IconDb.COLUMN_LABEL },
+                    SELECT_QUERY,
+                    new String[] { componentName.flattenToString(),
+                            Long.toString(lastUpdateTime), mSystemState },
+                    null, null, null);
+            if (!c.moveToFirst()) {
+                return false;
+            }
+            byte[] data = c.getBlob(0);
+            Bitmap icon = BitmapFactory.decodeByteArray(data, 0, data.length);
+            if (icon == null) {
+                return false;
+            }
+            entry.icon = icon;
+            entry.title = c.getString(1);
+            return true;
+        } catch (SQLiteException e) {
+            Log.w(TAG, "Could not read icon for " + componentName, e);
+            return false;
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+    }
+
+    /** Returns the persisted form of entry, or null if it can't be persisted. */
+    private ContentValues getDbValues(ComponentName componentName, long lastUpdateTime,
+            CacheEntry entry) {
+        if (lastUpdateTime == 0 || entry.icon == null) {
+            return null;
+        }
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        entry.icon.compress(Bitmap.CompressFormat.PNG, 100, stream);
+
+        ContentValues values = new ContentValues();
+        values.put(IconDb.COLUMN_COMPONENT, componentName.flattenToString());
+        values.put(IconDb.COLUMN_LAST_UPDATED, lastUpdateTime);
+        values.put(IconDb.COLUMN_SYSTEM_STATE, mSystemState);
+        values.put(IconDb.COLUMN_ICON, stream.toByteArray());
+        values.put(IconDb.COLUMN_LABEL, entry.title);
+        return values;
+    }
+
+    private void deleteFromDb(String selection, String[] selectionArgs) {
+        enqueueDbOp(new DbOp(selection, selectionArgs));
+    }
+
+    private void enqueueDbOp(DbOp op) {
+        synchronized (mPendingDbOps) {
+            mPendingDbOps.add(op);
+            if (mPendingDbOps.size() > 1) {
+                // A flush is already scheduled and will pick this up
+                return;
+            }
+        }
+        // Icons are typically created in bursts by the loader, so apply them all in one
+        // transaction off the calling thread
+        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+            public void run() {
+                flushPendingDbOps();
+            }
+        });
+    }
+
+    private void flushPendingDbOps() {
+        ArrayList<DbOp> ops;
+        synchronized (mPendingDbOps) {
+            ops = new ArrayList<DbOp>(mPendingDbOps);
+            mPendingDbOps.clear();
+        }
+        try {
+            SQLiteDatabase db = mIconDb.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                // Applied in order, so a delete can't be overtaken by an older write
+                for (DbOp op : ops) {
+                    if (op.values != null) {
+                        db.insertWithOnConflict(IconDb.TABLE_NAME, null, op.values,
+                                SQLiteDatabase.CONFLICT_REPLACE);
+                    } else {
+                        db.delete(IconDb.TABLE_NAME, op.selection, op.selectionArgs);
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (SQLiteException e) {
+            Log.w(TAG, "Could not update " + ops.size() + " persisted icons", e);
+        }
+    }
+
+    /**
+     * A pending write (values != null) or delete against {@link IconDb}.
+     */
+    private static class DbOp {
+        final ContentValues values;
+        final String selection;
+        final String[] selectionArgs;
+
+        DbOp(ContentValues values) {
+            this.values = values;
+            this.selection = null;
+            this.selectionArgs = null;
+        }
+
+        DbOp(String selection, String[] selectionArgs) {
+            this.values = null;
+            this.selection = selection;
+            this.selectionArgs = selectionArgs;
+        }
+    }
+
     public HashMap<ComponentName, Bitmap> getAllIcons() {
         synchronized (mCache) {
             HashMap<ComponentName, Bitmap> set = new HashMap<ComponentName,Bitmap>();
@@ -246,4 +538,39 @@ public class IconCache {
             return set;
         }
     }
+
+    static class IconDb extends SQLiteOpenHelper {
+        final static int DB_VERSION = 1;
+        final static String DB_NAME = "app_icons.db";
+        final static String TABLE_NAME = "icons";
+        final static String COLUMN_COMPONENT = "component";
+        final static String COLUMN_LAST_UPDATED = "last_updated";
+        final static String COLUMN_SYSTEM_STATE = "system_state";
+        final static String COLUMN_ICON = "icon";
+        final static String COLUMN_LABEL = "label";
+
+        public IconDb(Context context) {
+            super(context, new File(context.getCacheDir(), DB_NAME).getPath(), null, DB_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (" +
+                    COLUMN_COMPONENT + " TEXT NOT NULL PRIMARY KEY, " +
+                    COLUMN_LAST_UPDATED + " INTEGER NOT NULL DEFAULT 0, " +
+                    COLUMN_SYSTEM_STATE + " TEXT, " +
+                    COLUMN_ICON + " BLOB, " +
+                    COLUMN_LABEL + " TEXT" +
+                    ");");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            if (oldVersion != newVersion) {
+                // This is a cache; just start over
+                db.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
+                onCreate(db);
+            }
+        }
+    }
 }
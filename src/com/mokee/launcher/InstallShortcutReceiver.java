@@ -29,6 +29,8 @@ import android.content.pm.ActivityInfo;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Base64;
 import android.util.Log;
 import android.widget.Toast;
@@ -75,6 +77,8 @@ public class InstallShortcutReceiver extends BroadcastReceiver {
 
     private static Object sLock = new Object();
 
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
     private static void addToStringSet(SharedPreferences sharedPrefs,
             SharedPreferences.Editor editor, String key, String value) {
         Set<String> strings = sharedPrefs.getStringSet(key, null);
@@ -239,7 +243,20 @@ public class InstallShortcutReceiver extends BroadcastReceiver {
         }
     }
 
-    private static void processInstallShortcut(Context context,
+    private static void processInstallShortcut(final Context context,
+            final PendingInstallShortcutInfo pendingInfo) {
+        // The favorites are read on the worker thread, behind the model's own writes, so that
+        // neither the read nor the writes still queued for it hold up the main thread.  As each
+        // shortcut is added to the model there, the next one sees it.
+        final Context appContext = context.getApplicationContext();
+        LauncherModel.runOnWorkerThread(new Runnable() {
+            public void run() {
+                processInstallShortcutOnWorkerThread(appContext, pendingInfo);
+            }
+        });
+    }
+
+    private static void processInstallShortcutOnWorkerThread(final Context context,
             PendingInstallShortcutInfo pendingInfo) {
         String spKey = LauncherApplication.getSharedPreferencesKey();
         SharedPreferences sp = context.getSharedPreferences(spKey, Context.MODE_PRIVATE);
@@ -248,43 +265,42 @@ public class InstallShortcutReceiver extends BroadcastReceiver {
         final Intent intent = pendingInfo.launchIntent;
         final String name = pendingInfo.name;
 
-        // Lock on the app so that we don't try and get the items while apps are being added
-        LauncherApplication app = (LauncherApplication) context.getApplicationContext();
         final int[] result = {INSTALL_SHORTCUT_SUCCESSFUL};
         boolean found = false;
-        synchronized (app) {
-            // Flush the LauncherModel worker thread, so that if we just did another
-            // processInstallShortcut, we give it time for its shortcut to get added to the
-            // database (getItemsInLocalCoordinates reads the database)
-            app.getModel().flushWorkerThread();
-            final ArrayList<ItemInfo> items = LauncherModel.getItemsInLocalCoordinates(context);
-            final boolean exists = LauncherModel.shortcutExists(context, intent);
-
-            // Try adding to the workspace screens incrementally, starting at the default or center
-            // screen and alternating between +1, -1, +2, -2, etc. (using ~ ceil(i/2f)*(-1)^(i-1))
-            final int screenCount = PreferencesProvider.Interface.Homescreen.getNumberHomescreens();
-            final int screenDefault = PreferencesProvider.Interface.Homescreen.getDefaultHomescreen(screenCount / 2);
-            final int screen = (screenDefault >= screenCount) ? screenCount / 2 : screenDefault;
-
-            for (int i = 0; i <= (2 * screenCount) + 1 && !found; ++i) {
-                int si = screen + (int) ((i / 2f) + 0.5f) * ((i % 2 == 1) ? 1 : -1);
-                if (0 <= si && si < screenCount) {
-                    found = installShortcut(context, data, items, intent, si, exists, sp,
-                            result);
-                }
+        final ArrayList<ItemInfo> items = LauncherModel.getItemsInLocalCoordinates(context);
+        final boolean exists = LauncherModel.shortcutExists(context, intent);
+
+        // Try adding to the workspace screens incrementally, starting at the default or center
+        // screen and alternating between +1, -1, +2, -2, etc. (using ~ ceil(i/2f)*(-1)^(i-1))
+        final int screenCount = PreferencesProvider.Interface.Homescreen.getNumberHomescreens();
+        final int screenDefault = PreferencesProvider.Interface.Homescreen.getDefaultHomescreen(screenCount / 2);
+        final int screen = (screenDefault >= screenCount) ? screenCount / 2 : screenDefault;
+
+        for (int i = 0; i <= (2 * screenCount) + 1 && !found; ++i) {
+            int si = screen + (int) ((i / 2f) + 0.5f) * ((i % 2 == 1) ? 1 : -1);
+            if (0 <= si && si < screenCount) {
+                found = installShortcut(context, data, items, intent, si, exists, sp,
+                        result);
             }
         }
 
         // We only report error messages (duplicate shortcut or out of space) as the add-animation
         // will provide feedback otherwise
         if (!found) {
-            if (result[0] == INSTALL_SHORTCUT_NO_SPACE) {
-                Toast.makeText(context, context.getString(R.string.completely_out_of_space),
-                        Toast.LENGTH_SHORT).show();
-            } else if (result[0] == INSTALL_SHORTCUT_IS_DUPLICATE) {
-                Toast.makeText(context, context.getString(R.string.shortcut_duplicate, name),
-                        Toast.LENGTH_SHORT).show();
-            }
+            final int error = result[0];
+            sMainHandler.post(new Runnable() {
+                public void run() {
+                    if (error == INSTALL_SHORTCUT_NO_SPACE) {
+                        Toast.makeText(context,
+                                context.getString(R.string.completely_out_of_space),
+                                Toast.LENGTH_SHORT).show();
+                    } else if (error == INSTALL_SHORTCUT_IS_DUPLICATE) {
+                        Toast.makeText(context,
+                                context.getString(R.string.shortcut_duplicate, name),
+                                Toast.LENGTH_SHORT).show();
+                    }
+                }
+            });
         } else {
             // When the shortcut put successful, broadcast an intent with package name
             // So the application can use it to show a toast.
@@ -357,25 +373,16 @@ public class InstallShortcutReceiver extends BroadcastReceiver {
             int screen) {
         final int xCount = LauncherModel.getWorkspaceCellCountX();
         final int yCount = LauncherModel.getWorkspaceCellCountY();
-        boolean[][] occupied = new boolean[xCount][yCount];
+        OccupancyGrid occupied = new OccupancyGrid(xCount, yCount);
 
-        int cellX, cellY, spanX, spanY;
         for (ItemInfo item : items) {
             if (item.container == LauncherSettings.Favorites.CONTAINER_DESKTOP) {
                 if (item.screen == screen) {
-                    cellX = item.cellX;
-                    cellY = item.cellY;
-                    spanX = item.spanX;
-                    spanY = item.spanY;
-                    for (int x = cellX; 0 <= x && x < cellX + spanX && x < xCount; x++) {
-                        for (int y = cellY; 0 <= y && y < cellY + spanY && y < yCount; y++) {
-                            occupied[x][y] = true;
-                        }
-                    }
+                    occupied.markRegion(item.cellX, item.cellY, item.spanX, item.spanY, true);
                 }
             }
         }
 
-        return CellLayout.findVacantCell(xy, 1, 1, xCount, yCount, occupied);
+        return occupied.findVacantCell(xy, 1, 1);
     }
 }
@@ -731,7 +731,7 @@ public final class Launcher extends Activity
                                     iconPackageIndex, iconResourceIndex, iconIndex,
                                     titleIndex, -1);
                         }
-                        mDialogIcon.setImageBitmap(info.getIcon(null));
+                        setDialogIcon(info);
                         mDialogIcon.setTag(null);
                         c.close();
                     }
@@ -927,6 +927,11 @@ public final class Launcher extends Activity
         mPaused = true;
         mDragController.cancelDrag();
         mDragController.resetLastGestureUpTime();
+
+        // Don't leave moves sitting in the write queue while we are in the background
+        mModel.flushPendingWrites();
+        // ... and let the next process start from what is on screen now
+        mModel.saveWorkspaceSnapshot();
     }
 
     @Override
@@ -1150,18 +1155,41 @@ public final class Launcher extends Activity
         }
     }
 
+    /**
+     * Shows the icon of info in the edit dialog; an icon still pending is decoded in the
+     * background and shown once it is ready, unless another one was picked in the meantime.
+     */
+    private void setDialogIcon(final ShortcutInfo info) {
+        final ImageButton dialogIcon = mDialogIcon;
+        if (!info.isIconPending()) {
+            dialogIcon.setImageBitmap(info.getIcon(mIconCache));
+            return;
+        }
+        dialogIcon.setImageDrawable(null);
+        info.decodeIconAsync(new Runnable() {
+            public void run() {
+                if (dialogIcon.getDrawable() == null) {
+                    dialogIcon.setImageBitmap(info.getIcon(mIconCache));
+                }
+            }
+        });
+    }
+
     /**
      * Starts shortcut rename dialog.
      *
      * @param info The shortcut to be edited
      */
     void updateShortcut(final ShortcutInfo info) {
+        if (info.fromSnapshot) {
+            return;
+        }
         mSelectedDialogId = String.valueOf(info.id);
         AlertDialog.Builder builder = new AlertDialog.Builder(this);
         View layout = mInflater.inflate(R.layout.dialog_edit, null);
         mDialogIcon = (ImageButton) layout.findViewById(R.id.dialog_edit_icon);
         mDialogIcon.setScaleType(ImageView.ScaleType.CENTER_INSIDE);
-        mDialogIcon.setImageBitmap(info.getIcon(mIconCache));
+        setDialogIcon(info);
         mDialogIcon.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
@@ -3303,6 +3331,8 @@ public final class Launcher extends Activity
         super.onTrimMemory(level);
         if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
             mAppsCustomizeTabHost.onTrimMemory();
+            GlowOutlineCache.getInstance(this).clear();
+            mWorkspace.clearDragOutlineCache();
         }
     }
 
@@ -4097,7 +4127,7 @@ public final class Launcher extends Activity
         // Alert live folder receivers
         HashMap<ComponentName, ArrayList<Long>> receivers =
                 new HashMap<ComponentName, ArrayList<Long>>();
-        for (FolderInfo i : getModel().sBgFolders.values()) {
+        for (FolderInfo i : LauncherModel.sBgSnapshot.folders.values()) {
             if (i instanceof LiveFolderInfo) {
                 LiveFolderInfo info = (LiveFolderInfo) i;
                 ArrayList<Long> ids = null;
@@ -34,6 +34,8 @@ public class LauncherAppWidgetHostView extends AppWidgetHostView {
     private LayoutInflater mInflater;
     private Context mContext;
     private int mPreviousOrientation;
+    // Bumped on every update of the widget's content, to tell cached drawings of it apart
+    private int mContentGeneration;
 
     public LauncherAppWidgetHostView(Context context) {
         super(context);
@@ -51,9 +53,14 @@ public class LauncherAppWidgetHostView extends AppWidgetHostView {
     public void updateAppWidget(RemoteViews remoteViews) {
         // Store the orientation in which the widget was inflated
         mPreviousOrientation = mContext.getResources().getConfiguration().orientation;
+        mContentGeneration++;
         super.updateAppWidget(remoteViews);
     }
 
+    int getContentGeneration() {
+        return mContentGeneration;
+    }
+
     public boolean orientationChangedSincedInflation() {
         int orientation = mContext.getResources().getConfiguration().orientation;
         return mPreviousOrientation != orientation;
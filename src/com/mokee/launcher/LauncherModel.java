@@ -41,6 +41,8 @@ import android.net.Uri;
 import android.os.Environment;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.MessageQueue;
 import android.os.Parcelable;
 import android.os.Process;
 import android.os.RemoteException;
@@ -62,7 +64,16 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Maintains in-memory state of the Launcher. It is expected that there should be only one
@@ -74,6 +85,25 @@ public class LauncherModel extends BroadcastReceiver {
     private static final String TAG = "MoKeeLauncher.LauncherModel";
 
     private static final int ITEMS_CHUNK = 6; // batch size for the workspace icons
+
+    // Selects the favorites on a given desktop screen (bound to both '?'), in the hotseat, or
+    // inside a folder that is on that screen or in the hotseat
+    private static final String CURRENT_SCREEN_SELECTION =
+            "(" + LauncherSettings.Favorites.CONTAINER + " = "
+                    + LauncherSettings.Favorites.CONTAINER_DESKTOP + " AND "
+                    + LauncherSettings.Favorites.SCREEN + " = ?) OR "
+            + LauncherSettings.Favorites.CONTAINER + " = "
+                    + LauncherSettings.Favorites.CONTAINER_HOTSEAT + " OR "
+            + LauncherSettings.Favorites.CONTAINER + " IN (SELECT "
+                    + LauncherSettings.Favorites._ID + " FROM " + LauncherProvider.TABLE_FAVORITES
+                    + " WHERE " + LauncherSettings.Favorites.ITEM_TYPE + " IN ("
+                    + LauncherSettings.Favorites.ITEM_TYPE_FOLDER + ", "
+                    + LauncherSettings.Favorites.ITEM_TYPE_LIVE_FOLDER + ") AND ("
+                    + LauncherSettings.Favorites.CONTAINER + " = "
+                    + LauncherSettings.Favorites.CONTAINER_HOTSEAT + " OR ("
+                    + LauncherSettings.Favorites.CONTAINER + " = "
+                    + LauncherSettings.Favorites.CONTAINER_DESKTOP + " AND "
+                    + LauncherSettings.Favorites.SCREEN + " = ?)))";
     private final boolean mAppsCanBeOnExternalStorage;
 
     private final LauncherApplication mApp;
@@ -95,6 +125,28 @@ public class LauncherModel extends BroadcastReceiver {
     }
     private static final Handler sWorker = new Handler(sWorkerThread.getLooper());
 
+    // Coalesces the favorites writes made on sWorkerThread into batches; only access it there
+    private static final FavoritesWriteQueue sWriteQueue = new FavoritesWriteQueue(sWorker);
+
+    // Bounded pool that the loader fans out to when building the all apps icons and labels, so
+    // that all apps readiness scales with the number of cores rather than the number of apps.
+    // Results are always merged back on sWorkerThread.
+    private static final int ICON_LOADER_THREADS =
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final int ALL_APPS_BATCH_SIZE = 8; // apps built per pooled task
+    private static final ThreadPoolExecutor sIconLoaderExecutor = new ThreadPoolExecutor(
+            ICON_LOADER_THREADS, ICON_LOADER_THREADS, 1, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger(1);
+
+                public Thread newThread(Runnable r) {
+                    return new Thread(r, "launcher-icon-loader-" + mCount.getAndIncrement());
+                }
+            });
+    static {
+        sIconLoaderExecutor.allowCoreThreadTimeOut(true);
+    }
+
     // We start off with everything not loaded.  After that, we assume that
     // our monitoring of the package manager provides all updates and we never
     // need to do a requery.  These are only ever touched from the loader thread.
@@ -112,10 +164,9 @@ public class LauncherModel extends BroadcastReceiver {
     // < only access in worker thread >
     private AllAppsList mBgAllAppsList;
 
-    // The lock that must be acquired before referencing any static bg data structures.  Unlike
-    // other locks, this one can generally be held long-term because we never expect any of these
-    // static data structures to be referenced outside of the worker thread except on the first
-    // load after configuration change.
+    // The lock that must be acquired before modifying any static bg data structures.  Unlike
+    // other locks, this one can generally be held long-term because only the worker thread ever
+    // waits on it: readers read sBgSnapshot instead.
     static final Object sBgLock = new Object();
 
     // sBgItemsIdMap maps *all* the ItemInfos (shortcuts, folders, and widgets) created by
@@ -136,6 +187,22 @@ public class LauncherModel extends BroadcastReceiver {
 
     // sBgDbIconCache is the set of ItemInfos that need to have their icons updated in the database
     static final HashMap<Object, byte[]> sBgDbIconCache = new HashMap<Object, byte[]>();
+
+    // Whether the bg data structures hold the whole workspace (and not just the first pass of
+    // an incremental load, or nothing at all)
+    private static boolean sBgWorkspaceComplete;
+    // </ only access in worker thread >
+
+    // sBgSnapshot is a copy of the collections of the bg data structures above; the ItemInfos
+    // in it are the model's own, and still change.  Writers publish a new one under sBgLock
+    // after every change; readers (the binder, the UI thread, receivers) only ever read this
+    // reference and never need to take sBgLock.
+    static volatile BgSnapshot sBgSnapshot = new BgSnapshot(false);
+
+    // < only access in worker thread >
+    // Whether the workspace snapshot on disk may still be bound; only true until the first
+    // workspace load of this process
+    private static boolean sWorkspaceSnapshotUsable = true;
     // </ only access in worker thread >
 
     private IconCache mIconCache;
@@ -194,7 +261,7 @@ public class LauncherModel extends BroadcastReceiver {
 
     /** Runs the specified runnable immediately if called from the worker thread, otherwise it is
      * posted on the worker thread handler. */
-    private static void runOnWorkerThread(Runnable r) {
+    static void runOnWorkerThread(Runnable r) {
         if (sWorkerThread.getThreadId() == Process.myTid()) {
             r.run();
         } else {
@@ -223,21 +290,18 @@ public class LauncherModel extends BroadcastReceiver {
 
     /** Unbinds all the sBgWorkspaceItems and sBgAppWidgets on the main thread */
     void unbindWorkspaceItemsOnMainThread() {
-        // Ensure that we don't use the same workspace items data structure on the main thread
-        // by making a copy of workspace items first.
-        final ArrayList<ItemInfo> tmpWorkspaceItems = new ArrayList<ItemInfo>();
-        final ArrayList<ItemInfo> tmpAppWidgets = new ArrayList<ItemInfo>();
-        synchronized (sBgLock) {
-            tmpWorkspaceItems.addAll(sBgWorkspaceItems);
-            tmpAppWidgets.addAll(sBgAppWidgets);
-        }
+        // The snapshot's collections are never modified, so they are safe to hand over to the
+        // main thread as is.
+        final BgSnapshot snapshot = sBgSnapshot;
+        final List<ItemInfo> tmpWorkspaceItems = snapshot.workspaceItems;
+        final List<LauncherAppWidgetInfo> tmpAppWidgets = snapshot.appWidgets;
         Runnable r = new Runnable() {
                 @Override
                 public void run() {
                    for (ItemInfo item : tmpWorkspaceItems) {
                        item.unbind();
                    }
-                   for (ItemInfo item : tmpAppWidgets) {
+                   for (LauncherAppWidgetInfo item : tmpAppWidgets) {
                        item.unbind();
                    }
                 }
@@ -245,6 +309,66 @@ public class LauncherModel extends BroadcastReceiver {
         runOnMainThread(r);
     }
 
+    // The bg data structures a change touched, for publishBgSnapshotLocked
+    static final int BG_WORKSPACE_ITEMS = 1 << 0;
+    static final int BG_APP_WIDGETS = 1 << 1;
+    static final int BG_FOLDERS = 1 << 2;
+    static final int BG_ITEMS_ID_MAP = 1 << 3;
+    static final int BG_ALL = BG_WORKSPACE_ITEMS | BG_APP_WIDGETS | BG_FOLDERS | BG_ITEMS_ID_MAP;
+
+    /**
+     * A copy of the collections of the bg data structures, which are never modified once
+     * published.  The snapshot is not immutable: the ItemInfos in it are the model's own, which
+     * are bound to views and still change after publishing, and are not copied.  Only the
+     * collections that changed since the previous snapshot are copied: the others are shared
+     * with it.
+     */
+    static final class BgSnapshot {
+        final List<ItemInfo> workspaceItems;
+        final List<LauncherAppWidgetInfo> appWidgets;
+        final Map<Long, FolderInfo> folders;
+        final Map<Long, ItemInfo> itemsIdMap;
+        // Whether this holds the whole workspace; when false, readers that need every item
+        // must go to the database instead
+        final boolean complete;
+
+        private BgSnapshot(boolean complete) {
+            this(null, BG_ALL, complete);
+        }
+
+        private BgSnapshot(BgSnapshot previous, int changed, boolean complete) {
+            if (previous == null) {
+                changed = BG_ALL;
+            }
+            this.workspaceItems = (changed & BG_WORKSPACE_ITEMS) != 0
+                    ? Collections.unmodifiableList(new ArrayList<ItemInfo>(sBgWorkspaceItems))
+                    : previous.workspaceItems;
+            this.appWidgets = (changed & BG_APP_WIDGETS) != 0
+                    ? Collections.unmodifiableList(
+                            new ArrayList<LauncherAppWidgetInfo>(sBgAppWidgets))
+                    : previous.appWidgets;
+            this.folders = (changed & BG_FOLDERS) != 0
+                    ? Collections.unmodifiableMap(new HashMap<Long, FolderInfo>(sBgFolders))
+                    : previous.folders;
+            this.itemsIdMap = (changed & BG_ITEMS_ID_MAP) != 0
+                    ? Collections.unmodifiableMap(new HashMap<Long, ItemInfo>(sBgItemsIdMap))
+                    : previous.itemsIdMap;
+            this.complete = complete;
+        }
+    }
+
+    /**
+     * Publishes the current state of the bg data structures to readers.  Must be called with
+     * sBgLock held, after every change to them; changed is the set of BG_* flags of the
+     * structures that changed, and only those are copied.  Callers that make several changes
+     * in a row publish once, after the last one.  A new snapshot is published even when no
+     * collection changed, as for an item moved within its container, so that readers of the
+     * snapshot also see the new fields of the items changed before it.
+     */
+    static void publishBgSnapshotLocked(int changed) {
+        sBgSnapshot = new BgSnapshot(sBgSnapshot, changed, sBgWorkspaceComplete);
+    }
+
     /**
      * Adds an item to the DB if it was not created previously, or move it to a new
      * <container, screen, cellX, cellY>
@@ -318,60 +442,93 @@ public class LauncherModel extends BroadcastReceiver {
 
     static void updateItemInDatabaseHelper(Context context, final ContentValues values,
             final ItemInfo item) {
-        final long itemId = item.id;
-        final Uri uri = LauncherSettings.Favorites.getContentUri(itemId, false);
+        final ArrayList<ContentValues> valuesList = new ArrayList<ContentValues>(1);
+        final ArrayList<ItemInfo> items = new ArrayList<ItemInfo>(1);
+        valuesList.add(values);
+        items.add(item);
+        updateItemsInDatabaseHelper(context, valuesList, items);
+    }
+
+    /**
+     * Updates many items, keyed by their ids, in a single pass of the worker thread: the rows
+     * end up in the same write queue batch and the model snapshot is published only once.
+     */
+    static void updateItemsInDatabaseHelper(Context context,
+            final ArrayList<ContentValues> valuesList, final ArrayList<ItemInfo> items) {
+        final int count = items.size();
+        final long[] itemIds = new long[count];
+        for (int i = 0; i < count; i++) {
+            itemIds[i] = items.get(i).id;
+        }
         final ContentResolver cr = context.getContentResolver();
 
         final StackTraceElement[] stackTrace = new Throwable().getStackTrace();
         Runnable r = new Runnable() {
             public void run() {
-                cr.update(uri, values, null, null);
+                for (int i = 0; i < count; i++) {
+                    sWriteQueue.update(cr, itemIds[i], valuesList.get(i));
+                }
 
                 // Lock on mBgLock *after* the db operation
                 synchronized (sBgLock) {
-                    checkItemInfoLocked(itemId, item, stackTrace);
-
-                    if (item.container != LauncherSettings.Favorites.CONTAINER_DESKTOP &&
-                            item.container != LauncherSettings.Favorites.CONTAINER_HOTSEAT) {
-                        // Item is in a folder, make sure this folder exists
-                        if (!sBgFolders.containsKey(item.container)) {
-                            // An items container is being set to a that of an item which is not in
-                            // the list of Folders.
-                            String msg = "item: " + item + " container being set to: " +
-                                    item.container + ", not in the list of folders";
-                            Log.e(TAG, msg);
-                            Launcher.dumpDebugLogsToConsole();
-                        }
-                    }
-
-                    // Items are added/removed from the corresponding FolderInfo elsewhere, such
-                    // as in Workspace.onDrop. Here, we just add/remove them from the list of items
-                    // that are on the desktop, as appropriate
-                    ItemInfo modelItem = sBgItemsIdMap.get(itemId);
-                    if (modelItem != null && (modelItem.container == LauncherSettings.Favorites.CONTAINER_DESKTOP ||
-                            modelItem.container == LauncherSettings.Favorites.CONTAINER_HOTSEAT)) {
-                        switch (modelItem.itemType) {
-                            case LauncherSettings.Favorites.ITEM_TYPE_APPLICATION:
-                            case LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT:
-                            case LauncherSettings.Favorites.ITEM_TYPE_FOLDER:
-                            case LauncherSettings.Favorites.ITEM_TYPE_LIVE_FOLDER:
-                            case LauncherSettings.Favorites.ITEM_TYPE_ALLAPPS:
-                                if (!sBgWorkspaceItems.contains(modelItem)) {
-                                    sBgWorkspaceItems.add(modelItem);
-                                }
-                                break;
-                            default:
-                                break;
-                        }
-                    } else {
-                        sBgWorkspaceItems.remove(modelItem);
+                    int changed = 0;
+                    for (int i = 0; i < count; i++) {
+                        changed |= updateItemInModelLocked(itemIds[i], items.get(i), stackTrace);
                     }
+                    publishBgSnapshotLocked(changed);
                 }
             }
         };
         runOnWorkerThread(r);
     }
 
+    /**
+     * Updates the bg data structures for a change to item, returns the BG_* flags of the ones
+     * that changed.
+     */
+    private static int updateItemInModelLocked(long itemId, ItemInfo item,
+            StackTraceElement[] stackTrace) {
+        checkItemInfoLocked(itemId, item, stackTrace);
+
+        if (item.container != LauncherSettings.Favorites.CONTAINER_DESKTOP &&
+                item.container != LauncherSettings.Favorites.CONTAINER_HOTSEAT) {
+            // Item is in a folder, make sure this folder exists
+            if (!sBgFolders.containsKey(item.container)) {
+                // An items container is being set to a that of an item which is not in
+                // the list of Folders.
+                String msg = "item: " + item + " container being set to: " +
+                        item.container + ", not in the list of folders";
+                Log.e(TAG, msg);
+                Launcher.dumpDebugLogsToConsole();
+            }
+        }
+
+        // Items are added/removed from the corresponding FolderInfo elsewhere, such
+        // as in Workspace.onDrop. Here, we just add/remove them from the list of items
+        // that are on the desktop, as appropriate
+        ItemInfo modelItem = sBgItemsIdMap.get(itemId);
+        if (modelItem != null && (modelItem.container == LauncherSettings.Favorites.CONTAINER_DESKTOP ||
+                modelItem.container == LauncherSettings.Favorites.CONTAINER_HOTSEAT)) {
+            switch (modelItem.itemType) {
+                case LauncherSettings.Favorites.ITEM_TYPE_APPLICATION:
+                case LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT:
+                case LauncherSettings.Favorites.ITEM_TYPE_FOLDER:
+                case LauncherSettings.Favorites.ITEM_TYPE_LIVE_FOLDER:
+                case LauncherSettings.Favorites.ITEM_TYPE_ALLAPPS:
+                    if (!sBgWorkspaceItems.contains(modelItem)) {
+                        sBgWorkspaceItems.add(modelItem);
+                        return BG_WORKSPACE_ITEMS;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        } else if (sBgWorkspaceItems.remove(modelItem)) {
+            return BG_WORKSPACE_ITEMS;
+        }
+        return 0;
+    }
+
     public void flushWorkerThread() {
         mFlushingWorkerThread = true;
         Runnable waiter = new Runnable() {
@@ -401,12 +558,95 @@ public class LauncherModel extends BroadcastReceiver {
         }
     }
 
+    /**
+     * Writes out the favorites changes still waiting in the write queue on the calling thread.
+     * Anybody who reads the favorites table calls this first, so that it doesn't read a table
+     * up to FavoritesWriteQueue.FLUSH_DELAY_MS behind the model.  Writing them out can take a
+     * while, so this must not be called on the main thread: readers there answer from
+     * sBgSnapshot instead, or post their read to the worker thread.
+     */
+    static void flushWriteQueue() {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            throw new RuntimeException("Expected flushWriteQueue() to be called off the main " +
+                    "thread");
+        }
+        sWriteQueue.flush();
+    }
+
+    /**
+     * Writes out the favorites changes still waiting in the write queue, without waiting for
+     * them to complete.
+     */
+    void flushPendingWrites() {
+        runOnWorkerThread(new Runnable() {
+            public void run() {
+                sWriteQueue.flush();
+            }
+        });
+    }
+
+    /**
+     * Trims the widget preview db of previews that are of no use anymore, once the worker
+     * thread has nothing else to do.
+     */
+    static void trimWidgetPreviewsWhenIdle(final WidgetPreviewLoader.CacheDb cacheDb,
+            final String sizeInUse) {
+        sWorker.post(new Runnable() {
+            public void run() {
+                Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+                    public boolean queueIdle() {
+                        cacheDb.trim(sizeInUse);
+                        return false;
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Writes the bound workspace to the on-disk snapshot that the next process binds its first
+     * screen from, if it changed since the last time.
+     */
+    void saveWorkspaceSnapshot() {
+        runOnWorkerThread(new Runnable() {
+            public void run() {
+                final BgSnapshot snapshot = sBgSnapshot;
+                if (!snapshot.complete) {
+                    return;
+                }
+                // Items change in place, so there is no telling from the model whether
+                // anything changed: the snapshot compares what it would write instead
+                WorkspaceSnapshot.write(mApp, snapshot.workspaceItems, mIconCache,
+                        mIconCache.getCurrentSystemState());
+            }
+        });
+    }
+
     /**
      * Move an item in the DB to a new <container, screen, cellX, cellY>
      */
     static void moveItemInDatabase(Context context, final ItemInfo item, final long container,
             final int screen, final int cellX, final int cellY) {
+        updateItemInDatabaseHelper(context,
+                moveItemValues(context, item, container, screen, cellX, cellY), item);
+    }
+
+    /**
+     * Move many items in the DB to a new <container, screen>, each to its current <cellX, cellY>,
+     * as one bulk update
+     */
+    static void moveItemsInDatabase(Context context, final ArrayList<ItemInfo> items,
+            final long container, final int screen) {
+        final ArrayList<ContentValues> valuesList = new ArrayList<ContentValues>(items.size());
+        for (ItemInfo item : items) {
+            valuesList.add(moveItemValues(context, item, container, screen,
+                    item.cellX, item.cellY));
+        }
+        updateItemsInDatabaseHelper(context, valuesList, items);
+    }
 
+    private static ContentValues moveItemValues(Context context, final ItemInfo item,
+            final long container, final int screen, final int cellX, final int cellY) {
         // We store hotseat items in canonical form which is this orientation invariant position
         // in the hotseat
         int screenEx = screen;
@@ -435,8 +675,7 @@ public class LauncherModel extends BroadcastReceiver {
         values.put(LauncherSettings.Favorites.CELLX, item.cellX);
         values.put(LauncherSettings.Favorites.CELLY, item.cellY);
         values.put(LauncherSettings.Favorites.SCREEN, item.screen);
-
-        updateItemInDatabaseHelper(context, values, item);
+        return values;
     }
 
     /**
@@ -444,7 +683,28 @@ public class LauncherModel extends BroadcastReceiver {
      */
     static void modifyItemInDatabase(Context context, final ItemInfo item, final long container,
             final int screen, final int cellX, final int cellY, final int spanX, final int spanY) {
+        updateItemInDatabaseHelper(context,
+                modifyItemValues(context, item, container, screen, cellX, cellY, spanX, spanY),
+                item);
+    }
 
+    /**
+     * Move and/or resize many items in the DB to a new <container, screen>, each to its current
+     * <cellX, cellY, spanX, spanY>, as one bulk update
+     */
+    static void modifyItemsInDatabase(Context context, final ArrayList<ItemInfo> items,
+            final long container, final int screen) {
+        final ArrayList<ContentValues> valuesList = new ArrayList<ContentValues>(items.size());
+        for (ItemInfo item : items) {
+            valuesList.add(modifyItemValues(context, item, container, screen,
+                    item.cellX, item.cellY, item.spanX, item.spanY));
+        }
+        updateItemsInDatabaseHelper(context, valuesList, items);
+    }
+
+    private static ContentValues modifyItemValues(Context context, final ItemInfo item,
+            final long container, final int screen, final int cellX, final int cellY,
+            final int spanX, final int spanY) {
         // We store hotseat items in canonical form which is this orientation invariant position
         // in the hotseat
         int screenEx = screen;
@@ -476,8 +736,7 @@ public class LauncherModel extends BroadcastReceiver {
         values.put(LauncherSettings.Favorites.SPANX, item.spanX);
         values.put(LauncherSettings.Favorites.SPANY, item.spanY);
         values.put(LauncherSettings.Favorites.SCREEN, item.screen);
-
-        updateItemInDatabaseHelper(context, values, item);
+        return values;
     }
 
     /**
@@ -492,9 +751,25 @@ public class LauncherModel extends BroadcastReceiver {
 
     /**
      * Returns true if the shortcuts already exists in the database.
-     * we identify a shortcut by its intent.
+     * we identify a shortcut by its intent.  Once the workspace is loaded this is answered from
+     * the model snapshot, without a query; until then it must not be called on the main thread.
      */
     static boolean shortcutExists(Context context, Intent intent) {
+        final BgSnapshot snapshot = sBgSnapshot;
+        if (snapshot.complete) {
+            final String uri = intent.toUri(0);
+            for (ItemInfo info : snapshot.itemsIdMap.values()) {
+                if (info instanceof ShortcutInfo) {
+                    final Intent shortcutIntent = ((ShortcutInfo) info).intent;
+                    if (shortcutIntent != null && uri.equals(shortcutIntent.toUri(0))) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        flushWriteQueue();
         final ContentResolver cr = context.getContentResolver();
         Cursor c = cr.query(LauncherSettings.Favorites.CONTENT_URI,
             new String[] { "intent" }, "intent=?",
@@ -510,10 +785,30 @@ public class LauncherModel extends BroadcastReceiver {
 
     /**
      * Returns an ItemInfo array containing all the items in the LauncherModel.
-     * The ItemInfo.id is not set through this function.
+     * The ItemInfo.id is not set through this function.  Once the workspace is loaded this is
+     * answered from the model snapshot, without a query; until then it must not be called on
+     * the main thread.
      */
     static ArrayList<ItemInfo> getItemsInLocalCoordinates(Context context) {
         ArrayList<ItemInfo> items = new ArrayList<ItemInfo>();
+        final BgSnapshot snapshot = sBgSnapshot;
+        if (snapshot.complete) {
+            for (ItemInfo info : snapshot.itemsIdMap.values()) {
+                ItemInfo item = new ItemInfo();
+                item.cellX = info.cellX;
+                item.cellY = info.cellY;
+                item.spanX = info.spanX;
+                item.spanY = info.spanY;
+                item.container = info.container;
+                item.itemType = info.itemType;
+                item.screen = info.screen;
+
+                items.add(item);
+            }
+            return items;
+        }
+
+        flushWriteQueue();
         final ContentResolver cr = context.getContentResolver();
         Cursor c = cr.query(LauncherSettings.Favorites.CONTENT_URI, new String[] {
                 LauncherSettings.Favorites.ITEM_TYPE, LauncherSettings.Favorites.CONTAINER,
@@ -552,8 +847,22 @@ public class LauncherModel extends BroadcastReceiver {
 
     /**
      * Find a folder in the db, creating the FolderInfo if necessary, and adding it to folderList.
+     * Once the workspace is loaded, the folder of the model is returned without a query.
      */
     FolderInfo getFolderById(Context context, HashMap<Long,FolderInfo> folderList, long id) {
+        final BgSnapshot snapshot = sBgSnapshot;
+        if (snapshot.complete) {
+            final FolderInfo folderInfo = snapshot.folders.get(id);
+            if (folderInfo != null) {
+                folderList.put(id, folderInfo);
+            }
+            return folderInfo;
+        }
+
+        // This is called on the main thread, so the write queue can't be flushed here.  Until
+        // the workspace is loaded there is nothing in it, though: the loader flushes it before
+        // reading the workspace, and holds the worker thread, that all writes are queued on,
+        // until it is done.
         final ContentResolver cr = context.getContentResolver();
         Cursor c = cr.query(LauncherSettings.Favorites.CONTENT_URI, null,
                 "_id=? and (itemType=? or itemType=?)",
@@ -644,17 +953,18 @@ public class LauncherModel extends BroadcastReceiver {
                 Launcher.sDumpLogs.add(transaction);
                 Log.d(TAG, transaction);
 
-                cr.insert(notify ? LauncherSettings.Favorites.CONTENT_URI :
-                        LauncherSettings.Favorites.CONTENT_URI_NO_NOTIFICATION, values);
+                sWriteQueue.insert(cr, item.id, values, notify);
 
                 // Lock on mBgLock *after* the db operation
                 synchronized (sBgLock) {
                     checkItemInfoLocked(item.id, item, null);
                     sBgItemsIdMap.put(item.id, item);
+                    int changed = BG_ITEMS_ID_MAP;
                     switch (item.itemType) {
                         case LauncherSettings.Favorites.ITEM_TYPE_LIVE_FOLDER:
                         case LauncherSettings.Favorites.ITEM_TYPE_FOLDER:
                             sBgFolders.put(item.id, (FolderInfo) item);
+                            changed |= BG_FOLDERS;
                             if (item instanceof LiveFolderInfo) {
                                 LiveFoldersReceiver.alertFolderModified(context, (LiveFolderInfo) item, false);
                             }
@@ -665,6 +975,7 @@ public class LauncherModel extends BroadcastReceiver {
                             if (item.container == LauncherSettings.Favorites.CONTAINER_DESKTOP ||
                                     item.container == LauncherSettings.Favorites.CONTAINER_HOTSEAT) {
                                 sBgWorkspaceItems.add(item);
+                                changed |= BG_WORKSPACE_ITEMS;
                             } else {
                                 if (!sBgFolders.containsKey(item.container)) {
                                     // Adding an item to a folder that doesn't exist.
@@ -677,8 +988,10 @@ public class LauncherModel extends BroadcastReceiver {
                             break;
                         case LauncherSettings.Favorites.ITEM_TYPE_APPWIDGET:
                             sBgAppWidgets.add((LauncherAppWidgetInfo) item);
+                            changed |= BG_APP_WIDGETS;
                             break;
                     }
+                    publishBgSnapshotLocked(changed);
                 }
             }
         };
@@ -729,7 +1042,6 @@ public class LauncherModel extends BroadcastReceiver {
      */
     static void deleteItemFromDatabase(Context context, final ItemInfo item) {
         final ContentResolver cr = context.getContentResolver();
-        final Uri uriToDelete = LauncherSettings.Favorites.getContentUri(item.id, false);
 
         Runnable r = new Runnable() {
             public void run() {
@@ -739,14 +1051,16 @@ public class LauncherModel extends BroadcastReceiver {
                 Launcher.sDumpLogs.add(transaction);
                 Log.d(TAG, transaction);
 
-                cr.delete(uriToDelete, null, null);
+                sWriteQueue.delete(cr, item.id);
 
                 // Lock on mBgLock *after* the db operation
                 synchronized (sBgLock) {
+                    int changed = BG_ITEMS_ID_MAP;
                     switch (item.itemType) {
                         case LauncherSettings.Favorites.ITEM_TYPE_LIVE_FOLDER:
                         case LauncherSettings.Favorites.ITEM_TYPE_FOLDER:
                             sBgFolders.remove(item.id);
+                            changed |= BG_FOLDERS;
                             for (ItemInfo info: sBgItemsIdMap.values()) {
                                 if (info.container == item.id) {
                                     // We are deleting a folder which still contains items that
@@ -758,18 +1072,22 @@ public class LauncherModel extends BroadcastReceiver {
                                 }
                             }
                             sBgWorkspaceItems.remove(item);
+                            changed |= BG_WORKSPACE_ITEMS;
                             break;
                         case LauncherSettings.Favorites.ITEM_TYPE_APPLICATION:
                         case LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT:
                         case LauncherSettings.Favorites.ITEM_TYPE_ALLAPPS:
                             sBgWorkspaceItems.remove(item);
+                            changed |= BG_WORKSPACE_ITEMS;
                             break;
                         case LauncherSettings.Favorites.ITEM_TYPE_APPWIDGET:
                             sBgAppWidgets.remove((LauncherAppWidgetInfo) item);
+                            changed |= BG_APP_WIDGETS;
                             break;
                     }
                     sBgItemsIdMap.remove(item.id);
                     sBgDbIconCache.remove(item);
+                    publishBgSnapshotLocked(changed);
                 }
             }
         };
@@ -784,6 +1102,8 @@ public class LauncherModel extends BroadcastReceiver {
 
         Runnable r = new Runnable() {
             public void run() {
+                // The contents are deleted by container, which the queue can't coalesce
+                sWriteQueue.flush();
                 cr.delete(LauncherSettings.Favorites.getContentUri(info.id, false), null, null);
                 // Lock on mBgLock *after* the db operation
                 synchronized (sBgLock) {
@@ -791,6 +1111,7 @@ public class LauncherModel extends BroadcastReceiver {
                     sBgFolders.remove(info.id);
                     sBgDbIconCache.remove(info);
                     sBgWorkspaceItems.remove(info);
+                    publishBgSnapshotLocked(BG_ITEMS_ID_MAP | BG_FOLDERS | BG_WORKSPACE_ITEMS);
                 }
 
                 cr.delete(LauncherSettings.Favorites.CONTENT_URI_NO_NOTIFICATION,
@@ -801,6 +1122,7 @@ public class LauncherModel extends BroadcastReceiver {
                         sBgItemsIdMap.remove(childInfo.id);
                         sBgDbIconCache.remove(childInfo);
                     }
+                    publishBgSnapshotLocked(BG_ITEMS_ID_MAP);
                 }
             }
         };
@@ -808,9 +1130,22 @@ public class LauncherModel extends BroadcastReceiver {
     }
 
     /**
-     * Count the amount of items of a type
+     * Count the amount of items of a type.  Reads the database until the workspace is loaded,
+     * so it must not be called on the main thread before then.
      */
     static int countAllItemsOfType(Context context, int itemType) {
+        final BgSnapshot snapshot = sBgSnapshot;
+        if (snapshot.complete) {
+            int count = 0;
+            for (ItemInfo info : snapshot.itemsIdMap.values()) {
+                if (info.itemType == itemType) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        flushWriteQueue();
         final ContentResolver cr = context.getContentResolver();
         Cursor c = cr.query(LauncherSettings.Favorites.CONTENT_URI, null,
                 "itemType=?", new String[]{ String.valueOf(itemType) }, null);
@@ -818,9 +1153,22 @@ public class LauncherModel extends BroadcastReceiver {
     }
 
     /**
-     * Count the amount of items of a type in a container
+     * Count the amount of items of a type in a container.  Reads the database until the
+     * workspace is loaded, so it must not be called on the main thread before then.
      */
     static int countAllItemsOfType(Context context, int itemType, long container) {
+        final BgSnapshot snapshot = sBgSnapshot;
+        if (snapshot.complete) {
+            int count = 0;
+            for (ItemInfo info : snapshot.itemsIdMap.values()) {
+                if (info.itemType == itemType && info.container == container) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        flushWriteQueue();
         final ContentResolver cr = context.getContentResolver();
         Cursor c = cr.query(LauncherSettings.Favorites.CONTENT_URI, null,
                 "itemType=? and container=?", new String[]{ String.valueOf(itemType),
@@ -1038,7 +1386,8 @@ public class LauncherModel extends BroadcastReceiver {
         private Context mContext;
         private boolean mIsLaunching;
         private boolean mIsLoadingAndBindingWorkspace;
-        private boolean mStopped;
+        // Also read by the sIconLoaderExecutor threads
+        private volatile boolean mStopped;
         private boolean mLoadAndBindStepFinished;
 
         private HashMap<Object, CharSequence> mLabelCache;
@@ -1066,6 +1415,19 @@ public class LauncherModel extends BroadcastReceiver {
             }
 
             if (!mWorkspaceLoaded) {
+                final Callbacks cbk = mCallbacks.get();
+                final int currentScreen = (cbk != null) ? cbk.getCurrentWorkspaceScreen() : -1;
+                if (currentScreen >= 0) {
+                    if (sWorkspaceSnapshotUsable) {
+                        bindWorkspaceSnapshot(cbk, currentScreen);
+                    }
+                    loadAndBindWorkspaceIncrementally(cbk, currentScreen);
+                    if (mWorkspaceLoaded && !WorkspaceSnapshot.exists(mContext)) {
+                        saveWorkspaceSnapshot();
+                    }
+                    return;
+                }
+
                 loadWorkspace();
                 synchronized (LoaderTask.this) {
                     if (mStopped) {
@@ -1073,12 +1435,91 @@ public class LauncherModel extends BroadcastReceiver {
                     }
                     mWorkspaceLoaded = true;
                 }
+                finishLoadWorkspace();
             }
 
             // Bind the workspace
             bindWorkspace(-1);
         }
 
+        /**
+         * Puts up the current screen and the hotseat from the snapshot the previous process
+         * saved, before the database is even opened.  This only happens for the first load of
+         * the process; the loader then binds the workspace from the database all over again,
+         * which replaces these items, so a stale snapshot is only ever shown briefly.
+         *
+         * The items bound here have no entries in the model: they are only there to be looked
+         * at.  They are replaced by the first database pass, which like every workspace bind
+         * starts with Callbacks.startBinding, removing every item from the workspace and the
+         * hotseat.  If this loader is stopped before then, the next one binds from scratch as
+         * well, since mWorkspaceLoaded is still false.  Dragging is off while the loader binds
+         * the workspace, and the items bound here are marked ShortcutInfo.fromSnapshot, so that
+         * they can't be dragged, edited or dropped onto even between two loaders.
+         */
+        private void bindWorkspaceSnapshot(final Callbacks oldCallbacks, int currentScreen) {
+            sWorkspaceSnapshotUsable = false;
+            final long t = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
+            final ArrayList<ItemInfo> items = WorkspaceSnapshot.read(mContext, currentScreen,
+                    mIconCache.getCurrentSystemState());
+            if (items == null || items.isEmpty()) {
+                return;
+            }
+            if (DEBUG_LOADERS) {
+                Log.d(TAG, "read " + items.size() + " items from the workspace snapshot in "
+                        + (SystemClock.uptimeMillis() - t) + "ms");
+            }
+
+            final Runnable r = new Runnable() {
+                public void run() {
+                    Callbacks callbacks = tryGetCallbacks(oldCallbacks);
+                    if (callbacks != null) {
+                        callbacks.startBinding();
+                        callbacks.bindItems(items, 0, items.size());
+                    }
+                }
+            };
+            runOnMainThread(r);
+        }
+
+        /**
+         * Streams the workspace in two passes: the rows of the current screen and the hotseat
+         * (and the contents of their folders) are loaded and bound first, so that the first
+         * frame only waits on a single screen's worth of rows.  The remaining screens are then
+         * loaded and bound behind it.
+         */
+        private void loadAndBindWorkspaceIncrementally(Callbacks oldCallbacks,
+                int currentScreen) {
+            final long t = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
+            final String[] selectionArgs = new String[] {
+                    String.valueOf(currentScreen), String.valueOf(currentScreen) };
+
+            final OccupancyGrid[] occupied = beginLoadWorkspace();
+            loadWorkspaceItems(CURRENT_SCREEN_SELECTION, selectionArgs, occupied);
+            if (mStopped) {
+                return;
+            }
+            if (DEBUG_LOADERS) {
+                Log.d(TAG, "loaded current screen " + currentScreen + " in "
+                        + (SystemClock.uptimeMillis() - t) + "ms");
+            }
+            bindWorkspacePass(oldCallbacks, currentScreen, true);
+
+            loadWorkspaceItems("NOT (" + CURRENT_SCREEN_SELECTION + ")", selectionArgs,
+                    occupied);
+            synchronized (LoaderTask.this) {
+                if (mStopped) {
+                    return;
+                }
+                mWorkspaceLoaded = true;
+            }
+            finishLoadWorkspace();
+            if (DEBUG_LOADERS) {
+                Log.d(TAG, "loaded workspace incrementally in "
+                        + (SystemClock.uptimeMillis() - t) + "ms");
+            }
+            bindWorkspacePass(oldCallbacks, currentScreen, false);
+        }
+
         private void waitForIdle() {
             // Wait until the either we're stopped or the other threads are done.
             // This way we don't start loading all apps until the workspace has settled
@@ -1268,7 +1709,7 @@ public class LauncherModel extends BroadcastReceiver {
         }
 
         // check & update map of what's occupied; used to discard overlapping/invalid items
-        private boolean checkItemPlacement(ItemInfo occupied[][][], ItemInfo item) {
+        private boolean checkItemPlacement(OccupancyGrid[] occupied, ItemInfo item) {
             int containerIndex = item.screen;
             if (item.container == LauncherSettings.Favorites.CONTAINER_HOTSEAT) {
                 containerIndex += Launcher.MAX_WORKSPACE_SCREEN_COUNT;
@@ -1278,35 +1719,69 @@ public class LauncherModel extends BroadcastReceiver {
             }
 
             // Check if any workspace icons overlap with each other
-            for (int x = item.cellX; x < (item.cellX+item.spanX); x++) {
-                for (int y = item.cellY; y < (item.cellY+item.spanY); y++) {
-                    if (occupied[containerIndex][x][y] != null) {
-                        Log.e(TAG, "Error loading shortcut " + item
-                            + " into cell (" + containerIndex + "-" + item.screen + ":"
-                            + x + "," + y
-                            + ") occupied by "
-                            + occupied[containerIndex][x][y]);
-                        return false;
-                    }
-                }
-            }
-            for (int x = item.cellX; x < (item.cellX+item.spanX); x++) {
-                for (int y = item.cellY; y < (item.cellY+item.spanY); y++) {
-                    occupied[containerIndex][x][y] = item;
-                }
+            final OccupancyGrid grid = occupied[containerIndex];
+            if (!grid.isRegionVacant(item.cellX, item.cellY, item.spanX, item.spanY)) {
+                final ItemInfo occupant = findLoadedItemOverlapping(item);
+                Log.e(TAG, "Error loading shortcut " + item
+                    + " into cell (" + containerIndex + "-" + item.screen + ":"
+                    + item.cellX + "," + item.cellY + ") "
+                    + (occupant != null ? "occupied by " + occupant : "outside of the grid"));
+                return false;
             }
+            grid.markRegion(item.cellX, item.cellY, item.spanX, item.spanY, true);
 
             return true;
         }
 
+        // Only used to report overlaps: the occupancy grids don't keep track of which item
+        // occupies a cell
+        private ItemInfo findLoadedItemOverlapping(ItemInfo item) {
+            for (ItemInfo other : sBgItemsIdMap.values()) {
+                if (other.container == item.container && other.screen == item.screen &&
+                        other.cellX < item.cellX + item.spanX &&
+                        item.cellX < other.cellX + other.spanX &&
+                        other.cellY < item.cellY + item.spanY &&
+                        item.cellY < other.cellY + other.spanY) {
+                    return other;
+                }
+            }
+            return null;
+        }
+
         private void loadWorkspace() {
             final long t = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
 
-            final Context context = mContext;
-            final ContentResolver contentResolver = context.getContentResolver();
-            final PackageManager manager = context.getPackageManager();
-            final AppWidgetManager widgets = AppWidgetManager.getInstance(context);
-            final boolean isSafeMode = manager.isSafeMode();
+            final OccupancyGrid[] occupied = beginLoadWorkspace();
+            loadWorkspaceItems(null, null, occupied);
+
+            if (DEBUG_LOADERS) {
+                synchronized (sBgLock) {
+                    Log.d(TAG, "loaded workspace in " + (SystemClock.uptimeMillis()-t) + "ms");
+                    Log.d(TAG, "workspace layout: ");
+                    for (int y = 0; y < sWorkspaceCellCountY; y++) {
+                        String line = "";
+                        for (int s = 0; s < Launcher.MAX_SCREEN_COUNT; s++) {
+                            if (s > 0) {
+                                line += " | ";
+                            }
+                            for (int x = 0; x < sWorkspaceCellCountX; x++) {
+                                line += (occupied[s].isOccupied(x, y) ? "#" : ".");
+                            }
+                        }
+                        Log.d(TAG, "[ " + line + " ]");
+                    }
+                }
+            }
+        }
+
+        /**
+         * Prepares for a (possibly multi-pass) workspace load: makes sure the default workspace
+         * exists and clears the bg data structures.  Returns the occupancy map that every pass
+         * of this load must share, so overlaps across passes are caught too.
+         */
+        private OccupancyGrid[] beginLoadWorkspace() {
+            // Make sure the pending writes are in before reading the favorites back
+            sWriteQueue.flush();
 
             // Make sure the default workspace is loaded, if needed
             mApp.getLauncherProvider().loadDefaultFavoritesIfNecessary(0);
@@ -1317,17 +1792,36 @@ public class LauncherModel extends BroadcastReceiver {
                 sBgFolders.clear();
                 sBgItemsIdMap.clear();
                 sBgDbIconCache.clear();
+                sBgWorkspaceComplete = false;
+                publishBgSnapshotLocked(BG_ALL);
+            }
+
+            final OccupancyGrid[] occupied = new OccupancyGrid[Launcher.MAX_SCREEN_COUNT];
+            for (int i = 0; i < occupied.length; i++) {
+                occupied[i] = new OccupancyGrid(Math.max(sWorkspaceCellCountX, sHotseatCellCount),
+                        Math.max(sWorkspaceCellCountY, sHotseatCellCount));
+            }
+            return occupied;
+        }
 
+        /**
+         * Loads the favorites matching selection into the bg data structures, without clearing
+         * what previous passes loaded.  A null selection loads everything.
+         */
+        private void loadWorkspaceItems(String selection, String[] selectionArgs,
+                OccupancyGrid[] occupied) {
+            final Context context = mContext;
+            final ContentResolver contentResolver = context.getContentResolver();
+            final PackageManager manager = context.getPackageManager();
+            final AppWidgetManager widgets = AppWidgetManager.getInstance(context);
+            final boolean isSafeMode = manager.isSafeMode();
+
+            synchronized (sBgLock) {
                 final ArrayList<Long> itemsToRemove = new ArrayList<Long>();
 
                 final Cursor c = contentResolver.query(
-                        LauncherSettings.Favorites.CONTENT_URI, null, null, null, null);
-
-                // Load workspace in reverse order to ensure that latest items are loaded first (and
-                // before any earlier duplicates)
-                final ItemInfo occupied[][][] =
-                        new ItemInfo[Launcher.MAX_SCREEN_COUNT][Math.max(sWorkspaceCellCountX, sHotseatCellCount)]
-                                [Math.max(sWorkspaceCellCountY, sHotseatCellCount)];
+                        LauncherSettings.Favorites.CONTENT_URI, null, selection, selectionArgs,
+                        null);
 
                 try {
                     final int idIndex = c.getColumnIndexOrThrow(LauncherSettings.Favorites._ID);
@@ -1568,23 +2062,18 @@ public class LauncherModel extends BroadcastReceiver {
                         }
                     }
                 }
+                publishBgSnapshotLocked(BG_ALL);
+            }
+        }
 
-                if (DEBUG_LOADERS) {
-                    Log.d(TAG, "loaded workspace in " + (SystemClock.uptimeMillis()-t) + "ms");
-                    Log.d(TAG, "workspace layout: ");
-                    for (int y = 0; y < sWorkspaceCellCountY; y++) {
-                        String line = "";
-                        for (int s = 0; s < Launcher.MAX_SCREEN_COUNT; s++) {
-                            if (s > 0) {
-                                line += " | ";
-                            }
-                            for (int x = 0; x < sWorkspaceCellCountX; x++) {
-                                line += ((occupied[s][x][y] != null) ? "#" : ".");
-                            }
-                        }
-                        Log.d(TAG, "[ " + line + " ]");
-                    }
-                }
+        /**
+         * Marks the bg data structures as holding the whole workspace, once every pass of a
+         * load has gone through without being stopped.
+         */
+        private void finishLoadWorkspace() {
+            synchronized (sBgLock) {
+                sBgWorkspaceComplete = true;
+                publishBgSnapshotLocked(0);
             }
         }
 
@@ -1876,17 +2365,12 @@ public class LauncherModel extends BroadcastReceiver {
             // Load all the items that are on the current page first (and in the process, unbind
             // all the existing workspace items before we call startBinding() below.
             unbindWorkspaceItemsOnMainThread();
-            ArrayList<ItemInfo> workspaceItems = new ArrayList<ItemInfo>();
+            final BgSnapshot snapshot = sBgSnapshot;
+            ArrayList<ItemInfo> workspaceItems = new ArrayList<ItemInfo>(snapshot.workspaceItems);
             ArrayList<LauncherAppWidgetInfo> appWidgets =
-                    new ArrayList<LauncherAppWidgetInfo>();
-            HashMap<Long, FolderInfo> folders = new HashMap<Long, FolderInfo>();
-            HashMap<Long, ItemInfo> itemsIdMap = new HashMap<Long, ItemInfo>();
-            synchronized (sBgLock) {
-                workspaceItems.addAll(sBgWorkspaceItems);
-                appWidgets.addAll(sBgAppWidgets);
-                folders.putAll(sBgFolders);
-                itemsIdMap.putAll(sBgItemsIdMap);
-            }
+                    new ArrayList<LauncherAppWidgetInfo>(snapshot.appWidgets);
+            HashMap<Long, FolderInfo> folders = new HashMap<Long, FolderInfo>(snapshot.folders);
+            HashMap<Long, ItemInfo> itemsIdMap = new HashMap<Long, ItemInfo>(snapshot.itemsIdMap);
 
             ArrayList<ItemInfo> currentWorkspaceItems = new ArrayList<ItemInfo>();
             ArrayList<ItemInfo> otherWorkspaceItems = new ArrayList<ItemInfo>();
@@ -1963,6 +2447,93 @@ public class LauncherModel extends BroadcastReceiver {
             }
         }
 
+        /**
+         * Binds one pass of an incremental workspace load.  The first pass unbinds the old
+         * items, starts binding and binds the current screen; the second binds everything else
+         * and finishes binding.
+         */
+        private void bindWorkspacePass(final Callbacks oldCallbacks, final int currentScreen,
+                boolean firstPass) {
+            final long t = SystemClock.uptimeMillis();
+            Runnable r;
+
+            if (tryGetCallbacks(oldCallbacks) == null) {
+                // The launcher we were loading for has gone away.  Just bail.
+                Log.w(TAG, "LoaderTask running with no launcher (bindWorkspacePass)");
+                return;
+            }
+
+            if (firstPass) {
+                unbindWorkspaceItemsOnMainThread();
+            }
+            final BgSnapshot snapshot = sBgSnapshot;
+            ArrayList<ItemInfo> workspaceItems = new ArrayList<ItemInfo>(snapshot.workspaceItems);
+            ArrayList<LauncherAppWidgetInfo> appWidgets =
+                    new ArrayList<LauncherAppWidgetInfo>(snapshot.appWidgets);
+            HashMap<Long, FolderInfo> folders = new HashMap<Long, FolderInfo>(snapshot.folders);
+            HashMap<Long, ItemInfo> itemsIdMap = new HashMap<Long, ItemInfo>(snapshot.itemsIdMap);
+
+            ArrayList<ItemInfo> currentWorkspaceItems = new ArrayList<ItemInfo>();
+            ArrayList<ItemInfo> otherWorkspaceItems = new ArrayList<ItemInfo>();
+            ArrayList<LauncherAppWidgetInfo> currentAppWidgets =
+                    new ArrayList<LauncherAppWidgetInfo>();
+            ArrayList<LauncherAppWidgetInfo> otherAppWidgets =
+                    new ArrayList<LauncherAppWidgetInfo>();
+            HashMap<Long, FolderInfo> currentFolders = new HashMap<Long, FolderInfo>();
+            HashMap<Long, FolderInfo> otherFolders = new HashMap<Long, FolderInfo>();
+
+            filterCurrentWorkspaceItems(currentScreen, workspaceItems, currentWorkspaceItems,
+                    otherWorkspaceItems);
+            filterCurrentAppWidgets(currentScreen, appWidgets, currentAppWidgets,
+                    otherAppWidgets);
+            filterCurrentFolders(currentScreen, itemsIdMap, folders, currentFolders,
+                    otherFolders);
+
+            if (firstPass) {
+                sortWorkspaceItemsSpatially(currentWorkspaceItems);
+
+                // Tell the workspace that we're about to start binding items
+                r = new Runnable() {
+                    public void run() {
+                        Callbacks callbacks = tryGetCallbacks(oldCallbacks);
+                        if (callbacks != null) {
+                            callbacks.startBinding();
+                        }
+                    }
+                };
+                runOnMainThread(r);
+
+                bindWorkspaceItems(oldCallbacks, currentWorkspaceItems, currentAppWidgets,
+                        currentFolders, null);
+                return;
+            }
+
+            // Only the other screens were loaded by the second pass; the current screen was
+            // bound by the first one
+            sortWorkspaceItemsSpatially(otherWorkspaceItems);
+            bindWorkspaceItems(oldCallbacks, otherWorkspaceItems, otherAppWidgets, otherFolders,
+                    null);
+
+            // Tell the workspace that we're done binding items
+            r = new Runnable() {
+                public void run() {
+                    Callbacks callbacks = tryGetCallbacks(oldCallbacks);
+                    if (callbacks != null) {
+                        callbacks.finishBindingItems();
+                    }
+
+                    // If we're profiling, ensure this is the last thing in the queue.
+                    if (DEBUG_LOADERS) {
+                        Log.d(TAG, "bound workspace in "
+                            + (SystemClock.uptimeMillis()-t) + "ms");
+                    }
+
+                    mIsLoadingAndBindingWorkspace = false;
+                }
+            };
+            runOnMainThread(r);
+        }
+
         private void loadAndBindAllApps() {
             if (DEBUG_LOADERS) {
                 Log.d(TAG, "loadAndBindAllApps mAllAppsLoaded=" + mAllAppsLoaded);
@@ -2050,20 +2621,70 @@ public class LauncherModel extends BroadcastReceiver {
                 return;
             }
 
+            // Build the icons and labels on the pool, a batch per task.  IconCache only locks
+            // around its map, so the batches really do load and render concurrently.
+            final int priority = mIsLaunching
+                    ? Process.THREAD_PRIORITY_DEFAULT : Process.THREAD_PRIORITY_BACKGROUND;
+            final ArrayList<Future<ArrayList<ApplicationInfo>>> batches =
+                    new ArrayList<Future<ArrayList<ApplicationInfo>>>();
+            for (int i = 0; i < N; i += ALL_APPS_BATCH_SIZE) {
+                final List<ResolveInfo> batch =
+                        apps.subList(i, Math.min(i + ALL_APPS_BATCH_SIZE, N));
+                batches.add(sIconLoaderExecutor.submit(new Callable<ArrayList<ApplicationInfo>>() {
+                    public ArrayList<ApplicationInfo> call() {
+                        Process.setThreadPriority(priority);
+                        final ArrayList<ApplicationInfo> infos =
+                                new ArrayList<ApplicationInfo>(batch.size());
+                        for (ResolveInfo info : batch) {
+                            if (mStopped) {
+                                break;
+                            }
+                            // This builds the icon bitmaps.  mLabelCache isn't thread safe, so
+                            // it is filled in below instead.
+                            infos.add(new ApplicationInfo(packageManager, info,
+                                    mIconCache, null));
+                        }
+                        return infos;
+                    }
+                }));
+            }
+
+            // Merge the batches back in submission order
+            for (Future<ArrayList<ApplicationInfo>> batch : batches) {
+                ArrayList<ApplicationInfo> infos;
+                try {
+                    infos = batch.get();
+                } catch (InterruptedException e) {
+                    // Whoever interrupted the loader wants it gone: leave the rest unmerged
+                    Thread.currentThread().interrupt();
+                    infos = null;
+                } catch (ExecutionException e) {
+                    throw new RuntimeException("Error loading all apps", e.getCause());
+                }
+                if (infos == null || mStopped) {
+                    for (Future<ArrayList<ApplicationInfo>> remaining : batches) {
+                        remaining.cancel(false);
+                    }
+                    return;
+                }
+                for (ApplicationInfo info : infos) {
+                    mBgAllAppsList.add(info);
+                    mLabelCache.put(info.componentName, info.title);
+                }
+            }
+
+            // Sort by the titles we just resolved rather than sorting the ResolveInfos up front;
+            // most titles come from the persisted icon cache, and sorting first would force
+            // every label to be loaded from the package's resources.
             final long sortTime = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
-            Collections.sort(apps,
-                    new ShortcutNameComparator(packageManager, mLabelCache));
+            final Comparator<ApplicationInfo> appNameComparator = getAppNameComparator();
+            Collections.sort(mBgAllAppsList.data, appNameComparator);
+            Collections.sort(mBgAllAppsList.added, appNameComparator);
             if (DEBUG_LOADERS) {
                 Log.d(TAG, "sort took "
                         + (SystemClock.uptimeMillis()-sortTime) + "ms");
             }
 
-            for (ResolveInfo info : apps) {
-                // This builds the icon bitmaps.
-                mBgAllAppsList.add(new ApplicationInfo(packageManager, info,
-                        mIconCache, mLabelCache));
-            }
-
             final Callbacks callbacks = tryGetCallbacks(oldCallbacks);
             final ArrayList<ApplicationInfo> added = mBgAllAppsList.added;
             mBgAllAppsList.added = new ArrayList<ApplicationInfo>();
@@ -2090,13 +2711,11 @@ public class LauncherModel extends BroadcastReceiver {
         }
 
         public void dumpState() {
-            synchronized (sBgLock) {
-                Log.d(TAG, "mLoaderTask.mContext=" + mContext);
-                Log.d(TAG, "mLoaderTask.mIsLaunching=" + mIsLaunching);
-                Log.d(TAG, "mLoaderTask.mStopped=" + mStopped);
-                Log.d(TAG, "mLoaderTask.mLoadAndBindStepFinished=" + mLoadAndBindStepFinished);
-                Log.d(TAG, "mItems size=" + sBgWorkspaceItems.size());
-            }
+            Log.d(TAG, "mLoaderTask.mContext=" + mContext);
+            Log.d(TAG, "mLoaderTask.mIsLaunching=" + mIsLaunching);
+            Log.d(TAG, "mLoaderTask.mStopped=" + mStopped);
+            Log.d(TAG, "mLoaderTask.mLoadAndBindStepFinished=" + mLoadAndBindStepFinished);
+            Log.d(TAG, "mItems size=" + sBgSnapshot.workspaceItems.size());
         }
     }
 
@@ -2147,6 +2766,11 @@ public class LauncherModel extends BroadcastReceiver {
                     for (int i=0; i<N; i++) {
                         if (DEBUG_LOADERS) Log.d(TAG, "mAllAppsList.removePackage " + packages[i]);
                         mBgAllAppsList.removePackage(packages[i]);
+                        if (mOp == OP_REMOVE) {
+                            // Keep the persisted icons of apps on unmounted media; they are
+                            // still valid once the media comes back
+                            mIconCache.removePackage(packages[i]);
+                        }
                         LauncherApplication app =
                                 (LauncherApplication) context.getApplicationContext();
                         WidgetPreviewLoader.removeFromDb(
@@ -2220,6 +2844,23 @@ public class LauncherModel extends BroadcastReceiver {
 
             final ArrayList<Object> widgetsAndShortcuts =
                 getSortedWidgetsAndShortcuts(context);
+            if (mOp == OP_ADD || mOp == OP_UPDATE) {
+                // Have the previews of the new widgets and shortcuts ready before the user
+                // goes looking for them
+                final HashSet<String> packageSet = new HashSet<String>(Arrays.asList(packages));
+                final ArrayList<Object> newWidgetsAndShortcuts = new ArrayList<Object>();
+                for (Object o : widgetsAndShortcuts) {
+                    final String packageName = (o instanceof AppWidgetProviderInfo) ?
+                            ((AppWidgetProviderInfo) o).provider.getPackageName() :
+                            ((ResolveInfo) o).activityInfo.packageName;
+                    if (packageSet.contains(packageName)) {
+                        newWidgetsAndShortcuts.add(o);
+                    }
+                }
+                if (!newWidgetsAndShortcuts.isEmpty()) {
+                    WidgetPreviewLoader.prewarmPreviews(newWidgetsAndShortcuts);
+                }
+            }
             mHandler.post(new Runnable() {
                 @Override
                 public void run() {
@@ -2358,13 +2999,12 @@ public class LauncherModel extends BroadcastReceiver {
      */
     static ArrayList<ItemInfo> getWorkspaceShortcutItemInfosWithIntent(Intent intent) {
         ArrayList<ItemInfo> items = new ArrayList<ItemInfo>();
-        synchronized (sBgLock) {
-            for (ItemInfo info : sBgWorkspaceItems) {
-                if (info instanceof ShortcutInfo) {
-                    ShortcutInfo shortcut = (ShortcutInfo) info;
-                    if (shortcut.intent.toUri(0).equals(intent.toUri(0))) {
-                        items.add(shortcut);
-                    }
+        final String uri = intent.toUri(0);
+        for (ItemInfo info : sBgSnapshot.workspaceItems) {
+            if (info instanceof ShortcutInfo) {
+                ShortcutInfo shortcut = (ShortcutInfo) info;
+                if (shortcut.intent.toUri(0).equals(uri)) {
+                    items.add(shortcut);
                 }
             }
         }
@@ -2409,6 +3049,7 @@ public class LauncherModel extends BroadcastReceiver {
             int titleIndex, int customIconIndex) {
 
         Bitmap icon = null;
+        byte[] iconBlob = null;
         final ShortcutInfo info = new ShortcutInfo();
         info.itemType = LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT;
 
@@ -2434,19 +3075,21 @@ public class LauncherModel extends BroadcastReceiver {
             } catch (Exception e) {
                 // drop this.  we have other places to look for icons
             }
-            // the db
+            // the db, decoded only once the icon is actually needed
             if (icon == null) {
-                icon = getIconFromCursor(c, iconIndex, context);
+                iconBlob = c.getBlob(iconIndex);
             }
             // the fallback icon
-            if (icon == null) {
+            if (icon == null && (iconBlob == null || iconBlob.length == 0)) {
                 icon = getFallbackIcon();
                 info.usingFallbackIcon = true;
             }
             break;
         case LauncherSettings.Favorites.ICON_TYPE_BITMAP:
-            icon = getIconFromCursor(c, iconIndex, context);
-            if (icon == null) {
+            // Don't decode it here: shortcuts on screens that are never visited would hold
+            // their bitmaps for nothing.  It falls back by itself if it doesn't decode.
+            iconBlob = c.getBlob(iconIndex);
+            if (iconBlob == null || iconBlob.length == 0) {
                 icon = getFallbackIcon();
                 info.customIcon = false;
                 info.usingFallbackIcon = true;
@@ -2465,7 +3108,11 @@ public class LauncherModel extends BroadcastReceiver {
             info.customIconResource = c.getString(customIconIndex);
             icon = customIcon;
         }
-        info.setIcon(icon);
+        if (icon != null) {
+            info.setIcon(icon);
+        } else {
+            info.setIconBlob(iconBlob, context, getFallbackIcon());
+        }
         return info;
     }
 
@@ -2563,7 +3210,8 @@ public class LauncherModel extends BroadcastReceiver {
         // into the DB.  We do this so when we're loading, if the
         // package manager can't find an icon (for example because
         // the app is on SD) then we can use that instead.
-        if (!info.customIcon && !info.usingFallbackIcon) {
+        // An icon still pending is the one from the DB, there is nothing to compare.
+        if (!info.customIcon && !info.usingFallbackIcon && !info.isIconPending()) {
             cache.put(info, c.getBlob(iconIndex));
             return true;
         }
@@ -2573,9 +3221,18 @@ public class LauncherModel extends BroadcastReceiver {
         boolean needSave = false;
         try {
             if (data != null) {
-                Bitmap saved = BitmapFactory.decodeByteArray(data, 0, data.length);
                 Bitmap loaded = info.getIcon(mIconCache);
-                needSave = !saved.sameAs(loaded);
+                // Only decode the saved icon if it is the right size to be the same at all
+                BitmapFactory.Options opts = new BitmapFactory.Options();
+                opts.inJustDecodeBounds = true;
+                BitmapFactory.decodeByteArray(data, 0, data.length, opts);
+                if (opts.outWidth != loaded.getWidth() || opts.outHeight != loaded.getHeight()) {
+                    needSave = true;
+                } else {
+                    Bitmap saved = BitmapFactory.decodeByteArray(data, 0, data.length);
+                    needSave = !saved.sameAs(loaded);
+                    saved.recycle();
+                }
             } else {
                 needSave = true;
             }
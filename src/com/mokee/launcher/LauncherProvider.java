@@ -22,11 +22,14 @@ import android.appwidget.AppWidgetManager;
 import android.appwidget.AppWidgetProviderInfo;
 import android.content.ComponentName;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.content.res.Resources;
@@ -38,7 +41,9 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Binder;
 import android.os.Bundle;
+import android.os.Process;
 import android.provider.Settings;
 import android.telephony.TelephonyManager;
 import android.text.TextUtils;
@@ -62,7 +67,7 @@ public class LauncherProvider extends ContentProvider {
 
     private static final String DATABASE_NAME = "launcher.db";
 
-    private static final int DATABASE_VERSION = 16;
+    private static final int DATABASE_VERSION = 17;
 
     static final String AUTHORITY = "com.mokee.launcher.settings";
 
@@ -86,6 +91,10 @@ public class LauncherProvider extends ContentProvider {
 
     private DatabaseHelper mOpenHelper;
 
+    // Set while the calling thread is inside applyBatch(); true once one of the operations
+    // asked for a change notification, which is then sent once when the batch is done
+    private final ThreadLocal<Boolean> mBatchNotify = new ThreadLocal<Boolean>();
+
     @Override
     public boolean onCreate() {
         mOpenHelper = new DatabaseHelper(getContext());
@@ -107,6 +116,12 @@ public class LauncherProvider extends ContentProvider {
     public Cursor query(Uri uri, String[] projection, String selection,
             String[] selectionArgs, String sortOrder) {
 
+        if (Binder.getCallingPid() != Process.myPid()) {
+            // Other apps don't know about the launcher's write queue, so they must not see the
+            // table before the writes still queued in it
+            LauncherModel.flushWriteQueue();
+        }
+
         SqlArguments args = new SqlArguments(uri, selection, selectionArgs);
         SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
         qb.setTables(args.table);
@@ -188,10 +203,55 @@ public class LauncherProvider extends ContentProvider {
         return count;
     }
 
+    /**
+     * Applies all the operations in a single transaction, so a batch of N changes costs one
+     * commit instead of N, and sends at most one change notification for the whole batch.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        boolean notify = false;
+        db.beginTransaction();
+        mBatchNotify.set(Boolean.FALSE);
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            notify = mBatchNotify.get();
+            return results;
+        } finally {
+            mBatchNotify.remove();
+            db.endTransaction();
+            if (notify) {
+                getContext().getContentResolver().notifyChange(
+                        LauncherSettings.Favorites.CONTENT_URI, null);
+            }
+        }
+    }
+
+    /**
+     * Creates the secondary indexes of the favorites table: (container, screen) for loading a
+     * screen or a folder's contents, itemType for counting items of a type and intent for
+     * finding existing shortcuts.
+     */
+    static void createFavoritesIndexes(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS favorites_container_screen ON " +
+                TABLE_FAVORITES + " (container, screen);");
+        db.execSQL("CREATE INDEX IF NOT EXISTS favorites_item_type ON " +
+                TABLE_FAVORITES + " (itemType);");
+        db.execSQL("CREATE INDEX IF NOT EXISTS favorites_intent ON " +
+                TABLE_FAVORITES + " (intent);");
+    }
+
     private void sendNotify(Uri uri) {
         String notify = uri.getQueryParameter(PARAMETER_NOTIFY);
         if (notify == null || "true".equals(notify)) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            if (mBatchNotify.get() != null) {
+                // Coalesced into the notification sent at the end of applyBatch()
+                mBatchNotify.set(Boolean.TRUE);
+            } else {
+                getContext().getContentResolver().notifyChange(uri, null);
+            }
         }
     }
 
@@ -229,7 +289,7 @@ public class LauncherProvider extends ContentProvider {
         }
     }
 
-    private static class DatabaseHelper extends SQLiteOpenHelper {
+    static class DatabaseHelper extends SQLiteOpenHelper {
         private static final String TAG_FAVORITES = "favorites";
         private static final String TAG_FAVORITE = "favorite";
         private static final String TAG_CLOCK = "clock";
@@ -271,8 +331,30 @@ public class LauncherProvider extends ContentProvider {
         public void onCreate(SQLiteDatabase db) {
             if (LOGD) Log.d(TAG, "creating new launcher database");
 
+            // The workspace snapshot was saved from the old database, if any
+            WorkspaceSnapshot.deleteFiles(mContext);
+
             mMaxId = 1;
 
+            createFavoritesTable(db);
+
+            // Database was just created, so wipe any previous widgets
+            if (mAppWidgetHost != null) {
+                mAppWidgetHost.deleteHost();
+                sendAppWidgetResetNotify();
+            }
+
+            if (!convertDatabase(db)) {
+                // Set a shared pref so that we know we need to load the default workspace later
+                setFlagToLoadDefaultWorkspaceLater();
+            }
+        }
+
+        /**
+         * Creates the favorites table of a new database along with its indexes.  Also used by
+         * the benchmarks, to run against the very schema of the launcher.
+         */
+        static void createFavoritesTable(SQLiteDatabase db) {
             db.execSQL("CREATE TABLE favorites (" +
                     "_id INTEGER PRIMARY KEY," +
                     "title TEXT," +
@@ -293,17 +375,7 @@ public class LauncherProvider extends ContentProvider {
                     "receiverComponent TEXT," +
                     "customIcon TEXT" +
                     ");");
-
-            // Database was just created, so wipe any previous widgets
-            if (mAppWidgetHost != null) {
-                mAppWidgetHost.deleteHost();
-                sendAppWidgetResetNotify();
-            }
-
-            if (!convertDatabase(db)) {
-                // Set a shared pref so that we know we need to load the default workspace later
-                setFlagToLoadDefaultWorkspaceLater();
-            }
+            createFavoritesIndexes(db);
         }
 
         private void setFlagToLoadDefaultWorkspaceLater() {
@@ -402,6 +474,9 @@ public class LauncherProvider extends ContentProvider {
         public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
             if (LOGD) Log.d(TAG, "onUpgrade triggered");
 
+            // The workspace snapshot holds ids and positions of the old database
+            WorkspaceSnapshot.deleteFiles(mContext);
+
             int version = oldVersion;
 
             // We bumped the version three time during JB, once to update the launch flags, once to
@@ -444,6 +519,11 @@ public class LauncherProvider extends ContentProvider {
                 db.execSQL("ALTER TABLE favorites ADD customIcon TEXT;");
                 version = 16;
             }
+
+            if (oldVersion < 17) {
+                createFavoritesIndexes(db);
+                version = 17;
+            }
             if (version != DATABASE_VERSION) {
                 Log.w(TAG, "Destroying all old data.");
                 db.execSQL("DROP TABLE IF EXISTS " + TABLE_FAVORITES);
@@ -65,8 +65,12 @@ class LiveFolderInfo extends FolderInfo {
         }
     }
 
-    public void populateWithItems(Context ctx, ArrayList<LiveFolder.Item> items) {
-        removeAll();
+    /**
+     * Creates the items of this folder for the given entries, icons included, without changing
+     * the folder, so that the work can be done off the main thread.
+     */
+    ArrayList<LiveFolderItemInfo> createItems(Context ctx, ArrayList<LiveFolder.Item> items) {
+        final ArrayList<LiveFolderItemInfo> infos = new ArrayList<LiveFolderItemInfo>();
         Bitmap icon = null;
         for (LiveFolder.Item item : items) {
             LiveFolderItemInfo cInfo = new LiveFolderItemInfo();
@@ -78,10 +82,22 @@ class LiveFolderInfo extends FolderInfo {
             }
             cInfo.item_id = item.getId();
             cInfo.container = id;
-            add(cInfo);
-            if (contents.size() == LiveFolder.Constants.MAX_ITEMS) {
+            infos.add(cInfo);
+            if (infos.size() == LiveFolder.Constants.MAX_ITEMS) {
                 break;
             }
         }
+        return infos;
+    }
+
+    /**
+     * Replaces the contents of this folder with items made by createItems.  This tells the
+     * folder's views, so it must be called on the main thread.
+     */
+    void setItems(ArrayList<LiveFolderItemInfo> items) {
+        removeAll();
+        for (LiveFolderItemInfo item : items) {
+            add(item);
+        }
     }
 }
@@ -5,6 +5,8 @@ import java.util.ArrayList;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.UserHandle;
 import android.util.Log;
 
@@ -15,6 +17,8 @@ public class LiveFoldersReceiver extends BroadcastReceiver {
 
     private static final String TAG = LiveFoldersReceiver.class.getName();
 
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
     static void alertFolderModified(Context ctx, LiveFolderInfo info, boolean deleted) {
         Intent i = new Intent(LIVE_FOLDER_UPDATES);
         i.putExtra(FOLDER_UPDATE_TYPE_EXTRA, deleted ? FOLDER_DELETED : NEW_FOLDER_CREATED);
@@ -47,58 +51,85 @@ public class LiveFoldersReceiver extends BroadcastReceiver {
     public void onReceive(Context context, Intent intent) {
 
         // Verify item list
-        ArrayList<LiveFolder.Item> items = intent.getParcelableArrayListExtra(
+        final ArrayList<LiveFolder.Item> items = intent.getParcelableArrayListExtra(
                 FOLDER_ENTRIES_EXTRA);
         if (items == null) {
             return;
         }
 
+        // The sender is only known while the broadcast is being delivered
+        final String sendingPackage = getSendingPackage(intent);
+        final Context appContext = context.getApplicationContext();
+
         if (intent.hasExtra(FOLDER_ID_EXTRA)) {
 
-            long id = intent.getLongExtra(FOLDER_ID_EXTRA, 0);
+            final long id = intent.getLongExtra(FOLDER_ID_EXTRA, 0);
+            final String title = intent.getStringExtra(LiveFolder.Constants.FOLDER_TITLE_EXTRA);
             if (id != 0) {
-                synchronized (LauncherModel.sBgLock) {
-                    FolderInfo folder = LauncherModel.sBgFolders.get(id);
-
-                    if (folder == null || !(folder instanceof LiveFolderInfo)) {
-                        Log.e(TAG, "No live folder found with id " + id);
-                        return;
-                    }
+                // The loader holds the model lock while it reads the database, so look the
+                // folder up and make its items on the worker thread rather than here
+                LauncherModel.runOnWorkerThread(new Runnable() {
+                    public void run() {
+                        FolderInfo folder;
+                        synchronized (LauncherModel.sBgLock) {
+                            folder = LauncherModel.sBgFolders.get(id);
+                        }
 
-                    LiveFolderInfo fInfo = (LiveFolderInfo) folder;
+                        if (folder == null || !(folder instanceof LiveFolderInfo)) {
+                            Log.e(TAG, "No live folder found with id " + id);
+                            return;
+                        }
 
-                    if (!fInfo.isOwner(context, getSendingPackage(intent))) {
-                        Log.e(TAG, "Cannot modify a folder that belongs to another package");
-                        return;
-                    }
+                        LiveFolderInfo fInfo = (LiveFolderInfo) folder;
 
-                    fInfo.populateWithItems(context, items);
+                        if (!fInfo.isOwner(appContext, sendingPackage)) {
+                            Log.e(TAG, "Cannot modify a folder that belongs to another package");
+                            return;
+                        }
 
-                    // Update folder title provided
-                    if (intent.hasExtra(LiveFolder.Constants.FOLDER_TITLE_EXTRA)) {
-                        String title = intent.getStringExtra(
-                                LiveFolder.Constants.FOLDER_TITLE_EXTRA);
-                        fInfo.title = title;
+                        setItems(fInfo, fInfo.createItems(appContext, items), title);
                     }
-                }
+                });
             }
 
         } else if (intent.getBooleanExtra(FOLDER_UPDATE_ALL, false)) {
 
-            synchronized (LauncherModel.sBgLock) {
-                for (FolderInfo info : LauncherModel.sBgFolders.values()) {
-                    if (info instanceof LiveFolderInfo) {
-                        LiveFolderInfo fInfo = (LiveFolderInfo) info;
+            LauncherModel.runOnWorkerThread(new Runnable() {
+                public void run() {
+                    final ArrayList<FolderInfo> folders;
+                    synchronized (LauncherModel.sBgLock) {
+                        folders = new ArrayList<FolderInfo>(LauncherModel.sBgFolders.values());
+                    }
+                    for (FolderInfo info : folders) {
+                        if (info instanceof LiveFolderInfo) {
+                            LiveFolderInfo fInfo = (LiveFolderInfo) info;
 
-                        if (fInfo.isOwner(context, getSendingPackage(intent))) {
-                            fInfo.populateWithItems(context, items);
+                            if (fInfo.isOwner(appContext, sendingPackage)) {
+                                setItems(fInfo, fInfo.createItems(appContext, items), null);
+                            }
                         }
                     }
                 }
-            }
+            });
 
         } else {
             Log.d(TAG, "No folder id specified");
         }
     }
+
+    /**
+     * Posts the new contents of a folder, and its title if one was given, to the main thread,
+     * where the folder's views are told of them.
+     */
+    private static void setItems(final LiveFolderInfo fInfo,
+            final ArrayList<LiveFolderItemInfo> items, final String title) {
+        sMainHandler.post(new Runnable() {
+            public void run() {
+                fInfo.setItems(items);
+                if (title != null) {
+                    fInfo.title = title;
+                }
+            }
+        });
+    }
 }
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mokee.launcher;
+
+/**
+ * Which cells of a grid are occupied, packed into one long per row: bit x of row y is set if
+ * cell (x, y) is occupied.
+ *
+ * Testing whether a span fits somewhere costs one mask per row instead of one lookup per cell,
+ * and copying a grid one arraycopy of its rows, however wide the grid is.  Grids are at most
+ * 64 cells wide.
+ */
+final class OccupancyGrid {
+    static final int MAX_COUNT_X = 64;
+
+    final int countX;
+    final int countY;
+    private final long[] mRows;
+
+    OccupancyGrid(int countX, int countY) {
+        if (countX > MAX_COUNT_X) {
+            throw new IllegalArgumentException("Grid is " + countX + " cells wide, at most "
+                    + MAX_COUNT_X + " are supported");
+        }
+        this.countX = countX;
+        this.countY = countY;
+        mRows = new long[countY];
+    }
+
+    /** Returns the mask of the given number of cells, starting at column 0. */
+    private static long spanMask(int span) {
+        return span >= MAX_COUNT_X ? -1L : (1L << span) - 1;
+    }
+
+    boolean isOccupied(int x, int y) {
+        return (mRows[y] & (1L << x)) != 0;
+    }
+
+    void setOccupied(int x, int y, boolean value) {
+        if (value) {
+            mRows[y] |= 1L << x;
+        } else {
+            mRows[y] &= ~(1L << x);
+        }
+    }
+
+    /**
+     * Marks the given region as occupied or vacant.  The parts of the region outside of the
+     * grid are ignored, and so is a region starting at a negative cell, the way
+     * CellLayout has always marked the cells of its views.
+     */
+    void markRegion(int cellX, int cellY, int spanX, int spanY, boolean value) {
+        if (cellX < 0 || cellY < 0 || cellX >= countX || spanX <= 0) return;
+        final long mask = spanMask(Math.min(spanX, countX - cellX)) << cellX;
+        final int endY = Math.min(cellY + spanY, countY);
+        for (int y = cellY; y < endY; y++) {
+            if (value) {
+                mRows[y] |= mask;
+            } else {
+                mRows[y] &= ~mask;
+            }
+        }
+    }
+
+    /** Returns whether the given region is within the grid and has no occupied cell. */
+    boolean isRegionVacant(int cellX, int cellY, int spanX, int spanY) {
+        return getLastOccupiedColumn(cellX, cellY, spanX, spanY) == -1;
+    }
+
+    /**
+     * Returns the rightmost occupied column of the given region, or -1 if the region has no
+     * occupied cell.  A region that isn't entirely within the grid counts as occupied up to
+     * its last column.
+     */
+    int getLastOccupiedColumn(int cellX, int cellY, int spanX, int spanY) {
+        if (cellX < 0 || cellY < 0 || cellX + spanX > countX || cellY + spanY > countY) {
+            return cellX + spanX - 1;
+        }
+        final long mask = spanMask(spanX) << cellX;
+        long occupied = 0;
+        for (int y = cellY; y < cellY + spanY; y++) {
+            occupied |= mRows[y] & mask;
+        }
+        return occupied == 0 ? -1 : MAX_COUNT_X - 1 - Long.numberOfLeadingZeros(occupied);
+    }
+
+    /**
+     * Returns whether the top left spanX by spanY cells of block fit at the given cell: block is
+     * a grid of its own, and only the cells occupied in it need to be vacant here, so that
+     * interlocking shapes can fit.  The rest of block must be vacant.
+     */
+    boolean isRegionVacant(int cellX, int cellY, OccupancyGrid block, int spanX, int spanY) {
+        if (cellX < 0 || cellY < 0 || cellX + spanX > countX || cellY + spanY > countY) {
+            return false;
+        }
+        for (int y = 0; y < spanY; y++) {
+            if (((mRows[cellY + y] >>> cellX) & block.mRows[y]) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Finds the first vacant region of the given span, scanning rows top to bottom. */
+    boolean findVacantCell(int[] vacant, int spanX, int spanY) {
+        for (int y = 0; y + spanY <= countY; y++) {
+            for (int x = 0; x + spanX <= countX; x++) {
+                final int lastOccupied = getLastOccupiedColumn(x, y, spanX, spanY);
+                if (lastOccupied == -1) {
+                    vacant[0] = x;
+                    vacant[1] = y;
+                    return true;
+                }
+                // No region starting at or before the occupied column can fit
+                x = lastOccupied;
+            }
+        }
+        return false;
+    }
+
+    /** Copies the occupancy of this grid into dest, which must have the same dimensions. */
+    void copyTo(OccupancyGrid dest) {
+        System.arraycopy(mRows, 0, dest.mRows, 0, countY);
+    }
+
+    void clear() {
+        for (int y = 0; y < countY; y++) {
+            mRows[y] = 0;
+        }
+    }
+}
@@ -18,6 +18,7 @@ package com.mokee.launcher;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
 import android.util.AttributeSet;
 import android.widget.TextView;
 
@@ -54,9 +55,22 @@ public class PagedViewIcon extends TextView {
 
     public void applyFromApplicationInfo(ApplicationInfo info, boolean scaleUp,
             PagedViewIcon.PressedCallback cb) {
+        applyFromApplicationInfo(info, scaleUp, null, cb);
+    }
+
+    /**
+     * Like {@link #applyFromApplicationInfo(ApplicationInfo, boolean, PressedCallback)}, but
+     * draws the icon out of the given atlas of the page if it has been packed into it.
+     */
+    void applyFromApplicationInfo(ApplicationInfo info, boolean scaleUp, IconAtlas atlas,
+            PagedViewIcon.PressedCallback cb) {
         mIcon = info.iconBitmap;
         mPressedCallback = cb;
-        setCompoundDrawablesWithIntrinsicBounds(null, new FastBitmapDrawable(mIcon), null, null);
+        Drawable icon = atlas != null ? atlas.getDrawable(mIcon) : null;
+        if (icon == null) {
+            icon = new FastBitmapDrawable(mIcon);
+        }
+        setCompoundDrawablesWithIntrinsicBounds(null, icon, null, null);
         setText(info.title);
         setTag(info);
     }
@@ -507,10 +507,12 @@ public class PreviewLayout extends FrameLayout
     public void beginDrag(View child, DragSource source) {
         Resources r = getResources();
 
-        // The drag bitmap follows the touch point around on the screen
+        // The drag bitmap follows the touch point around on the screen.  The drawing cache
+        // belongs to child, so the drag view gets a copy of it.
         child.setDrawingCacheEnabled(true);
         child.buildDrawingCache();
-        final Bitmap b = child.getDrawingCache();
+        final Bitmap b = Bitmap.createBitmap(child.getDrawingCache());
+        child.destroyDrawingCache();
 
         final int bmpWidth = b.getWidth();
         final int bmpHeight = b.getHeight();
@@ -525,7 +527,6 @@ public class PreviewLayout extends FrameLayout
         Rect dragRect = null;
         mDragController.startDrag(b, dragLayerX, dragLayerY, source, child.getTag(),
                 DragController.DRAG_ACTION_MOVE, dragVisualizeOffset, dragRect, child.getScaleX());
-        b.recycle();
     }
 
     boolean readingOrderGreaterThan(int[] v1, int[] v2) {
@@ -0,0 +1,1051 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mokee.launcher;
+
+/**
+ * The reorder algorithm of CellLayout: finds where the items of a grid go to make room for an
+ * item dragged over it, pushing them out of the way or moving them aside.
+ *
+ * The solver knows nothing of views.  It works on the cells and spans of the items of the grid,
+ * which are identified by their index, on the occupancy grids of the layout and on the cell
+ * geometry needed to map a point to the nearest cell.  CellLayout feeds it its children and
+ * applies the solutions; anything else, e.g. a benchmark, can feed it items of its own.
+ *
+ * Only uses plain Java, so it can be run anywhere.  Solving runs once per drag event, so it
+ * allocates nothing once the solver and the configurations passed to it have grown to the
+ * number of items: everything it works in is kept in scratch fields.
+ */
+final class ReorderSolver {
+    final int countX;
+    final int countY;
+    // The committed occupancy, and the one a solution is worked out in
+    private final OccupancyGrid mOccupied;
+    private final OccupancyGrid mTmpOccupied;
+
+    private int mPaddingLeft;
+    private int mPaddingTop;
+    private int mCellWidth;
+    private int mCellHeight;
+    private int mWidthGap;
+    private int mHeightGap;
+
+    // The items of the grid, by index
+    private int mItemCount;
+    private int[] mItemX = new int[0];
+    private int[] mItemY = new int[0];
+    private int[] mItemSpanX = new int[0];
+    private int[] mItemSpanY = new int[0];
+    private boolean[] mItemCanReorder = new boolean[0];
+
+    // The region the dragged item is being tried in, while looking for a rearrangement
+    private int mDropX;
+    private int mDropY;
+    private int mDropSpanX;
+    private int mDropSpanY;
+
+    private int[] mIntersectingItems = new int[0];
+    private int mIntersectingCount;
+
+    // The candidate regions of findNearestArea, as left, top, right, bottom
+    private final int[] mRegions;
+    private final int[] mTmpPoint = new int[2];
+    private final int[] mTempLocation = new int[2];
+    private final int[] mSwapResult = new int[2];
+    private final int[] mNoShuffleResult = new int[2];
+    private final int[] mNoShuffleSpan = new int[2];
+    // The cells a block of items occupies, relative to its top left cell
+    private final OccupancyGrid mBlockOccupied;
+    private ItemCluster mCluster;
+
+    /**
+     * A configuration of the items of the grid, along with where the dragged item goes in it.
+     */
+    static final class ItemConfiguration {
+        int itemCount;
+        int[] cellX = new int[0];
+        int[] cellY = new int[0];
+        int[] spanX = new int[0];
+        int[] spanY = new int[0];
+        private int[] mSavedX = new int[0];
+        private int[] mSavedY = new int[0];
+        // The items, in the order the push mechanic considers them
+        private int[] mSortedItems = new int[0];
+        boolean isSolution = false;
+        int dragViewX, dragViewY, dragViewSpanX, dragViewSpanY;
+
+        private void copyFrom(ReorderSolver solver) {
+            final int count = solver.mItemCount;
+            if (cellX.length < count) {
+                cellX = new int[count];
+                cellY = new int[count];
+                spanX = new int[count];
+                spanY = new int[count];
+                mSavedX = new int[count];
+                mSavedY = new int[count];
+                mSortedItems = new int[count];
+            }
+            itemCount = count;
+            System.arraycopy(solver.mItemX, 0, cellX, 0, count);
+            System.arraycopy(solver.mItemY, 0, cellY, 0, count);
+            System.arraycopy(solver.mItemSpanX, 0, spanX, 0, count);
+            System.arraycopy(solver.mItemSpanY, 0, spanY, 0, count);
+            for (int i = 0; i < count; i++) {
+                mSortedItems[i] = i;
+            }
+        }
+
+        void save() {
+            System.arraycopy(cellX, 0, mSavedX, 0, itemCount);
+            System.arraycopy(cellY, 0, mSavedY, 0, itemCount);
+        }
+
+        void restore() {
+            System.arraycopy(mSavedX, 0, cellX, 0, itemCount);
+            System.arraycopy(mSavedY, 0, cellY, 0, itemCount);
+        }
+
+        int area() {
+            return dragViewSpanX * dragViewSpanY;
+        }
+    }
+
+    ReorderSolver(OccupancyGrid occupied, OccupancyGrid tmpOccupied) {
+        countX = occupied.countX;
+        countY = occupied.countY;
+        mOccupied = occupied;
+        mTmpOccupied = tmpOccupied;
+        mRegions = new int[countX * countY * 4];
+        mBlockOccupied = new OccupancyGrid(countX, countY);
+    }
+
+    /** Sets the geometry used to map points to cells, the way CellLayout lays cells out. */
+    void setCellGeometry(int paddingLeft, int paddingTop, int cellWidth, int cellHeight,
+            int widthGap, int heightGap) {
+        mPaddingLeft = paddingLeft;
+        mPaddingTop = paddingTop;
+        mCellWidth = cellWidth;
+        mCellHeight = cellHeight;
+        mWidthGap = widthGap;
+        mHeightGap = heightGap;
+    }
+
+    void clearItems() {
+        mItemCount = 0;
+    }
+
+    /**
+     * Adds an item of the grid, and returns its index.  Items that can't be reordered block
+     * any solution that would have to move them.
+     */
+    int addItem(int cellX, int cellY, int spanX, int spanY, boolean canReorder) {
+        if (mItemCount == mItemX.length) {
+            final int capacity = Math.max(16, mItemCount * 2);
+            mItemX = copyOf(mItemX, capacity);
+            mItemY = copyOf(mItemY, capacity);
+            mItemSpanX = copyOf(mItemSpanX, capacity);
+            mItemSpanY = copyOf(mItemSpanY, capacity);
+            final boolean[] canReorderItems = new boolean[capacity];
+            System.arraycopy(mItemCanReorder, 0, canReorderItems, 0, mItemCount);
+            mItemCanReorder = canReorderItems;
+            mIntersectingItems = new int[capacity];
+        }
+        mItemX[mItemCount] = cellX;
+        mItemY[mItemCount] = cellY;
+        mItemSpanX[mItemCount] = spanX;
+        mItemSpanY[mItemCount] = spanY;
+        mItemCanReorder[mItemCount] = canReorder;
+        return mItemCount++;
+    }
+
+    private static int[] copyOf(int[] array, int length) {
+        final int[] copy = new int[length];
+        System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+        return copy;
+    }
+
+    private void cellToCenterPoint(int cellX, int cellY, int[] result) {
+        result[0] = mPaddingLeft + cellX * (mCellWidth + mWidthGap) + mCellWidth / 2;
+        result[1] = mPaddingTop + cellY * (mCellHeight + mHeightGap) + mCellHeight / 2;
+    }
+
+    // Whether the first rect contains the second, the way Rect.contains(Rect) decides it
+    private static boolean contains(int left, int top, int right, int bottom,
+            int otherLeft, int otherTop, int otherRight, int otherBottom) {
+        return left < right && top < bottom && left <= otherLeft && top <= otherTop &&
+                right >= otherRight && bottom >= otherBottom;
+    }
+
+    private static boolean intersects(int left, int top, int right, int bottom,
+            int otherLeft, int otherTop, int otherRight, int otherBottom) {
+        return left < otherRight && otherLeft < right && top < otherBottom && otherTop < bottom;
+    }
+
+    /**
+     * Find a vacant area that will fit the given bounds nearest the requested
+     * cell location. Uses Euclidean distance to score multiple vacant areas.
+     *
+     * @param pixelX The X location at which you want to search for a vacant area.
+     * @param pixelY The Y location at which you want to search for a vacant area.
+     * @param minSpanX The minimum horizontal span required
+     * @param minSpanY The minimum vertical span required
+     * @param spanX Horizontal span of the object.
+     * @param spanY Vertical span of the object.
+     * @param ignoreOccupied If true, the result can be an occupied cell
+     * @param result Array in which to place the result, or null (in which case a new array will
+     *        be allocated)
+     * @return The X, Y cell of a vacant area that can contain this object,
+     *         nearest the requested location.
+     */
+    int[] findNearestArea(int pixelX, int pixelY, int minSpanX, int minSpanY, int spanX, int spanY,
+            boolean ignoreOccupied, int[] result, int[] resultSpan, OccupancyGrid occupied) {
+        // For items with a spanX / spanY > 1, the passed in point (pixelX, pixelY) corresponds
+        // to the center of the item, but we are searching based on the top-left cell, so
+        // we translate the point over to correspond to the top-left.
+        pixelX -= (mCellWidth + mWidthGap) * (spanX - 1) / 2f;
+        pixelY -= (mCellHeight + mHeightGap) * (spanY - 1) / 2f;
+
+        // Keep track of best-scoring drop area
+        final int[] bestXY = result != null ? result : new int[2];
+        double bestDistance = Double.MAX_VALUE;
+        int bestLeft = -1, bestTop = -1, bestRight = -1, bestBottom = -1;
+        final int[] regions = mRegions;
+        int regionCount = 0;
+
+        if (minSpanX <= 0 || minSpanY <= 0 || spanX <= 0 || spanY <= 0 ||
+                spanX < minSpanX || spanY < minSpanY) {
+            return bestXY;
+        }
+
+        for (int y = 0; y < countY - (minSpanY - 1); y++) {
+            for (int x = 0; x < countX - (minSpanX - 1); x++) {
+                int ySize = -1;
+                int xSize = -1;
+                if (ignoreOccupied) {
+                    // First, let's see if this thing fits anywhere
+                    final int lastOccupied =
+                            occupied.getLastOccupiedColumn(x, y, minSpanX, minSpanY);
+                    if (lastOccupied != -1) {
+                        // Nothing starting at or before the occupied column fits either
+                        x = lastOccupied;
+                        continue;
+                    }
+                    xSize = minSpanX;
+                    ySize = minSpanY;
+
+                    // We know that the item will fit at _some_ acceptable size, now let's see
+                    // how big we can make it. We'll alternate between incrementing x and y spans
+                    // until we hit a limit.
+                    boolean incX = true;
+                    boolean hitMaxX = xSize >= spanX;
+                    boolean hitMaxY = ySize >= spanY;
+                    while (!(hitMaxX && hitMaxY)) {
+                        if (incX && !hitMaxX) {
+                            if (!occupied.isRegionVacant(x + xSize, y, 1, ySize)) {
+                                // We can't move out horizontally
+                                hitMaxX = true;
+                            } else {
+                                xSize++;
+                            }
+                        } else if (!hitMaxY) {
+                            if (!occupied.isRegionVacant(x, y + ySize, xSize, 1)) {
+                                // We can't move out vertically
+                                hitMaxY = true;
+                            } else {
+                                ySize++;
+                            }
+                        }
+                        hitMaxX |= xSize >= spanX;
+                        hitMaxY |= ySize >= spanY;
+                        incX = !incX;
+                    }
+                }
+                final int[] cellXY = mTmpPoint;
+                cellToCenterPoint(x, y, cellXY);
+
+                // We verify that the current rect is not a sub-rect of any of our previous
+                // candidates. In this case, the current rect is disqualified in favour of the
+                // containing rect.
+                final int right = x + xSize;
+                final int bottom = y + ySize;
+                boolean contained = false;
+                for (int i = 0; i < regionCount * 4; i += 4) {
+                    if (contains(regions[i], regions[i + 1], regions[i + 2], regions[i + 3],
+                            x, y, right, bottom)) {
+                        contained = true;
+                        break;
+                    }
+                }
+                final int region = regionCount++ * 4;
+                regions[region] = x;
+                regions[region + 1] = y;
+                regions[region + 2] = right;
+                regions[region + 3] = bottom;
+                // Squared, which ranks the candidates the same without a square root
+                final double deltaX = cellXY[0] - pixelX;
+                final double deltaY = cellXY[1] - pixelY;
+                double distance = deltaX * deltaX + deltaY * deltaY;
+
+                if ((distance <= bestDistance && !contained) ||
+                        contains(x, y, right, bottom, bestLeft, bestTop, bestRight, bestBottom)) {
+                    bestDistance = distance;
+                    bestXY[0] = x;
+                    bestXY[1] = y;
+                    if (resultSpan != null) {
+                        resultSpan[0] = xSize;
+                        resultSpan[1] = ySize;
+                    }
+                    bestLeft = x;
+                    bestTop = y;
+                    bestRight = right;
+                    bestBottom = bottom;
+                }
+            }
+        }
+
+        // Return -1, -1 if no suitable location found
+        if (bestDistance == Double.MAX_VALUE) {
+            bestXY[0] = -1;
+            bestXY[1] = -1;
+        }
+        return bestXY;
+    }
+
+    /**
+     * Find a vacant area that will fit the given bounds nearest the requested
+     * cell location, and will also weigh in a suggested direction vector of the
+     * desired location. This method computers distance based on unit grid distances,
+     * not pixel distances.
+     *
+     * @param cellX The X cell nearest to which you want to search for a vacant area.
+     * @param cellY The Y cell nearest which you want to search for a vacant area.
+     * @param spanX Horizontal span of the object.
+     * @param spanY Vertical span of the object.
+     * @param direction The favored direction in which the views should move from x, y
+     * @param occupied The grid which represents which cells in the CellLayout are occupied
+     * @param blockOccupied The grid which represents which cells in the specified block (cellX,
+     *        cellY, spanX, spanY) are occupied, relative to its top left cell. This is used when
+     *        try to move a group of views.
+     * @param result Array in which to place the result, or null (in which case a new array will
+     *        be allocated)
+     * @return The X, Y cell of a vacant area that can contain this object,
+     *         nearest the requested location.
+     */
+    private int[] findNearestArea(int cellX, int cellY, int spanX, int spanY, int[] direction,
+            OccupancyGrid occupied, OccupancyGrid blockOccupied, int[] result) {
+        // Keep track of best-scoring drop area
+        final int[] bestXY = result != null ? result : new int[2];
+        float bestDistance = Float.MAX_VALUE;
+        int bestDirectionScore = Integer.MIN_VALUE;
+
+        for (int y = 0; y < countY - (spanY - 1); y++) {
+            for (int x = 0; x < countX - (spanX - 1); x++) {
+                // First, let's see if this thing fits anywhere
+                if (blockOccupied == null ? !occupied.isRegionVacant(x, y, spanX, spanY) :
+                        !occupied.isRegionVacant(x, y, blockOccupied, spanX, spanY)) {
+                    continue;
+                }
+
+                float distance = (float)
+                        Math.sqrt((x - cellX) * (x - cellX) + (y - cellY) * (y - cellY));
+                int[] curDirection = mTmpPoint;
+                computeDirectionVector(x - cellX, y - cellY, curDirection);
+                // The direction score is just the dot product of the two candidate direction
+                // and that passed in.
+                int curDirectionScore = direction[0] * curDirection[0] +
+                        direction[1] * curDirection[1];
+                boolean exactDirectionOnly = false;
+                boolean directionMatches = direction[0] == curDirection[0] &&
+                        direction[0] == curDirection[0];
+                if ((directionMatches || !exactDirectionOnly) &&
+                        Float.compare(distance,  bestDistance) < 0 || (Float.compare(distance,
+                        bestDistance) == 0 && curDirectionScore > bestDirectionScore)) {
+                    bestDistance = distance;
+                    bestDirectionScore = curDirectionScore;
+                    bestXY[0] = x;
+                    bestXY[1] = y;
+                }
+            }
+        }
+
+        // Return -1, -1 if no suitable location found
+        if (bestDistance == Float.MAX_VALUE) {
+            bestXY[0] = -1;
+            bestXY[1] = -1;
+        }
+        return bestXY;
+    }
+
+    /*
+     * Returns a pair (x, y), where x,y are in {-1, 0, 1} corresponding to vector between
+     * the provided point and the provided cell
+     */
+    static void computeDirectionVector(float deltaX, float deltaY, int[] result) {
+        double angle = Math.atan(deltaY / deltaX);
+
+        result[0] = 0;
+        result[1] = 0;
+        if (Math.abs(Math.cos(angle)) > 0.5f) {
+            result[0] = (int) Math.signum(deltaX);
+        }
+        if (Math.abs(Math.sin(angle)) > 0.5f) {
+            result[1] = (int) Math.signum(deltaY);
+        }
+    }
+
+    private void markCellsForItem(ItemConfiguration config, int item, OccupancyGrid occupied,
+            boolean value) {
+        occupied.markRegion(config.cellX[item], config.cellY[item], config.spanX[item],
+                config.spanY[item], value);
+    }
+
+    private void markCellsForDrop(OccupancyGrid occupied, boolean value) {
+        occupied.markRegion(mDropX, mDropY, mDropSpanX, mDropSpanY, value);
+    }
+
+    private boolean addViewToTempLocation(int item, int[] direction,
+            ItemConfiguration currentState) {
+        boolean success = false;
+        markCellsForItem(currentState, item, mTmpOccupied, false);
+        markCellsForDrop(mTmpOccupied, true);
+
+        findNearestArea(currentState.cellX[item], currentState.cellY[item],
+                currentState.spanX[item], currentState.spanY[item], direction, mTmpOccupied,
+                null, mTempLocation);
+
+        if (mTempLocation[0] >= 0 && mTempLocation[1] >= 0) {
+            currentState.cellX[item] = mTempLocation[0];
+            currentState.cellY[item] = mTempLocation[1];
+            success = true;
+        }
+        markCellsForItem(currentState, item, mTmpOccupied, true);
+        return success;
+    }
+
+    /**
+     * This helper class defines a cluster of items. It helps with defining complex edges
+     * of the cluster and determining how those edges interact with other items. The edges
+     * essentially define a fine-grained boundary around the cluster of items -- like a more
+     * precise version of a bounding box.
+     */
+    private final class ItemCluster {
+        static final int LEFT = 0;
+        static final int TOP = 1;
+        static final int RIGHT = 2;
+        static final int BOTTOM = 3;
+
+        ItemConfiguration config;
+        final int[] items;
+        int itemCount;
+        final boolean[] inCluster;
+        int left, top, right, bottom;
+
+        final int[] leftEdge = new int[countY];
+        final int[] rightEdge = new int[countY];
+        final int[] topEdge = new int[countX];
+        final int[] bottomEdge = new int[countX];
+        boolean leftEdgeDirty, rightEdgeDirty, topEdgeDirty, bottomEdgeDirty;
+
+        ItemCluster(int capacity) {
+            items = new int[capacity];
+            inCluster = new boolean[capacity];
+        }
+
+        void set(int[] clusterItems, int count, ItemConfiguration config) {
+            this.config = config;
+            for (int i = 0; i < itemCount; i++) {
+                inCluster[items[i]] = false;
+            }
+            itemCount = 0;
+            for (int i = 0; i < count; i++) {
+                addItem(clusterItems[i]);
+            }
+            resetEdges();
+        }
+
+        void resetEdges() {
+            for (int i = 0; i < countX; i++) {
+                topEdge[i] = -1;
+                bottomEdge[i] = -1;
+            }
+            for (int i = 0; i < countY; i++) {
+                leftEdge[i] = -1;
+                rightEdge[i] = -1;
+            }
+            leftEdgeDirty = true;
+            rightEdgeDirty = true;
+            bottomEdgeDirty = true;
+            topEdgeDirty = true;
+        }
+
+        void computeEdge(int which, int[] edge) {
+            for (int i = 0; i < itemCount; i++) {
+                final int item = items[i];
+                final int x = config.cellX[item];
+                final int y = config.cellY[item];
+                final int spanX = config.spanX[item];
+                final int spanY = config.spanY[item];
+                switch (which) {
+                    case LEFT:
+                        for (int j = y; j < y + spanY; j++) {
+                            if (x < edge[j] || edge[j] < 0) {
+                                edge[j] = x;
+                            }
+                        }
+                        break;
+                    case RIGHT:
+                        for (int j = y; j < y + spanY; j++) {
+                            if (x + spanX > edge[j]) {
+                                edge[j] = x + spanX;
+                            }
+                        }
+                        break;
+                    case TOP:
+                        for (int j = x; j < x + spanX; j++) {
+                            if (y < edge[j] || edge[j] < 0) {
+                                edge[j] = y;
+                            }
+                        }
+                        break;
+                    case BOTTOM:
+                        for (int j = x; j < x + spanX; j++) {
+                            if (y + spanY > edge[j]) {
+                                edge[j] = y + spanY;
+                            }
+                        }
+                        break;
+                }
+            }
+        }
+
+        boolean isItemTouchingEdge(int item, int whichEdge) {
+            final int x = config.cellX[item];
+            final int y = config.cellY[item];
+            final int spanX = config.spanX[item];
+            final int spanY = config.spanY[item];
+
+            int[] edge = getEdge(whichEdge);
+
+            switch (whichEdge) {
+                case LEFT:
+                    for (int i = y; i < y + spanY; i++) {
+                        if (edge[i] == x + spanX) {
+                            return true;
+                        }
+                    }
+                    break;
+                case RIGHT:
+                    for (int i = y; i < y + spanY; i++) {
+                        if (edge[i] == x) {
+                            return true;
+                        }
+                    }
+                    break;
+                case TOP:
+                    for (int i = x; i < x + spanX; i++) {
+                        if (edge[i] == y + spanY) {
+                            return true;
+                        }
+                    }
+                    break;
+                case BOTTOM:
+                    for (int i = x; i < x + spanX; i++) {
+                        if (edge[i] == y) {
+                            return true;
+                        }
+                    }
+                    break;
+            }
+            return false;
+        }
+
+        void shift(int whichEdge, int delta) {
+            for (int i = 0; i < itemCount; i++) {
+                final int item = items[i];
+                switch (whichEdge) {
+                    case LEFT:
+                        config.cellX[item] -= delta;
+                        break;
+                    case RIGHT:
+                        config.cellX[item] += delta;
+                        break;
+                    case TOP:
+                        config.cellY[item] -= delta;
+                        break;
+                    case BOTTOM:
+                    default:
+                        config.cellY[item] += delta;
+                        break;
+                }
+            }
+            resetEdges();
+        }
+
+        void addItem(int item) {
+            items[itemCount++] = item;
+            inCluster[item] = true;
+            resetEdges();
+        }
+
+        void computeBoundingRect() {
+            for (int i = 0; i < itemCount; i++) {
+                final int item = items[i];
+                final int itemRight = config.cellX[item] + config.spanX[item];
+                final int itemBottom = config.cellY[item] + config.spanY[item];
+                if (i == 0) {
+                    left = config.cellX[item];
+                    top = config.cellY[item];
+                    right = itemRight;
+                    bottom = itemBottom;
+                } else {
+                    left = Math.min(left, config.cellX[item]);
+                    top = Math.min(top, config.cellY[item]);
+                    right = Math.max(right, itemRight);
+                    bottom = Math.max(bottom, itemBottom);
+                }
+            }
+        }
+
+        int[] getEdge(int which) {
+            switch (which) {
+                case LEFT:
+                    if (leftEdgeDirty) {
+                        computeEdge(LEFT, leftEdge);
+                        leftEdgeDirty = false;
+                    }
+                    return leftEdge;
+                case RIGHT:
+                    if (rightEdgeDirty) {
+                        computeEdge(RIGHT, rightEdge);
+                        rightEdgeDirty = false;
+                    }
+                    return rightEdge;
+                case TOP:
+                    if (topEdgeDirty) {
+                        computeEdge(TOP, topEdge);
+                        topEdgeDirty = false;
+                    }
+                    return topEdge;
+                case BOTTOM:
+                default:
+                    if (bottomEdgeDirty) {
+                        computeEdge(BOTTOM, bottomEdge);
+                        bottomEdgeDirty = false;
+                    }
+                    return bottomEdge;
+            }
+        }
+
+        // The position of an item along the push, the item the edge meets first coming first
+        private int getPushOrder(int item, int whichEdge) {
+            switch (whichEdge) {
+                case LEFT:
+                    return -(config.cellX[item] + config.spanX[item]);
+                case RIGHT:
+                    return config.cellX[item];
+                case TOP:
+                    return -(config.cellY[item] + config.spanY[item]);
+                case BOTTOM:
+                default:
+                    return config.cellY[item];
+            }
+        }
+
+        void sortConfigurationForEdgePush(int whichEdge) {
+            // A stable insertion sort: there are few items, and they are mostly sorted already
+            final int[] sorted = config.mSortedItems;
+            for (int i = 1; i < config.itemCount; i++) {
+                final int item = sorted[i];
+                final int order = getPushOrder(item, whichEdge);
+                int j = i - 1;
+                while (j >= 0 && getPushOrder(sorted[j], whichEdge) > order) {
+                    sorted[j + 1] = sorted[j];
+                    j--;
+                }
+                sorted[j + 1] = item;
+            }
+        }
+    }
+
+    private boolean pushViewsToTempLocation(int[] items, int count, int[] direction,
+            int dragItem, ItemConfiguration currentState) {
+
+        if (mCluster == null || mCluster.items.length < currentState.itemCount) {
+            mCluster = new ItemCluster(mItemX.length);
+        }
+        final ItemCluster cluster = mCluster;
+        cluster.set(items, count, currentState);
+        cluster.computeBoundingRect();
+        int whichEdge;
+        int pushDistance;
+        boolean fail = false;
+
+        // Determine the edge of the cluster that will be leading the push and how far
+        // the cluster must be shifted.
+        if (direction[0] < 0) {
+            whichEdge = ItemCluster.LEFT;
+            pushDistance = cluster.right - mDropX;
+        } else if (direction[0] > 0) {
+            whichEdge = ItemCluster.RIGHT;
+            pushDistance = mDropX + mDropSpanX - cluster.left;
+        } else if (direction[1] < 0) {
+            whichEdge = ItemCluster.TOP;
+            pushDistance = cluster.bottom - mDropY;
+        } else {
+            whichEdge = ItemCluster.BOTTOM;
+            pushDistance = mDropY + mDropSpanY - cluster.top;
+        }
+
+        // Break early for invalid push distance.
+        if (pushDistance <= 0) {
+            return false;
+        }
+
+        // Mark the occupied state as false for the group of items we want to move.
+        for (int i = 0; i < count; i++) {
+            markCellsForItem(currentState, items[i], mTmpOccupied, false);
+        }
+
+        // We save the current configuration -- if we fail to find a solution we will revert
+        // to the initial state. The process of finding a solution modifies the configuration
+        // in place, hence the need for revert in the failure case.
+        currentState.save();
+
+        // The pushing algorithm is simplified by considering the items in the order in which
+        // they would be pushed by the cluster. For example, if the cluster is leading with its
+        // left edge, we consider sort the items by their right edge, from right to left.
+        cluster.sortConfigurationForEdgePush(whichEdge);
+
+        while (pushDistance > 0 && !fail) {
+            for (int i = 0; i < currentState.itemCount; i++) {
+                final int item = currentState.mSortedItems[i];
+                // For each item that isn't in the cluster, we see if the leading edge of the
+                // cluster is contacting the edge of that item. If so, we add that item to the
+                // cluster.
+                if (!cluster.inCluster[item] && item != dragItem) {
+                    if (cluster.isItemTouchingEdge(item, whichEdge)) {
+                        if (!mItemCanReorder[item]) {
+                            // The push solution includes the all apps button, this is not viable.
+                            fail = true;
+                            break;
+                        }
+                        cluster.addItem(item);
+
+                        // Adding item to cluster, mark it as not occupied.
+                        markCellsForItem(currentState, item, mTmpOccupied, false);
+                    }
+                }
+            }
+            pushDistance--;
+
+            // The cluster has been completed, now we move the whole thing over in the appropriate
+            // direction.
+            cluster.shift(whichEdge, 1);
+        }
+
+        boolean foundSolution = false;
+        cluster.computeBoundingRect();
+
+        // Due to the nature of the algorithm, the only check required to verify a valid solution
+        // is to ensure that completed shifted cluster lies completely within the cell layout.
+        if (!fail && cluster.left >= 0 && cluster.right <= countX && cluster.top >= 0 &&
+                cluster.bottom <= countY) {
+            foundSolution = true;
+        } else {
+            currentState.restore();
+        }
+
+        // In either case, we set the occupied array as marked for the location of the items
+        for (int i = 0; i < cluster.itemCount; i++) {
+            markCellsForItem(currentState, cluster.items[i], mTmpOccupied, true);
+        }
+
+        return foundSolution;
+    }
+
+    private boolean addViewsToTempLocation(int[] items, int count, int[] direction,
+            ItemConfiguration currentState) {
+        if (count == 0) return true;
+
+        boolean success = false;
+        int left = 0, top = 0, right = 0, bottom = 0;
+        // We construct a rect which represents the entire group of items passed in
+        for (int i = 0; i < count; i++) {
+            final int item = items[i];
+            final int itemRight = currentState.cellX[item] + currentState.spanX[item];
+            final int itemBottom = currentState.cellY[item] + currentState.spanY[item];
+            if (i == 0) {
+                left = currentState.cellX[item];
+                top = currentState.cellY[item];
+                right = itemRight;
+                bottom = itemBottom;
+            } else {
+                left = Math.min(left, currentState.cellX[item]);
+                top = Math.min(top, currentState.cellY[item]);
+                right = Math.max(right, itemRight);
+                bottom = Math.max(bottom, itemBottom);
+            }
+        }
+
+        // Mark the occupied state as false for the group of items we want to move.
+        for (int i = 0; i < count; i++) {
+            markCellsForItem(currentState, items[i], mTmpOccupied, false);
+        }
+
+        final OccupancyGrid blockOccupied = mBlockOccupied;
+        blockOccupied.clear();
+        // We mark more precisely which parts of the bounding rect are truly occupied, allowing
+        // for interlocking.
+        for (int i = 0; i < count; i++) {
+            final int item = items[i];
+            blockOccupied.markRegion(currentState.cellX[item] - left,
+                    currentState.cellY[item] - top, currentState.spanX[item],
+                    currentState.spanY[item], true);
+        }
+
+        markCellsForDrop(mTmpOccupied, true);
+
+        findNearestArea(left, top, right - left, bottom - top, direction, mTmpOccupied,
+                blockOccupied, mTempLocation);
+
+        // If we successfuly found a location by pushing the block of items, we commit it
+        if (mTempLocation[0] >= 0 && mTempLocation[1] >= 0) {
+            int deltaX = mTempLocation[0] - left;
+            int deltaY = mTempLocation[1] - top;
+            for (int i = 0; i < count; i++) {
+                currentState.cellX[items[i]] += deltaX;
+                currentState.cellY[items[i]] += deltaY;
+            }
+            success = true;
+        }
+
+        // In either case, we set the occupied array as marked for the location of the items
+        for (int i = 0; i < count; i++) {
+            markCellsForItem(currentState, items[i], mTmpOccupied, true);
+        }
+        return success;
+    }
+
+    // This method tries to find a reordering solution which satisfies the push mechanic by trying
+    // to push items in each of the cardinal directions, in an order based on the direction vector
+    // passed.
+    private boolean attemptPushInDirection(int[] items, int count, int[] direction,
+            int ignoreItem, ItemConfiguration solution) {
+        if ((Math.abs(direction[0]) + Math.abs(direction[1])) > 1) {
+            // If the direction vector has two non-zero components, we try pushing
+            // separately in each of the components.
+            int temp = direction[1];
+            direction[1] = 0;
+
+            if (pushViewsToTempLocation(items, count, direction, ignoreItem, solution)) {
+                return true;
+            }
+            direction[1] = temp;
+            temp = direction[0];
+            direction[0] = 0;
+
+            if (pushViewsToTempLocation(items, count, direction, ignoreItem, solution)) {
+                return true;
+            }
+            // Revert the direction
+            direction[0] = temp;
+
+            // Now we try pushing in each component of the opposite direction
+            direction[0] *= -1;
+            direction[1] *= -1;
+            temp = direction[1];
+            direction[1] = 0;
+            if (pushViewsToTempLocation(items, count, direction, ignoreItem, solution)) {
+                return true;
+            }
+
+            direction[1] = temp;
+            temp = direction[0];
+            direction[0] = 0;
+            if (pushViewsToTempLocation(items, count, direction, ignoreItem, solution)) {
+                return true;
+            }
+            // revert the direction
+            direction[0] = temp;
+            direction[0] *= -1;
+            direction[1] *= -1;
+
+        } else {
+            // If the direction vector has a single non-zero component, we push first in the
+            // direction of the vector
+            if (pushViewsToTempLocation(items, count, direction, ignoreItem, solution)) {
+                return true;
+            }
+            // Then we try the opposite direction
+            direction[0] *= -1;
+            direction[1] *= -1;
+            if (pushViewsToTempLocation(items, count, direction, ignoreItem, solution)) {
+                return true;
+            }
+            // Switch the direction back
+            direction[0] *= -1;
+            direction[1] *= -1;
+
+            // If we have failed to find a push solution with the above, then we try
+            // to find a solution by pushing along the perpendicular axis.
+
+            // Swap the components
+            int temp = direction[1];
+            direction[1] = direction[0];
+            direction[0] = temp;
+            if (pushViewsToTempLocation(items, count, direction, ignoreItem, solution)) {
+                return true;
+            }
+
+            // Then we try the opposite direction
+            direction[0] *= -1;
+            direction[1] *= -1;
+            if (pushViewsToTempLocation(items, count, direction, ignoreItem, solution)) {
+                return true;
+            }
+            // Switch the direction back
+            direction[0] *= -1;
+            direction[1] *= -1;
+
+            // Swap the components back
+            temp = direction[1];
+            direction[1] = direction[0];
+            direction[0] = temp;
+        }
+        return false;
+    }
+
+    private boolean rearrangementExists(int cellX, int cellY, int spanX, int spanY,
+            int[] direction, int ignoreItem, ItemConfiguration solution) {
+        // Return early if get invalid cell positions
+        if (cellX < 0 || cellY < 0) return false;
+
+        mIntersectingCount = 0;
+        mDropX = cellX;
+        mDropY = cellY;
+        mDropSpanX = spanX;
+        mDropSpanY = spanY;
+
+        // Mark the desired location of the item currently being dragged.
+        if (ignoreItem >= 0) {
+            solution.cellX[ignoreItem] = cellX;
+            solution.cellY[ignoreItem] = cellY;
+        }
+        for (int item = 0; item < solution.itemCount; item++) {
+            if (item == ignoreItem) continue;
+            if (intersects(cellX, cellY, cellX + spanX, cellY + spanY,
+                    solution.cellX[item], solution.cellY[item],
+                    solution.cellX[item] + solution.spanX[item],
+                    solution.cellY[item] + solution.spanY[item])) {
+                if (!mItemCanReorder[item]) {
+                    return false;
+                }
+                mIntersectingItems[mIntersectingCount++] = item;
+            }
+        }
+
+        // First we try to find a solution which respects the push mechanic. That is,
+        // we try to find a solution such that no displaced item travels through another item
+        // without also displacing that item.
+        if (attemptPushInDirection(mIntersectingItems, mIntersectingCount, direction, ignoreItem,
+                solution)) {
+            return true;
+        }
+
+        // Next we try moving the items as a block, but without requiring the push mechanic.
+        if (addViewsToTempLocation(mIntersectingItems, mIntersectingCount, direction,
+                solution)) {
+            return true;
+        }
+
+        // Ok, they couldn't move as a block, let's move them individually
+        for (int i = 0; i < mIntersectingCount; i++) {
+            if (!addViewToTempLocation(mIntersectingItems[i], direction, solution)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Looks for a configuration in which the dragged item fits at the cell nearest to the given
+     * point, pushing other items out of the way, shrinking the dragged item down to its minimum
+     * span if it doesn't fit.  The configuration found is written to solution.
+     *
+     * @param dragItem The index of the item being dragged, or -1 if it isn't on the grid
+     */
+    ItemConfiguration simpleSwap(int pixelX, int pixelY, int minSpanX, int minSpanY, int spanX,
+            int spanY, int[] direction, int dragItem, boolean decX, ItemConfiguration solution) {
+        // Copy the current state into the solution. This solution will be manipulated as necessary.
+        solution.copyFrom(this);
+        // Copy the current occupied array into the temporary occupied array. This array will be
+        // manipulated as necessary to find a solution.
+        mOccupied.copyTo(mTmpOccupied);
+
+        // We find the nearest cell into which we would place the dragged item, assuming there's
+        // nothing in its way.
+        int result[] = findNearestArea(pixelX, pixelY, spanX, spanY, spanX, spanY, false,
+                mSwapResult, null, mOccupied);
+
+        // First we try the exact nearest position of the item being dragged,
+        // we will then want to try to move this around to other neighbouring positions
+        boolean success = rearrangementExists(result[0], result[1], spanX, spanY, direction,
+                dragItem, solution);
+
+        if (!success) {
+            // We try shrinking the widget down to size in an alternating pattern, shrink 1 in
+            // x, then 1 in y etc.
+            if (spanX > minSpanX && (minSpanY == spanY || decX)) {
+                return simpleSwap(pixelX, pixelY, minSpanX, minSpanY, spanX - 1, spanY, direction,
+                        dragItem, false, solution);
+            } else if (spanY > minSpanY) {
+                return simpleSwap(pixelX, pixelY, minSpanX, minSpanY, spanX, spanY - 1, direction,
+                        dragItem, true, solution);
+            }
+            solution.isSolution = false;
+        } else {
+            solution.isSolution = true;
+            solution.dragViewX = result[0];
+            solution.dragViewY = result[1];
+            solution.dragViewSpanX = spanX;
+            solution.dragViewSpanY = spanY;
+        }
+        return solution;
+    }
+
+    /**
+     * Looks for a configuration in which the dragged item fits in the vacant area nearest to
+     * the given point, without moving any other item.
+     */
+    ItemConfiguration findConfigurationNoShuffle(int pixelX, int pixelY, int minSpanX,
+            int minSpanY, int spanX, int spanY, ItemConfiguration solution) {
+        final int[] result = mNoShuffleResult;
+        final int[] resultSpan = mNoShuffleSpan;
+        findNearestArea(pixelX, pixelY, minSpanX, minSpanY, spanX, spanY, true, result,
+                resultSpan, mOccupied);
+        if (result[0] >= 0 && result[1] >= 0) {
+            solution.copyFrom(this);
+            solution.dragViewX = result[0];
+            solution.dragViewY = result[1];
+            solution.dragViewSpanX = resultSpan[0];
+            solution.dragViewSpanY = resultSpan[1];
+            solution.isSolution = true;
+        } else {
+            solution.isSolution = false;
+        }
+        return solution;
+    }
+}
@@ -21,8 +21,13 @@ import java.util.Arrays;
 
 import android.content.ComponentName;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 /**
@@ -30,6 +35,8 @@ import android.util.Log;
  */
 class ShortcutInfo extends ItemInfo {
 
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
     /**
      * The intent used to start the application.
      */
@@ -54,6 +61,13 @@ class ShortcutInfo extends ItemInfo {
      */
     boolean usingFallbackIcon;
 
+    /**
+     * Indicates whether this was read from the workspace snapshot.  Such a shortcut has no
+     * entry in the model, it is only there to be looked at until the loader binds the real
+     * one, so it can't be dragged or edited.
+     */
+    boolean fromSnapshot;
+
     /**
      * If isShortcut=true and customIcon=false, this contains a reference to the
      * shortcut icon as an application's resource.
@@ -63,7 +77,31 @@ class ShortcutInfo extends ItemInfo {
     /**
      * The application icon.
      */
-    private Bitmap mIcon;
+    private volatile Bitmap mIcon;
+
+    /**
+     * The icon as it was read from the database, when it has not been needed yet.  It is only
+     * decoded into mIcon the first time somebody asks for the icon.
+     */
+    private volatile PendingIcon mPendingIcon;
+
+    /**
+     * Who to call back once the pending icon is decoded, while it is being decoded; only
+     * touched on the main thread.
+     */
+    private ArrayList<Runnable> mDecodeCallbacks;
+
+    private static class PendingIcon {
+        final byte[] data;
+        final Context context;
+        final Bitmap fallback;
+
+        PendingIcon(byte[] data, Context context, Bitmap fallback) {
+            this.data = data;
+            this.context = context;
+            this.fallback = fallback;
+        }
+    }
 
     /**
      * Title change listener
@@ -94,6 +132,7 @@ class ShortcutInfo extends ItemInfo {
         }
         customIconResource = info.customIconResource;
         mIcon = info.mIcon; // TODO: should make a copy here.  maybe we don't need this ctor at all
+        mPendingIcon = info.mPendingIcon;
         customIcon = info.customIcon;
     }
 
@@ -106,19 +145,112 @@ class ShortcutInfo extends ItemInfo {
     }
 
     public void setIcon(Bitmap b) {
+        mPendingIcon = null;
         mIcon = b;
         for (ShortcutListener i : mListeners) {
             i.onIconChanged(this);
         }
     }
 
+    /**
+     * Sets the icon from an encoded blob read from the database, without decoding it yet.
+     * If it turns out not to decode, fallback is used instead.
+     */
+    void setIconBlob(byte[] data, Context context, Bitmap fallback) {
+        mIcon = null;
+        mPendingIcon = new PendingIcon(data, context.getApplicationContext(), fallback);
+    }
+
+    /**
+     * Returns whether the icon is still an undecoded blob; see {@link #setIconBlob}.
+     */
+    boolean isIconPending() {
+        return mPendingIcon != null;
+    }
+
+    /**
+     * Returns the icon.  An icon that is still pending is decoded on the calling thread but
+     * not kept, so views on the main thread should use {@link #decodeIconAsync} for it instead.
+     */
     public Bitmap getIcon(IconCache iconCache) {
         if (mIcon == null) {
+            final PendingIcon pending = mPendingIcon;
+            if (pending != null) {
+                final Bitmap icon = decodeIcon(pending);
+                return icon != null ? icon : pending.fallback;
+            }
             updateIcon(iconCache);
         }
         return mIcon;
     }
 
+    /**
+     * Decodes a pending icon on the thread pool, then puts it up on the main thread, tells the
+     * listeners through onIconChanged and runs onDecoded, if not null.  If the icon isn't
+     * pending, onDecoded is run right away.  Must be called on the main thread.
+     */
+    void decodeIconAsync(Runnable onDecoded) {
+        final PendingIcon pending = mPendingIcon;
+        if (pending == null) {
+            if (onDecoded != null) {
+                onDecoded.run();
+            }
+            return;
+        }
+        final boolean decoding = mDecodeCallbacks != null;
+        if (!decoding) {
+            mDecodeCallbacks = new ArrayList<Runnable>();
+        }
+        if (onDecoded != null) {
+            mDecodeCallbacks.add(onDecoded);
+        }
+        if (decoding) {
+            return;
+        }
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            public void run() {
+                final Bitmap icon = decodeIcon(pending);
+                sMainHandler.post(new Runnable() {
+                    public void run() {
+                        applyDecodedIcon(pending, icon);
+                    }
+                });
+            }
+        });
+    }
+
+    private void applyDecodedIcon(PendingIcon pending, Bitmap icon) {
+        final ArrayList<Runnable> callbacks = mDecodeCallbacks;
+        mDecodeCallbacks = null;
+        // Unless the icon was replaced while it was being decoded
+        if (mPendingIcon == pending) {
+            if (icon == null) {
+                icon = pending.fallback;
+                customIcon = false;
+                usingFallbackIcon = true;
+            }
+            mIcon = icon;
+            mPendingIcon = null;
+            for (ShortcutListener i : mListeners) {
+                i.onIconChanged(this);
+            }
+        }
+        for (Runnable callback : callbacks) {
+            callback.run();
+        }
+    }
+
+    /** Returns the decoded icon, or null if it doesn't decode. */
+    private static Bitmap decodeIcon(PendingIcon pending) {
+        try {
+            return Utilities.createIconBitmap(
+                    BitmapFactory.decodeByteArray(pending.data, 0, pending.data.length),
+                    pending.context);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
     public void updateIcon(IconCache iconCache) {
         mIcon = iconCache.getIcon(intent);
         usingFallbackIcon = iconCache.isDefaultIcon(mIcon);
@@ -168,10 +300,10 @@ class ShortcutInfo extends ItemInfo {
         if (customIcon) {
             values.put(LauncherSettings.BaseLauncherColumns.ICON_TYPE,
                     LauncherSettings.BaseLauncherColumns.ICON_TYPE_BITMAP);
-            writeBitmap(values, mIcon);
+            writeIcon(values);
         } else {
             if (!usingFallbackIcon) {
-                writeBitmap(values, mIcon);
+                writeIcon(values);
             }
             values.put(LauncherSettings.BaseLauncherColumns.ICON_TYPE,
                     LauncherSettings.BaseLauncherColumns.ICON_TYPE_RESOURCE);
@@ -184,6 +316,16 @@ class ShortcutInfo extends ItemInfo {
         }
     }
 
+    private void writeIcon(ContentValues values) {
+        final PendingIcon pending = mPendingIcon;
+        if (pending != null) {
+            // Still exactly what was read from the database
+            values.put(LauncherSettings.Favorites.ICON, pending.data);
+        } else {
+            writeBitmap(values, mIcon);
+        }
+    }
+
     @Override
     public String toString() {
         return "ShortcutInfo(title=" + (title != null ? title.toString() : "unknown ") + "intent=" + intent + "id=" + this.id
@@ -23,6 +23,8 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 import android.widget.Toast;
 
 import com.mokee.launcher.R;
@@ -45,6 +47,8 @@ public class UninstallShortcutReceiver extends BroadcastReceiver {
     // disableAndFlushUninstallQueue() is called.
     private static boolean mUseUninstallQueue = false;
 
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
     private static class PendingUninstallShortcutInfo {
         Intent data;
 
@@ -81,21 +85,28 @@ public class UninstallShortcutReceiver extends BroadcastReceiver {
 
     private static void processUninstallShortcut(Context context,
             PendingUninstallShortcutInfo pendingInfo) {
+        final Context appContext = context.getApplicationContext();
         String spKey = LauncherApplication.getSharedPreferencesKey();
-        SharedPreferences sharedPrefs = context.getSharedPreferences(spKey, Context.MODE_PRIVATE);
+        final SharedPreferences sharedPrefs =
+                appContext.getSharedPreferences(spKey, Context.MODE_PRIVATE);
 
         final Intent data = pendingInfo.data;
 
-        LauncherApplication app = (LauncherApplication) context.getApplicationContext();
-        synchronized (app) {
-            removeShortcut(context, data, sharedPrefs);
-        }
+        // removeShortcut reads the database, so it runs on the worker thread, behind the model's
+        // own writes, once the shortcut we are looking for is not still waiting in the write
+        // queue
+        LauncherModel.runOnWorkerThread(new Runnable() {
+            public void run() {
+                LauncherModel.flushWriteQueue();
+                removeShortcut(appContext, data, sharedPrefs);
+            }
+        });
     }
 
-    private static void removeShortcut(Context context, Intent data,
+    private static void removeShortcut(final Context context, Intent data,
             final SharedPreferences sharedPrefs) {
         Intent intent = data.getParcelableExtra(Intent.EXTRA_SHORTCUT_INTENT);
-        String name = data.getStringExtra(Intent.EXTRA_SHORTCUT_NAME);
+        final String name = data.getStringExtra(Intent.EXTRA_SHORTCUT_NAME);
         boolean duplicate = data.getBooleanExtra(Launcher.EXTRA_SHORTCUT_DUPLICATE, true);
 
         if (intent != null && name != null) {
@@ -131,8 +142,13 @@ public class UninstallShortcutReceiver extends BroadcastReceiver {
 
             if (changed) {
                 cr.notifyChange(LauncherSettings.Favorites.CONTENT_URI, null);
-                Toast.makeText(context, context.getString(R.string.shortcut_uninstalled, name),
-                        Toast.LENGTH_SHORT).show();
+                sMainHandler.post(new Runnable() {
+                    public void run() {
+                        Toast.makeText(context,
+                                context.getString(R.string.shortcut_uninstalled, name),
+                                Toast.LENGTH_SHORT).show();
+                    }
+                });
             }
 
             // Remove any items due to be animated
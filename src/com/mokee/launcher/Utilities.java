@@ -39,22 +39,34 @@ final class Utilities {
     @SuppressWarnings("unused")
     private static final String TAG = "MoKeeLauncher.Utilities";
 
-    private static int sIconWidth = -1;
+    // sIconWidth is written last by initStatics(), so once it is seen as initialized the other
+    // statics are too
+    private static volatile int sIconWidth = -1;
     private static int sIconHeight = -1;
     private static int sIconTextureWidth = -1;
     private static int sIconTextureHeight = -1;
 
+    // The paints are only configured by initStatics() and never mutated afterwards, so they
+    // can be used for drawing from several threads at once
     private static final Paint sBlurPaint = new Paint();
     private static final Paint sGlowColorPressedPaint = new Paint();
     private static final Paint sGlowColorFocusedPaint = new Paint();
     private static final Paint sDisabledPaint = new Paint();
-    private static final Rect sOldBounds = new Rect();
-    private static final Canvas sCanvas = new Canvas();
 
-    static {
-        sCanvas.setDrawFilter(new PaintFlagsDrawFilter(Paint.DITHER_FLAG,
-                Paint.FILTER_BITMAP_FLAG));
-    }
+    // Each thread renders into its own canvas, so icons can be created concurrently from the
+    // loader, widget preview tasks and the icon pickers
+    private static final SoftReferenceThreadLocal<Canvas> sCanvas =
+            new SoftReferenceThreadLocal<Canvas>() {
+        @Override
+        protected Canvas initialValue() {
+            Canvas canvas = new Canvas();
+            canvas.setDrawFilter(new PaintFlagsDrawFilter(Paint.DITHER_FLAG,
+                    Paint.FILTER_BITMAP_FLAG));
+            return canvas;
+        }
+    };
+    private static final RectCache sOldBounds = new RectCache();
+
     static int sColors[] = { 0xffff0000, 0xff00ff00, 0xff0000ff };
     static int sColorIndex = 0;
 
@@ -88,100 +100,97 @@ final class Utilities {
      * Returns a bitmap suitable for the all apps view.
      */
     static Bitmap createIconBitmap(Drawable icon, Context context) {
-        synchronized (sCanvas) { // we share the statics :-(
-            if (sIconWidth == -1) {
-                initStatics(context);
-            }
+        if (sIconWidth == -1) {
+            initStatics(context);
+        }
 
-            int width = sIconWidth;
-            int height = sIconHeight;
-
-            if (icon instanceof PaintDrawable) {
-                PaintDrawable painter = (PaintDrawable) icon;
-                painter.setIntrinsicWidth(width);
-                painter.setIntrinsicHeight(height);
-            } else if (icon instanceof BitmapDrawable) {
-                // Ensure the bitmap has a density.
-                BitmapDrawable bitmapDrawable = (BitmapDrawable) icon;
-                Bitmap bitmap = bitmapDrawable.getBitmap();
-                if (bitmap.getDensity() == Bitmap.DENSITY_NONE) {
-                    bitmapDrawable.setTargetDensity(context.getResources().getDisplayMetrics());
-                }
+        int width = sIconWidth;
+        int height = sIconHeight;
+
+        if (icon instanceof PaintDrawable) {
+            PaintDrawable painter = (PaintDrawable) icon;
+            painter.setIntrinsicWidth(width);
+            painter.setIntrinsicHeight(height);
+        } else if (icon instanceof BitmapDrawable) {
+            // Ensure the bitmap has a density.
+            BitmapDrawable bitmapDrawable = (BitmapDrawable) icon;
+            Bitmap bitmap = bitmapDrawable.getBitmap();
+            if (bitmap.getDensity() == Bitmap.DENSITY_NONE) {
+                bitmapDrawable.setTargetDensity(context.getResources().getDisplayMetrics());
             }
-            int sourceWidth = icon.getIntrinsicWidth();
-            int sourceHeight = icon.getIntrinsicHeight();
-            if (sourceWidth > 0 && sourceHeight > 0) {
-                // There are intrinsic sizes.
-                if (width < sourceWidth || height < sourceHeight) {
-                    // It's too big, scale it down.
-                    final float ratio = (float) sourceWidth / sourceHeight;
-                    if (sourceWidth > sourceHeight) {
-                        height = (int) (width / ratio);
-                    } else if (sourceHeight > sourceWidth) {
-                        width = (int) (height * ratio);
-                    }
-                } else if (sourceWidth < width && sourceHeight < height) {
-                    // Don't scale up the icon
-                    width = sourceWidth;
-                    height = sourceHeight;
+        }
+        int sourceWidth = icon.getIntrinsicWidth();
+        int sourceHeight = icon.getIntrinsicHeight();
+        if (sourceWidth > 0 && sourceHeight > 0) {
+            // There are intrinsic sizes.
+            if (width < sourceWidth || height < sourceHeight) {
+                // It's too big, scale it down.
+                final float ratio = (float) sourceWidth / sourceHeight;
+                if (sourceWidth > sourceHeight) {
+                    height = (int) (width / ratio);
+                } else if (sourceHeight > sourceWidth) {
+                    width = (int) (height * ratio);
                 }
+            } else if (sourceWidth < width && sourceHeight < height) {
+                // Don't scale up the icon
+                width = sourceWidth;
+                height = sourceHeight;
             }
+        }
 
-            // no intrinsic size --> use default size
-            int textureWidth = sIconTextureWidth;
-            int textureHeight = sIconTextureHeight;
-
-            final Bitmap bitmap = Bitmap.createBitmap(textureWidth, textureHeight,
-                    Bitmap.Config.ARGB_8888);
-            final Canvas canvas = sCanvas;
-            canvas.setBitmap(bitmap);
-
-            final int left = (textureWidth-width) / 2;
-            final int top = (textureHeight-height) / 2;
-
-            @SuppressWarnings("all") // suppress dead code warning
-            final boolean debug = false;
-            if (debug) {
-                // draw a big box for the icon for debugging
-                canvas.drawColor(sColors[sColorIndex]);
-                if (++sColorIndex >= sColors.length) sColorIndex = 0;
-                Paint debugPaint = new Paint();
-                debugPaint.setColor(0xffcccc00);
-                canvas.drawRect(left, top, left+width, top+height, debugPaint);
-            }
+        // no intrinsic size --> use default size
+        int textureWidth = sIconTextureWidth;
+        int textureHeight = sIconTextureHeight;
 
-            sOldBounds.set(icon.getBounds());
-            icon.setBounds(left, top, left+width, top+height);
-            icon.draw(canvas);
-            icon.setBounds(sOldBounds);
-            canvas.setBitmap(null);
+        final Bitmap bitmap = Bitmap.createBitmap(textureWidth, textureHeight,
+                Bitmap.Config.ARGB_8888);
+        final Canvas canvas = sCanvas.get();
+        canvas.setBitmap(bitmap);
 
-            return bitmap;
+        final int left = (textureWidth-width) / 2;
+        final int top = (textureHeight-height) / 2;
+
+        @SuppressWarnings("all") // suppress dead code warning
+        final boolean debug = false;
+        if (debug) {
+            // draw a big box for the icon for debugging
+            canvas.drawColor(sColors[sColorIndex]);
+            if (++sColorIndex >= sColors.length) sColorIndex = 0;
+            Paint debugPaint = new Paint();
+            debugPaint.setColor(0xffcccc00);
+            canvas.drawRect(left, top, left+width, top+height, debugPaint);
         }
+
+        final Rect oldBounds = sOldBounds.get();
+        oldBounds.set(icon.getBounds());
+        icon.setBounds(left, top, left+width, top+height);
+        icon.draw(canvas);
+        icon.setBounds(oldBounds);
+        canvas.setBitmap(null);
+
+        return bitmap;
     }
 
     static void drawSelectedAllAppsBitmap(Canvas dest, int destWidth, int destHeight,
             boolean pressed, Bitmap src) {
-        synchronized (sCanvas) { // we share the statics :-(
-            if (sIconWidth == -1) {
-                // We can't have gotten to here without src being initialized, which
-                // comes from this file already.  So just assert.
-                //initStatics(context);
-                throw new RuntimeException("Assertion failed: Utilities not initialized");
-            }
+        if (sIconWidth == -1) {
+            // We can't have gotten to here without src being initialized, which
+            // comes from this file already.  So just assert.
+            //initStatics(context);
+            throw new RuntimeException("Assertion failed: Utilities not initialized");
+        }
 
-            dest.drawColor(0, PorterDuff.Mode.CLEAR);
+        dest.drawColor(0, PorterDuff.Mode.CLEAR);
 
-            int[] xy = new int[2];
-            Bitmap mask = src.extractAlpha(sBlurPaint, xy);
+        int[] xy = new int[2];
+        Bitmap mask = src.extractAlpha(sBlurPaint, xy);
 
-            float px = (destWidth - src.getWidth()) / 2;
-            float py = (destHeight - src.getHeight()) / 2;
-            dest.drawBitmap(mask, px + xy[0], py + xy[1],
-                    pressed ? sGlowColorPressedPaint : sGlowColorFocusedPaint);
+        float px = (destWidth - src.getWidth()) / 2;
+        float py = (destHeight - src.getHeight()) / 2;
+        dest.drawBitmap(mask, px + xy[0], py + xy[1],
+                pressed ? sGlowColorPressedPaint : sGlowColorFocusedPaint);
 
-            mask.recycle();
-        }
+        mask.recycle();
     }
 
     /**
@@ -196,45 +205,46 @@ final class Utilities {
      *         thumbnail could not be created.
      */
     static Bitmap resampleIconBitmap(Bitmap bitmap, Context context) {
-        synchronized (sCanvas) { // we share the statics :-(
-            if (sIconWidth == -1) {
-                initStatics(context);
-            }
+        if (sIconWidth == -1) {
+            initStatics(context);
+        }
 
-            if (bitmap.getWidth() == sIconWidth && bitmap.getHeight() == sIconHeight) {
-                return bitmap;
-            } else {
-                final Resources resources = context.getResources();
-                return createIconBitmap(new BitmapDrawable(resources, bitmap), context);
-            }
+        if (bitmap.getWidth() == sIconWidth && bitmap.getHeight() == sIconHeight) {
+            return bitmap;
+        } else {
+            final Resources resources = context.getResources();
+            return createIconBitmap(new BitmapDrawable(resources, bitmap), context);
         }
     }
 
     static Bitmap drawDisabledBitmap(Bitmap bitmap, Context context) {
-        synchronized (sCanvas) { // we share the statics :-(
-            if (sIconWidth == -1) {
-                initStatics(context);
-            }
-            final Bitmap disabled = Bitmap.createBitmap(bitmap.getWidth(), bitmap.getHeight(),
-                    Bitmap.Config.ARGB_8888);
-            final Canvas canvas = sCanvas;
-            canvas.setBitmap(disabled);
-            
-            canvas.drawBitmap(bitmap, 0.0f, 0.0f, sDisabledPaint);
+        if (sIconWidth == -1) {
+            initStatics(context);
+        }
+        final Bitmap disabled = Bitmap.createBitmap(bitmap.getWidth(), bitmap.getHeight(),
+                Bitmap.Config.ARGB_8888);
+        final Canvas canvas = sCanvas.get();
+        canvas.setBitmap(disabled);
 
-            canvas.setBitmap(null);
+        canvas.drawBitmap(bitmap, 0.0f, 0.0f, sDisabledPaint);
 
-            return disabled;
-        }
+        canvas.setBitmap(null);
+
+        return disabled;
     }
 
-    private static void initStatics(Context context) {
+    private static synchronized void initStatics(Context context) {
+        if (sIconWidth != -1) {
+            // Another thread got here first
+            return;
+        }
         final Resources resources = context.getResources();
         final DisplayMetrics metrics = resources.getDisplayMetrics();
         final float density = metrics.density;
 
-        sIconWidth = sIconHeight = (int) resources.getDimension(R.dimen.app_icon_size);
-        sIconTextureWidth = sIconTextureHeight = sIconWidth;
+        final int iconSize = (int) resources.getDimension(R.dimen.app_icon_size);
+        sIconHeight = iconSize;
+        sIconTextureWidth = sIconTextureHeight = iconSize;
 
         sBlurPaint.setMaskFilter(new BlurMaskFilter(5 * density, BlurMaskFilter.Blur.NORMAL));
         sGlowColorPressedPaint.setColor(0xffffc300);
@@ -244,5 +254,8 @@ final class Utilities {
         cm.setSaturation(0.2f);
         sDisabledPaint.setColorFilter(new ColorMatrixColorFilter(cm));
         sDisabledPaint.setAlpha(0x88);
+
+        // Publish last; see sIconWidth
+        sIconWidth = iconSize;
     }
 }
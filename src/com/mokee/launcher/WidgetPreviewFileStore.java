@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mokee.launcher;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Stores widget and shortcut previews as one file of raw pixels per preview, as an alternative
+ * to the PNG blobs of {@link WidgetPreviewLoader.CacheDb}.
+ *
+ * Previews live in one directory per preview size, under a file name derived from the preview
+ * name.  Every directory has a small index listing the previews in it with their dimensions,
+ * so that a lookup never has to touch the file system for a preview that isn't there.  Reading
+ * a preview maps its file and copies the pixels straight into the bitmap passed in, without
+ * going through a byte[] or a PNG decode.
+ */
+final class WidgetPreviewFileStore {
+    private static final String TAG = "MoKeeLauncher.WidgetPreviewFileStore";
+
+    static final String DIR_NAME = "widgetpreviews";
+    private static final String INDEX_FILE = "index";
+    private static final int INDEX_MAGIC = 0x4d4b5750; // "MKWP"
+
+    private final File mDir;
+    // size -> (preview name -> { width, height }), loaded lazily from the index of each size
+    private final HashMap<String, HashMap<String, int[]>> mIndices =
+            new HashMap<String, HashMap<String, int[]>>();
+
+    WidgetPreviewFileStore(File cacheDir) {
+        mDir = new File(cacheDir, DIR_NAME);
+    }
+
+    private File getSizeDir(String size) {
+        return new File(mDir, size);
+    }
+
+    private static String getFileName(String name) {
+        // Preview names are flattened component names, which contain '/'
+        return Uri.encode(name);
+    }
+
+    private HashMap<String, int[]> getIndexLocked(String size) {
+        HashMap<String, int[]> index = mIndices.get(size);
+        if (index != null) {
+            return index;
+        }
+        index = new HashMap<String, int[]>();
+        mIndices.put(size, index);
+
+        final File file = new File(getSizeDir(size), INDEX_FILE);
+        if (!file.exists()) {
+            return index;
+        }
+        boolean corrupt = false;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != INDEX_MAGIC) {
+                throw new IOException("Bad index magic");
+            }
+            while (true) {
+                final String name;
+                try {
+                    name = in.readUTF();
+                } catch (EOFException e) {
+                    break;
+                }
+                index.put(name, new int[] { in.readInt(), in.readInt() });
+            }
+        } catch (IOException e) {
+            // A truncated last entry is left over from an interrupted write; the previews it
+            // doesn't list will simply be generated again
+            Log.w(TAG, "Could not read preview index for " + size, e);
+            corrupt = true;
+        } finally {
+            closeQuietly(in);
+        }
+        if (corrupt) {
+            // Appending to a corrupt index would leave it unreadable for good: start over from
+            // the entries that could be read, if any, or from nothing
+            if (!writeIndexLocked(size, index)) {
+                file.delete();
+            }
+        }
+        return index;
+    }
+
+    synchronized boolean contains(String name, String size) {
+        return getIndexLocked(size).containsKey(name);
+    }
+
+    /**
+     * Copies the pixels of the preview with the given name and size into b.  Returns b, or
+     * null if there is no such preview or it doesn't have the dimensions of b.
+     */
+    Bitmap read(String name, String size, Bitmap b) {
+        synchronized (this) {
+            final int[] dimensions = getIndexLocked(size).get(name);
+            if (dimensions == null ||
+                    dimensions[0] != b.getWidth() || dimensions[1] != b.getHeight()) {
+                return null;
+            }
+        }
+
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(new File(getSizeDir(size), getFileName(name)), "r");
+            final FileChannel channel = raf.getChannel();
+            if (channel.size() != b.getByteCount()) {
+                return null;
+            }
+            final ByteBuffer pixels = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            b.copyPixelsFromBuffer(pixels);
+            return b;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read preview " + name, e);
+            return null;
+        } finally {
+            closeQuietly(raf);
+        }
+    }
+
+    /**
+     * Writes the pixels of preview under the given name and size.  Must not be called on the
+     * main thread.
+     */
+    void write(String name, String size, Bitmap preview) {
+        final File dir = getSizeDir(size);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.w(TAG, "Could not create " + dir);
+            return;
+        }
+
+        final File file = new File(dir, getFileName(name));
+        final File tmp = new File(dir, getFileName(name) + ".tmp");
+        FileOutputStream out = null;
+        try {
+            final ByteBuffer pixels = ByteBuffer.allocateDirect(preview.getByteCount());
+            preview.copyPixelsToBuffer(pixels);
+            pixels.rewind();
+            out = new FileOutputStream(tmp);
+            final FileChannel channel = out.getChannel();
+            while (pixels.hasRemaining()) {
+                channel.write(pixels);
+            }
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Could not rename " + tmp);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write preview " + name, e);
+            closeQuietly(out);
+            tmp.delete();
+            return;
+        }
+
+        synchronized (this) {
+            final HashMap<String, int[]> index = getIndexLocked(size);
+            if (index.put(name, new int[] { preview.getWidth(), preview.getHeight() }) == null) {
+                appendToIndexLocked(size, name, preview.getWidth(), preview.getHeight());
+            } else {
+                writeIndexLocked(size, index);
+            }
+        }
+    }
+
+    /**
+     * Deletes the previews whose names start with any of the given prefixes, in every size.
+     * Must not be called on the main thread.
+     */
+    void removeAll(String... prefixes) {
+        final String[] sizes = mDir.list();
+        if (sizes == null) {
+            return;
+        }
+        synchronized (this) {
+            for (String size : sizes) {
+                final HashMap<String, int[]> index = getIndexLocked(size);
+                boolean changed = false;
+                final Iterator<Map.Entry<String, int[]>> iter = index.entrySet().iterator();
+                while (iter.hasNext()) {
+                    final String name = iter.next().getKey();
+                    for (String prefix : prefixes) {
+                        if (name.startsWith(prefix)) {
+                            iter.remove();
+                            new File(getSizeDir(size), getFileName(name)).delete();
+                            changed = true;
+                            break;
+                        }
+                    }
+                }
+                if (changed) {
+                    writeIndexLocked(size, index);
+                }
+            }
+        }
+    }
+
+    private void appendToIndexLocked(String size, String name, int width, int height) {
+        final File file = new File(getSizeDir(size), INDEX_FILE);
+        final boolean isNew = !file.exists();
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(file, true)));
+            if (isNew) {
+                out.writeInt(INDEX_MAGIC);
+            }
+            out.writeUTF(name);
+            out.writeInt(width);
+            out.writeInt(height);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not update preview index for " + size, e);
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    /** Replaces the index of the given size with index; returns whether that worked. */
+    private boolean writeIndexLocked(String size, HashMap<String, int[]> index) {
+        final File file = new File(getSizeDir(size), INDEX_FILE);
+        final File tmp = new File(getSizeDir(size), INDEX_FILE + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(INDEX_MAGIC);
+            for (Map.Entry<String, int[]> entry : index.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue()[0]);
+                out.writeInt(entry.getValue()[1]);
+            }
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Could not rename " + tmp);
+            }
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write preview index for " + size, e);
+            closeQuietly(out);
+            tmp.delete();
+            return false;
+        }
+    }
+
+    private static void closeQuietly(Closeable c) {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException e) {
+                // Nothing left to do about it
+            }
+        }
+    }
+}
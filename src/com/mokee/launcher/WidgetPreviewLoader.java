@@ -1,13 +1,18 @@
 package com.mokee.launcher;
 
+import android.app.ActivityManager;
 import android.appwidget.AppWidgetProviderInfo;
 import android.content.ComponentName;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.content.res.Resources;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.graphics.Bitmap;
@@ -23,6 +28,12 @@ import android.graphics.Shader;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.AsyncTask;
+import android.os.BatteryManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.PowerManager;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.mokee.launcher.R;
@@ -34,6 +45,9 @@ import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 abstract class SoftReferenceThreadLocal<T> {
     private ThreadLocal<SoftReference<T>> mThreadLocal;
@@ -102,6 +116,14 @@ class BitmapFactoryOptionsCache extends SoftReferenceThreadLocal<BitmapFactory.O
 
 public class WidgetPreviewLoader {
     static final String TAG = "WidgetPreviewLoader";
+    private static final boolean DEBUG = false;
+
+    // Set to keep previews as raw pixel files in a WidgetPreviewFileStore instead of PNG blobs
+    // in widgetpreviews.db.  Off until the file store is trimmed like the db is: raw pixels
+    // take several times the space of a PNG, and nothing caps the files or drops those of
+    // other sizes yet.  Turning it on also needs a DB_VERSION bump, so that the blobs of the
+    // db are dropped instead of lingering next to the files.
+    static final boolean USE_PREVIEW_FILE_STORE = false;
 
     private int mPreviewBitmapWidth;
     private int mPreviewBitmapHeight;
@@ -131,14 +153,53 @@ public class WidgetPreviewLoader {
 
     private CacheDb mDb;
 
-    private HashMap<String, WeakReference<Bitmap>> mLoadedPreviews;
-    private ArrayList<SoftReference<Bitmap>> mUnusedBitmaps;
+    // The share of the memory class the loaded previews may take up
+    private static final int PREVIEW_CACHE_MEMORY_FRACTION = 8;
+
+    // Loaded previews, least recently used first, kept up to mLoadedPreviewsBudget bytes so that
+    // going back to a page of the Widgets tab doesn't hit the db again
+    private final LinkedHashMap<String, Bitmap> mLoadedPreviews =
+            new LinkedHashMap<String, Bitmap>(16, 0.75f, true);
+    private final int mLoadedPreviewsBudget;
+    private int mLoadedPreviewsBytes;
+    // The previews handed out by getPreview() that haven't been passed to recycleBitmap() yet;
+    // these must never be reused for another preview
+    private final HashMap<String, Bitmap> mPreviewsInUse = new HashMap<String, Bitmap>();
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+
+    // Bitmaps that are free to be drawn over, bucketed by their dimensions
+    private final HashMap<Long, ArrayList<SoftReference<Bitmap>>> mUnusedBitmaps =
+            new HashMap<Long, ArrayList<SoftReference<Bitmap>>>();
     private static HashSet<String> sInvalidPackages;
+    // Every loader created, so that removeFromDb can drop the previews of a package from their
+    // memory caches too
+    private static final ArrayList<WeakReference<WidgetPreviewLoader>> sLoaders =
+            new ArrayList<WeakReference<WidgetPreviewLoader>>();
+    // The preview size the db was last trimmed for; only touched on the main thread
+    private static String sTrimmedSize;
 
     static {
         sInvalidPackages = new HashSet<String>();
     }
 
+    // How long to wait before checking again whether the device is idle or charging
+    private static final long PREWARM_RETRY_DELAY_MS = 60 * 1000;
+
+    // Widgets and shortcuts of newly installed packages whose previews are still to be
+    // generated, by preview name
+    private static final LinkedHashMap<String, Object> sPendingPrewarm =
+            new LinkedHashMap<String, Object>();
+    // The loader whose preview size the previews are generated at, set once it is known
+    private static WeakReference<WidgetPreviewLoader> sPrewarmLoader;
+    private static Handler sPrewarmHandler;
+    private static final Runnable sPrewarmRunnable = new Runnable() {
+        public void run() {
+            prewarmNextPreview();
+        }
+    };
+
     public WidgetPreviewLoader(Launcher launcher) {
         mContext = mLauncher = launcher;
         mPackageManager = mContext.getPackageManager();
@@ -146,16 +207,246 @@ public class WidgetPreviewLoader {
         LauncherApplication app = (LauncherApplication) launcher.getApplicationContext();
         mIconCache = app.getIconCache();
         mDb = app.getWidgetPreviewCacheDb();
-        mLoadedPreviews = new HashMap<String, WeakReference<Bitmap>>();
-        mUnusedBitmaps = new ArrayList<SoftReference<Bitmap>>();
+        final ActivityManager am =
+                (ActivityManager) mContext.getSystemService(Context.ACTIVITY_SERVICE);
+        mLoadedPreviewsBudget =
+                am.getMemoryClass() * 1024 * 1024 / PREVIEW_CACHE_MEMORY_FRACTION;
+        synchronized (sLoaders) {
+            for (int i = sLoaders.size() - 1; i >= 0; i--) {
+                if (sLoaders.get(i).get() == null) {
+                    sLoaders.remove(i);
+                }
+            }
+            sLoaders.add(new WeakReference<WidgetPreviewLoader>(this));
+        }
     }
 
     public void setPreviewSize(int previewWidth, int previewHeight,
             PagedViewCellLayout widgetSpacingLayout) {
+        String size = previewWidth + "x" + previewHeight;
+        if (!size.equals(sTrimmedSize)) {
+            // Once per process and preview size, clean up the db when the loader is idle
+            sTrimmedSize = size;
+            LauncherModel.trimWidgetPreviewsWhenIdle(mDb, size);
+        }
+        if (previewWidth != mPreviewBitmapWidth || previewHeight != mPreviewBitmapHeight) {
+            // Previews of the old size are of no use anymore
+            synchronized (mLoadedPreviews) {
+                mLoadedPreviews.clear();
+                mLoadedPreviewsBytes = 0;
+            }
+        }
         mPreviewBitmapWidth = previewWidth;
         mPreviewBitmapHeight = previewHeight;
-        mSize = previewWidth + "x" + previewHeight;
+        mSize = size;
         mWidgetSpacingLayout = widgetSpacingLayout;
+
+        synchronized (sPendingPrewarm) {
+            sPrewarmLoader = new WeakReference<WidgetPreviewLoader>(this);
+            schedulePrewarmLocked(0);
+        }
+    }
+
+    /**
+     * Queues generating the previews of the given widgets and shortcuts into the preview cache,
+     * so that they are ready by the time the user looks for them in the Widgets tab.  The
+     * previews are only generated while the device is idle or charging.
+     */
+    public static void prewarmPreviews(ArrayList<Object> widgetsAndShortcuts) {
+        synchronized (sPendingPrewarm) {
+            for (Object o : widgetsAndShortcuts) {
+                sPendingPrewarm.put(getObjectName(o), o);
+            }
+            schedulePrewarmLocked(0);
+        }
+    }
+
+    private static void schedulePrewarmLocked(long delay) {
+        if (sPendingPrewarm.isEmpty()) {
+            return;
+        }
+        if (sPrewarmHandler == null) {
+            HandlerThread thread = new HandlerThread("launcher-preview-prewarm",
+                    Process.THREAD_PRIORITY_LOWEST);
+            thread.start();
+            sPrewarmHandler = new Handler(thread.getLooper());
+        }
+        sPrewarmHandler.removeCallbacks(sPrewarmRunnable);
+        sPrewarmHandler.postDelayed(sPrewarmRunnable, delay);
+    }
+
+    private static void prewarmNextPreview() {
+        final WidgetPreviewLoader loader;
+        final Object o;
+        synchronized (sPendingPrewarm) {
+            loader = sPrewarmLoader != null ? sPrewarmLoader.get() : null;
+            if (loader == null || sPendingPrewarm.isEmpty()) {
+                // Picked up again once the Widgets tab knows its preview size
+                return;
+            }
+            if (!isIdleOrCharging(loader.mContext)) {
+                schedulePrewarmLocked(PREWARM_RETRY_DELAY_MS);
+                return;
+            }
+            Iterator<Map.Entry<String, Object>> iter = sPendingPrewarm.entrySet().iterator();
+            o = iter.next().getValue();
+            iter.remove();
+        }
+
+        boolean packageValid;
+        synchronized (sInvalidPackages) {
+            packageValid = !sInvalidPackages.contains(loader.getObjectPackage(o));
+        }
+        if (!packageValid) {
+            // Its old previews are still being removed; try again once that is done
+            synchronized (sPendingPrewarm) {
+                sPendingPrewarm.put(getObjectName(o), o);
+                schedulePrewarmLocked(PREWARM_RETRY_DELAY_MS);
+            }
+            return;
+        }
+        loader.prewarmPreview(o);
+
+        synchronized (sPendingPrewarm) {
+            schedulePrewarmLocked(0);
+        }
+    }
+
+    private static boolean isIdleOrCharging(Context context) {
+        PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        if (!pm.isScreenOn()) {
+            return true;
+        }
+        Intent battery = context.getApplicationContext().registerReceiver(null,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        return battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+
+    /**
+     * Generates the preview of o and writes it straight to the db, unless it is there already.
+     * The preview is drawn into an unused bitmap, which goes back to the unused ones after.
+     */
+    private void prewarmPreview(Object o) {
+        String name = getObjectName(o);
+        if (isInDb(name)) {
+            return;
+        }
+        Bitmap preview = takeUnusedBitmap(mPreviewBitmapWidth, mPreviewBitmapHeight);
+        if (preview == null) {
+            preview = Bitmap.createBitmap(mPreviewBitmapWidth, mPreviewBitmapHeight,
+                    Bitmap.Config.ARGB_8888);
+        }
+        preview = generatePreview(o, preview);
+        writeToDb(o, preview);
+        synchronized (mLoadedPreviews) {
+            addUnusedBitmapLocked(preview);
+        }
+    }
+
+    /**
+     * Returns the previews of all of items, in order, like getPreview() would.  The previews
+     * that are in the db are read with a single query and decoded back to back, so only the
+     * ones that were never generated cost more than a decode.
+     */
+    public ArrayList<Bitmap> getPreviews(ArrayList<Object> items) {
+        loadCachedPreviews(items);
+        ArrayList<Bitmap> previews = new ArrayList<Bitmap>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            previews.add(getPreview(items.get(i)));
+        }
+        return previews;
+    }
+
+    /**
+     * Reads the previews of items that are in the db, but not loaded yet, into the loaded
+     * previews with a single query.  getPreview() then finds them there.
+     */
+    public void loadCachedPreviews(ArrayList<Object> items) {
+        final ArrayList<String> names = new ArrayList<String>(items.size());
+        synchronized (mLoadedPreviews) {
+            for (int i = 0; i < items.size(); i++) {
+                final Object o = items.get(i);
+                final String name = getObjectName(o);
+                boolean packageValid;
+                synchronized (sInvalidPackages) {
+                    packageValid = !sInvalidPackages.contains(getObjectPackage(o));
+                }
+                if (packageValid && !mLoadedPreviews.containsKey(name)) {
+                    names.add(name);
+                }
+            }
+        }
+        if (names.isEmpty()) {
+            return;
+        }
+
+        if (USE_PREVIEW_FILE_STORE) {
+            // There is no query to save with the file store; every read is already a single map
+            for (String name : names) {
+                Bitmap b = takeUnusedBitmap(mPreviewBitmapWidth, mPreviewBitmapHeight);
+                if (b == null) {
+                    b = Bitmap.createBitmap(mPreviewBitmapWidth, mPreviewBitmapHeight,
+                            Bitmap.Config.ARGB_8888);
+                }
+                Bitmap preview = mDb.mFileStore.read(name, mSize, b);
+                if (preview != null) {
+                    addLoadedPreview(name, preview, false);
+                } else {
+                    synchronized (mLoadedPreviews) {
+                        addUnusedBitmapLocked(b);
+                    }
+                }
+            }
+            return;
+        }
+
+        StringBuilder selection = new StringBuilder(CacheDb.COLUMN_SIZE + " = ? AND " +
+                CacheDb.COLUMN_NAME + " IN (");
+        String[] selectionArgs = new String[names.size() + 1];
+        selectionArgs[0] = mSize;
+        for (int i = 0; i < names.size(); i++) {
+            selection.append(i == 0 ? "?" : ",?");
+            selectionArgs[i + 1] = names.get(i);
+        }
+        selection.append(")");
+
+        SQLiteDatabase db = mDb.getReadableDatabase();
+        Cursor result = db.query(CacheDb.TABLE_NAME,
+                new String[] { CacheDb.COLUMN_NAME, CacheDb.COLUMN_PREVIEW_BITMAP },
+                selection.toString(), selectionArgs, null, null, null);
+        try {
+            final BitmapFactory.Options opts = mCachedBitmapFactoryOptions.get();
+            opts.inSampleSize = 1;
+            Bitmap unusedBitmap = null;
+            ArrayList<String> loadedNames = new ArrayList<String>(names.size());
+            while (result.moveToNext()) {
+                if (unusedBitmap == null) {
+                    unusedBitmap = takeUnusedBitmap(mPreviewBitmapWidth, mPreviewBitmapHeight);
+                }
+                if (unusedBitmap == null) {
+                    unusedBitmap = Bitmap.createBitmap(mPreviewBitmapWidth, mPreviewBitmapHeight,
+                            Bitmap.Config.ARGB_8888);
+                }
+                byte[] blob = result.getBlob(1);
+                opts.inBitmap = unusedBitmap;
+                Bitmap preview = BitmapFactory.decodeByteArray(blob, 0, blob.length, opts);
+                if (preview == unusedBitmap) {
+                    addLoadedPreview(result.getString(0), preview, false);
+                    loadedNames.add(result.getString(0));
+                    unusedBitmap = null;
+                }
+                // Otherwise the decode failed, and the bitmap is still free for the next one
+            }
+            opts.inBitmap = null;
+            if (unusedBitmap != null) {
+                synchronized (mLoadedPreviews) {
+                    addUnusedBitmapLocked(unusedBitmap);
+                }
+            }
+            mDb.recordAccess(mSize, loadedNames);
+        } finally {
+            result.close();
+        }
     }
 
     public Bitmap getPreview(final Object o) {
@@ -168,47 +459,28 @@ public class WidgetPreviewLoader {
         if (!packageValid) {
             return null;
         }
-        if (packageValid) {
-            synchronized(mLoadedPreviews) {
-                // check if it exists in our existing cache
-                if (mLoadedPreviews.containsKey(name) && mLoadedPreviews.get(name).get() != null) {
-                    return mLoadedPreviews.get(name).get();
-                }
-            }
-        }
-
-        Bitmap unusedBitmap = null;
-        synchronized(mUnusedBitmaps) {
-            // not in cache; we need to load it from the db
-            while ((unusedBitmap == null || !unusedBitmap.isMutable() ||
-                    unusedBitmap.getWidth() != mPreviewBitmapWidth ||
-                    unusedBitmap.getHeight() != mPreviewBitmapHeight)
-                    && mUnusedBitmaps.size() > 0) {
-                unusedBitmap = mUnusedBitmaps.remove(0).get();
-            }
-            if (unusedBitmap != null) {
-                final Canvas c = mCachedAppWidgetPreviewCanvas.get();
-                c.setBitmap(unusedBitmap);
-                c.drawColor(0, PorterDuff.Mode.CLEAR);
-                c.setBitmap(null);
+        synchronized(mLoadedPreviews) {
+            // check if it exists in our existing cache
+            Bitmap loaded = mLoadedPreviews.get(name);
+            if (loaded != null) {
+                mHitCount++;
+                mPreviewsInUse.put(name, loaded);
+                return loaded;
             }
+            mMissCount++;
         }
 
+        // not in cache; we need to load it from the db
+        Bitmap unusedBitmap = takeUnusedBitmap(mPreviewBitmapWidth, mPreviewBitmapHeight);
         if (unusedBitmap == null) {
             unusedBitmap = Bitmap.createBitmap(mPreviewBitmapWidth, mPreviewBitmapHeight,
                     Bitmap.Config.ARGB_8888);
         }
 
-        Bitmap preview = null;
-
-        if (packageValid) {
-            preview = readFromDb(name, unusedBitmap);
-        }
+        Bitmap preview = readFromDb(name, unusedBitmap);
 
         if (preview != null) {
-            synchronized(mLoadedPreviews) {
-                mLoadedPreviews.put(name, new WeakReference<Bitmap>(preview));
-            }
+            addLoadedPreview(name, preview);
             return preview;
         } else {
             // it's not in the db... we need to generate it
@@ -218,9 +490,7 @@ public class WidgetPreviewLoader {
                 throw new RuntimeException("generatePreview is not recycling the bitmap " + o);
             }
 
-            synchronized(mLoadedPreviews) {
-                mLoadedPreviews.put(name, new WeakReference<Bitmap>(preview));
-            }
+            addLoadedPreview(name, preview);
 
             // write to db on a thread pool... this can be done lazily and improves the performance
             // of the first time widget previews are loaded
@@ -238,35 +508,131 @@ public class WidgetPreviewLoader {
     public void recycleBitmap(Object o, Bitmap bitmapToRecycle) {
         String name = getObjectName(o);
         synchronized (mLoadedPreviews) {
-            if (mLoadedPreviews.containsKey(name)) {
-                Bitmap b = mLoadedPreviews.get(name).get();
-                if (b == bitmapToRecycle) {
-                    mLoadedPreviews.remove(name);
-                    if (bitmapToRecycle.isMutable()) {
-                        synchronized (mUnusedBitmaps) {
-                            mUnusedBitmaps.add(new SoftReference<Bitmap>(b));
-                        }
-                    }
-                } else {
-                    throw new RuntimeException("Bitmap passed in doesn't match up");
+            if (mPreviewsInUse.get(name) == bitmapToRecycle) {
+                mPreviewsInUse.remove(name);
+            }
+            // Previews still in the cache stay there, for when their page is visited again;
+            // the others are free to be drawn over
+            if (mLoadedPreviews.get(name) != bitmapToRecycle) {
+                addUnusedBitmapLocked(bitmapToRecycle);
+            }
+        }
+    }
+
+    private void addLoadedPreview(String name, Bitmap preview) {
+        addLoadedPreview(name, preview, true);
+    }
+
+    private void addLoadedPreview(String name, Bitmap preview, boolean inUse) {
+        synchronized (mLoadedPreviews) {
+            if (inUse) {
+                mPreviewsInUse.put(name, preview);
+            }
+            Bitmap old = mLoadedPreviews.put(name, preview);
+            if (old != null) {
+                mLoadedPreviewsBytes -= old.getByteCount();
+            }
+            mLoadedPreviewsBytes += preview.getByteCount();
+
+            // Evict least recently used previews until we are back under the budget
+            Iterator<Map.Entry<String, Bitmap>> iter = mLoadedPreviews.entrySet().iterator();
+            while (mLoadedPreviewsBytes > mLoadedPreviewsBudget && iter.hasNext()) {
+                Map.Entry<String, Bitmap> eldest = iter.next();
+                if (eldest.getValue() == preview) {
+                    continue;
+                }
+                iter.remove();
+                mLoadedPreviewsBytes -= eldest.getValue().getByteCount();
+                mEvictionCount++;
+                if (mPreviewsInUse.get(eldest.getKey()) != eldest.getValue()) {
+                    addUnusedBitmapLocked(eldest.getValue());
                 }
             }
         }
     }
 
+    private static long getBitmapBucket(int width, int height) {
+        return ((long) width << 32) | height;
+    }
+
+    private void addUnusedBitmapLocked(Bitmap b) {
+        if (!b.isMutable()) {
+            return;
+        }
+        final long bucket = getBitmapBucket(b.getWidth(), b.getHeight());
+        ArrayList<SoftReference<Bitmap>> bitmaps = mUnusedBitmaps.get(bucket);
+        if (bitmaps == null) {
+            bitmaps = new ArrayList<SoftReference<Bitmap>>();
+            mUnusedBitmaps.put(bucket, bitmaps);
+        }
+        bitmaps.add(new SoftReference<Bitmap>(b));
+    }
+
+    /**
+     * Returns a cleared bitmap of the given size from the unused bitmaps, or null if there is
+     * none left.
+     */
+    private Bitmap takeUnusedBitmap(int width, int height) {
+        Bitmap unusedBitmap = null;
+        synchronized (mLoadedPreviews) {
+            ArrayList<SoftReference<Bitmap>> bitmaps =
+                    mUnusedBitmaps.get(getBitmapBucket(width, height));
+            while (unusedBitmap == null && bitmaps != null && bitmaps.size() > 0) {
+                unusedBitmap = bitmaps.remove(bitmaps.size() - 1).get();
+            }
+        }
+        if (unusedBitmap != null) {
+            final Canvas c = mCachedAppWidgetPreviewCanvas.get();
+            c.setBitmap(unusedBitmap);
+            c.drawColor(0, PorterDuff.Mode.CLEAR);
+            c.setBitmap(null);
+        }
+        return unusedBitmap;
+    }
+
+    public void dumpState() {
+        synchronized (mLoadedPreviews) {
+            Log.d(TAG, "loaded previews=" + mLoadedPreviews.size()
+                    + " bytes=" + mLoadedPreviewsBytes + "/" + mLoadedPreviewsBudget
+                    + " hits=" + mHitCount + " misses=" + mMissCount
+                    + " evictions=" + mEvictionCount);
+        }
+    }
+
     static class CacheDb extends SQLiteOpenHelper {
-        final static int DB_VERSION = 2;
+        final static int DB_VERSION = 3;
         final static String DB_NAME = "widgetpreviews.db";
         final static String TABLE_NAME = "shortcut_and_widget_previews";
         final static String COLUMN_NAME = "name";
         final static String COLUMN_SIZE = "size";
         final static String COLUMN_PREVIEW_BITMAP = "preview_bitmap";
+        final static String COLUMN_LAST_ACCESS = "last_access";
+        // The most the previews in the db may take up; the least recently used go first
+        final static long MAX_PREVIEW_BYTES = 8 * 1024 * 1024;
+        // How long the previews of a size other than the one in use are kept since any of them
+        // was last read, so that turning the device doesn't throw out the other orientation's
+        final static long UNUSED_SIZE_MAX_AGE = 7 * 24 * 60 * 60 * 1000L;
+        // How many reads of previews are held back before their last_access is updated
+        final static int MAX_PENDING_ACCESSES = 32;
+        // Largest number of names updated by a single statement, below SQLite's variable limit
+        private final static int MAX_NAMES_PER_UPDATE = 500;
         Context mContext;
+        final WidgetPreviewFileStore mFileStore;
+        // The names of the previews read since last_access was last updated, by size
+        private final HashMap<String, HashSet<String>> mPendingAccesses =
+                new HashMap<String, HashSet<String>>();
+        private int mPendingAccessCount;
 
         public CacheDb(Context context) {
-            super(context, new File(context.getCacheDir(), DB_NAME).getPath(), null, DB_VERSION);
+            this(context, context.getCacheDir());
+        }
+
+        /** A cache in the given directory instead of the cache directory, e.g. for benchmarks. */
+        CacheDb(Context context, File dir) {
+            super(context, new File(dir, DB_NAME).getPath(), null, DB_VERSION);
             // Store the context for later use
             mContext = context;
+            mFileStore = new WidgetPreviewFileStore(dir);
         }
 
         @Override
@@ -275,6 +641,7 @@ public class WidgetPreviewLoader {
                     COLUMN_NAME + " TEXT NOT NULL, " +
                     COLUMN_SIZE + " TEXT NOT NULL, " +
                     COLUMN_PREVIEW_BITMAP + " BLOB NOT NULL, " +
+                    COLUMN_LAST_ACCESS + " INTEGER NOT NULL DEFAULT 0, " +
                     "PRIMARY KEY (" + COLUMN_NAME + ", " + COLUMN_SIZE + ") " +
                     ");");
         }
@@ -282,8 +649,160 @@ public class WidgetPreviewLoader {
         @Override
         public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
             if (oldVersion != newVersion) {
-                // Delete all the records; they'll be repopulated as this is a cache
-                db.execSQL("DELETE FROM " + TABLE_NAME);
+                // Drop all the records along with the old schema; they'll be repopulated as
+                // this is a cache
+                db.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
+                onCreate(db);
+            }
+        }
+
+        /**
+         * Deletes the previews that are of no use anymore: those of sizes other than
+         * sizeInUse that haven't been read for UNUSED_SIZE_MAX_AGE, those of packages that
+         * aren't installed anymore, and the least recently used ones beyond MAX_PREVIEW_BYTES.
+         * Must not be called on the main thread.
+         */
+        void trim(String sizeInUse) {
+            final long t = SystemClock.uptimeMillis();
+            // So that what was read since the last update doesn't count as unused
+            flushAccesses();
+            SQLiteDatabase db = getWritableDatabase();
+            int deleted = 0;
+            db.beginTransaction();
+            try {
+                if (sizeInUse != null) {
+                    // The time is inlined rather than bound: a bound string would compare
+                    // as greater than any integer MAX() gives
+                    final long unusedSince = System.currentTimeMillis() - UNUSED_SIZE_MAX_AGE;
+                    deleted += db.delete(TABLE_NAME, COLUMN_SIZE + " != ? AND " +
+                            COLUMN_SIZE + " IN (SELECT " + COLUMN_SIZE + " FROM " + TABLE_NAME +
+                            " GROUP BY " + COLUMN_SIZE + " HAVING MAX(" + COLUMN_LAST_ACCESS +
+                            ") < " + unusedSince + ")",
+                            new String[] { sizeInUse });
+                }
+
+                // Previews of packages removed while the launcher wasn't around to hear of it
+                final HashSet<String> installed = new HashSet<String>();
+                for (PackageInfo info : mContext.getPackageManager().getInstalledPackages(0)) {
+                    installed.add(info.packageName);
+                }
+                final HashSet<String> stale = new HashSet<String>();
+                Cursor c = db.query(true, TABLE_NAME, new String[] { COLUMN_NAME },
+                        null, null, null, null, null, null);
+                try {
+                    while (c.moveToNext()) {
+                        final String packageName = getPackageFromName(c.getString(0));
+                        if (packageName != null && !installed.contains(packageName)) {
+                            stale.add(packageName);
+                        }
+                    }
+                } finally {
+                    c.close();
+                }
+                for (String packageName : stale) {
+                    deleted += db.delete(TABLE_NAME,
+                            COLUMN_NAME + " LIKE ? OR " + COLUMN_NAME + " LIKE ?",
+                            new String[] {
+                                WIDGET_PREFIX + packageName + "/%",
+                                SHORTCUT_PREFIX + packageName + "/%" });
+                }
+
+                // Then enforce the cap, least recently used first
+                long bytes = DatabaseUtils.longForQuery(db, "SELECT SUM(length(" +
+                        COLUMN_PREVIEW_BITMAP + ")) FROM " + TABLE_NAME, null);
+                if (bytes > MAX_PREVIEW_BYTES) {
+                    final ArrayList<String[]> lru = new ArrayList<String[]>();
+                    c = db.query(TABLE_NAME, new String[] { COLUMN_NAME, COLUMN_SIZE,
+                            "length(" + COLUMN_PREVIEW_BITMAP + ")" },
+                            null, null, null, null, COLUMN_LAST_ACCESS + " ASC");
+                    try {
+                        while (bytes > MAX_PREVIEW_BYTES && c.moveToNext()) {
+                            lru.add(new String[] { c.getString(0), c.getString(1) });
+                            bytes -= c.getLong(2);
+                        }
+                    } finally {
+                        c.close();
+                    }
+                    for (String[] nameAndSize : lru) {
+                        deleted += db.delete(TABLE_NAME,
+                                COLUMN_NAME + " = ? AND " + COLUMN_SIZE + " = ?", nameAndSize);
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            if (DEBUG) {
+                Log.d(TAG, "trimmed " + deleted + " widget previews in "
+                        + (SystemClock.uptimeMillis() - t) + "ms");
+            }
+        }
+
+        /**
+         * Records that the previews of the given size and names were just read, so that
+         * trimming keeps them over the ones that haven't been looked at in a while.  Rather
+         * than writing the db on every read, the names are held back until
+         * MAX_PENDING_ACCESSES of them are pending or the db is trimmed; a few of them are
+         * lost if the process dies first, which only makes trimming a little less exact.
+         */
+        void recordAccess(String size, ArrayList<String> names) {
+            final boolean flush;
+            synchronized (mPendingAccesses) {
+                HashSet<String> pending = mPendingAccesses.get(size);
+                if (pending == null) {
+                    pending = new HashSet<String>();
+                    mPendingAccesses.put(size, pending);
+                }
+                for (String name : names) {
+                    if (pending.add(name)) {
+                        mPendingAccessCount++;
+                    }
+                }
+                flush = mPendingAccessCount >= MAX_PENDING_ACCESSES;
+            }
+            if (flush) {
+                flushAccesses();
+            }
+        }
+
+        /**
+         * Updates last_access of the previews recorded by recordAccess, in one transaction.
+         * Must not be called on the main thread.
+         */
+        void flushAccesses() {
+            final HashMap<String, HashSet<String>> accesses;
+            synchronized (mPendingAccesses) {
+                if (mPendingAccessCount == 0) {
+                    return;
+                }
+                accesses = new HashMap<String, HashSet<String>>(mPendingAccesses);
+                mPendingAccesses.clear();
+                mPendingAccessCount = 0;
+            }
+            final ContentValues values = new ContentValues();
+            values.put(COLUMN_LAST_ACCESS, System.currentTimeMillis());
+            final SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (Map.Entry<String, HashSet<String>> entry : accesses.entrySet()) {
+                    final ArrayList<String> names = new ArrayList<String>(entry.getValue());
+                    for (int start = 0; start < names.size(); start += MAX_NAMES_PER_UPDATE) {
+                        final int end = Math.min(names.size(), start + MAX_NAMES_PER_UPDATE);
+                        StringBuilder selection = new StringBuilder(COLUMN_SIZE + " = ? AND " +
+                                COLUMN_NAME + " IN (");
+                        String[] selectionArgs = new String[end - start + 1];
+                        selectionArgs[0] = entry.getKey();
+                        for (int i = start; i < end; i++) {
+                            selection.append(i == start ? "?" : ",?");
+                            selectionArgs[i - start + 1] = names.get(i);
+                        }
+                        selection.append(")");
+                        db.update(TABLE_NAME, values, selection.toString(), selectionArgs);
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
             }
         }
     }
@@ -321,8 +840,22 @@ public class WidgetPreviewLoader {
         }
     }
 
+    /**
+     * Writes the preview of o to the db, unless the package of o was invalidated since the
+     * preview was generated.  The check and the write are made under the sInvalidPackages
+     * lock, so that removeFromDb's delete can't run in between and leave the old preview.
+     */
     private void writeToDb(Object o, Bitmap preview) {
         String name = getObjectName(o);
+        String packageName = getObjectPackage(o);
+        if (USE_PREVIEW_FILE_STORE) {
+            synchronized (sInvalidPackages) {
+                if (!sInvalidPackages.contains(packageName)) {
+                    mDb.mFileStore.write(name, mSize, preview);
+                }
+            }
+            return;
+        }
         SQLiteDatabase db = mDb.getWritableDatabase();
         ContentValues values = new ContentValues();
 
@@ -331,15 +864,72 @@ public class WidgetPreviewLoader {
         preview.compress(Bitmap.CompressFormat.PNG, 100, stream);
         values.put(CacheDb.COLUMN_PREVIEW_BITMAP, stream.toByteArray());
         values.put(CacheDb.COLUMN_SIZE, mSize);
-        db.insert(CacheDb.TABLE_NAME, null, values);
+        values.put(CacheDb.COLUMN_LAST_ACCESS, System.currentTimeMillis());
+        synchronized (sInvalidPackages) {
+            if (!sInvalidPackages.contains(packageName)) {
+                db.insert(CacheDb.TABLE_NAME, null, values);
+            }
+        }
+    }
+
+    private static String getPackageFromName(String name) {
+        final String component;
+        if (name.startsWith(WIDGET_PREFIX)) {
+            component = name.substring(WIDGET_PREFIX.length());
+        } else if (name.startsWith(SHORTCUT_PREFIX)) {
+            component = name.substring(SHORTCUT_PREFIX.length());
+        } else {
+            return null;
+        }
+        final int slash = component.indexOf('/');
+        return slash > 0 ? component.substring(0, slash) : null;
+    }
+
+    /**
+     * Drops the loaded previews of the given package from the memory cache of every loader,
+     * so that they aren't handed out again once the package was updated or removed.
+     */
+    private static void removeLoadedPreviews(String packageName) {
+        final String widgetPrefix = WIDGET_PREFIX + packageName + "/";
+        final String shortcutPrefix = SHORTCUT_PREFIX + packageName + "/";
+        synchronized (sLoaders) {
+            for (WeakReference<WidgetPreviewLoader> ref : sLoaders) {
+                final WidgetPreviewLoader loader = ref.get();
+                if (loader != null) {
+                    loader.removeLoadedPreviews(widgetPrefix, shortcutPrefix);
+                }
+            }
+        }
+    }
+
+    private void removeLoadedPreviews(String widgetPrefix, String shortcutPrefix) {
+        synchronized (mLoadedPreviews) {
+            Iterator<Map.Entry<String, Bitmap>> iter = mLoadedPreviews.entrySet().iterator();
+            while (iter.hasNext()) {
+                final Map.Entry<String, Bitmap> entry = iter.next();
+                final String name = entry.getKey();
+                if (name.startsWith(widgetPrefix) || name.startsWith(shortcutPrefix)) {
+                    iter.remove();
+                    mLoadedPreviewsBytes -= entry.getValue().getByteCount();
+                    if (mPreviewsInUse.get(name) != entry.getValue()) {
+                        addUnusedBitmapLocked(entry.getValue());
+                    }
+                }
+            }
+        }
     }
 
     public static void removeFromDb(final CacheDb cacheDb, final String packageName) {
         synchronized(sInvalidPackages) {
             sInvalidPackages.add(packageName);
         }
+        removeLoadedPreviews(packageName);
         new AsyncTask<Void, Void, Void>() {
             public Void doInBackground(Void ... args) {
+                if (USE_PREVIEW_FILE_STORE) {
+                    cacheDb.mFileStore.removeAll(WIDGET_PREFIX + packageName + "/",
+                            SHORTCUT_PREFIX + packageName + "/");
+                }
                 SQLiteDatabase db = cacheDb.getWritableDatabase();
                 db.delete(CacheDb.TABLE_NAME,
                         CacheDb.COLUMN_NAME + " LIKE ? OR " +
@@ -348,6 +938,9 @@ public class WidgetPreviewLoader {
                             WIDGET_PREFIX + packageName + "/%",
                             SHORTCUT_PREFIX + packageName + "/%"} // args to SELECT query
                             );
+                // Again, in case a load that was under way when the package was invalidated
+                // put an old preview back
+                removeLoadedPreviews(packageName);
                 synchronized(sInvalidPackages) {
                     sInvalidPackages.remove(packageName);
                 }
@@ -356,7 +949,20 @@ public class WidgetPreviewLoader {
         }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, (Void) null);
     }
 
+    private boolean isInDb(String name) {
+        if (USE_PREVIEW_FILE_STORE) {
+            return mDb.mFileStore.contains(name, mSize);
+        }
+        SQLiteDatabase db = mDb.getReadableDatabase();
+        return DatabaseUtils.queryNumEntries(db, CacheDb.TABLE_NAME,
+                CacheDb.COLUMN_NAME + " = ? AND " + CacheDb.COLUMN_SIZE + " = ?",
+                new String[] { name, mSize }) > 0;
+    }
+
     private Bitmap readFromDb(String name, Bitmap b) {
+        if (USE_PREVIEW_FILE_STORE) {
+            return mDb.mFileStore.read(name, mSize, b);
+        }
         if (mCachedSelectQuery == null) {
             mCachedSelectQuery = CacheDb.COLUMN_NAME + " = ? AND " +
                     CacheDb.COLUMN_SIZE + " = ?";
@@ -378,6 +984,9 @@ public class WidgetPreviewLoader {
             opts.inBitmap = b;
             opts.inSampleSize = 1;
             Bitmap out = BitmapFactory.decodeByteArray(blob, 0, blob.length, opts);
+            ArrayList<String> names = new ArrayList<String>(1);
+            names.add(name);
+            mDb.recordAccess(mSize, names);
             return out;
         } else {
             result.close();
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mokee.launcher;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * Loads the widget previews of AppsCustomizePagedView pages on a fixed number of worker
+ * threads.
+ *
+ * Every preview of a page is queued on its own, ordered by how far its page is from the page
+ * the user is on or snapping to, so the visible page is always served first however many side
+ * pages are waiting.  Cancelling a page drops the previews of it that haven't been loaded yet.
+ * A page is handed back on the main thread once all of its previews are loaded.
+ */
+final class WidgetPreviewScheduler {
+    private static final int WORKER_COUNT = 2;
+
+    interface Callback {
+        /** Called on the main thread with the previews of the page in task.data. */
+        void onPageLoaded(PageTask task);
+    }
+
+    static final class PageTask {
+        final int page;
+        final AppsCustomizePagedView.ContentType pageContentType;
+        final AsyncTaskPageData data;
+        private final Callback mCallback;
+        private int mRemaining;
+        private boolean mCancelled;
+        private boolean mCachedPreviewsLoaded;
+
+        private PageTask(int p, AppsCustomizePagedView.ContentType t, AsyncTaskPageData d,
+                Callback callback) {
+            page = p;
+            pageContentType = t;
+            data = d;
+            mCallback = callback;
+            mRemaining = d.items.size();
+        }
+
+        boolean isCancelled() {
+            return mCancelled;
+        }
+    }
+
+    private static final class ItemJob {
+        final PageTask task;
+        final int index;
+        final long sequence;
+
+        ItemJob(PageTask t, int i, long s) {
+            task = t;
+            index = i;
+            sequence = s;
+        }
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final PriorityQueue<ItemJob> mQueue;
+    private int mTargetPage;
+    private long mNextSequence;
+    private boolean mWorkersStarted;
+
+    WidgetPreviewScheduler() {
+        mQueue = new PriorityQueue<ItemJob>(16, new Comparator<ItemJob>() {
+            public int compare(ItemJob lhs, ItemJob rhs) {
+                final int lhsDistance = getDistance(lhs.task.page);
+                final int rhsDistance = getDistance(rhs.task.page);
+                if (lhsDistance != rhsDistance) {
+                    return lhsDistance < rhsDistance ? -1 : 1;
+                }
+                return lhs.sequence < rhs.sequence ? -1 : (lhs.sequence > rhs.sequence ? 1 : 0);
+            }
+        });
+    }
+
+    private int getDistance(int page) {
+        return Math.abs(page - mTargetPage);
+    }
+
+    /**
+     * Sets the page the user is on, or snapping to, and reorders the queued previews around
+     * it.
+     */
+    synchronized void setTargetPage(int page) {
+        if (page == mTargetPage) {
+            return;
+        }
+        mTargetPage = page;
+        final ArrayList<ItemJob> jobs = new ArrayList<ItemJob>(mQueue);
+        mQueue.clear();
+        mQueue.addAll(jobs);
+    }
+
+    /** Queues loading the previews of every item of data.  Must be called on the main thread. */
+    synchronized PageTask schedule(int page, AppsCustomizePagedView.ContentType type,
+            AsyncTaskPageData data, Callback callback) {
+        final PageTask task = new PageTask(page, type, data, callback);
+        if (task.mRemaining == 0) {
+            postPageLoaded(task);
+            return task;
+        }
+        for (int i = 0; i < data.items.size(); i++) {
+            mQueue.add(new ItemJob(task, i, mNextSequence++));
+        }
+        startWorkersLocked();
+        notifyAll();
+        return task;
+    }
+
+    /**
+     * Drops the previews of the page of task that haven't been loaded yet, and recycles the
+     * ones that have.  Must be called on the main thread.
+     */
+    synchronized void cancel(PageTask task) {
+        if (task.mCancelled) {
+            return;
+        }
+        task.mCancelled = true;
+        final Iterator<ItemJob> iter = mQueue.iterator();
+        while (iter.hasNext()) {
+            if (iter.next().task == task) {
+                iter.remove();
+            }
+        }
+        // Previews still being loaded are recycled by their worker as soon as they are done
+        task.data.cleanup(true);
+    }
+
+    private void startWorkersLocked() {
+        if (mWorkersStarted) {
+            return;
+        }
+        mWorkersStarted = true;
+        for (int i = 0; i < WORKER_COUNT; i++) {
+            final Thread worker = new Thread(new Runnable() {
+                public void run() {
+                    runWorker();
+                }
+            }, "launcher-previews-" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    private void runWorker() {
+        while (true) {
+            final ItemJob job;
+            final int priority;
+            final boolean loadCachedPreviews;
+            synchronized (this) {
+                while (mQueue.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // Keep serving the queue
+                    }
+                }
+                job = mQueue.poll();
+                loadCachedPreviews = !job.task.mCachedPreviewsLoaded;
+                job.task.mCachedPreviewsLoaded = true;
+                priority = getDistance(job.task.page) == 0 ?
+                        Process.THREAD_PRIORITY_LESS_FAVORABLE : Process.THREAD_PRIORITY_LOWEST;
+            }
+
+            Process.setThreadPriority(priority);
+            final AsyncTaskPageData data = job.task.data;
+            if (loadCachedPreviews) {
+                // The first preview of a page reads all of the page's cached previews in one
+                // go; the others then find theirs already loaded
+                data.widgetPreviewLoader.loadCachedPreviews(data.items);
+            }
+            final Object item = data.items.get(job.index);
+            final Bitmap preview = data.widgetPreviewLoader.getPreview(item);
+
+            synchronized (this) {
+                if (job.task.mCancelled) {
+                    if (preview != null) {
+                        data.widgetPreviewLoader.recycleBitmap(item, preview);
+                    }
+                    continue;
+                }
+                data.generatedImages.set(job.index, preview);
+                job.task.mRemaining--;
+                if (job.task.mRemaining == 0) {
+                    postPageLoaded(job.task);
+                }
+            }
+        }
+    }
+
+    private void postPageLoaded(final PageTask task) {
+        mMainHandler.post(new Runnable() {
+            public void run() {
+                // The page may have been cancelled since it was posted
+                if (!task.isCancelled()) {
+                    task.mCallback.onPageLoaded(task);
+                }
+            }
+        });
+    }
+}
@@ -40,6 +40,7 @@ import android.graphics.Camera;
 import android.graphics.Canvas;
 import android.graphics.Matrix;
 import android.graphics.Paint;
+import android.graphics.Picture;
 import android.graphics.Point;
 import android.graphics.PointF;
 import android.graphics.Rect;
@@ -207,6 +208,8 @@ public class Workspace extends PagedView
 
     private final HolographicOutlineHelper mOutlineHelper = new HolographicOutlineHelper();
     private Bitmap mDragOutline = null;
+    private DragOutlineCache mDragOutlineCache;
+    private DragVisualsRenderer mDragVisualsRenderer;
     private final Rect mTempRect = new Rect();
     private final int[] mTempXY = new int[2];
     private int[] mTempVisiblePagesRange = new int[2];
@@ -214,11 +217,15 @@ public class Workspace extends PagedView
     private boolean mScrollTransformsDirty = false;
     private boolean mOverscrollTransformsDirty = false;
     public static final int DRAG_BITMAP_PADDING = 2;
+    // What a widget is dragged around as while its drag bitmap is rendered
+    private static final int DRAG_PLACEHOLDER_COLOR = 0x40000000;
+    private static final int DRAG_VISUALS_CROSSFADE_DURATION = 150;
 
     // Camera and Matrix used to determine the final position of a neighboring CellLayout
     private final Matrix mMatrix = new Matrix();
     private final Camera mCamera = new Camera();
     private final float mTempFloat2[] = new float[2];
+    private final float[] mTempTouchCoordinates = new float[2];
 
     int mWallpaperWidth;
     int mWallpaperHeight;
@@ -236,6 +243,7 @@ public class Workspace extends PagedView
     private static final int REORDER_TIMEOUT = 250;
     private final Alarm mFolderCreationAlarm = new Alarm();
     private final Alarm mReorderAlarm = new Alarm();
+    private final ReorderAlarmListener mReorderAlarmListener = new ReorderAlarmListener();
     private FolderRingAnimator mDragFolderRingAnimator = null;
     private FolderIcon mDragOverFolderIcon = null;
     private boolean mCreateUserFolderOnDrop = false;
@@ -2163,10 +2171,8 @@ public class Workspace extends PagedView
      *
      */
     public void onDragStartedWithItem(View v) {
-        final Canvas canvas = new Canvas();
-
         // The outline is used to visualize where the item will land if dropped
-        mDragOutline = createDragOutline(v, canvas, DRAG_BITMAP_PADDING);
+        mDragOutline = getDragVisuals(v).outline;
     }
 
     public void onDragStartedWithItem(PendingAddItemInfo info, Bitmap b, boolean clipAlpha) {
@@ -2506,6 +2512,8 @@ public class Workspace extends PagedView
     @Override
     public void onLauncherTransitionStep(Launcher l, float t) {
         mTransitionProgress = t;
+        // The drop targets are scaled and faded with the transition
+        mDragController.invalidateDropTargets();
     }
 
     @Override
@@ -2513,6 +2521,7 @@ public class Workspace extends PagedView
         mIsSwitchingState = false;
         mWallpaperInterpolator.setOverrideHorizontalCatchupConstant(false);
         updateChildrenLayersEnabled(false);
+        mDragController.invalidateDropTargets();
         // The code in getChangeStateAnimation to determine initialAlpha and finalAlpha will ensure
         // ensure that only the current page is visible during (and subsequently, after) the
         // transition animation.  If fade adjacent pages is disabled, then re-enable the page
@@ -2604,21 +2613,96 @@ public class Workspace extends PagedView
     }
 
     /**
-     * Returns a new bitmap to be used as the object outline, e.g. to visualize the drop location.
+     * Returns a new bitmap to be used as the object outline, e.g. to visualize the drop location,
+     * made from the drag bitmap of v rather than by drawing v again.
      * Responsibility for the bitmap is transferred to the caller.
      */
-    private Bitmap createDragOutline(View v, Canvas canvas, int padding) {
+    private Bitmap createDragOutline(View v, Bitmap dragBitmap, Canvas canvas, int padding) {
         final int outlineColor = getResources().getColor(android.R.color.holo_blue_light);
         final Bitmap b = Bitmap.createBitmap(
                 v.getWidth() + padding, v.getHeight() + padding, Bitmap.Config.ARGB_8888);
 
         canvas.setBitmap(b);
-        drawDragView(v, canvas, padding, true);
+        // The drag bitmap already holds v drawn at the padding offset
+        canvas.drawBitmap(dragBitmap, 0, 0, null);
         mOutlineHelper.applyMediumExpensiveOutlineWithBlur(b, canvas, outlineColor, outlineColor);
         canvas.setBitmap(null);
         return b;
     }
 
+    /**
+     * Returns the drag bitmap and drop outline of v, from the DragOutlineCache if v hasn't
+     * changed since it was last dragged.  The bitmaps of a cached entry must not be recycled.
+     */
+    private DragOutlineCache.Entry getDragVisuals(View v) {
+        DragOutlineCache.Entry entry = getDragOutlineCache().get(v);
+        if (entry == null) {
+            final Canvas canvas = new Canvas();
+            final Bitmap dragBitmap = createDragBitmap(v, canvas, DRAG_BITMAP_PADDING);
+            final Bitmap outline = createDragOutline(v, dragBitmap, canvas, DRAG_BITMAP_PADDING);
+            entry = mDragOutlineCache.put(v, dragBitmap, outline);
+        }
+        return entry;
+    }
+
+    private DragOutlineCache getDragOutlineCache() {
+        if (mDragOutlineCache == null) {
+            mDragOutlineCache = new DragOutlineCache(mLauncher);
+        }
+        return mDragOutlineCache;
+    }
+
+    /**
+     * Returns a bitmap the size of the drag bitmap of v to drag around until the real one has
+     * been rendered: a translucent box, which costs no drawing of v.
+     */
+    private Bitmap createDragPlaceholder(View v, int padding) {
+        final Bitmap b = Bitmap.createBitmap(v.getWidth() + padding, v.getHeight() + padding,
+                Bitmap.Config.ALPHA_8);
+        b.eraseColor(DRAG_PLACEHOLDER_COLOR);
+        return b;
+    }
+
+    /**
+     * Renders the drag bitmap and outline of v off the main thread, then fades dragView over to
+     * the drag bitmap and starts visualizing drop locations with the outline, unless the drag
+     * has ended by then.
+     */
+    private void renderDragVisuals(final LauncherAppWidgetHostView v, final DragView dragView) {
+        final int width = v.getWidth() + DRAG_BITMAP_PADDING;
+        final int height = v.getHeight() + DRAG_BITMAP_PADDING;
+        final int contentGeneration = v.getContentGeneration();
+        final Picture picture = new Picture();
+        drawDragView(v, picture.beginRecording(width, height), DRAG_BITMAP_PADDING, true);
+        picture.endRecording();
+
+        if (mDragVisualsRenderer == null) {
+            mDragVisualsRenderer = new DragVisualsRenderer();
+        }
+        final int outlineColor = getResources().getColor(android.R.color.holo_blue_light);
+        mDragVisualsRenderer.render(picture, width, height, outlineColor,
+                new DragVisualsRenderer.Callback() {
+            public void onRendered(Bitmap dragBitmap, Bitmap outline) {
+                // Only cache the bitmaps if they still show what the widget looks like
+                if (contentGeneration == v.getContentGeneration() &&
+                        width == v.getWidth() + DRAG_BITMAP_PADDING &&
+                        height == v.getHeight() + DRAG_BITMAP_PADDING) {
+                    getDragOutlineCache().put(v, dragBitmap, outline);
+                }
+                if (mDragController.getDragView() == dragView) {
+                    mDragOutline = outline;
+                    dragView.replaceBitmap(dragBitmap, DRAG_VISUALS_CROSSFADE_DURATION);
+                }
+            }
+        });
+    }
+
+    void clearDragOutlineCache() {
+        if (mDragOutlineCache != null) {
+            mDragOutlineCache.clear();
+        }
+    }
+
     /**
      * Returns a new bitmap to be used as the object outline, e.g. to visualize the drop location.
      * Responsibility for the bitmap is transferred to the caller.
@@ -2654,6 +2738,11 @@ public class Workspace extends PagedView
         if (!child.isInTouchMode()) {
             return;
         }
+        // Shortcuts from the workspace snapshot have nothing in the model to move
+        final Object tag = child.getTag();
+        if (tag instanceof ShortcutInfo && ((ShortcutInfo) tag).fromSnapshot) {
+            return;
+        }
 
         mDragInfo = cellInfo;
         child.setVisibility(INVISIBLE);
@@ -2663,18 +2752,20 @@ public class Workspace extends PagedView
         child.clearFocus();
         child.setPressed(false);
 
-        final Canvas canvas = new Canvas();
-
-        // The outline is used to visualize where the item will land if dropped
-        mDragOutline = createDragOutline(child, canvas, DRAG_BITMAP_PADDING);
         beginDragShared(child, this);
     }
 
     public void beginDragShared(View child, DragSource source) {
         Resources r = getResources();
 
-        // The drag bitmap follows the touch point around on the screen
-        final Bitmap b = createDragBitmap(child, new Canvas(), DRAG_BITMAP_PADDING);
+        // The drag bitmap follows the touch point around on the screen, and the outline is used
+        // to visualize where the item will land if dropped.  A widget that has changed since it
+        // was last dragged is picked up with a placeholder while both are rendered.
+        final DragOutlineCache.Entry dragVisuals = child instanceof LauncherAppWidgetHostView ?
+                getDragOutlineCache().get(child) : getDragVisuals(child);
+        final Bitmap b = dragVisuals != null ?
+                dragVisuals.dragBitmap : createDragPlaceholder(child, DRAG_BITMAP_PADDING);
+        mDragOutline = dragVisuals != null ? dragVisuals.outline : null;
 
         final int bmpWidth = b.getWidth();
         final int bmpHeight = b.getHeight();
@@ -2714,7 +2805,9 @@ public class Workspace extends PagedView
 
         mDragController.startDrag(b, dragLayerX, dragLayerY, source, child.getTag(),
                 DragController.DRAG_ACTION_MOVE, dragVisualizeOffset, dragRect, scale);
-        b.recycle();
+        if (dragVisuals == null) {
+            renderDragVisuals((LauncherAppWidgetHostView) child, mDragController.getDragView());
+        }
 
         // Show the scrolling indicator when you pick up an item
         showScrollingIndicator(false);
@@ -2828,6 +2921,9 @@ public class Workspace extends PagedView
         }
 
         ItemInfo aboveInfo = (ItemInfo) dropOverView.getTag();
+        if (aboveInfo instanceof ShortcutInfo && ((ShortcutInfo) aboveInfo).fromSnapshot) {
+            return false;
+        }
         boolean aboveShortcut =
                 (aboveInfo.itemType == LauncherSettings.Favorites.ITEM_TYPE_APPLICATION ||
                 aboveInfo.itemType == LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT);
@@ -3410,7 +3506,9 @@ public class Workspace extends PagedView
         for (int i = 0; i < screenCount; i++) {
             CellLayout cl = (CellLayout) getChildAt(i);
 
-            final float[] touchXy = {originX, originY};
+            final float[] touchXy = mTempTouchCoordinates;
+            touchXy[0] = originX;
+            touchXy[1] = originY;
             // Transform the touch coordinates to the CellLayout's local coordinates
             // If the touch point is within the bounds of the cell layout, we can return immediately
             cl.getMatrix().invert(mTempInverseMatrix);
@@ -3488,7 +3586,7 @@ public class Workspace extends PagedView
         // Skip drag over events while we are dragging over side pages
         if (mInScrollArea || mIsSwitchingState || mState == State.SMALL) return;
 
-        Rect r = new Rect();
+        final Rect r = mTempRect;
         CellLayout layout = null;
         ItemInfo item = (ItemInfo) d.dragInfo;
 
@@ -3590,9 +3688,9 @@ public class Workspace extends PagedView
 
                 // Otherwise, if we aren't adding to or creating a folder and there's no pending
                 // reorder, then we schedule a reorder
-                ReorderAlarmListener listener = new ReorderAlarmListener(mDragViewVisualCenter,
-                        minSpanX, minSpanY, item.spanX, item.spanY, d.dragView, child);
-                mReorderAlarm.setOnAlarmListener(listener);
+                mReorderAlarmListener.set(mDragViewVisualCenter, minSpanX, minSpanY,
+                        item.spanX, item.spanY, d.dragView, child);
+                mReorderAlarm.setOnAlarmListener(mReorderAlarmListener);
                 mReorderAlarm.setAlarm(REORDER_TIMEOUT);
             }
 
@@ -3663,13 +3761,34 @@ public class Workspace extends PagedView
         }
     }
 
+    // Hooks for the drag allocation test, which solves the reorders a drag sets up right away
+    // instead of waiting for the reorder alarm
+
+    /** Returns whether a drag resting over an item has set up a reorder. */
+    boolean hasReorder() {
+        return mReorderAlarmListener.dragView != null;
+    }
+
+    /** Solves the reorder last set up right away, the way the reorder alarm does. */
+    void runReorder() {
+        mReorderAlarm.cancelAlarm();
+        mReorderAlarmListener.onAlarm(mReorderAlarm);
+    }
+
+    /** Returns the center of the drag view at the last drag over, see onDragOver. */
+    float[] getLastDragViewVisualCenter() {
+        return mDragViewVisualCenter;
+    }
+
     class ReorderAlarmListener implements OnAlarmListener {
         float[] dragViewCenter;
         int minSpanX, minSpanY, spanX, spanY;
         DragView dragView;
         View child;
+        final int[] resultSpan = new int[2];
 
-        public ReorderAlarmListener(float[] dragViewCenter, int minSpanX, int minSpanY, int spanX,
+        // Reused for every reorder scheduled, so that dragging doesn't allocate one each time
+        void set(float[] dragViewCenter, int minSpanX, int minSpanY, int spanX,
                 int spanY, DragView dragView, View child) {
             this.dragViewCenter = dragViewCenter;
             this.minSpanX = minSpanX;
@@ -3681,7 +3800,6 @@ public class Workspace extends PagedView
         }
 
         public void onAlarm(Alarm alarm) {
-            int[] resultSpan = new int[2];
             mTargetCell = findNearestArea((int) mDragViewVisualCenter[0],
                     (int) mDragViewVisualCenter[1], spanX, spanY, mDragTargetLayout, mTargetCell);
             mLastReorderX = mTargetCell[0];
@@ -4149,16 +4267,19 @@ public class Workspace extends PagedView
             container = Favorites.CONTAINER_HOTSEAT;
         }
 
+        ArrayList<ItemInfo> items = new ArrayList<ItemInfo>();
         for (int i = 0; i < count; i++) {
             View v = cl.getShortcutsAndWidgets().getChildAt(i);
             ItemInfo info = (ItemInfo) v.getTag();
             // Null check required as the AllApps button doesn't have an item info
             if (info != null && info.requiresDbUpdate) {
                 info.requiresDbUpdate = false;
-                LauncherModel.modifyItemInDatabase(mLauncher, info, container, screen, info.cellX,
-                        info.cellY, info.spanX, info.spanY);
+                items.add(info);
             }
         }
+        if (!items.isEmpty()) {
+            LauncherModel.modifyItemsInDatabase(mLauncher, items, container, screen);
+        }
     }
 
     @Override
@@ -4790,7 +4911,7 @@ public class Workspace extends PagedView
     }
 
     private void updateScreenIndexForItemsInOtherScreens(int index) {
-        Iterator localIterator = LauncherModel.sBgItemsIdMap.entrySet().iterator();
+        Iterator localIterator = LauncherModel.sBgSnapshot.itemsIdMap.entrySet().iterator();
         while (localIterator.hasNext()) {
             ItemInfo itemInfo = (ItemInfo)((Map.Entry)localIterator.next()).getValue();
             if ((itemInfo.container == LauncherSettings.Favorites.CONTAINER_DESKTOP)
@@ -4801,7 +4922,7 @@ public class Workspace extends PagedView
     }
 
     private void updateScreenIndexForItemsInOtherScreens(int from, int to) {
-        Iterator localIterator = LauncherModel.sBgItemsIdMap.entrySet().iterator();
+        Iterator localIterator = LauncherModel.sBgSnapshot.itemsIdMap.entrySet().iterator();
         while (localIterator.hasNext()) {
             ItemInfo itemInfo = (ItemInfo)((Map.Entry)localIterator.next()).getValue();
             if (itemInfo.container == LauncherSettings.Favorites.CONTAINER_DESKTOP) {
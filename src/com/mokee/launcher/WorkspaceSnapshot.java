@@ -0,0 +1,395 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mokee.launcher;
+
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * A compact binary copy of the bound workspace shortcuts, used to put the current screen up
+ * right after a restart, before the loader has even opened the database.
+ *
+ * It is made of two files: the snapshot itself, with the position, title, intent and an icon
+ * index for every shortcut on the desktop and in the hotseat, and a packed atlas holding the
+ * raw pixels of every distinct icon back to back.  Both are read through memory maps, so only
+ * the pages of the icons actually bound are ever touched.  The loader always binds the real
+ * workspace from the database afterwards, which replaces whatever the snapshot put up.
+ *
+ * Writing only touches the files whose contents changed: the atlas, which is several MB of raw
+ * pixels, is only rewritten when the set of icons changed, and the snapshot when a shortcut
+ * changed.  The two files are renamed into place one after the other, so every atlas carries
+ * a generation that the snapshot written along with it records: a snapshot is only ever read
+ * with the atlas of its generation.
+ */
+final class WorkspaceSnapshot {
+    private static final String TAG = "MoKeeLauncher.WorkspaceSnapshot";
+
+    private static final String SNAPSHOT_FILE = "workspace.snapshot";
+    private static final String ATLAS_FILE = "workspace_icons.atlas";
+
+    private static final int MAGIC = 0x4d4b5753; // "MKWS"
+    private static final int VERSION = 2;
+    // Magic, generation and icon count
+    private static final int ATLAS_HEADER_SIZE = 16;
+
+    // < only access in worker thread >
+    // What was last written to the snapshot, and the icons packed into the atlas along with
+    // the generation their pixels were at then
+    private static byte[] sWrittenSnapshot;
+    private static Bitmap[] sWrittenIcons;
+    private static int[] sWrittenIconGenerations;
+    private static long sWrittenAtlasGeneration;
+    // </ only access in worker thread >
+
+    private WorkspaceSnapshot() {
+    }
+
+    static boolean exists(Context context) {
+        return new File(context.getFilesDir(), SNAPSHOT_FILE).exists();
+    }
+
+    /**
+     * Deletes the snapshot files, for when the database they were written from is reset or
+     * migrated.  Unlike delete, this may be called on any thread.
+     */
+    static void deleteFiles(Context context) {
+        new File(context.getFilesDir(), SNAPSHOT_FILE).delete();
+        new File(context.getFilesDir(), ATLAS_FILE).delete();
+    }
+
+    static void delete(Context context) {
+        deleteFiles(context);
+        sWrittenSnapshot = null;
+        sWrittenIcons = null;
+        sWrittenIconGenerations = null;
+    }
+
+    /**
+     * Writes the desktop and hotseat shortcuts in items, with their icons, replacing any
+     * previous snapshot.  Nothing is written if neither the shortcuts nor their icons changed
+     * since the last write of this process.  Must only be called on the worker thread.
+     */
+    static void write(Context context, List<ItemInfo> items, IconCache iconCache,
+            String systemState) {
+        final ArrayList<ShortcutInfo> shortcuts = new ArrayList<ShortcutInfo>();
+        for (ItemInfo item : items) {
+            if (item instanceof ShortcutInfo && ((ShortcutInfo) item).intent != null &&
+                    (item.container == LauncherSettings.Favorites.CONTAINER_DESKTOP ||
+                    item.container == LauncherSettings.Favorites.CONTAINER_HOTSEAT)) {
+                shortcuts.add((ShortcutInfo) item);
+            }
+        }
+
+        // Shortcuts of the same app share their icon bitmap, so pack every bitmap only once
+        final IdentityHashMap<Bitmap, Integer> iconIndices = new IdentityHashMap<Bitmap, Integer>();
+        final ArrayList<Bitmap> icons = new ArrayList<Bitmap>();
+        final int[] itemIcons = new int[shortcuts.size()];
+        for (int i = 0; i < shortcuts.size(); i++) {
+            if (shortcuts.get(i).isIconPending()) {
+                // Not worth decoding just for the snapshot; it comes with the database pass
+                itemIcons[i] = -1;
+                continue;
+            }
+            final Bitmap icon = shortcuts.get(i).getIcon(iconCache);
+            if (icon == null || icon.isRecycled() || icon.getConfig() != Bitmap.Config.ARGB_8888) {
+                itemIcons[i] = -1;
+                continue;
+            }
+            Integer index = iconIndices.get(icon);
+            if (index == null) {
+                index = icons.size();
+                iconIndices.put(icon, index);
+                icons.add(icon);
+            }
+            itemIcons[i] = index;
+        }
+
+        final File dir = context.getFilesDir();
+        final File snapshotFile = new File(dir, SNAPSHOT_FILE);
+        final File atlasFile = new File(dir, ATLAS_FILE);
+        final File snapshotTmp = new File(dir, SNAPSHOT_FILE + ".tmp");
+        final File atlasTmp = new File(dir, ATLAS_FILE + ".tmp");
+        try {
+            final boolean iconsChanged = !atlasFile.exists() || !isWrittenAtlas(icons);
+            final long atlasGeneration = iconsChanged
+                    ? newAtlasGeneration() : sWrittenAtlasGeneration;
+            final byte[] snapshot = encodeSnapshot(shortcuts, itemIcons, systemState,
+                    atlasGeneration);
+            if (!iconsChanged && snapshotFile.exists() &&
+                    Arrays.equals(snapshot, sWrittenSnapshot)) {
+                return;
+            }
+
+            if (iconsChanged) {
+                writeAtlas(atlasTmp, icons, atlasGeneration);
+            }
+            writeFile(snapshotTmp, snapshot);
+            // Should either rename fail, or the process die in between, the snapshot left
+            // behind records another generation than the atlas, and is not read.  An unchanged
+            // atlas holds the same icons at the same indices, and keeps its generation.
+            if ((iconsChanged && !atlasTmp.renameTo(atlasFile)) ||
+                    !snapshotTmp.renameTo(snapshotFile)) {
+                throw new IOException("Could not rename snapshot files");
+            }
+
+            sWrittenSnapshot = snapshot;
+            if (iconsChanged) {
+                sWrittenAtlasGeneration = atlasGeneration;
+                sWrittenIcons = icons.toArray(new Bitmap[icons.size()]);
+                sWrittenIconGenerations = new int[sWrittenIcons.length];
+                for (int i = 0; i < sWrittenIcons.length; i++) {
+                    sWrittenIconGenerations[i] = sWrittenIcons[i].getGenerationId();
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write the workspace snapshot", e);
+            snapshotTmp.delete();
+            atlasTmp.delete();
+            delete(context);
+        }
+    }
+
+    /**
+     * Returns whether icons are the very bitmaps last packed into the atlas, in the same order,
+     * with pixels that haven't changed since.
+     */
+    private static boolean isWrittenAtlas(ArrayList<Bitmap> icons) {
+        if (sWrittenIcons == null || sWrittenIcons.length != icons.size()) {
+            return false;
+        }
+        for (int i = 0; i < sWrittenIcons.length; i++) {
+            final Bitmap icon = icons.get(i);
+            if (icon != sWrittenIcons[i] ||
+                    icon.getGenerationId() != sWrittenIconGenerations[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a generation for a new atlas, unlike that of any atlas written before, by this
+     * process or a previous one.
+     */
+    private static long newAtlasGeneration() {
+        return Math.max(System.currentTimeMillis(), sWrittenAtlasGeneration + 1);
+    }
+
+    private static void writeAtlas(File file, ArrayList<Bitmap> icons, long generation)
+            throws IOException {
+        final DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeLong(generation);
+            out.writeInt(icons.size());
+            // Table of <width, height, offset> followed by the pixels of every icon
+            int offset = ATLAS_HEADER_SIZE + icons.size() * 12;
+            for (Bitmap icon : icons) {
+                out.writeInt(icon.getWidth());
+                out.writeInt(icon.getHeight());
+                out.writeInt(offset);
+                offset += icon.getByteCount();
+            }
+            for (Bitmap icon : icons) {
+                final ByteBuffer pixels = ByteBuffer.allocate(icon.getByteCount());
+                icon.copyPixelsToBuffer(pixels);
+                out.write(pixels.array());
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeFile(File file, byte[] contents) throws IOException {
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(contents);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte[] encodeSnapshot(ArrayList<ShortcutInfo> shortcuts, int[] itemIcons,
+            String systemState, long atlasGeneration) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(atlasGeneration);
+            writeString(out, systemState);
+            out.writeInt(LauncherModel.getWorkspaceCellCountX());
+            out.writeInt(LauncherModel.getWorkspaceCellCountY());
+            out.writeInt(LauncherModel.getHotseatCellCount());
+            out.writeInt(shortcuts.size());
+            for (int i = 0; i < shortcuts.size(); i++) {
+                final ShortcutInfo info = shortcuts.get(i);
+                out.writeLong(info.id);
+                out.writeInt(info.itemType);
+                out.writeLong(info.container);
+                out.writeInt(info.screen);
+                out.writeInt(info.cellX);
+                out.writeInt(info.cellY);
+                out.writeInt(info.spanX);
+                out.writeInt(info.spanY);
+                writeString(out, info.title != null ? info.title.toString() : "");
+                writeString(out, info.intent.toUri(0));
+                out.writeInt(itemIcons[i]);
+            }
+        } finally {
+            out.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        final byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads back the shortcuts of the snapshot that are on the given screen or in the hotseat.
+     * Returns null if there is no usable snapshot: none was written, it was written for another
+     * grid size or system state or along with another atlas, or it is corrupt.
+     */
+    static ArrayList<ItemInfo> read(Context context, int screen, String systemState) {
+        final File snapshotFile = new File(context.getFilesDir(), SNAPSHOT_FILE);
+        final File atlasFile = new File(context.getFilesDir(), ATLAS_FILE);
+        if (!snapshotFile.exists() || !atlasFile.exists()) {
+            return null;
+        }
+
+        try {
+            final ByteBuffer snapshot = map(snapshotFile);
+            if (snapshot.getInt() != MAGIC || snapshot.getInt() != VERSION) {
+                return null;
+            }
+            final long atlasGeneration = snapshot.getLong();
+            if (!readString(snapshot).equals(systemState) ||
+                    snapshot.getInt() != LauncherModel.getWorkspaceCellCountX() ||
+                    snapshot.getInt() != LauncherModel.getWorkspaceCellCountY() ||
+                    snapshot.getInt() != LauncherModel.getHotseatCellCount()) {
+                return null;
+            }
+
+            final ByteBuffer atlas = map(atlasFile);
+            if (atlas.getInt() != MAGIC || atlas.getLong() != atlasGeneration) {
+                Log.w(TAG, "Ignoring workspace snapshot written with another icon atlas");
+                return null;
+            }
+            final int iconCount = atlas.getInt();
+            final Bitmap[] icons = new Bitmap[iconCount];
+
+            final int count = snapshot.getInt();
+            final ArrayList<ItemInfo> items = new ArrayList<ItemInfo>(count);
+            for (int i = 0; i < count; i++) {
+                final ShortcutInfo info = new ShortcutInfo();
+                info.fromSnapshot = true;
+                info.id = snapshot.getLong();
+                info.itemType = snapshot.getInt();
+                info.container = snapshot.getLong();
+                info.screen = snapshot.getInt();
+                info.cellX = snapshot.getInt();
+                info.cellY = snapshot.getInt();
+                info.spanX = snapshot.getInt();
+                info.spanY = snapshot.getInt();
+                final String title = readString(snapshot);
+                final String intent = readString(snapshot);
+                final int iconIndex = snapshot.getInt();
+
+                if (info.container != LauncherSettings.Favorites.CONTAINER_HOTSEAT &&
+                        info.screen != screen) {
+                    continue;
+                }
+                if (iconIndex < 0 || iconIndex >= iconCount) {
+                    continue;
+                }
+                if (icons[iconIndex] == null) {
+                    icons[iconIndex] = readIcon(atlas, iconIndex);
+                }
+                info.title = title;
+                info.intent = Intent.parseUri(intent, 0);
+                info.setIcon(icons[iconIndex]);
+                items.add(info);
+            }
+            return items;
+        } catch (Exception e) {
+            // IOException, BufferUnderflowException and URISyntaxException alike: this is
+            // just a head start, the loader will bind the real thing anyway
+            Log.w(TAG, "Ignoring unreadable workspace snapshot", e);
+            return null;
+        }
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            // The mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static Bitmap readIcon(ByteBuffer atlas, int index) {
+        final int entry = ATLAS_HEADER_SIZE + index * 12;
+        final int width = atlas.getInt(entry);
+        final int height = atlas.getInt(entry + 4);
+        final int offset = atlas.getInt(entry + 8);
+        final int size = width * height * 4;
+        if (offset < 0 || offset + size > atlas.capacity()) {
+            throw new BufferUnderflowException();
+        }
+
+        final ByteBuffer pixels = atlas.duplicate();
+        pixels.position(offset);
+        pixels.limit(offset + size);
+        final Bitmap icon = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        icon.copyPixelsFromBuffer(pixels.slice());
+        return icon;
+    }
+
+    private static String readString(ByteBuffer buffer) throws IOException {
+        final int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+}
@@ -188,6 +188,9 @@ public final class PreferencesProvider {
             public static boolean getRemoveWidgetsOfHiddenApps() {
                 return getBoolean("ui_drawer_remove_hidden_apps_widgets", false);
             }
+            public static boolean getPackIcons() {
+                return getBoolean("ui_drawer_pack_icons", false);
+            }
             public static boolean getJoinWidgetsApps() {
                 return getBoolean("ui_drawer_widgets_join_apps", true);
             }
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mokee.launcher;
+
+/**
+ * Times the loops of the launcher benchmarks.
+ *
+ * Most of what they measure takes well under a millisecond a run, so a loop is timed as a whole
+ * with System.nanoTime rather than summing per-run clock readings.  Only uses plain Java, as
+ * both the on-device stress tests and the host-side unit tests are built with it.
+ */
+final class BenchmarkTimer {
+    /** The tag benchmarks log their results under. */
+    static final String LOG_TAG = "MoKeeLauncherBenchmark";
+
+    /** The body of a timed loop. */
+    interface Body {
+        void run(int iteration) throws Exception;
+    }
+
+    private BenchmarkTimer() {
+    }
+
+    /** Runs body the given number of times and returns how long it took in nanoseconds. */
+    static long time(int runs, Body body) throws Exception {
+        final long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            body.run(i);
+        }
+        return System.nanoTime() - start;
+    }
+
+    /** Runs body the given number of times and returns the nanoseconds of one run. */
+    static long timePerRun(int runs, Body body) throws Exception {
+        return time(runs, body) / runs;
+    }
+
+    /** Formats nanoseconds as microseconds, e.g. "12.3us". */
+    static String formatMicros(long nanos) {
+        return (nanos / 1000) + "." + (nanos % 1000 / 100) + "us";
+    }
+
+    /** Returns how many operations a second the given nanoseconds amount to. */
+    static long perSecond(int operations, long nanos) {
+        return operations * 1000000000L / Math.max(1, nanos);
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mokee.launcher;
+
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.test.ActivityInstrumentationTestCase2;
+import android.view.MotionEvent;
+import android.view.View;
+
+import java.util.Random;
+
+/**
+ * Counts what a drag allocates at every move event.  Once the solver and its configurations
+ * have grown to the number of items, a drag must not allocate anything: neither solving a
+ * reorder the way CellLayout does while an item is dragged over it, nor the whole path of a
+ * move event in the launcher, from DragController.onTouchEvent through Workspace.onDragOver
+ * to CellLayout.createArea.  The launcher drag runs over a page of icons the test lays out
+ * itself, so it doesn't depend on what is on the home screen.
+ */
+public class ReorderAllocationTest extends ActivityInstrumentationTestCase2<Launcher> {
+
+    private static final int COUNT_X = 4;
+    private static final int COUNT_Y = 5;
+    private static final int CELL_SIZE = 100;
+    private static final int PATH_LENGTH = 500;
+    private static final long SEED = 7;
+    // How long the launcher may take to load its workspace
+    private static final long LOAD_TIMEOUT_MS = 10000;
+    // Long enough for a reorder to be scheduled, solved and animated
+    private static final long SETTLE_MS = 1000;
+    // How far from the center of the hovered cell the drag rests, in cells: far enough from
+    // its center not to start a folder, near enough to still be over it
+    private static final float HOVER_OFFSET = 0.4f;
+    // How far a move event strays from where the drag rests, in cells
+    private static final float JITTER = 0.05f;
+    private static final int ICON_SIZE = 48;
+
+    private final int[] mPathX = new int[PATH_LENGTH];
+    private final int[] mPathY = new int[PATH_LENGTH];
+    private final int[] mDirection = new int[2];
+    private final int[] mResult = new int[2];
+    private final int[] mResultSpan = new int[2];
+    private final ReorderSolver.ItemConfiguration mSwapSolution =
+            new ReorderSolver.ItemConfiguration();
+    private final ReorderSolver.ItemConfiguration mNoShuffleSolution =
+            new ReorderSolver.ItemConfiguration();
+
+    private OccupancyGrid mOccupied;
+    private ReorderSolver mSolver;
+
+    // The launcher drag, see testMoveEventsDoNotAllocate
+    private Launcher mLauncher;
+    private CellLayout mLayout;
+    private View mDragged;
+    private View mHovered;
+    private Workspace mWorkspace;
+    private DragController mDragController;
+    private MotionEvent mMoveEvent;
+    private int mHoverX;
+    private int mHoverY;
+    private final int[] mJitterX = new int[PATH_LENGTH];
+    private final int[] mJitterY = new int[PATH_LENGTH];
+    private long mAllocations;
+
+    public ReorderAllocationTest() {
+        super(Launcher.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        setActivityInitialTouchMode(true);
+        mOccupied = new OccupancyGrid(COUNT_X, COUNT_Y);
+        mSolver = new ReorderSolver(mOccupied, new OccupancyGrid(COUNT_X, COUNT_Y));
+        mSolver.setCellGeometry(0, 0, CELL_SIZE, CELL_SIZE, 0, 0);
+        // A page of icons and widgets, with the 2x2 widget at 0, 0 picked up
+        final int[][] items = new int[][] {
+            { 0, 0, 2, 2 }, { 2, 0, 1, 1 }, { 3, 0, 1, 1 }, { 2, 1, 2, 1 },
+            { 0, 2, 1, 1 }, { 1, 2, 1, 1 }, { 2, 2, 2, 2 },
+            { 0, 3, 1, 1 }, { 0, 4, 1, 1 }, { 1, 4, 1, 1 },
+        };
+        for (int i = 0; i < items.length; i++) {
+            final int[] item = items[i];
+            mSolver.addItem(item[0], item[1], item[2], item[3], true);
+            if (i != 0) {
+                mOccupied.markRegion(item[0], item[1], item[2], item[3], true);
+            }
+        }
+
+        final Random random = new Random(SEED);
+        int x = random.nextInt(COUNT_X * CELL_SIZE);
+        int y = random.nextInt(COUNT_Y * CELL_SIZE);
+        for (int i = 0; i < PATH_LENGTH; i++) {
+            x = Math.max(0, Math.min(COUNT_X * CELL_SIZE - 1, x + random.nextInt(61) - 30));
+            y = Math.max(0, Math.min(COUNT_Y * CELL_SIZE - 1, y + random.nextInt(61) - 30));
+            mPathX[i] = x;
+            mPathY[i] = y;
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mLauncher != null) {
+            getInstrumentation().runOnMainSync(new Runnable() {
+                public void run() {
+                    if (mDragController != null && mDragController.isDragging()) {
+                        mDragController.cancelDrag();
+                    }
+                    if (mMoveEvent != null) {
+                        mMoveEvent.recycle();
+                    }
+                }
+            });
+        }
+        super.tearDown();
+    }
+
+    public void testDragDoesNotAllocate() throws Exception {
+        // The first drag grows the configurations to the number of items
+        drag();
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        try {
+            drag();
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        assertEquals("allocations while dragging", 0, Debug.getThreadAllocCount());
+    }
+
+    /**
+     * Drags the icon at 0, 0 of a page of icons over the one at 1, 1 and keeps it there, the
+     * way a finger rests, counting what the move events allocate.  At every one of them the
+     * reorder that the workspace schedules when a drag rests over an item is solved right
+     * away, so that every move goes all the way to CellLayout.createArea.
+     */
+    public void testMoveEventsDoNotAllocate() throws Exception {
+        mLauncher = getActivity();
+        final long timeout = SystemClock.uptimeMillis() + LOAD_TIMEOUT_MS;
+        while (isWorkspaceLocked()) {
+            assertTrue("workspace still loading", SystemClock.uptimeMillis() < timeout);
+            SystemClock.sleep(100);
+        }
+        getInstrumentation().runOnMainSync(new Runnable() {
+            public void run() {
+                seedPage();
+            }
+        });
+        getInstrumentation().waitForIdleSync();
+
+        getInstrumentation().runOnMainSync(new Runnable() {
+            public void run() {
+                startDrag();
+            }
+        });
+        assertTrue("drag didn't start", mDragController.isDragging());
+        SystemClock.sleep(SETTLE_MS);
+        getInstrumentation().waitForIdleSync();
+        assertTrue("no reorder over the hovered item", mWorkspace.hasReorder());
+
+        final Random random = new Random(SEED);
+        final int jitterX = Math.max(1, (int) (mLayout.getCellWidth() * JITTER));
+        final int jitterY = Math.max(1, (int) (mLayout.getCellHeight() * JITTER));
+        for (int i = 0; i < PATH_LENGTH; i++) {
+            mJitterX[i] = random.nextInt(2 * jitterX + 1) - jitterX;
+            mJitterY[i] = random.nextInt(2 * jitterY + 1) - jitterY;
+        }
+        getInstrumentation().runOnMainSync(new Runnable() {
+            public void run() {
+                // The first pass grows whatever is grown lazily
+                moveAndReorder();
+
+                Debug.resetThreadAllocCount();
+                Debug.startAllocCounting();
+                try {
+                    moveAndReorder();
+                } finally {
+                    Debug.stopAllocCounting();
+                }
+                mAllocations = Debug.getThreadAllocCount();
+            }
+        });
+        assertEquals("allocations while dragging", 0, mAllocations);
+    }
+
+    private boolean isWorkspaceLocked() {
+        final boolean[] locked = new boolean[1];
+        getInstrumentation().runOnMainSync(new Runnable() {
+            public void run() {
+                locked[0] = mLauncher.isWorkspaceLocked();
+            }
+        });
+        return locked[0];
+    }
+
+    /**
+     * Replaces the items shown on the current page with an icon in every cell.  Only the views
+     * are replaced, the model and the database are left alone, and the next bind of the
+     * launcher puts the real items back.
+     */
+    private void seedPage() {
+        mWorkspace = mLauncher.getWorkspace();
+        final int page = mWorkspace.getCurrentPage();
+        mLayout = (CellLayout) mWorkspace.getChildAt(page);
+        mLayout.removeAllViewsInLayout();
+
+        final Bitmap icon = Bitmap.createBitmap(ICON_SIZE, ICON_SIZE, Bitmap.Config.ARGB_8888);
+        for (int y = 0; y < mLayout.getCountY(); y++) {
+            for (int x = 0; x < mLayout.getCountX(); x++) {
+                final ShortcutInfo info = new ShortcutInfo();
+                info.title = x + ", " + y;
+                info.intent = new Intent(Intent.ACTION_MAIN);
+                info.setIcon(icon);
+                info.container = LauncherSettings.Favorites.CONTAINER_DESKTOP;
+                info.screen = page;
+                info.cellX = x;
+                info.cellY = y;
+                final View view = mLauncher.createShortcut(info);
+                mWorkspace.addInScreen(view, info.container, page, x, y, 1, 1);
+                if (x == 0 && y == 0) {
+                    mDragged = view;
+                } else if (x == 1 && y == 1) {
+                    mHovered = view;
+                }
+            }
+        }
+    }
+
+    /** Picks up the icon, the way a long press does, and moves it over the other item. */
+    private void startDrag() {
+        final DragLayer dragLayer = mLauncher.getDragLayer();
+        mDragController = mLauncher.getDragController();
+
+        final int[] point = new int[] { mDragged.getWidth() / 2, mDragged.getHeight() / 2 };
+        dragLayer.getDescendantCoordRelativeToSelf(mDragged, point);
+        final long now = SystemClock.uptimeMillis();
+        final MotionEvent down = MotionEvent.obtain(now, now, MotionEvent.ACTION_DOWN,
+                point[0], point[1], 0);
+        mDragController.onInterceptTouchEvent(down);
+        down.recycle();
+
+        final ItemInfo info = (ItemInfo) mDragged.getTag();
+        final CellLayout.CellInfo cellInfo = new CellLayout.CellInfo();
+        cellInfo.cell = mDragged;
+        cellInfo.cellX = info.cellX;
+        cellInfo.cellY = info.cellY;
+        cellInfo.spanX = info.spanX;
+        cellInfo.spanY = info.spanY;
+        cellInfo.screen = info.screen;
+        cellInfo.container = info.container;
+        mWorkspace.startDrag(cellInfo);
+
+        // Rest off the center of the top left cell of the other item, towards the middle of
+        // the page so as to stay clear of the scroll areas
+        final ItemInfo hovered = (ItemInfo) mHovered.getTag();
+        final int[] target = new int[2];
+        mLayout.cellToCenterPoint(hovered.cellX, hovered.cellY, target);
+        target[0] += (hovered.cellX < mLayout.getCountX() / 2 ? 1 : -1) *
+                (int) (mLayout.getCellWidth() * HOVER_OFFSET);
+        target[1] += (hovered.cellY < mLayout.getCountY() / 2 ? 1 : -1) *
+                (int) (mLayout.getCellHeight() * HOVER_OFFSET);
+        final int targetX = target[0];
+        final int targetY = target[1];
+        dragLayer.getDescendantCoordRelativeToSelf(mLayout, target);
+        mMoveEvent = MotionEvent.obtain(now, now, MotionEvent.ACTION_MOVE, target[0],
+                target[1], 0);
+        mDragController.onTouchEvent(mMoveEvent);
+
+        // The workspace tracks the visual center of the drag view, which is off the touch
+        // point: move once more so that it rests where it should
+        final float[] center = mWorkspace.getLastDragViewVisualCenter();
+        mHoverX = target[0] + targetX - (int) center[0];
+        mHoverY = target[1] + targetY - (int) center[1];
+        mMoveEvent.setLocation(mHoverX, mHoverY);
+        mDragController.onTouchEvent(mMoveEvent);
+    }
+
+    private void moveAndReorder() {
+        for (int step = 0; step < PATH_LENGTH; step++) {
+            mMoveEvent.setLocation(mHoverX + mJitterX[step], mHoverY + mJitterY[step]);
+            mDragController.onTouchEvent(mMoveEvent);
+            mWorkspace.runReorder();
+        }
+    }
+
+    private void drag() {
+        for (int step = 1; step < PATH_LENGTH; step++) {
+            final int x = mPathX[step];
+            final int y = mPathY[step];
+            ReorderSolver.computeDirectionVector(x - mPathX[step - 1], y - mPathY[step - 1],
+                    mDirection);
+            mSolver.findNearestArea(x, y, 1, 1, 2, 2, true, mResult, mResultSpan, mOccupied);
+            mSolver.simpleSwap(x, y, 1, 1, 2, 2, mDirection, 0, true, mSwapSolution);
+            mSolver.findConfigurationNoShuffle(x, y, 1, 1, 2, 2, mNoShuffleSolution);
+        }
+    }
+}
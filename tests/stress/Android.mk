@@ -20,7 +20,9 @@ LOCAL_MODULE_TAGS := tests
 
 LOCAL_JAVA_LIBRARIES := android.test.runner
 
-LOCAL_SRC_FILES := $(call all-java-files-under, src)
+# Along with the helpers shared with the host-side unit tests
+LOCAL_SRC_FILES := $(call all-java-files-under, src) \
+    $(call all-java-files-under, ../common/src)
 
 LOCAL_PACKAGE_NAME := MoKeeLauncherRotationStressTest
 
@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mokee.launcher;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+
+/**
+ * Times the favorites queries the launcher runs most against a 2,000 row database filled the
+ * way fill_screens.py does it (screens of folders with 15 apps each), without and with the
+ * indexes of LauncherProvider.createFavoritesIndexes.  The database is created through
+ * LauncherProvider.DatabaseHelper, so this runs against the real schema.  Timings are only
+ * logged; the test asserts that the indexes are used and that they change no results.
+ */
+public class FavoritesQueryBenchmark extends InstrumentationTestCase {
+
+    private static final int ROWS = 2000;
+    private static final int FOLDER_SIZE = 15;
+    private static final int COLUMNS = 4;
+    private static final int CELLS_PER_SCREEN = 16;
+    private static final int ITERATIONS = 200;
+
+    private static final String[] APPLICATION_COMPONENTS = {
+        "com.android.calculator2/com.android.calculator2.Calculator",
+        "com.android.providers.downloads.ui/com.android.providers.downloads.ui.DownloadList",
+        "com.android.settings/com.android.settings.Settings",
+        "com.android.mms/com.android.mms.ui.ConversationList",
+        "com.android.contacts/com.android.contacts.activities.PeopleActivity",
+        "com.android.contacts/com.android.contacts.activities.DialtactsActivity"
+    };
+    private static final String INTENT_FORMAT = "#Intent;action=android.intent.action.MAIN;" +
+            "category=android.intent.category.LAUNCHER;launchFlags=0x10200000;component=%s;end";
+    private static final String MISSING_INTENT = String.format(INTENT_FORMAT,
+            "com.example/.Missing");
+
+    private static final String[] QUERY_NAMES = { "current screen", "folder contents",
+            "count of type", "shortcut exists" };
+    private static final String[] QUERY_SELECTIONS = { "container=? AND screen=?",
+            "container=?", "itemType=?", "intent=?" };
+
+    private File mFile;
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        final Context context = getInstrumentation().getTargetContext();
+        mFile = new File(context.getCacheDir(), "favorites_benchmark.db");
+        mFile.delete();
+        mDb = SQLiteDatabase.openOrCreateDatabase(mFile, null);
+        LauncherProvider.DatabaseHelper.createFavoritesTable(mDb);
+        fill();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        mFile.delete();
+        super.tearDown();
+    }
+
+    public void testQueriesWithAndWithoutIndexes() throws Exception {
+        dropFavoritesIndexes();
+        mDb.execSQL("ANALYZE;");
+        final ArrayList<ArrayList<Long>> expected = new ArrayList<ArrayList<Long>>();
+        final long[] before = new long[QUERY_NAMES.length];
+        for (int q = 0; q < QUERY_NAMES.length; q++) {
+            expected.add(ids(q));
+            before[q] = timeQuery(q);
+        }
+
+        LauncherProvider.createFavoritesIndexes(mDb);
+        mDb.execSQL("ANALYZE;");
+        for (int q = 0; q < QUERY_NAMES.length; q++) {
+            final String plan = explain(q);
+            assertTrue(QUERY_NAMES[q] + " doesn't use an index: " + plan,
+                    plan.contains("INDEX favorites_"));
+            assertEquals(QUERY_NAMES[q] + " results", expected.get(q), ids(q));
+
+            final long after = timeQuery(q);
+            Log.i(BenchmarkTimer.LOG_TAG, "favorites " + QUERY_NAMES[q] + ": "
+                    + BenchmarkTimer.formatMicros(before[q]) + " -> "
+                    + BenchmarkTimer.formatMicros(after) + " per query");
+        }
+    }
+
+    /** Returns the nanoseconds query q takes, averaged over ITERATIONS varying arguments. */
+    private long timeQuery(final int q) throws Exception {
+        // Warm up the statement cache and the JIT
+        count(q, 0);
+        return BenchmarkTimer.timePerRun(ITERATIONS, new BenchmarkTimer.Body() {
+            @Override
+            public void run(int iteration) {
+                count(q, iteration);
+            }
+        });
+    }
+
+    /** Drops every index on the favorites table, i.e. all but the primary key's. */
+    private void dropFavoritesIndexes() {
+        final ArrayList<String> indexes = new ArrayList<String>();
+        final Cursor c = mDb.rawQuery("SELECT name FROM sqlite_master WHERE type='index' AND " +
+                "tbl_name='favorites' AND sql IS NOT NULL", null);
+        try {
+            while (c.moveToNext()) {
+                indexes.add(c.getString(0));
+            }
+        } finally {
+            c.close();
+        }
+        assertFalse("the favorites schema has no indexes", indexes.isEmpty());
+        for (String index : indexes) {
+            mDb.execSQL("DROP INDEX " + index + ";");
+        }
+    }
+
+    /** Fills ROWS rows: screens of folders on the desktop, each holding FOLDER_SIZE apps. */
+    private void fill() {
+        final ContentValues values = new ContentValues();
+        mDb.beginTransaction();
+        try {
+            long id = 0;
+            while (id < ROWS) {
+                final long folderId = ++id;
+                final int cell = (int) (folderId / (FOLDER_SIZE + 1)) % CELLS_PER_SCREEN;
+                values.clear();
+                values.put("_id", folderId);
+                values.put("title", "title");
+                values.put("intent", "");
+                values.put("container", LauncherSettings.Favorites.CONTAINER_DESKTOP);
+                values.put("screen", (int) (folderId / ((FOLDER_SIZE + 1) * CELLS_PER_SCREEN)));
+                values.put("cellX", cell % COLUMNS);
+                values.put("cellY", cell / COLUMNS);
+                values.put("spanX", 1);
+                values.put("spanY", 1);
+                values.put("itemType", LauncherSettings.Favorites.ITEM_TYPE_FOLDER);
+                values.put("iconType", 0);
+                mDb.insert("favorites", null, values);
+
+                for (int z = 0; z < FOLDER_SIZE && id < ROWS; z++) {
+                    id++;
+                    values.clear();
+                    values.put("_id", id);
+                    values.put("title", "title");
+                    values.put("intent", String.format(INTENT_FORMAT,
+                            APPLICATION_COMPONENTS[(int) (id % APPLICATION_COMPONENTS.length)]));
+                    values.put("container", folderId);
+                    values.put("screen", 0);
+                    values.put("cellX", 0);
+                    values.put("cellY", 0);
+                    values.put("spanX", 1);
+                    values.put("spanY", 1);
+                    values.put("itemType", LauncherSettings.Favorites.ITEM_TYPE_APPLICATION);
+                    values.put("iconType", 0);
+                    mDb.insert("favorites", null, values);
+                }
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    private String[] getSelectionArgs(int q, int iteration) {
+        switch (q) {
+            case 0:
+                return new String[] {
+                        String.valueOf(LauncherSettings.Favorites.CONTAINER_DESKTOP),
+                        String.valueOf(iteration % 8) };
+            case 1:
+                return new String[] { String.valueOf(1 + (iteration % 100) * (FOLDER_SIZE + 1)) };
+            case 2:
+                return new String[] {
+                        String.valueOf(LauncherSettings.Favorites.ITEM_TYPE_FOLDER) };
+            default:
+                return new String[] { MISSING_INTENT };
+        }
+    }
+
+    private String explain(int q) {
+        final Cursor c = mDb.rawQuery("EXPLAIN QUERY PLAN SELECT _id FROM favorites WHERE "
+                + QUERY_SELECTIONS[q], getSelectionArgs(q, 0));
+        try {
+            final StringBuilder plan = new StringBuilder();
+            final int detail = c.getColumnIndexOrThrow("detail");
+            while (c.moveToNext()) {
+                plan.append(c.getString(detail)).append('\n');
+            }
+            return plan.toString();
+        } finally {
+            c.close();
+        }
+    }
+
+    /** Returns the ids query q finds for its first arguments, in id order. */
+    private ArrayList<Long> ids(int q) {
+        final ArrayList<Long> ids = new ArrayList<Long>();
+        Cursor c = mDb.query("favorites", new String[] { "_id" }, QUERY_SELECTIONS[q],
+                getSelectionArgs(q, 0), null, null, "_id");
+        try {
+            while (c.moveToNext()) {
+                ids.add(c.getLong(0));
+            }
+        } finally {
+            c.close();
+        }
+        return ids;
+    }
+
+    private int count(int q, int iteration) {
+        Cursor c = mDb.query("favorites", new String[] { "_id" }, QUERY_SELECTIONS[q],
+                getSelectionArgs(q, iteration), null, null, null);
+        try {
+            int count = 0;
+            while (c.moveToNext()) {
+                count++;
+            }
+            return count;
+        } finally {
+            c.close();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mokee.launcher;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+/**
+ * Measures Utilities.createIconBitmap throughput with 1, 2 and 4 threads rendering at once.
+ * With per-thread rendering contexts the throughput should grow with the thread count (up to
+ * the number of cores) rather than staying flat; it is logged rather than asserted, as it
+ * depends on how busy the device is.  What is asserted is that every thread renders exactly
+ * the icon a single thread does.
+ */
+public class IconRenderingBenchmark extends InstrumentationTestCase {
+
+    private static final int ICONS_PER_THREAD = 200;
+
+    public void testCreateIconBitmapThroughput() throws Exception {
+        final Context context = getInstrumentation().getTargetContext();
+        final Bitmap expected = Utilities.createIconBitmap(getIcon(), context);
+
+        // Warm up the statics and the JIT
+        runThreads(context, 1, null);
+
+        final int[] counts = new int[] { 1, 2, 4 };
+        for (int i = 0; i < counts.length; i++) {
+            final int threads = counts[i];
+            // Compared outside of the timed run, so that it only times the rendering
+            assertTrue(threads + " thread(s) rendered a different icon",
+                    runThreads(context, threads, expected));
+            final long elapsed = BenchmarkTimer.time(1, new BenchmarkTimer.Body() {
+                @Override
+                public void run(int iteration) throws Exception {
+                    runThreads(context, threads, null);
+                }
+            });
+            Log.i(BenchmarkTimer.LOG_TAG, "createIconBitmap, " + threads + " thread(s): "
+                    + BenchmarkTimer.perSecond(threads * ICONS_PER_THREAD, elapsed)
+                    + " icons/s");
+        }
+        expected.recycle();
+    }
+
+    private static Drawable getIcon() {
+        return Resources.getSystem().getDrawable(android.R.mipmap.sym_def_app_icon);
+    }
+
+    /**
+     * Renders on count threads at once.  If expected isn't null, returns whether they all
+     * rendered it; otherwise returns true.
+     */
+    private static boolean runThreads(final Context context, int count, final Bitmap expected)
+            throws Exception {
+        final boolean[] identical = new boolean[count];
+        Thread[] threads = new Thread[count];
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            threads[i] = new Thread("icon-benchmark-" + i) {
+                @Override
+                public void run() {
+                    // Each thread renders from its own drawable, like the loader pool does
+                    Drawable icon = getIcon();
+                    boolean same = true;
+                    for (int j = 0; j < ICONS_PER_THREAD; j++) {
+                        Bitmap b = Utilities.createIconBitmap(icon, context);
+                        if (expected != null) {
+                            same &= b.sameAs(expected);
+                        }
+                        b.recycle();
+                    }
+                    identical[index] = same;
+                }
+            };
+            threads[i].start();
+        }
+        boolean result = true;
+        for (int i = 0; i < count; i++) {
+            threads[i].join();
+            result &= identical[i];
+        }
+        return result;
+    }
+}
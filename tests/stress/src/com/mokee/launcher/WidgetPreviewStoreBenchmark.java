@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mokee.launcher;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+/**
+ * Times loading a page of widget previews out of a widgetpreviews.db of PNG blobs against
+ * loading the same page out of a {@link WidgetPreviewFileStore}, both into reused bitmaps the
+ * way WidgetPreviewLoader does it.  Both live in a WidgetPreviewLoader.CacheDb of their own, so
+ * the db has the real schema.  Timings are only logged; the test asserts that both give back
+ * every preview.
+ */
+public class WidgetPreviewStoreBenchmark extends InstrumentationTestCase {
+
+    private static final int PREVIEW_WIDTH = 320;
+    private static final int PREVIEW_HEIGHT = 240;
+    private static final String SIZE = PREVIEW_WIDTH + "x" + PREVIEW_HEIGHT;
+    private static final int PAGE_SIZE = 6;
+    private static final int PAGES = 10;
+    private static final int ITERATIONS = 5;
+
+    private File mDir;
+    private WidgetPreviewLoader.CacheDb mCacheDb;
+    private SQLiteDatabase mDb;
+    private WidgetPreviewFileStore mFileStore;
+    private final Bitmap[] mPage = new Bitmap[PAGE_SIZE];
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        final Context context = getInstrumentation().getTargetContext();
+        mDir = new File(context.getCacheDir(), "preview_benchmark");
+        deleteRecursively(mDir);
+        mDir.mkdirs();
+        mCacheDb = new WidgetPreviewLoader.CacheDb(context, mDir);
+        mDb = mCacheDb.getWritableDatabase();
+        mFileStore = mCacheDb.mFileStore;
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            mPage[i] = Bitmap.createBitmap(PREVIEW_WIDTH, PREVIEW_HEIGHT,
+                    Bitmap.Config.ARGB_8888);
+        }
+        fill();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCacheDb.close();
+        deleteRecursively(mDir);
+        super.tearDown();
+    }
+
+    public void testPageLoad() throws Exception {
+        // Both must find every preview, and the file store must give back the very pixels
+        // written; PNG round trips of translucent pixels aren't exact, so the db can't be held
+        // to that
+        final Bitmap expected = Bitmap.createBitmap(PREVIEW_WIDTH, PREVIEW_HEIGHT,
+                Bitmap.Config.ARGB_8888);
+        for (int page = 0; page < PAGES; page++) {
+            for (int j = 0; j < PAGE_SIZE; j++) {
+                assertNotNull(readFromDb(getName(page, j), mPage[j]));
+                assertNotNull(mFileStore.read(getName(page, j), SIZE, mPage[j]));
+                renderPreview(page, j, expected);
+                assertTrue(getName(page, j) + " differs", mPage[j].sameAs(expected));
+            }
+        }
+
+        final long db = BenchmarkTimer.timePerRun(ITERATIONS * PAGES, new BenchmarkTimer.Body() {
+            @Override
+            public void run(int iteration) {
+                final int page = iteration % PAGES;
+                for (int j = 0; j < PAGE_SIZE; j++) {
+                    readFromDb(getName(page, j), mPage[j]);
+                }
+            }
+        });
+        final long files = BenchmarkTimer.timePerRun(ITERATIONS * PAGES,
+                new BenchmarkTimer.Body() {
+            @Override
+            public void run(int iteration) {
+                final int page = iteration % PAGES;
+                for (int j = 0; j < PAGE_SIZE; j++) {
+                    mFileStore.read(getName(page, j), SIZE, mPage[j]);
+                }
+            }
+        });
+        Log.i(BenchmarkTimer.LOG_TAG, "page of " + PAGE_SIZE + " previews: db "
+                + BenchmarkTimer.formatMicros(db) + ", files "
+                + BenchmarkTimer.formatMicros(files));
+    }
+
+    private static String getName(int page, int index) {
+        return "Widget:com.example.widgets" + page + "/.Provider" + index;
+    }
+
+    /** Draws something like a widget preview: a frame with some content, the rest clear. */
+    private static void renderPreview(int page, int index, Bitmap preview) {
+        final Canvas c = new Canvas(preview);
+        final Paint paint = new Paint();
+        c.drawColor(0, PorterDuff.Mode.CLEAR);
+        paint.setColor(Color.rgb(40 * index, 20 * page, 128));
+        c.drawRect(16, 16, PREVIEW_WIDTH - 16, PREVIEW_HEIGHT - 48, paint);
+        paint.setColor(Color.WHITE);
+        paint.setTextSize(24);
+        c.drawText(getName(page, index), 24, PREVIEW_HEIGHT / 2, paint);
+    }
+
+    private void fill() {
+        final Bitmap preview = Bitmap.createBitmap(PREVIEW_WIDTH, PREVIEW_HEIGHT,
+                Bitmap.Config.ARGB_8888);
+        final ContentValues values = new ContentValues();
+        for (int page = 0; page < PAGES; page++) {
+            for (int i = 0; i < PAGE_SIZE; i++) {
+                renderPreview(page, i, preview);
+
+                final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+                preview.compress(Bitmap.CompressFormat.PNG, 100, stream);
+                values.clear();
+                values.put(WidgetPreviewLoader.CacheDb.COLUMN_NAME, getName(page, i));
+                values.put(WidgetPreviewLoader.CacheDb.COLUMN_SIZE, SIZE);
+                values.put(WidgetPreviewLoader.CacheDb.COLUMN_PREVIEW_BITMAP,
+                        stream.toByteArray());
+                mDb.insert(WidgetPreviewLoader.CacheDb.TABLE_NAME, null, values);
+
+                mFileStore.write(getName(page, i), SIZE, preview);
+            }
+        }
+    }
+
+    /** The same query and decode as WidgetPreviewLoader.readFromDb. */
+    private Bitmap readFromDb(String name, Bitmap b) {
+        Cursor result = mDb.query(WidgetPreviewLoader.CacheDb.TABLE_NAME,
+                new String[] { WidgetPreviewLoader.CacheDb.COLUMN_PREVIEW_BITMAP },
+                WidgetPreviewLoader.CacheDb.COLUMN_NAME + " = ? AND " +
+                WidgetPreviewLoader.CacheDb.COLUMN_SIZE + " = ?",
+                new String[] { name, SIZE }, null, null, null, null);
+        try {
+            if (!result.moveToFirst()) {
+                return null;
+            }
+            final byte[] blob = result.getBlob(0);
+            final BitmapFactory.Options opts = new BitmapFactory.Options();
+            opts.inBitmap = b;
+            opts.inSampleSize = 1;
+            return BitmapFactory.decodeByteArray(blob, 0, blob.length, opts);
+        } finally {
+            result.close();
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,33 @@
+# Copyright (C) 2013 The Android Open Source Project
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+LOCAL_PATH := $(call my-dir)
+include $(CLEAR_VARS)
+
+# We only want this library built for tests.
+LOCAL_MODULE_TAGS := tests
+
+# The launcher classes that only use plain Java, tested on the host.  Run with e.g.
+#   java -cp MoKeeLauncherUnitTests.jar:junit.jar junit.textui.TestRunner \
+#       com.mokee.launcher.OccupancyGridTest
+LOCAL_SRC_FILES := $(call all-java-files-under, src) \
+    $(call all-java-files-under, ../common/src) \
+    ../../src/com/mokee/launcher/OccupancyGrid.java \
+    ../../src/com/mokee/launcher/ReorderSolver.java
+
+LOCAL_JAVA_LIBRARIES := junit
+
+LOCAL_MODULE := MoKeeLauncherUnitTests
+
+include $(BUILD_HOST_JAVA_LIBRARY)
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mokee.launcher;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of OccupancyGrid, mostly of the vacant regions it finds.
+ */
+public class OccupancyGridTest extends TestCase {
+
+    private final int[] mVacant = new int[2];
+
+    public void testFindVacantCellInEmptyGrid() {
+        final OccupancyGrid grid = new OccupancyGrid(4, 4);
+        assertTrue(grid.findVacantCell(mVacant, 2, 2));
+        assertVacant(0, 0);
+    }
+
+    public void testFindVacantCellScansRowsFirst() {
+        final OccupancyGrid grid = new OccupancyGrid(3, 3);
+        grid.markRegion(0, 0, 2, 1, true);
+        assertTrue(grid.findVacantCell(mVacant, 1, 1));
+        assertVacant(2, 0);
+        grid.setOccupied(2, 0, true);
+        assertTrue(grid.findVacantCell(mVacant, 1, 1));
+        assertVacant(0, 1);
+    }
+
+    public void testFindVacantCellChecksWholeSpan() {
+        // Only the bottom right cell of the 2x2 region at 0, 0 is occupied.  CellLayout used
+        // to check all but the last row and column of a span, and took that region
+        final OccupancyGrid grid = new OccupancyGrid(4, 3);
+        grid.setOccupied(1, 1, true);
+        assertTrue(grid.findVacantCell(mVacant, 2, 2));
+        assertVacant(2, 0);
+
+        // The last column of a 3x1 span at 0, 0
+        grid.clear();
+        grid.setOccupied(2, 0, true);
+        assertTrue(grid.findVacantCell(mVacant, 3, 1));
+        assertVacant(0, 1);
+    }
+
+    public void testFindVacantCellStaysInGrid() {
+        // Only the last column is vacant, which is too narrow for a 2x1 region.  CellLayout
+        // used to take the region hanging out of the grid at 2, 0, and to index out of bounds
+        // for wider spans
+        final OccupancyGrid grid = new OccupancyGrid(3, 2);
+        grid.markRegion(0, 0, 2, 2, true);
+        assertFalse(grid.findVacantCell(mVacant, 2, 1));
+        assertFalse(grid.findVacantCell(mVacant, 3, 1));
+        assertFalse(grid.findVacantCell(mVacant, 1, 3));
+        assertTrue(grid.findVacantCell(mVacant, 1, 2));
+        assertVacant(2, 0);
+    }
+
+    public void testFindVacantCellInFullGrid() {
+        final OccupancyGrid grid = new OccupancyGrid(4, 4);
+        grid.markRegion(0, 0, 4, 4, true);
+        assertFalse(grid.findVacantCell(mVacant, 1, 1));
+    }
+
+    public void testFindVacantCellInWideGrid() {
+        // Spans reaching the last of the 64 bits of a row
+        final OccupancyGrid grid = new OccupancyGrid(OccupancyGrid.MAX_COUNT_X, 2);
+        grid.markRegion(0, 0, OccupancyGrid.MAX_COUNT_X - 1, 1, true);
+        assertTrue(grid.findVacantCell(mVacant, 1, 1));
+        assertVacant(OccupancyGrid.MAX_COUNT_X - 1, 0);
+        assertTrue(grid.findVacantCell(mVacant, OccupancyGrid.MAX_COUNT_X, 1));
+        assertVacant(0, 1);
+        assertFalse(grid.findVacantCell(mVacant, 2, 2));
+    }
+
+    public void testMarkRegionClipsToGrid() {
+        final OccupancyGrid grid = new OccupancyGrid(3, 3);
+        grid.markRegion(2, 2, 2, 2, true);
+        assertTrue(grid.isOccupied(2, 2));
+        assertEquals(2, grid.getLastOccupiedColumn(0, 0, 3, 3));
+        grid.markRegion(2, 2, 2, 2, false);
+        assertTrue(grid.isRegionVacant(0, 0, 3, 3));
+        assertFalse(grid.isRegionVacant(2, 2, 2, 1));
+    }
+
+    private void assertVacant(int x, int y) {
+        assertEquals("vacant x", x, mVacant[0]);
+        assertEquals("vacant y", y, mVacant[1]);
+    }
+}
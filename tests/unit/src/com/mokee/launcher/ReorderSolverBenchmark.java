@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mokee.launcher;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+import java.util.logging.Logger;
+
+/**
+ * Times the reorder solver over random drag paths, solving at every step the way
+ * CellLayout.createArea does while an item is dragged over a layout: a swap solution and a
+ * solution that shuffles nothing.  Every solution found is checked to lay the items out
+ * within the grid without overlapping.
+ */
+public class ReorderSolverBenchmark extends TestCase {
+
+    private static final int CELL_SIZE = 100;
+    private static final int PATH_LENGTH = 200;
+    private static final int WARMUP_ITERATIONS = 20;
+    private static final int ITERATIONS = 100;
+    private static final long SEED = 42;
+    private static final Logger LOG = Logger.getLogger(ReorderSolverBenchmark.class.getName());
+
+    private final Random mRandom = new Random(SEED);
+
+    public void testDenseIcons() throws Exception {
+        // A full 4x4 page of icons, but for the one picked up
+        final int[][] items = new int[16][];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = new int[] { i % 4, i / 4, 1, 1 };
+        }
+        run("dense 4x4 icons", 4, 4, items, 0, 1, 1);
+    }
+
+    public void testDenseLargeGrid() throws Exception {
+        final int[][] items = new int[64][];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = new int[] { i % 8, i / 8, 1, 1 };
+        }
+        run("dense 8x8 icons", 8, 8, items, 27, 1, 1);
+    }
+
+    public void testLargeWidgets() throws Exception {
+        // A 4x2 widget dragged over a page of 2x2 widgets and icons
+        final int[][] items = new int[][] {
+            { 0, 0, 4, 2 },
+            { 0, 2, 2, 2 }, { 2, 2, 2, 2 },
+            { 0, 4, 1, 1 }, { 1, 4, 1, 1 }, { 2, 4, 2, 2 },
+            { 0, 5, 1, 1 }, { 1, 5, 1, 1 },
+        };
+        run("4x2 widget over widgets", 4, 6, items, 0, 2, 1);
+    }
+
+    private void run(String name, int countX, int countY, final int[][] items,
+            final int dragItem, final int minSpanX, final int minSpanY) throws Exception {
+        final OccupancyGrid occupied = new OccupancyGrid(countX, countY);
+        final ReorderSolver solver = new ReorderSolver(occupied,
+                new OccupancyGrid(countX, countY));
+        solver.setCellGeometry(0, 0, CELL_SIZE, CELL_SIZE, 0, 0);
+        for (int i = 0; i < items.length; i++) {
+            final int[] item = items[i];
+            solver.addItem(item[0], item[1], item[2], item[3], true);
+            // The dragged item is picked up, so its cells are vacant
+            if (i != dragItem) {
+                occupied.markRegion(item[0], item[1], item[2], item[3], true);
+            }
+        }
+        final int spanX = items[dragItem][2];
+        final int spanY = items[dragItem][3];
+
+        final int[][] pathsX = new int[WARMUP_ITERATIONS + ITERATIONS][PATH_LENGTH];
+        final int[][] pathsY = new int[WARMUP_ITERATIONS + ITERATIONS][PATH_LENGTH];
+        for (int i = 0; i < pathsX.length; i++) {
+            makePath(countX * CELL_SIZE, countY * CELL_SIZE, pathsX[i], pathsY[i]);
+        }
+        final int[] direction = new int[2];
+        final ReorderSolver.ItemConfiguration swap = new ReorderSolver.ItemConfiguration();
+        final ReorderSolver.ItemConfiguration noShuffle = new ReorderSolver.ItemConfiguration();
+        final int[] solutions = new int[1];
+        final BenchmarkTimer.Body drag = new BenchmarkTimer.Body() {
+            public void run(int iteration) {
+                final int[] pathX = pathsX[iteration];
+                final int[] pathY = pathsY[iteration];
+                for (int step = 1; step < PATH_LENGTH; step++) {
+                    ReorderSolver.computeDirectionVector(pathX[step] - pathX[step - 1],
+                            pathY[step] - pathY[step - 1], direction);
+                    solver.simpleSwap(pathX[step], pathY[step], minSpanX, minSpanY, spanX,
+                            spanY, direction, dragItem, true, swap);
+                    solver.findConfigurationNoShuffle(pathX[step], pathY[step], minSpanX,
+                            minSpanY, spanX, spanY, noShuffle);
+                    if (swap.isSolution || noShuffle.isSolution) {
+                        solutions[0]++;
+                    }
+                }
+            }
+        };
+
+        // Check the solutions of the warmup paths, then time the rest without checking
+        final OccupancyGrid check = new OccupancyGrid(countX, countY);
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            final int[] pathX = pathsX[i];
+            final int[] pathY = pathsY[i];
+            for (int step = 1; step < PATH_LENGTH; step++) {
+                ReorderSolver.computeDirectionVector(pathX[step] - pathX[step - 1],
+                        pathY[step] - pathY[step - 1], direction);
+                solver.simpleSwap(pathX[step], pathY[step], minSpanX, minSpanY, spanX,
+                        spanY, direction, dragItem, true, swap);
+                if (swap.isSolution) {
+                    assertValid(name, swap, dragItem, check);
+                }
+                solver.findConfigurationNoShuffle(pathX[step], pathY[step], minSpanX,
+                        minSpanY, spanX, spanY, noShuffle);
+                if (noShuffle.isSolution) {
+                    assertValid(name, noShuffle, dragItem, check);
+                }
+            }
+        }
+
+        final long nanos = BenchmarkTimer.time(ITERATIONS, new BenchmarkTimer.Body() {
+            public void run(int iteration) throws Exception {
+                drag.run(WARMUP_ITERATIONS + iteration);
+            }
+        });
+        final int steps = ITERATIONS * (PATH_LENGTH - 1);
+        assertTrue(name + ": no step solved", solutions[0] > 0);
+        LOG.info(name + ": " + BenchmarkTimer.formatMicros(nanos / steps)
+                + " per drag step, " + solutions[0] + " of " + steps + " steps solved");
+    }
+
+    /**
+     * Asserts that the dragged item and every other item are within the grid, and that none
+     * of them overlap.
+     */
+    private static void assertValid(String name, ReorderSolver.ItemConfiguration solution,
+            int dragItem, OccupancyGrid check) {
+        check.clear();
+        markValid(name + ": dragged item", check, solution.dragViewX, solution.dragViewY,
+                solution.dragViewSpanX, solution.dragViewSpanY);
+        for (int i = 0; i < solution.itemCount; i++) {
+            if (i != dragItem) {
+                markValid(name + ": item " + i, check, solution.cellX[i], solution.cellY[i],
+                        solution.spanX[i], solution.spanY[i]);
+            }
+        }
+    }
+
+    private static void markValid(String what, OccupancyGrid check, int cellX, int cellY,
+            int spanX, int spanY) {
+        assertTrue(what + " overlaps or is outside of the grid at " + cellX + ", " + cellY,
+                check.isRegionVacant(cellX, cellY, spanX, spanY));
+        check.markRegion(cellX, cellY, spanX, spanY, true);
+    }
+
+    /** A drag path wandering across the layout the way a finger does, a few pixels a step. */
+    private void makePath(int width, int height, int[] pathX, int[] pathY) {
+        int x = mRandom.nextInt(width);
+        int y = mRandom.nextInt(height);
+        for (int i = 0; i < pathX.length; i++) {
+            x = Math.max(0, Math.min(width - 1, x + mRandom.nextInt(41) - 20));
+            y = Math.max(0, Math.min(height - 1, y + mRandom.nextInt(41) - 20));
+            pathX[i] = x;
+            pathY[i] = y;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mokee.launcher;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of where the reorder solver puts the dragged item and the items it makes room for.
+ * Cells are 100 pixels square, without padding or gaps, so the center of cell (x, y) is at
+ * (x * 100 + 50, y * 100 + 50).
+ */
+public class ReorderSolverTest extends TestCase {
+
+    private static final int CELL_SIZE = 100;
+    private static final int[] RIGHT = new int[] { 1, 0 };
+    private static final int[] DOWN = new int[] { 0, 1 };
+
+    private OccupancyGrid mOccupied;
+    private ReorderSolver mSolver;
+    private final ReorderSolver.ItemConfiguration mSolution =
+            new ReorderSolver.ItemConfiguration();
+
+    private void setUpGrid(int countX, int countY) {
+        mOccupied = new OccupancyGrid(countX, countY);
+        mSolver = new ReorderSolver(mOccupied, new OccupancyGrid(countX, countY));
+        mSolver.setCellGeometry(0, 0, CELL_SIZE, CELL_SIZE, 0, 0);
+    }
+
+    /** Adds an item to the grid, and occupies its cells unless it is being dragged. */
+    private int addItem(int cellX, int cellY, int spanX, int spanY, boolean canReorder,
+            boolean dragged) {
+        if (!dragged) {
+            mOccupied.markRegion(cellX, cellY, spanX, spanY, true);
+        }
+        return mSolver.addItem(cellX, cellY, spanX, spanY, canReorder);
+    }
+
+    private int addIcon(int cellX, int cellY) {
+        return addItem(cellX, cellY, 1, 1, true, false);
+    }
+
+    private static int center(int cell) {
+        return cell * CELL_SIZE + CELL_SIZE / 2;
+    }
+
+    private ReorderSolver.ItemConfiguration swap(int pixelX, int pixelY, int minSpanX,
+            int minSpanY, int spanX, int spanY, int[] direction, int dragItem) {
+        // The solver turns the direction around while it looks for a solution
+        final int[] directionCopy = new int[] { direction[0], direction[1] };
+        return mSolver.simpleSwap(pixelX, pixelY, minSpanX, minSpanY, spanX, spanY,
+                directionCopy, dragItem, true, mSolution);
+    }
+
+    public void testSwapPushesRowInDirection() {
+        setUpGrid(4, 4);
+        final int first = addIcon(0, 0);
+        final int second = addIcon(1, 0);
+        final int third = addIcon(2, 0);
+        swap(center(1), center(0), 1, 1, 1, 1, RIGHT, -1);
+
+        assertDrop(1, 0, 1, 1);
+        assertCell(first, 0, 0);
+        assertCell(second, 2, 0);
+        assertCell(third, 3, 0);
+    }
+
+    public void testSwapPushesOppositeWayAtEdge() {
+        setUpGrid(4, 4);
+        final int first = addIcon(1, 0);
+        final int second = addIcon(2, 0);
+        final int third = addIcon(3, 0);
+        // There is no room to the right, so the icon in the way goes left
+        swap(center(1), center(0), 1, 1, 1, 1, RIGHT, -1);
+
+        assertDrop(1, 0, 1, 1);
+        assertCell(first, 0, 0);
+        assertCell(second, 2, 0);
+        assertCell(third, 3, 0);
+    }
+
+    public void testSwapPushesWidgetDown() {
+        setUpGrid(4, 4);
+        final int widget = addItem(0, 1, 2, 2, true, false);
+        final int icon = addIcon(3, 3);
+        // A 2x1 item dropped over the top row of the widget
+        swap(CELL_SIZE, center(1), 2, 1, 2, 1, DOWN, -1);
+
+        assertDrop(0, 1, 2, 1);
+        assertCell(widget, 0, 2);
+        assertCell(icon, 3, 3);
+    }
+
+    public void testSwapIgnoresDraggedItem() {
+        setUpGrid(4, 4);
+        final int dragged = addItem(0, 0, 1, 1, true, true);
+        final int other = addIcon(1, 0);
+        swap(center(1), center(0), 1, 1, 1, 1, RIGHT, dragged);
+
+        assertDrop(1, 0, 1, 1);
+        assertCell(dragged, 1, 0);
+        assertCell(other, 2, 0);
+    }
+
+    public void testSwapDoesNotMoveFixedItem() {
+        setUpGrid(4, 4);
+        final int fixed = addItem(1, 0, 1, 1, false, false);
+        swap(center(1), center(0), 1, 1, 1, 1, RIGHT, -1);
+
+        assertFalse(mSolution.isSolution);
+        assertCell(fixed, 1, 0);
+    }
+
+    public void testSwapShrinksDraggedItem() {
+        setUpGrid(2, 2);
+        addItem(1, 1, 1, 1, false, false);
+        // A 2x2 widget that can shrink to 1x1 can't cover the fixed icon; shrinking it one
+        // column first gives a 1x2 widget next to the icon
+        swap(60, 60, 1, 1, 2, 2, RIGHT, -1);
+
+        assertDrop(0, 0, 1, 2);
+    }
+
+    public void testNoShuffleTakesNearestVacantCell() {
+        setUpGrid(4, 4);
+        final int icon = addIcon(0, 0);
+        // Just below the center of the occupied cell, so the cell below it is nearest
+        mSolver.findConfigurationNoShuffle(center(0), center(0) + 10, 1, 1, 1, 1, mSolution);
+
+        assertDrop(0, 1, 1, 1);
+        assertCell(icon, 0, 0);
+    }
+
+    public void testNoShuffleGrowsIntoVacantSpan() {
+        setUpGrid(3, 3);
+        // All but the last column is taken, so a 2x2 widget that can shrink to 1x1 gets the
+        // tallest region of that column at the point
+        addItem(0, 0, 2, 3, true, false);
+        mSolver.findConfigurationNoShuffle(250, 100, 1, 1, 2, 2, mSolution);
+
+        assertDrop(2, 0, 1, 2);
+    }
+
+    public void testNoShuffleInFullGrid() {
+        setUpGrid(2, 2);
+        addItem(0, 0, 2, 2, true, false);
+        mSolver.findConfigurationNoShuffle(center(0), center(0), 1, 1, 1, 1, mSolution);
+
+        assertFalse(mSolution.isSolution);
+    }
+
+    public void testDirectionVector() {
+        final int[] direction = new int[2];
+        ReorderSolver.computeDirectionVector(10, 1, direction);
+        assertEquals(1, direction[0]);
+        assertEquals(0, direction[1]);
+        ReorderSolver.computeDirectionVector(-10, -10, direction);
+        assertEquals(-1, direction[0]);
+        assertEquals(-1, direction[1]);
+        ReorderSolver.computeDirectionVector(1, -10, direction);
+        assertEquals(0, direction[0]);
+        assertEquals(-1, direction[1]);
+    }
+
+    private void assertDrop(int cellX, int cellY, int spanX, int spanY) {
+        assertTrue("solution", mSolution.isSolution);
+        assertEquals("drop x", cellX, mSolution.dragViewX);
+        assertEquals("drop y", cellY, mSolution.dragViewY);
+        assertEquals("drop span x", spanX, mSolution.dragViewSpanX);
+        assertEquals("drop span y", spanY, mSolution.dragViewSpanY);
+    }
+
+    private void assertCell(int item, int cellX, int cellY) {
+        assertEquals("x of item " + item, cellX, mSolution.cellX[item]);
+        assertEquals("y of item " + item, cellY, mSolution.cellY[item]);
+    }
+}